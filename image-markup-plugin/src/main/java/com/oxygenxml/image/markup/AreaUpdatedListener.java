@@ -4,6 +4,10 @@ import java.awt.Rectangle;
 
 /**
  * Receives notifications when an existing area is modified. 
+ * <p>
+ * The listeners write the changes in the document. To only observe the 
+ * changes of the zones, with one event for every drag or bulk operation, use 
+ * a {@link ZoneChangeListener}.
  *  
  * @author alex_jitianu
  */
@@ -20,8 +24,9 @@ public interface AreaUpdatedListener {
    * A new rectangle was added.
    * 
    * @param newArea The new added rectangle.
-   * @param closestArea An already existing rectangle that is closest to the new one.
-   * It can be used as a reference for inserting the new one.
+   * @param closestArea The existing rectangle that precedes the new one in reading order.
+   * It can be used as a reference for inserting the new one. <code>null</code> if the
+   * new one comes first.
    */
   void rectangleAdded(Rectangle newArea, Rectangle closestArea);
 }
@@ -1,5 +1,8 @@
 package com.oxygenxml.image.markup;
 
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.GridLayout;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
@@ -7,29 +10,52 @@ import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JSlider;
 import javax.swing.JTextArea;
+import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.PopupMenuEvent;
@@ -51,9 +77,41 @@ import ro.sync.exml.workspace.api.standalone.StandalonePluginWorkspace;
 import ro.sync.util.URLUtil;
 import ro.sync.util.editorvars.EditorVariables;
 
+import com.oxygenxml.image.markup.controller.EditorState;
+import com.oxygenxml.image.markup.controller.EditorStateCache;
 import com.oxygenxml.image.markup.controller.ImageScaleSupport;
 import com.oxygenxml.image.markup.controller.ScaleListener;
 import com.oxygenxml.image.markup.decorator.RectangleImageDecorator;
+import com.oxygenxml.image.markup.detect.Binarizer;
+import com.oxygenxml.image.markup.detect.ContentSnapper;
+import com.oxygenxml.image.markup.detect.IntegralImage;
+import com.oxygenxml.image.markup.detect.LayoutDetector;
+import com.oxygenxml.image.markup.detect.SkewDetector;
+import com.oxygenxml.image.markup.enhance.Enhancement;
+import com.oxygenxml.image.markup.iiif.AnnotationExporter;
+import com.oxygenxml.image.markup.image.ImageDecoders;
+import com.oxygenxml.image.markup.image.ImageDimensionProbe;
+import com.oxygenxml.image.markup.image.ImageHandle;
+import com.oxygenxml.image.markup.image.ReducedImage;
+import com.oxygenxml.image.markup.ocr.OCRLayoutReader;
+import com.oxygenxml.image.markup.ocr.OCRLayoutReader.Level;
+import com.oxygenxml.image.markup.ocr.OCRZoneMapper;
+import com.oxygenxml.image.markup.tei.FacsIndex;
+import com.oxygenxml.image.markup.tei.IdAllocator;
+import com.oxygenxml.image.markup.tei.SurfaceExtentsUpdater;
+import com.oxygenxml.image.markup.tei.SurfaceZoneScanner;
+import com.oxygenxml.image.markup.tei.TextEdit;
+import com.oxygenxml.image.markup.tei.TextPageUtil;
+import com.oxygenxml.image.markup.tei.ZoneIdAssigner;
+import com.oxygenxml.image.markup.tei.ZoneInserter;
+import com.oxygenxml.image.markup.tei.ZoneNester;
+import com.oxygenxml.image.markup.tei.ZoneReorderer;
+import com.oxygenxml.image.markup.zones.OverlapAnalyzer;
+import com.oxygenxml.image.markup.zones.ReadingOrder;
+import com.oxygenxml.image.markup.zones.ZoneIndex;
+import com.oxygenxml.image.markup.zones.ZoneLevelOfDetail;
+import com.oxygenxml.image.markup.zones.ZoneRelation;
+import com.oxygenxml.image.markup.zones.ZoneSnapshot;
 
 /**
  * The image controller that is aware of the TEI vocabulary.
@@ -67,6 +125,23 @@ public class ImageController {
    * Decorator installed on the panel.
    */
   private RectangleImageDecorator decorator;
+  /**
+   * The previews of the document surfaces. <code>null</code> if not presented.
+   */
+  private SurfaceStrip surfaceStrip;
+  /**
+   * The document whose surfaces the strip presents. <code>null</code> if none.
+   */
+  private URL stripLocation;
+  /**
+   * The surfaces presented in the strip, as scanned. <code>null</code> if none.
+   */
+  private List<SurfaceZoneScanner.Surface> stripSurfaces;
+  /**
+   * Incremented on every refresh of the strip, so an older scan that ends 
+   * later is dropped.
+   */
+  private int stripGeneration;
   /**
    * Oxygen access.
    */
@@ -95,6 +170,7 @@ public class ImageController {
         } catch (XPathException e1) {
           e1.printStackTrace();
         }
+        refreshSurfaceStrip();
     }
     }
   });
@@ -134,14 +210,96 @@ public class ImageController {
   };
   
   private ImageScaleSupport imageScaleSupport;
+  /**
+   * The links between the elements and the zones of the installed text page. 
+   * <code>null</code> if there is no text page.
+   */
+  private FacsIndex facsIndex;
+  /**
+   * The zone whose referencing elements were last visited from the view.
+   */
+  private Rectangle visitedZone;
+  /**
+   * The index of the referencing element visited last.
+   */
+  private int visitedReference;
   /**
    * The loaded image.
    */
   private String selectedImageToLoad;
+  /**
+   * The number of editors whose viewer state is kept.
+   */
+  private static final int MAX_EDITOR_STATES = 20;
+  /**
+   * The number of editors whose decoded image is kept.
+   */
+  private static final int MAX_EDITOR_IMAGES = 4;
+  /**
+   * The viewer state of the editors that are not selected, so going back to 
+   * an editor shows its image and zones without decoding or scanning them again.
+   */
+  private EditorStateCache editorStates = new EditorStateCache(MAX_EDITOR_STATES, MAX_EDITOR_IMAGES);
   /**
    * The pattern for generating IDs.
    */
   private String idPattern;
+  /**
+   * <code>true</code> if the zones are adjusted to the image content while they 
+   * are created or resized.
+   */
+  private boolean snapEnabled = false;
+  /**
+   * Snapping support for the loaded image. Computed once per image.
+   */
+  private ContentSnapper snapper;
+  /**
+   * The generation of the image for which {@link #snapper} was computed, -1 
+   * if none.
+   */
+  private int snapperGeneration = -1;
+  /**
+   * The zone granularities that can be imported from an OCR layout.
+   */
+  private static final String[] OCR_LEVEL_CHOICES = new String[] {"Blocks", "Lines", "Words", "Blocks, lines and words"};
+  /**
+   * Inserts all the candidate zones in the document.
+   */
+  private final AbstractAction acceptCandidatesAction = new AbstractAction("Accept") {
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      List<Rectangle> candidates = new ArrayList<Rectangle>(decorator.getCandidateAreas());
+      setCandidates(Collections.<Rectangle>emptyList());
+      insertInReadingOrder(candidates);
+    }
+  };
+  /**
+   * Activates the next zone, in reading order.
+   */
+  private final AbstractAction nextZoneAction = new AbstractAction("Next zone") {
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      activateZone(1);
+    }
+  };
+  /**
+   * Activates the previous zone, in reading order.
+   */
+  private final AbstractAction previousZoneAction = new AbstractAction("Previous zone") {
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      activateZone(-1);
+    }
+  };
+  /**
+   * Discards all the candidate zones.
+   */
+  private final AbstractAction discardCandidatesAction = new AbstractAction("Discard") {
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      setCandidates(Collections.<Rectangle>emptyList());
+    }
+  };
   
   /**
    * Constructor.
@@ -152,21 +310,35 @@ public class ImageController {
     timer.setRepeats(false);
     reloadAreasTimer.setRepeats(false);
     this.imageViewerPanel = viewerPanel;
+    acceptCandidatesAction.putValue(Action.SHORT_DESCRIPTION, "Inserts the detected zones in the document.");
+    acceptCandidatesAction.setEnabled(false);
+    discardCandidatesAction.putValue(Action.SHORT_DESCRIPTION, "Discards the detected zones.");
+    discardCandidatesAction.setEnabled(false);
+    
+    // The zones are visited in reading order from the keyboard.
+    JComponent placeholder = viewerPanel.getPlaceholder();
+    placeholder.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(KeyStroke.getKeyStroke(KeyEvent.VK_N, 0), "nextZone");
+    placeholder.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(KeyStroke.getKeyStroke(KeyEvent.VK_P, 0), "previousZone");
+    placeholder.getActionMap().put("nextZone", nextZoneAction);
+    placeholder.getActionMap().put("previousZone", previousZoneAction);
     
     imageScaleSupport = new ImageScaleSupport(viewerPanel.getPlaceholder());
     imageScaleSupport.addScaleListener(new ScaleListener() {
       @Override
       public void scaleEvent(double oldScale, double newScale) {
-        // The scale has changed. Reload the areas.
-        try {
-          reloadAreas(null);
-          syncZone();
-        } catch (XPathException e) {
-          e.printStackTrace();
-        }
+        // The zones are in image coordinates, the ones around the new 
+        // viewport are loaded when painted.
+        syncZone();
       }
     });
     viewerPanel.setImageScaleSupport(imageScaleSupport);
+    viewerPanel.addPropertyChangeListener(ImageViewerPanel.IMAGE_PROPERTY, new PropertyChangeListener() {
+      @Override
+      public void propertyChange(PropertyChangeEvent evt) {
+        // A remote image is read in the background, its ink only afterwards.
+        updateSnapper();
+      }
+    });
 
     decorator = RectangleImageDecorator.install(imageViewerPanel);
     decorator.addAreaUpdateListener(new AreaUpdatedListener() {
@@ -251,8 +423,16 @@ public class ImageController {
     });
 
     imageViewerPanel.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        if (SwingUtilities.isLeftMouseButton(e) && e.getClickCount() == 1) {
+          showReferences(imageScaleSupport.getOriginal(e.getPoint()));
+        }
+      }
       @Override
       public void mousePressed(MouseEvent e) {
+        // For the zone navigation keys.
+        imageViewerPanel.requestFocusInWindow();
         showPopup(e);
       }
       @Override
@@ -313,6 +493,7 @@ public class ImageController {
       public void editorSelected(URL editorLocation) {
         if (installedEditor != null) {
           installedEditor.removeEditorListener(editorListener);
+          saveEditorState(installedEditor);
           uninstallTextPageListeners(installedEditor);
           installedEditor = null;
         }
@@ -320,9 +501,11 @@ public class ImageController {
         if (editorLocation != null) {
           WSEditor editorAccess = pluginWorkspaceAccess.getEditorAccess(editorLocation, PluginWorkspace.MAIN_EDITING_AREA);
           editorAccess.addEditorListener(editorListener);
+          restoreEditorState(editorAccess);
           installTextPageListeners(editorAccess);
           installedEditor = editorAccess;
         }
+        refreshSurfaceStrip();
       }
 
       @Override
@@ -330,12 +513,104 @@ public class ImageController {
         WSEditor editorAccess = pluginWorkspaceAccess.getEditorAccess(editorLocation, PluginWorkspace.MAIN_EDITING_AREA);
         editorAccess.removeEditorListener(editorListener);
         uninstallTextPageListeners(editorAccess);
+        editorStates.remove(editorLocation.toString());
+        if (editorAccess == installedEditor) {
+          // The image of the closed document is released right away.
+          imageViewerPanel.closeImage();
+          selectedImageToLoad = null;
+          installedEditor = null;
+        }
 
         return true;
       }
     }, PluginWorkspace.MAIN_EDITING_AREA);
   }
 
+  /**
+   * Keeps what the viewer shows for an editor that is no longer selected. The 
+   * image is taken out of the viewer, not released.
+   * 
+   * @param editorAccess The editor.
+   */
+  private void saveEditorState(WSEditor editorAccess) {
+    WSEditorPage currentPage = editorAccess.getCurrentPage();
+    URL imageURL = imageViewerPanel.getImageURL();
+    if (!(currentPage instanceof WSXMLTextEditorPage) || imageURL == null) {
+      return;
+    }
+    JTextArea textComponent = (JTextArea) ((WSXMLTextEditorPage) currentPage).getTextComponent();
+    EditorState state = new EditorState(textComponent.getDocument());
+    state.setView(imageScaleSupport.getScale(), imageScaleSupport.getQuadrants(), 
+        imageScaleSupport.getSkewAngle(), imageViewerPanel.getViewPosition());
+    // A pending reload means the index is behind our own changes.
+    if (!reloadAreasTimer.isRunning()) {
+      FacsIndex links = facsIndex != null && facsIndex.getDocument() == textComponent.getDocument() ? facsIndex : null;
+      state.setZones(decorator.getZoneIndex(), links);
+      if (links != null) {
+        // The state keeps the index listening to the document.
+        facsIndex = null;
+      }
+    }
+    state.setImage(selectedImageToLoad, imageURL, imageViewerPanel.detachImage());
+    selectedImageToLoad = null;
+    editorStates.put(editorAccess.getEditorLocation().toString(), state);
+  }
+
+  /**
+   * Shows what the viewer showed for an editor when it was last selected. 
+   * Without a kept state, the viewer is emptied.
+   * 
+   * @param editorAccess The selected editor.
+   */
+  private void restoreEditorState(WSEditor editorAccess) {
+    EditorState state = editorStates.take(editorAccess.getEditorLocation().toString());
+    WSEditorPage currentPage = editorAccess.getCurrentPage();
+    if (state == null || !(currentPage instanceof WSXMLTextEditorPage)) {
+      if (state != null) {
+        state.dispose();
+      }
+      imageViewerPanel.closeImage();
+      selectedImageToLoad = null;
+      return;
+    }
+    state.detach();
+    ZoneIndex zones = state.getZones();
+    if (facsIndex != null) {
+      facsIndex.getDocument().removeDocumentListener(facsIndex);
+    }
+    // Still listening to the document, so still valid.
+    facsIndex = state.getFacsIndex();
+    visitedZone = null;
+
+    selectedImageToLoad = state.getImageName();
+    ImageHandle image = state.takeImage();
+    try {
+      if (image != null) {
+        imageViewerPanel.showImage(image);
+        updateSnapper();
+      } else {
+        openImage(currentPage, state.getImageURL());
+        // Already read from the document.
+        zones = null;
+      }
+      imageScaleSupport.setScale(state.getScale());
+      if (state.getQuadrants() != 0 || state.getSkewAngle() != 0) {
+        imageScaleSupport.setRotation(state.getQuadrants(), state.getSkewAngle());
+      }
+      if (zones != null) {
+        decorator.setZoneIndex(zones);
+      } else if (image != null) {
+        // The document changed meanwhile.
+        reloadAreas(currentPage);
+      }
+      if (state.getViewPosition() != null) {
+        imageViewerPanel.setViewPosition(state.getViewPosition());
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
   /**
    * Install sync listener on the text page of the given editor.
    * 
@@ -350,6 +625,16 @@ public class ImageController {
       textComponent.addCaretListener(caretListener);
       textComponent.getDocument().removeDocumentListener(documentListener);
       textComponent.getDocument().addDocumentListener(documentListener);
+      
+      if (facsIndex == null || facsIndex.getDocument() != textComponent.getDocument()) {
+        if (facsIndex != null) {
+          facsIndex.getDocument().removeDocumentListener(facsIndex);
+        }
+        // Scanned on the first caret move.
+        facsIndex = new FacsIndex(textComponent.getDocument());
+        textComponent.getDocument().addDocumentListener(facsIndex);
+        visitedZone = null;
+      }
     }
   }
 
@@ -365,25 +650,57 @@ public class ImageController {
 
       textComponent.removeCaretListener(caretListener);
       textComponent.getDocument().removeDocumentListener(documentListener);
+      
+      if (facsIndex != null && facsIndex.getDocument() == textComponent.getDocument()) {
+        textComponent.getDocument().removeDocumentListener(facsIndex);
+        facsIndex = null;
+        visitedZone = null;
+      }
     }
   }
 
   /**
    * Identify the current active zone in the editor and paint it accordingly in 
-   * the viewer.
+   * the viewer. The caret may be in a zone or in an element that points to a 
+   * zone through <code>facs</code> or <code>corresp</code>.
    */
   protected void syncZone() {
     WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
-    if (editorAccess != null && editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage) {
+    if (facsIndex != null && editorAccess != null && editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage) {
       WSXMLTextEditorPage editorPage = (WSXMLTextEditorPage) editorAccess.getCurrentPage();
-
-      try {
-        Object[] zones = editorPage.evaluateXPath("for $zone in ancestor-or-self::zone[1] return string-join(($zone/@ulx, $zone/@uly, $zone/@lrx, $zone/@lry), ',')");
-        if (zones != null && zones.length > 0) {
-          select((String) zones[0]);
-        }
-      } catch (XPathException e) {
-        e.printStackTrace();
+      // No XPath, the links are indexed.
+      Rectangle zone = facsIndex.getLinkedZone(editorPage.getCaretOffset());
+      if (zone != null) {
+        decorator.setActive(zone);
+      }
+    }
+  }
+  
+  /**
+   * Selects in the editor an element that points to the zone under the given 
+   * point. Clicking the same zone again visits the next element.
+   * 
+   * @param point A point, in image coordinates.
+   */
+  private void showReferences(Point point) {
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (facsIndex == null || editorAccess == null || !(editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage)) {
+      return;
+    }
+    Rectangle zone = null;
+    for (Rectangle rectangle : decorator.getAreas()) {
+      // The innermost zone.
+      if (rectangle.contains(point) && (zone == null || zone.contains(rectangle))) {
+        zone = rectangle;
+      }
+    }
+    if (zone != null) {
+      List<int[]> references = facsIndex.getReferences(zone);
+      if (!references.isEmpty()) {
+        visitedReference = zone.equals(visitedZone) ? (visitedReference + 1) % references.size() : 0;
+        visitedZone = new Rectangle(zone);
+        int[] reference = references.get(visitedReference);
+        ((WSXMLTextEditorPage) editorAccess.getCurrentPage()).select(reference[0], reference[1]);
       }
     }
   }
@@ -473,7 +790,7 @@ public class ImageController {
     }
     
     if (toOpen == null) {
-      toOpen = pluginWorkspaceAccess.chooseURL("Image Chooser", new String[] {"jpeg", "jpg", "png"}, "Image files");
+      toOpen = pluginWorkspaceAccess.chooseURL("Image Chooser", ImageDecoders.getFileSuffixes(), "Image files");
     }
     
     if (toOpen != null) {
@@ -499,7 +816,7 @@ public class ImageController {
   private void openImage(WSEditorPage currentPage, URL toOpen)
       throws IOException, XPathException {
     imageViewerPanel.showImage(toOpen);
-
+    updateSnapper();
     
     reloadAreas(currentPage);
   }
@@ -521,15 +838,14 @@ public class ImageController {
     }
     
     if (currentPage instanceof WSXMLTextEditorPage) {
-      String xpath = "for $zone in " +
-      // Restricts to the zones from the loaded surface.
-      createContextSurfaceXPath() +
-      "//zone return string-join(($zone/@ulx, $zone/@uly, $zone/@lrx, $zone/@lry), ',')";
-      
-      Object[] evaluateXPath = ((WSXMLTextEditorPage) currentPage).evaluateXPath(
-          xpath);
-      if (evaluateXPath != null && evaluateXPath.length > 0) {
-        init(evaluateXPath);
+      try {
+        // One pass over the text, restricted to the zones from the loaded surface 
+        // like createContextSurfaceXPath(). Only the zones around the viewport 
+        // become rectangles.
+        decorator.setZoneIndex(SurfaceZoneScanner.scan(
+            TextPageUtil.getText((WSXMLTextEditorPage) currentPage), selectedImageToLoad));
+      } catch (BadLocationException e) {
+        e.printStackTrace();
       }
     }
   }
@@ -570,6 +886,138 @@ public class ImageController {
     }
   }
 
+  /**
+   * Presents the surfaces of the current document in the given strip and opens
+   * the image of a surface when it is chosen.
+   * 
+   * @param strip The surfaces strip.
+   */
+  public void installSurfaceStrip(SurfaceStrip strip) {
+    this.surfaceStrip = strip;
+    strip.addSurfaceListener(new SurfaceStrip.SurfaceListener() {
+      @Override
+      public void surfaceChosen(SurfaceStrip.Surface surface) {
+        try {
+          openImage(surface.getLocation());
+        } catch (IOException e) {
+          e.printStackTrace();
+        } catch (XPathException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+
+  /**
+   * Loads the surfaces of the current document in the strip. All of them are
+   * read in one pass over the text, in the background. The strip changes only
+   * when the document or its surfaces do.
+   */
+  private void refreshSurfaceStrip() {
+    if (surfaceStrip == null) {
+      return;
+    }
+    final int generation = ++stripGeneration;
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (editorAccess == null || !(editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage)) {
+      if (stripLocation != null) {
+        stripLocation = null;
+        stripSurfaces = null;
+        surfaceStrip.setSurfaces(new ArrayList<SurfaceStrip.Surface>());
+      }
+      return;
+    }
+    final String text;
+    try {
+      text = TextPageUtil.getText((WSXMLTextEditorPage) editorAccess.getCurrentPage());
+    } catch (BadLocationException e) {
+      e.printStackTrace();
+      return;
+    }
+    final URL location = editorAccess.getEditorLocation();
+    final List<SurfaceZoneScanner.Surface> presented = location.equals(stripLocation) ? stripSurfaces : null;
+
+    new SwingWorker<List<SurfaceStrip.Surface>, Void>() {
+      /**
+       * The surfaces found in the text.
+       */
+      private List<SurfaceZoneScanner.Surface> scanned;
+
+      @Override
+      protected List<SurfaceStrip.Surface> doInBackground() throws Exception {
+        scanned = SurfaceZoneScanner.scanSurfaces(text);
+        if (scanned.equals(presented)) {
+          // The images are not probed again.
+          return null;
+        }
+        List<SurfaceStrip.Surface> surfaces = new ArrayList<SurfaceStrip.Surface>();
+        for (SurfaceZoneScanner.Surface scannedSurface : scanned) {
+          SurfaceStrip.Surface surface = buildSurface(location, scannedSurface);
+          if (surface != null) {
+            surfaces.add(surface);
+          }
+        }
+        return surfaces;
+      }
+
+      @Override
+      protected void done() {
+        List<SurfaceStrip.Surface> surfaces;
+        try {
+          surfaces = get();
+        } catch (Exception e) {
+          e.printStackTrace();
+          return;
+        }
+        if (surfaces != null && generation == stripGeneration) {
+          stripLocation = location;
+          stripSurfaces = scanned;
+          surfaceStrip.setSurfaces(surfaces);
+        }
+      }
+    }.execute();
+  }
+
+  /**
+   * Builds the strip item of a surface.
+   * 
+   * @param editorLocation The document location, used to resolve the image.
+   * @param surface The surface, as found in the document.
+   * 
+   * @return The surface. <code>null</code> if it has no image.
+   */
+  private SurfaceStrip.Surface buildSurface(URL editorLocation, SurfaceZoneScanner.Surface surface) {
+    String graphic = surface.getGraphic().trim();
+    if (graphic.length() == 0) {
+      return null;
+    }
+    URL location;
+    try {
+      location = new URL(editorLocation, graphic);
+    } catch (MalformedURLException e) {
+      e.printStackTrace();
+      return null;
+    }
+
+    Dimension extents = null;
+    if (surface.getLrx() != null && surface.getLry() != null) {
+      try {
+        extents = new Dimension(Integer.parseInt(surface.getLrx().trim()), Integer.parseInt(surface.getLry().trim()));
+      } catch (NumberFormatException e) {
+        // Not integer extents.
+      }
+    }
+    if (extents == null && ImageDimensionProbe.toFile(location) != null) {
+      // Only the header of a local image is read, and it is cached.
+      try {
+        extents = ImageDimensionProbe.getInstance().probe(location);
+      } catch (IOException e) {
+        // Presented without zones.
+      }
+    }
+    return new SurfaceStrip.Surface(graphic, location, extents, surface.getZones());
+  }
+
   private void showPopup(MouseEvent ev) {
     Point point = imageScaleSupport.getOriginal(ev.getPoint());
     if (ev.isPopupTrigger()) {
@@ -597,7 +1045,7 @@ public class ImageController {
             Rectangle clone = (Rectangle) toProcess.clone();
             clone.translate(0, toProcess.height + 2);
             
-            List<Rectangle> areas = new ArrayList<Rectangle>(decorator.getAreas());
+            List<Rectangle> areas = decorator.getAreas();
             while (areas.contains(clone)) {
               closest = (Rectangle) clone.clone();
               clone.translate(0, toProcess.height + 2);
@@ -606,8 +1054,7 @@ public class ImageController {
             int panelHeight = imageViewerPanel.getHeight();
             // Make sure the area is inside the panel area.
             if (clone.y < panelHeight && (clone.y + clone.height) < panelHeight) {
-              areas.add(clone);
-              decorator.setAreas(areas);
+              decorator.addArea(clone);
 
               insertNewArea(clone, closest);
             }
@@ -638,7 +1085,7 @@ public class ImageController {
                       
                       int startOffset = textEditorPage.getOffsetOfLineStart(range.getStartLine()) + range.getStartColumn() - 1;
                       
-                      id = EditorVariables.expandEditorVariables(getIDPattern(), editorAccess.getEditorLocation().toExternalForm());
+                      id = createIdAllocator(textEditorPage, editorAccess.getEditorLocation().toExternalForm()).next(getPageName(textEditorPage));
                       Document document = textEditorPage.getDocument();
                       document.insertString(startOffset, "xml:id=\"" + id + "\" ", null);
                     }
@@ -766,31 +1213,7 @@ public class ImageController {
    * @return A serialization of the rectangle, that can be inserted in the document.
    */
   private String buildZoneElement(final Rectangle toProcess) {
-    StringBuilder b = new StringBuilder("<zone");
-    
-    buildZoneAttrs(toProcess, b);
-    
-    b.append("/>");
-
-    return b.toString();
-  }
-
-  /**
-   * Builds the coordinates.
-   * 
-   * @param toProcess Rectangle to write the coordinates for.
-   * @param b Builder to write them into.
-   */
-  private void buildZoneAttrs(final Rectangle toProcess, StringBuilder b) {
-    int x = toProcess.x;
-    int y = toProcess.y;
-    int lrx = toProcess.x + toProcess.width;
-    int lry = toProcess.y + toProcess.height;
-    
-    b.append(" ulx=\"").append(x).append("\"");
-    b.append(" uly=\"").append(y).append("\"");
-    b.append(" lrx=\"").append(lrx).append("\"");
-    b.append(" lry=\"").append(lry).append("\"");
+    return ZoneInserter.buildZoneElement(toProcess, null);
   }
   
   /**
@@ -895,6 +1318,8 @@ public class ImageController {
   private void enableSync(WSXMLTextEditorPage textEditorPage) {
     ((JTextComponent) textEditorPage.getTextComponent()).addCaretListener(caretListener);
     inhibit = false;
+    // The zone index is built from the document, it catches up with our own changes.
+    reloadAreasTimer.restart();
   }
 
   /**
@@ -907,6 +1332,950 @@ public class ImageController {
     ((JTextComponent) textEditorPage.getTextComponent()).removeCaretListener(caretListener);
   }
   
+  /**
+   * Sets the extents of all the surfaces from the current editor and the 
+   * dimensions of their graphics from the real image sizes. The images are probed
+   * in the background and the document is updated in one compound edit.
+   */
+  public void updateSurfaceExtents() {
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (editorAccess != null && editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage) {
+      final WSXMLTextEditorPage textEditorPage = (WSXMLTextEditorPage) editorAccess.getCurrentPage();
+      final SurfaceExtentsUpdater updater = new SurfaceExtentsUpdater(textEditorPage, editorAccess.getEditorLocation());
+      final String[] urls;
+      try {
+        urls = updater.collectGraphics();
+      } catch (XPathException e) {
+        e.printStackTrace();
+        return;
+      }
+      
+      new SwingWorker<Map<String, Dimension>, Void>() {
+        @Override
+        protected Map<String, Dimension> doInBackground() throws Exception {
+          return updater.probe(urls);
+        }
+        
+        @Override
+        protected void done() {
+          int updated = 0;
+          try {
+            List<TextEdit> edits = updater.computeEdits(urls, get());
+            if (!edits.isEmpty()) {
+              textEditorPage.beginCompoundUndoableEdit();
+              disableSync(textEditorPage);
+              try {
+                TextEdit.applyAll(textEditorPage.getDocument(), edits);
+              } finally {
+                textEditorPage.endCompoundUndoableEdit();
+                enableSync(textEditorPage);
+              }
+            }
+            updated = edits.size();
+          } catch (IllegalStateException e) {
+            pluginWorkspaceAccess.showErrorMessage("The document was modified while reading the images. Please try again.");
+            return;
+          } catch (Exception e) {
+            e.printStackTrace();
+            return;
+          }
+          
+          StringBuilder message = new StringBuilder();
+          message.append("Updated ").append(updated).append(" tag(s) for ").append(urls.length).append(" surface(s).");
+          Map<String, String> failures = updater.getFailures();
+          if (!failures.isEmpty()) {
+            message.append("\n\nUnable to read ").append(failures.size()).append(" image(s):");
+            for (Map.Entry<String, String> entry : failures.entrySet()) {
+              message.append("\n").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+          }
+          pluginWorkspaceAccess.showInformationMessage(message.toString());
+        }
+      }.execute();
+    }
+  }
+  
+  /**
+   * Detects the text blocks and lines on the loaded image, in the background.
+   * The detected zones are presented as candidates that can be accepted or 
+   * discarded.
+   */
+  public void detectZones() {
+    final int generation = imageViewerPanel.getImageGeneration();
+    final Callable<ReducedImage> source = imageViewerPanel.getReducedImage(ReducedImage.MAX_PIXELS);
+    if (source == null) {
+      pluginWorkspaceAccess.showInformationMessage("Open an image first.");
+      return;
+    }
+    
+    new SwingWorker<List<Rectangle>, Void>() {
+      @Override
+      protected List<Rectangle> doInBackground() throws Exception {
+        ReducedImage reduced = source.call();
+        LayoutDetector.Result result = new LayoutDetector().detect(reduced.getImage());
+        List<Rectangle> candidates = new ArrayList<Rectangle>(reduced.toImage(result.getBlocks()));
+        candidates.addAll(reduced.toImage(result.getLines()));
+        return candidates;
+      }
+      
+      @Override
+      protected void done() {
+        // Make sure the image wasn't changed in the meantime.
+        if (generation == imageViewerPanel.getImageGeneration()) {
+          try {
+            List<Rectangle> candidates = get();
+            if (candidates.isEmpty()) {
+              pluginWorkspaceAccess.showInformationMessage("No zones detected.");
+            }
+            setCandidates(candidates);
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }.execute();
+  }
+  
+  /**
+   * Rotates the image by a quarter turn, clockwise. The zones keep their 
+   * coordinates, only the view is rotated.
+   */
+  public void rotateImage() {
+    imageScaleSupport.rotateClockwise();
+  }
+  
+  /**
+   * Detects the skew of the text lines in the background and rotates the view 
+   * so they become horizontal. Invoked again, it resets the deskew.
+   */
+  public void deskew() {
+    if (imageScaleSupport.getSkewAngle() != 0) {
+      imageScaleSupport.setSkewAngle(0);
+      return;
+    }
+    final int generation = imageViewerPanel.getImageGeneration();
+    final Callable<ReducedImage> source = imageViewerPanel.getReducedImage(ReducedImage.MAX_PIXELS);
+    if (source == null) {
+      pluginWorkspaceAccess.showInformationMessage("Open an image first.");
+      return;
+    }
+    
+    new SwingWorker<Double, Void>() {
+      @Override
+      protected Double doInBackground() throws Exception {
+        // The angle doesn't depend on the scale.
+        return new SkewDetector().detect(source.call().getImage());
+      }
+      
+      @Override
+      protected void done() {
+        // Make sure the image wasn't changed in the meantime.
+        if (generation == imageViewerPanel.getImageGeneration()) {
+          try {
+            double skew = get();
+            if (skew == 0) {
+              pluginWorkspaceAccess.showInformationMessage("The image is not skewed.");
+            } else {
+              // Rotate back, so the lines are horizontal.
+              imageScaleSupport.setSkewAngle(-skew);
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }.execute();
+  }
+  
+  /**
+   * Activates the zone next to the active one, in reading order, shows it and 
+   * selects its element in the editor.
+   * 
+   * @param direction 1 for the next zone, -1 for the previous one.
+   */
+  private void activateZone(int direction) {
+    List<Rectangle> zones = decorator.getReadingOrder();
+    if (zones.isEmpty()) {
+      return;
+    }
+    Rectangle active = decorator.getActive();
+    int index = active != null ? zones.indexOf(active) : -1;
+    if (index == -1) {
+      index = direction > 0 ? 0 : zones.size() - 1;
+    } else {
+      index = Math.max(0, Math.min(zones.size() - 1, index + direction));
+    }
+    Rectangle zone = zones.get(index);
+    decorator.setActive(zone);
+    imageViewerPanel.scrollRectToVisible(imageScaleSupport.applyScale(zone));
+
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (facsIndex != null && editorAccess != null && editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage) {
+      int[] range = facsIndex.getZone(zone);
+      if (range != null) {
+        ((WSXMLTextEditorPage) editorAccess.getCurrentPage()).select(range[0], range[1]);
+      }
+    }
+  }
+  
+  /**
+   * Rewrites the zones of the loaded surface in reading order: top to bottom, 
+   * column by column.
+   */
+  public void reorderZones() {
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (editorAccess == null || !(editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage)) {
+      return;
+    }
+    if (selectedImageToLoad == null) {
+      pluginWorkspaceAccess.showInformationMessage("Open the image of the surface first.");
+      return;
+    }
+    WSXMLTextEditorPage textEditorPage = (WSXMLTextEditorPage) editorAccess.getCurrentPage();
+    try {
+      List<TextEdit> edits = ZoneReorderer.computeEdits(textEditorPage, createContextSurfaceXPath() + "/zone");
+      if (edits.isEmpty()) {
+        pluginWorkspaceAccess.showInformationMessage("The zones are already in reading order.");
+        return;
+      }
+      textEditorPage.beginCompoundUndoableEdit();
+      disableSync(textEditorPage);
+      try {
+        TextEdit.applyAll(textEditorPage.getDocument(), edits);
+      } finally {
+        textEditorPage.endCompoundUndoableEdit();
+        enableSync(textEditorPage);
+      }
+      reloadAreas(textEditorPage);
+    } catch (XPathException e) {
+      e.printStackTrace();
+    } catch (BadLocationException e) {
+      e.printStackTrace();
+    }
+  }
+  
+  /**
+   * Enables or disables the adjustment of the zones to the image content while
+   * they are created or resized.
+   * 
+   * @param enabled <code>true</code> to snap the zones to the ink.
+   */
+  public void setSnapEnabled(boolean enabled) {
+    snapEnabled = enabled;
+    updateSnapper();
+  }
+  
+  /**
+   * Installs the snapping support on the decorator. The ink table of a newly 
+   * loaded image is computed in the background.
+   */
+  private void updateSnapper() {
+    // Images that are not on the heap are only read, subsampled, when snapping needs them.
+    final int generation = imageViewerPanel.getImageGeneration();
+    final Callable<ReducedImage> source = snapEnabled ? imageViewerPanel.getReducedImage(ReducedImage.MAX_PIXELS) : null;
+    if (source == null) {
+      decorator.setSnapper(null);
+    } else if (snapperGeneration == generation) {
+      decorator.setSnapper(snapper);
+    } else {
+      decorator.setSnapper(null);
+      snapper = null;
+      snapperGeneration = -1;
+      new SwingWorker<ContentSnapper, Void>() {
+        @Override
+        protected ContentSnapper doInBackground() throws Exception {
+          ReducedImage reduced = source.call();
+          return new ContentSnapper(new IntegralImage(Binarizer.binarize(reduced.getImage()), reduced.getScale()));
+        }
+        
+        @Override
+        protected void done() {
+          if (generation == imageViewerPanel.getImageGeneration()) {
+            try {
+              snapper = get();
+              snapperGeneration = generation;
+              if (snapEnabled) {
+                decorator.setSnapper(snapper);
+              }
+            } catch (Exception e) {
+              e.printStackTrace();
+            }
+          }
+        }
+      }.execute();
+    }
+  }
+  
+  /**
+   * Presents the given zones as candidates over the image.
+   * 
+   * @param candidates The candidate zones.
+   */
+  private void setCandidates(List<Rectangle> candidates) {
+    decorator.setCandidateAreas(candidates);
+    acceptCandidatesAction.setEnabled(!candidates.isEmpty());
+    discardCandidatesAction.setEnabled(!candidates.isEmpty());
+  }
+  
+  /**
+   * @return An action that inserts all the candidate zones in the document.
+   */
+  public Action getAcceptCandidatesAction() {
+    return acceptCandidatesAction;
+  }
+  
+  /**
+   * @return An action that discards all the candidate zones.
+   */
+  public Action getDiscardCandidatesAction() {
+    return discardCandidatesAction;
+  }
+  
+  /**
+   * Inserts the given areas in the loaded surface, after its last zone, with a 
+   * single document change.
+   * 
+   * @param areas The areas to insert, in the order they should appear in the document.
+   * @param ids The IDs of the areas, in the same order. <code>null</code> for 
+   * zones without IDs.
+   */
+  private void insertAreas(List<Rectangle> areas, List<String> ids) {
+    insertAreas(Collections.singletonList(getInsertReferenceXPaths()), Collections.singletonList(areas), ids);
+  }
+
+  /**
+   * Inserts the given areas in the loaded surface, each one after the zone it 
+   * follows in the reading order of all the zones. The areas that follow the 
+   * same zone are inserted together.
+   * 
+   * @param areas The areas to insert.
+   */
+  private void insertInReadingOrder(List<Rectangle> areas) {
+    List<Rectangle> zones = new ArrayList<Rectangle>(decorator.getAllAreas());
+    int existing = zones.size();
+    zones.addAll(areas);
+    int[] order = ReadingOrder.compute(zones);
+
+    // The areas that follow every zone, by the index of the zone. -1 for the 
+    // areas that come before all the zones.
+    Map<Integer, List<Rectangle>> groups = new LinkedHashMap<Integer, List<Rectangle>>();
+    int lastZone = -1;
+    for (int i = 0; i < order.length; i++) {
+      if (order[i] < existing) {
+        lastZone = i;
+        continue;
+      }
+      Rectangle area = zones.get(order[i]);
+      // A container can't be the reference, the area is not inserted inside it.
+      int previous = lastZone;
+      while (previous != -1 && (order[previous] >= existing || zones.get(order[previous]).contains(area))) {
+        previous--;
+      }
+      Integer key = previous != -1 ? order[previous] : -1;
+      List<Rectangle> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<Rectangle>();
+        groups.put(key, group);
+      }
+      group.add(area);
+    }
+
+    List<String[]> references = new ArrayList<String[]>(groups.size());
+    for (Integer zone : groups.keySet()) {
+      references.add(getInsertReferenceXPaths(zone != -1 ? zones.get(zone) : null));
+    }
+    insertAreas(references, new ArrayList<List<Rectangle>>(groups.values()), null);
+  }
+
+  /**
+   * Inserts groups of areas in the loaded surface, each group after its own 
+   * reference, as a single undoable edit.
+   * 
+   * @param references For every group, XPath expressions for the node after 
+   * which it is inserted. The first one that identifies a node is used.
+   * @param groups The areas to insert, every group in the order it should 
+   * appear in the document.
+   * @param ids The IDs of the areas, group after group. <code>null</code> for 
+   * zones without IDs.
+   */
+  private void insertAreas(List<String[]> references, List<List<Rectangle>> groups, List<String> ids) {
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (editorAccess != null && editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage && !groups.isEmpty()) {
+      WSXMLTextEditorPage textEditorPage = (WSXMLTextEditorPage) editorAccess.getCurrentPage();
+      textEditorPage.beginCompoundUndoableEdit();
+      disableSync(textEditorPage);
+      try {
+        List<Rectangle> added = new ArrayList<Rectangle>();
+        int[] inserted = null;
+        for (int i = 0; i < groups.size(); i++) {
+          List<Rectangle> areas = groups.get(i);
+          List<String> groupIds = ids != null ? ids.subList(added.size(), added.size() + areas.size()) : null;
+          int[] groupInserted = ZoneInserter.insertZones(textEditorPage, references.get(i), areas, groupIds);
+          if (groupInserted != null) {
+            inserted = groupInserted;
+            added.addAll(areas);
+          } else {
+            System.err.println("Unable to get insert location.");
+          }
+        }
+        if (inserted != null) {
+          textEditorPage.select(inserted[0], inserted[1]);
+          // The observers are told about all the zones at once.
+          decorator.addAreas(added);
+        }
+      } catch (XPathException e) {
+        e.printStackTrace();
+      } catch (BadLocationException e) {
+        e.printStackTrace();
+      } finally {
+        textEditorPage.endCompoundUndoableEdit();
+        enableSync(textEditorPage);
+      }
+      
+      try {
+        reloadAreas(textEditorPage);
+      } catch (XPathException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+  
+  /**
+   * Imports the zones of an OCR layout (ALTO, PAGE-XML or hOCR) into the loaded 
+   * surface. The layout is streamed in the background, its coordinates are 
+   * mapped onto the surface extents and all the zones are inserted at once, 
+   * with generated IDs.
+   */
+  public void importOCRLayout() {
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (editorAccess == null || !(editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage)) {
+      return;
+    }
+    if (selectedImageToLoad == null) {
+      pluginWorkspaceAccess.showInformationMessage("Open the image of the surface to import into first.");
+      return;
+    }
+    
+    final Rectangle surface = getSurfaceExtents((WSXMLTextEditorPage) editorAccess.getCurrentPage());
+    if (surface == null) {
+      return;
+    }
+    final File layoutFile = pluginWorkspaceAccess.chooseFile(
+        "Import OCR Layout", new String[] {"xml", "alto", "hocr", "html", "xhtml"}, "ALTO, PAGE-XML and hOCR files", false);
+    if (layoutFile == null) {
+      return;
+    }
+    Object choice = JOptionPane.showInputDialog(
+        imageViewerPanel, "Zones to import:", "Import OCR Layout", JOptionPane.QUESTION_MESSAGE, null, OCR_LEVEL_CHOICES, OCR_LEVEL_CHOICES[1]);
+    if (choice == null) {
+      return;
+    }
+    final Set<Level> levels = EnumSet.noneOf(Level.class);
+    if (choice == OCR_LEVEL_CHOICES[0] || choice == OCR_LEVEL_CHOICES[3]) {
+      levels.add(Level.BLOCK);
+    }
+    if (choice == OCR_LEVEL_CHOICES[1] || choice == OCR_LEVEL_CHOICES[3]) {
+      levels.add(Level.LINE);
+    }
+    if (choice == OCR_LEVEL_CHOICES[2] || choice == OCR_LEVEL_CHOICES[3]) {
+      levels.add(Level.WORD);
+    }
+    final String editorLocation = editorAccess.getEditorLocation().toExternalForm();
+    final WSXMLTextEditorPage textEditorPage = (WSXMLTextEditorPage) editorAccess.getCurrentPage();
+    
+    new SwingWorker<List<Rectangle>, Void>() {
+      @Override
+      protected List<Rectangle> doInBackground() throws Exception {
+        OCRZoneMapper mapper = new OCRZoneMapper(surface, levels);
+        InputStream is = new BufferedInputStream(new FileInputStream(layoutFile), 64 * 1024);
+        try {
+          new OCRLayoutReader().read(is, layoutFile.toURI().toString(), mapper);
+        } finally {
+          is.close();
+        }
+        return mapper.getZones();
+      }
+      
+      @Override
+      protected void done() {
+        try {
+          List<Rectangle> zones = get();
+          if (zones.isEmpty()) {
+            pluginWorkspaceAccess.showInformationMessage("No zones found in " + layoutFile.getName() + ".");
+          } else {
+            List<String> ids = createIdAllocator(textEditorPage, editorLocation).next(getPageName(textEditorPage), zones.size());
+            insertAreas(zones, ids);
+          }
+        } catch (XPathException e) {
+          e.printStackTrace();
+        } catch (ExecutionException e) {
+          pluginWorkspaceAccess.showErrorMessage("Unable to import " + layoutFile.getName() + ": " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+    }.execute();
+  }
+  
+  /**
+   * The maximum number of pairs listed in the analysis report.
+   */
+  private static final int MAX_REPORTED_RELATIONS = 500;
+  
+  /**
+   * Finds the overlapping, nested and duplicate zones of the loaded surface. 
+   * The overlapping parts and the duplicates are marked in the viewer and all 
+   * the pairs are listed in a report.
+   */
+  public void analyzeZones() {
+    // A version that doesn't change while it is analyzed.
+    final ZoneSnapshot zones = decorator.getAllAreas();
+    if (zones.isEmpty()) {
+      pluginWorkspaceAccess.showInformationMessage("There are no zones to analyze.");
+      return;
+    }
+    
+    new SwingWorker<List<ZoneRelation>, Void>() {
+      @Override
+      protected List<ZoneRelation> doInBackground() throws Exception {
+        return OverlapAnalyzer.analyze(zones);
+      }
+      
+      @Override
+      protected void done() {
+        List<ZoneRelation> relations;
+        try {
+          relations = get();
+        } catch (Exception e) {
+          e.printStackTrace();
+          return;
+        }
+        
+        int[] counts = new int[ZoneRelation.Kind.values().length];
+        List<Rectangle> issues = new ArrayList<Rectangle>();
+        StringBuilder details = new StringBuilder();
+        int listed = 0;
+        for (ZoneRelation relation : relations) {
+          counts[relation.getKind().ordinal()]++;
+          Rectangle first = zones.get(relation.getFirst());
+          Rectangle second = zones.get(relation.getSecond());
+          if (relation.getKind() == ZoneRelation.Kind.OVERLAP) {
+            issues.add(first.intersection(second));
+          } else if (relation.getKind() == ZoneRelation.Kind.DUPLICATE) {
+            issues.add(first);
+          }
+          if (relation.getKind() != ZoneRelation.Kind.CONTAINMENT && listed < MAX_REPORTED_RELATIONS) {
+            details.append(relation.getKind() == ZoneRelation.Kind.OVERLAP ? "Overlap:   " : "Duplicate: ");
+            details.append(toCoordinates(first)).append("  ").append(toCoordinates(second)).append('\n');
+            listed++;
+          }
+        }
+        if (zones.getVersion() == decorator.getAllAreas().getVersion()) {
+          decorator.setIssueAreas(issues);
+        } else {
+          // The zones changed meanwhile, the marks would be misplaced.
+          decorator.setIssueAreas(new ArrayList<Rectangle>());
+        }
+        
+        StringBuilder report = new StringBuilder();
+        report.append(zones.size()).append(" zone(s): ");
+        report.append(counts[ZoneRelation.Kind.OVERLAP.ordinal()]).append(" overlapping pair(s), ");
+        report.append(counts[ZoneRelation.Kind.DUPLICATE.ordinal()]).append(" duplicate pair(s), ");
+        report.append(counts[ZoneRelation.Kind.CONTAINMENT.ordinal()]).append(" nested pair(s).\n");
+        if (listed > 0) {
+          report.append("\nZones as ulx,uly,lrx,lry:\n").append(details);
+          if (listed == MAX_REPORTED_RELATIONS) {
+            report.append("...\n");
+          }
+        }
+        JTextArea textArea = new JTextArea(report.toString(), 20, 70);
+        textArea.setEditable(false);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, textArea.getFont().getSize()));
+        JOptionPane.showMessageDialog(
+            imageViewerPanel, new JScrollPane(textArea), "Zone Analysis", JOptionPane.INFORMATION_MESSAGE);
+      }
+    }.execute();
+  }
+  
+  /**
+   * @return The zone coordinates, as ulx,uly,lrx,lry.
+   */
+  private static String toCoordinates(Rectangle zone) {
+    return zone.x + "," + zone.y + "," + (zone.x + zone.width) + "," + (zone.y + zone.height);
+  }
+  
+  /**
+   * Exports the zones as W3C Web Annotations, one annotation page for every 
+   * surface, either from the current document or from all the documents in a 
+   * folder. The export runs in the background.
+   */
+  public void exportAnnotations() {
+    final WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    final boolean hasDocument = editorAccess != null && editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage;
+    String[] sources = hasDocument 
+        ? new String[] {"Current document", "All the documents in a folder"}
+        : new String[] {"All the documents in a folder"};
+    Object source = JOptionPane.showInputDialog(
+        imageViewerPanel, "Zones to export:", "Export Annotations", JOptionPane.QUESTION_MESSAGE, null, sources, sources[0]);
+    if (source == null) {
+      return;
+    }
+    final boolean corpus = source != sources[0] || !hasDocument;
+    File corpusDir = null;
+    if (corpus) {
+      corpusDir = pluginWorkspaceAccess.chooseDirectory();
+      if (corpusDir == null) {
+        return;
+      }
+    }
+    File outputDir = pluginWorkspaceAccess.chooseDirectory();
+    if (outputDir == null) {
+      return;
+    }
+    String canvasPrefix = JOptionPane.showInputDialog(
+        imageViewerPanel, "Canvas ID prefix, followed by the surface ID (leave empty to use the image URLs):", "");
+    if (canvasPrefix == null) {
+      return;
+    }
+    
+    final AnnotationExporter exporter = new AnnotationExporter(outputDir, canvasPrefix.trim());
+    final File dir = corpusDir;
+    String text = null;
+    String location = null;
+    if (!corpus) {
+      try {
+        text = TextPageUtil.getText((WSXMLTextEditorPage) editorAccess.getCurrentPage());
+      } catch (BadLocationException e) {
+        e.printStackTrace();
+        return;
+      }
+      location = editorAccess.getEditorLocation().toExternalForm();
+    }
+    final String documentText = text;
+    final String documentLocation = location;
+    
+    new SwingWorker<Integer, Void>() {
+      @Override
+      protected Integer doInBackground() throws Exception {
+        if (corpus) {
+          return exporter.exportCorpus(dir);
+        } else {
+          String name = documentLocation.substring(documentLocation.lastIndexOf('/') + 1);
+          int dot = name.lastIndexOf('.');
+          return exporter.exportDocument(
+              new StringReader(documentText), documentLocation, dot > 0 ? name.substring(0, dot) : name);
+        }
+      }
+      
+      @Override
+      protected void done() {
+        try {
+          StringBuilder message = new StringBuilder();
+          message.append("Exported ").append(get()).append(" annotation page(s).");
+          Map<String, String> failures = exporter.getFailures();
+          if (!failures.isEmpty()) {
+            message.append("\n\nUnable to export ").append(failures.size()).append(" document(s):");
+            for (Map.Entry<String, String> entry : failures.entrySet()) {
+              message.append("\n").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+          }
+          pluginWorkspaceAccess.showInformationMessage(message.toString());
+        } catch (ExecutionException e) {
+          pluginWorkspaceAccess.showErrorMessage("Unable to export the annotations: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+      }
+    }.execute();
+  }
+  
+  /**
+   * Gives an ID to every zone of the loaded surface that doesn't have one, 
+   * with a single document change.
+   */
+  public void assignZoneIDs() {
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (editorAccess == null || !(editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage)) {
+      return;
+    }
+    if (selectedImageToLoad == null) {
+      pluginWorkspaceAccess.showInformationMessage("Open the image of the surface first.");
+      return;
+    }
+    WSXMLTextEditorPage textEditorPage = (WSXMLTextEditorPage) editorAccess.getCurrentPage();
+    try {
+      IdAllocator allocator = createIdAllocator(textEditorPage, editorAccess.getEditorLocation().toExternalForm());
+      List<TextEdit> edits = ZoneIdAssigner.computeEdits(
+          textEditorPage, createContextSurfaceXPath() + "//zone", allocator, getPageName(textEditorPage));
+      if (!edits.isEmpty()) {
+        textEditorPage.beginCompoundUndoableEdit();
+        disableSync(textEditorPage);
+        try {
+          TextEdit.applyAll(textEditorPage.getDocument(), edits);
+        } finally {
+          textEditorPage.endCompoundUndoableEdit();
+          enableSync(textEditorPage);
+        }
+      }
+      pluginWorkspaceAccess.showInformationMessage("Assigned " + edits.size() + " ID(s).");
+    } catch (XPathException e) {
+      e.printStackTrace();
+    } catch (BadLocationException e) {
+      e.printStackTrace();
+    }
+  }
+  
+  /**
+   * Nests the zones of the loaded surface following their containment: every 
+   * zone is moved inside the smallest zone that contains it, with a single 
+   * document change.
+   */
+  public void nestZones() {
+    WSEditor editorAccess = pluginWorkspaceAccess.getCurrentEditorAccess(PluginWorkspace.MAIN_EDITING_AREA);
+    if (editorAccess == null || !(editorAccess.getCurrentPage() instanceof WSXMLTextEditorPage)) {
+      return;
+    }
+    if (selectedImageToLoad == null) {
+      pluginWorkspaceAccess.showInformationMessage("Open the image of the surface first.");
+      return;
+    }
+    WSXMLTextEditorPage textEditorPage = (WSXMLTextEditorPage) editorAccess.getCurrentPage();
+    try {
+      List<TextEdit> edits = ZoneNester.computeEdits(textEditorPage, createContextSurfaceXPath() + "/zone");
+      if (edits.isEmpty()) {
+        pluginWorkspaceAccess.showInformationMessage("No zone contains another one.");
+        return;
+      }
+      textEditorPage.beginCompoundUndoableEdit();
+      disableSync(textEditorPage);
+      try {
+        TextEdit.applyAll(textEditorPage.getDocument(), edits);
+      } finally {
+        textEditorPage.endCompoundUndoableEdit();
+        enableSync(textEditorPage);
+      }
+      reloadAreas(textEditorPage);
+    } catch (XPathException e) {
+      e.printStackTrace();
+    } catch (BadLocationException e) {
+      e.printStackTrace();
+    }
+  }
+  
+  /**
+   * Paints only the zones up to a nesting level.
+   * 
+   * @param depth The deepest level that is painted, from 1 for the top level 
+   * zones. {@link Integer#MAX_VALUE} to paint all the zones.
+   */
+  public void setVisibleDepth(int depth) {
+    decorator.setMaxVisibleDepth(depth);
+  }
+  
+  /**
+   * Sets how the zones too small to be seen at the current scale are painted.
+   * 
+   * @param mode The painting mode.
+   */
+  public void setLevelOfDetailMode(ZoneLevelOfDetail.Mode mode) {
+    decorator.setLevelOfDetailMode(mode);
+  }
+  
+  /**
+   * Presents the enhancement settings of the painted image. The image is 
+   * repainted while the settings change and restored on cancel.
+   */
+  public void enhanceImage() {
+    if (imageViewerPanel.getImageSize() == null) {
+      pluginWorkspaceAccess.showInformationMessage("Open an image first.");
+      return;
+    }
+    final Enhancement initial = imageViewerPanel.getEnhancement();
+    final JSlider blackSlider = new JSlider(0, 254, initial.getBlackPoint());
+    final JSlider whiteSlider = new JSlider(1, 255, initial.getWhitePoint());
+    // The gamma, in hundredths.
+    final JSlider gammaSlider = new JSlider(10, 400, (int) Math.round(initial.getGamma() * 100));
+    final JCheckBox contrastBox = new JCheckBox("Local contrast (CLAHE)", initial.isLocalContrast());
+    final JCheckBox grayscaleBox = new JCheckBox("Grayscale", initial.isGrayscale());
+    final JCheckBox invertBox = new JCheckBox("Invert", initial.isInvert());
+
+    final Runnable preview = new Runnable() {
+      @Override
+      public void run() {
+        int black = blackSlider.getValue();
+        int white = Math.max(black + 1, whiteSlider.getValue());
+        // The lookup table follows the sliders, the local contrast is only 
+        // computed for the values the user stops on.
+        boolean adjusting = blackSlider.getValueIsAdjusting() 
+            || whiteSlider.getValueIsAdjusting() || gammaSlider.getValueIsAdjusting();
+        imageViewerPanel.setEnhancement(new Enhancement(
+            black, white, gammaSlider.getValue() / 100.0, 
+            contrastBox.isSelected() && !adjusting, grayscaleBox.isSelected(), invertBox.isSelected()));
+      }
+    };
+    ChangeListener changeListener = new ChangeListener() {
+      @Override
+      public void stateChanged(ChangeEvent e) {
+        preview.run();
+      }
+    };
+    ActionListener actionListener = new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        preview.run();
+      }
+    };
+    blackSlider.addChangeListener(changeListener);
+    whiteSlider.addChangeListener(changeListener);
+    gammaSlider.addChangeListener(changeListener);
+    contrastBox.addActionListener(actionListener);
+    grayscaleBox.addActionListener(actionListener);
+    invertBox.addActionListener(actionListener);
+
+    JPanel panel = new JPanel(new GridLayout(0, 2, 5, 5));
+    panel.add(new JLabel("Black point:"));
+    panel.add(blackSlider);
+    panel.add(new JLabel("White point:"));
+    panel.add(whiteSlider);
+    panel.add(new JLabel("Gamma:"));
+    panel.add(gammaSlider);
+    panel.add(contrastBox);
+    panel.add(grayscaleBox);
+    panel.add(invertBox);
+    JButton resetButton = new JButton("Reset");
+    resetButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        blackSlider.setValue(Enhancement.NONE.getBlackPoint());
+        whiteSlider.setValue(Enhancement.NONE.getWhitePoint());
+        gammaSlider.setValue(100);
+        contrastBox.setSelected(false);
+        grayscaleBox.setSelected(false);
+        invertBox.setSelected(false);
+        preview.run();
+      }
+    });
+    panel.add(resetButton);
+
+    int option = JOptionPane.showConfirmDialog(
+        imageViewerPanel, panel, "Enhance Image", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+    if (option != JOptionPane.OK_OPTION) {
+      imageViewerPanel.setEnhancement(initial);
+    }
+  }
+
+  /**
+   * Creates an ID allocator that avoids all the IDs of the document. The 
+   * pattern is read from <code>etc/id_pattern.txt</code>.
+   * 
+   * @param textEditorPage The text page.
+   * @param editorLocation The location of the document, for the editor variables.
+   * 
+   * @return The allocator.
+   * 
+   * @throws XPathException Unable to read the existing IDs.
+   */
+  private IdAllocator createIdAllocator(WSXMLTextEditorPage textEditorPage, final String editorLocation) throws XPathException {
+    return IdAllocator.create(textEditorPage, getIDPattern(), new IdAllocator.VariableExpander() {
+      @Override
+      public String expand(String pattern) {
+        return EditorVariables.expandEditorVariables(pattern, editorLocation);
+      }
+    });
+  }
+  
+  /**
+   * Computes the value of <code>${page}</code> in the ID pattern: the ID of the 
+   * loaded surface or, if it has none, the name of its image made an NCName.
+   * 
+   * @param textEditorPage The text page.
+   * 
+   * @return The page name. <code>null</code> if no image is loaded.
+   */
+  private String getPageName(WSXMLTextEditorPage textEditorPage) {
+    if (selectedImageToLoad == null) {
+      return null;
+    }
+    String ctx = createContextSurfaceXPath();
+    if (ctx.length() > 0) {
+      try {
+        Object[] result = textEditorPage.evaluateXPath("string(" + ctx + "/@xml:id)");
+        if (result != null && result.length > 0 && result[0].toString().length() > 0) {
+          return result[0].toString();
+        }
+      } catch (XPathException e) {
+        e.printStackTrace();
+      }
+    }
+    String name = selectedImageToLoad.substring(selectedImageToLoad.lastIndexOf('/') + 1);
+    int dot = name.lastIndexOf('.');
+    // An image name like "001 recto" can't start an ID.
+    return IdAllocator.toNCName(dot > 0 ? name.substring(0, dot) : name);
+  }
+  
+  /**
+   * Reads the extents of the loaded surface. If the surface doesn't specify 
+   * them, the image size is used.
+   * 
+   * @param textEditorPage The text page.
+   * 
+   * @return The extents: ulx, uly, lrx - ulx, lry - uly. <code>null</code> if unknown.
+   */
+  private Rectangle getSurfaceExtents(WSXMLTextEditorPage textEditorPage) {
+    Rectangle extents = null;
+    try {
+      Object[] result = textEditorPage.evaluateXPath(
+          "for $surface in " + createContextSurfaceXPath() + " return string-join(($surface/@ulx, $surface/@uly, $surface/@lrx, $surface/@lry), ',')");
+      if (result != null && result.length > 0 && result[0].toString().split(",").length == 4) {
+        extents = buildRectangle(result[0].toString());
+      }
+    } catch (XPathException e) {
+      e.printStackTrace();
+    } catch (NumberFormatException e) {
+      // Not integer coordinates.
+    }
+    
+    if (extents == null || extents.width <= 0 || extents.height <= 0) {
+      Dimension imageSize = imageViewerPanel.getImageSize();
+      extents = imageSize != null ? new Rectangle(0, 0, imageSize.width, imageSize.height) : null;
+    }
+    return extents;
+  }
+  
+  /**
+   * @return XPath expressions for the node after which new zones are inserted, 
+   * in the order of preference: the last zone of the loaded surface, its graphic, 
+   * any graphic.
+   */
+  private String[] getInsertReferenceXPaths() {
+    List<String> xpaths = new ArrayList<String>(3);
+    if (selectedImageToLoad != null) {
+      xpaths.add("(" + createContextSurfaceXPath() + "/zone)[last()]");
+    }
+    xpaths.addAll(Arrays.asList(getInsertReferenceXPaths(null)));
+    return xpaths.toArray(new String[xpaths.size()]);
+  }
+
+  /**
+   * @param previous The zone after which new zones are inserted. 
+   * <code>null</code> to insert them before all the zones.
+   * 
+   * @return XPath expressions for the node after which new zones are inserted, 
+   * in the order of preference: the given zone, the graphic of the loaded 
+   * surface, any graphic.
+   */
+  private String[] getInsertReferenceXPaths(Rectangle previous) {
+    List<String> xpaths = new ArrayList<String>(3);
+    if (previous != null) {
+      xpaths.add(createXPath(previous));
+    }
+    if (selectedImageToLoad != null) {
+      xpaths.add("(//*:graphic[ends-with(@url, '" + selectedImageToLoad + "') or ends-with(@target, '" + selectedImageToLoad + "')])[1]");
+    }
+    xpaths.add("(//*:graphic)[1]");
+    return xpaths.toArray(new String[xpaths.size()]);
+  }
+  
   public void zoomIn() {
     imageScaleSupport.zoomIn();
   }
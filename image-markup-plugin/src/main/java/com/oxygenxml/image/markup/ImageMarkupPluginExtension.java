@@ -13,8 +13,10 @@ import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
+import javax.swing.JToggleButton;
 
 import ro.sync.exml.plugin.PluginDescriptor;
 import ro.sync.exml.plugin.workspace.WorkspaceAccessPluginExtension;
@@ -27,6 +29,13 @@ import ro.sync.exml.workspace.api.standalone.ViewInfo;
 import ro.sync.exml.workspace.api.standalone.ui.ToolbarButton;
 import ro.sync.util.URLUtil;
 
+import com.oxygenxml.image.markup.iiif.IIIFDecoder;
+import com.oxygenxml.image.markup.iiif.IIIFTileCache;
+import com.oxygenxml.image.markup.image.ImageDecoders;
+import com.oxygenxml.image.markup.image.MappedTileCache;
+import com.oxygenxml.image.markup.image.ThumbnailCache;
+import com.oxygenxml.image.markup.zones.ZoneLevelOfDetail;
+
 /**
  * An workspace access extension that contributes a custom view. This view can 
  * load an image referred from the current editor. 
@@ -38,6 +47,18 @@ public class ImageMarkupPluginExtension implements WorkspaceAccessPluginExtensio
    * A toolbar that adds an action that allows you to quickly test the plugin.
    */
   private static final String SAMPLE_TOOLBAR_ID = "image.markup.sample";
+  /**
+   * The largest size of the tile cache, in bytes.
+   */
+  private static final long MAX_TILE_CACHE_SIZE = 4L * 1024 * 1024 * 1024;
+  /**
+   * The largest size of the cache of the tiles downloaded from image servers, in bytes.
+   */
+  private static final long MAX_IIIF_CACHE_SIZE = 1024L * 1024 * 1024;
+  /**
+   * The largest size of the cache of the surface previews, in bytes.
+   */
+  private static final long MAX_THUMBNAIL_CACHE_SIZE = 64L * 1024 * 1024;
   /**
    * The panel that paints the image.
    */
@@ -53,6 +74,8 @@ public class ImageMarkupPluginExtension implements WorkspaceAccessPluginExtensio
   @Override
   public void applicationStarted(final StandalonePluginWorkspace pluginWorkspaceAccess) {
     ctrl.init(pluginWorkspaceAccess);
+    imageViewerPanel.setTileCache(new MappedTileCache(getCacheDir("tiles"), MAX_TILE_CACHE_SIZE));
+    ImageDecoders.register(new IIIFDecoder(new IIIFTileCache(getCacheDir("iiif"), MAX_IIIF_CACHE_SIZE)));
     pluginWorkspaceAccess.addViewComponentCustomizer(new ViewComponentCustomizer() {
       /**
        * @see ro.sync.exml.workspace.api.standalone.ViewComponentCustomizer#customizeView(ro.sync.exml.workspace.api.standalone.ViewInfo)
@@ -93,8 +116,158 @@ public class ImageMarkupPluginExtension implements WorkspaceAccessPluginExtensio
             }
           });
           northPanel.add(zoomOut);
+          
+          JButton extentsButton = new JButton("Surface extents");
+          extentsButton.setToolTipText("Sets the extents of every surface and the dimensions of its graphic from the real image sizes.");
+          extentsButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.updateSurfaceExtents();
+            }
+          });
+          northPanel.add(extentsButton);
+          
+          JButton detectButton = new JButton("Detect zones");
+          detectButton.setToolTipText("Detects the text blocks and lines on the image. The detected zones can then be accepted or discarded.");
+          detectButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.detectZones();
+            }
+          });
+          northPanel.add(detectButton);
+          northPanel.add(new JButton(ctrl.getAcceptCandidatesAction()));
+          northPanel.add(new JButton(ctrl.getDiscardCandidatesAction()));
+          
+          JButton importButton = new JButton("Import OCR");
+          importButton.setToolTipText("Imports the zones of an ALTO, PAGE-XML or hOCR layout into the loaded surface.");
+          importButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.importOCRLayout();
+            }
+          });
+          northPanel.add(importButton);
+          
+          JButton exportButton = new JButton("Export annotations");
+          exportButton.setToolTipText("Exports the zones as W3C Web Annotations, one annotation page for every surface.");
+          exportButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.exportAnnotations();
+            }
+          });
+          northPanel.add(exportButton);
+          
+          JButton enhanceButton = new JButton("Enhance");
+          enhanceButton.setToolTipText("Adjusts the levels, gamma and contrast of the image, to read faded ink. The image file is not changed.");
+          enhanceButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.enhanceImage();
+            }
+          });
+          northPanel.add(enhanceButton);
+          
+          JButton rotateButton = new JButton("Rotate");
+          rotateButton.setToolTipText("Rotates the image by a quarter turn, clockwise. The zones keep their coordinates.");
+          rotateButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.rotateImage();
+            }
+          });
+          northPanel.add(rotateButton);
+          
+          JButton deskewButton = new JButton("Deskew");
+          deskewButton.setToolTipText("Straightens the text lines of a skewed scan. Press again to show the scan as it is.");
+          deskewButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.deskew();
+            }
+          });
+          northPanel.add(deskewButton);
+          
+          JButton assignIDsButton = new JButton("Assign IDs");
+          assignIDsButton.setToolTipText("Gives an ID to every zone of the surface that doesn't have one. The pattern is read from etc/id_pattern.txt.");
+          assignIDsButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.assignZoneIDs();
+            }
+          });
+          northPanel.add(assignIDsButton);
+          
+          JButton analyzeButton = new JButton("Analyze zones");
+          analyzeButton.setToolTipText("Finds the overlapping, nested and duplicate zones of the surface.");
+          analyzeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.analyzeZones();
+            }
+          });
+          northPanel.add(analyzeButton);
+          
+          JButton nestButton = new JButton("Nest zones");
+          nestButton.setToolTipText("Moves every zone inside the smallest zone that contains it.");
+          nestButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.nestZones();
+            }
+          });
+          northPanel.add(nestButton);
+          
+          JButton reorderButton = new JButton("Reorder zones");
+          reorderButton.setToolTipText("Rewrites the zones of the surface in reading order, column by column. Press N and P in the view to visit them.");
+          reorderButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.reorderZones();
+            }
+          });
+          northPanel.add(reorderButton);
+          
+          final JComboBox levelsCombo = new JComboBox(new String[] {"All levels", "1 level", "2 levels", "3 levels"});
+          levelsCombo.setToolTipText("The nesting levels of the zones that are presented.");
+          levelsCombo.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              int index = levelsCombo.getSelectedIndex();
+              ctrl.setVisibleDepth(index <= 0 ? Integer.MAX_VALUE : index);
+            }
+          });
+          northPanel.add(levelsCombo);
+          
+          final JComboBox smallZonesCombo = new JComboBox(new String[] {"Small zones as clusters", "Small zones as heatmap", "Hide small zones", "Draw all zones"});
+          smallZonesCombo.setToolTipText("How the zones too small to be seen at the current zoom are presented.");
+          smallZonesCombo.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ZoneLevelOfDetail.Mode[] modes = new ZoneLevelOfDetail.Mode[] {
+                  ZoneLevelOfDetail.Mode.CLUSTER, ZoneLevelOfDetail.Mode.HEATMAP, ZoneLevelOfDetail.Mode.SKIP, ZoneLevelOfDetail.Mode.ALL};
+              ctrl.setLevelOfDetailMode(modes[smallZonesCombo.getSelectedIndex()]);
+            }
+          });
+          northPanel.add(smallZonesCombo);
+          
+          final JToggleButton snapButton = new JToggleButton("Snap");
+          snapButton.setToolTipText("Adjusts the zones to the ink while they are drawn or resized.");
+          snapButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+              ctrl.setSnapEnabled(snapButton.isSelected());
+            }
+          });
+          northPanel.add(snapButton);
+
+          SurfaceStrip surfaceStrip = new SurfaceStrip();
+          surfaceStrip.setThumbnailCache(new ThumbnailCache(getCacheDir("thumbnails"), MAX_THUMBNAIL_CACHE_SIZE));
+          ctrl.installSurfaceStrip(surfaceStrip);
 
           jPanel.add(northPanel, BorderLayout.NORTH);
+          jPanel.add(surfaceStrip.getPlaceholder(), BorderLayout.WEST);
           jPanel.add(imageViewerPanel.getPlaceholder(), BorderLayout.CENTER);
 
           viewInfo.setComponent(jPanel);
@@ -137,6 +310,23 @@ public class ImageMarkupPluginExtension implements WorkspaceAccessPluginExtensio
     });
   }
 
+  /**
+   * Gets a cache folder: in the plugin folder or, if that is read-only, in the 
+   * temporary folder.
+   * 
+   * @param name The name of the cache.
+   * 
+   * @return The cache folder.
+   */
+  private static File getCacheDir(String name) {
+    File pluginDir = ImageMarkupPlugin.getInstance().getDescriptor().getBaseDir();
+    File dir = new File(pluginDir, "cache/" + name);
+    if (!dir.isDirectory() && !dir.mkdirs() || !dir.canWrite()) {
+      dir = new File(System.getProperty("java.io.tmpdir"), "image-markup-" + name);
+    }
+    return dir;
+  }
+
   @Override
   public boolean applicationClosing() {
     return true;
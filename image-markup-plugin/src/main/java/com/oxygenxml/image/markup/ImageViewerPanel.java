@@ -3,11 +3,16 @@ package com.oxygenxml.image.markup;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.imageio.ImageIO;
 import javax.swing.JComponent;
@@ -15,9 +20,26 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.Scrollable;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 import com.oxygenxml.image.markup.controller.ImageScaleSupport;
 import com.oxygenxml.image.markup.decorator.ImageDecorator;
+import com.oxygenxml.image.markup.enhance.EnhancedTileSource;
+import com.oxygenxml.image.markup.enhance.Enhancement;
+import com.oxygenxml.image.markup.iiif.IIIFTileSource;
+import com.oxygenxml.image.markup.image.AsyncTileSource;
+import com.oxygenxml.image.markup.image.CachedTileSource;
+import com.oxygenxml.image.markup.image.ImageDecoders;
+import com.oxygenxml.image.markup.image.ImageDimensionProbe;
+import com.oxygenxml.image.markup.image.ImageHandle;
+import com.oxygenxml.image.markup.image.ImageTileSource;
+import com.oxygenxml.image.markup.image.MappedTileCache;
+import com.oxygenxml.image.markup.image.OffHeapTileSource;
+import com.oxygenxml.image.markup.image.ReducedImage;
+import com.oxygenxml.image.markup.image.TilePrefetcher;
+import com.oxygenxml.image.markup.image.TilePyramid;
+import com.oxygenxml.image.markup.image.TileSource;
 
 /**
  * Placeholder that draws an image. It supports additional decorators that can
@@ -30,14 +52,86 @@ public class ImageViewerPanel extends JPanel implements Scrollable {
    * The ID of the view.
    */
   public static final String IMAGE_VIEWER_ID = "Image-Markup";
+  /**
+   * The property fired when an image read in the background is shown.
+   */
+  public static final String IMAGE_PROPERTY = "image";
+  /**
+   * The number of enhancement settings whose tiles are kept.
+   */
+  private static final int MAX_ENHANCED_SETTINGS = 3;
   /**
    * A scroll pane over the image.
    */
   JScrollPane imageScroll;
   /**
-   * The painted image.
+   * The decoded image. <code>null</code> when the tiles come from the tile 
+   * cache, a decoder or an image server, or are kept outside the heap.
    */
   private BufferedImage image;
+  /**
+   * Incremented every time the image changes, so background work on an image 
+   * can tell if it is still shown.
+   */
+  private int imageGeneration;
+  /**
+   * The location of the painted image.
+   */
+  private URL imageURL;
+  /**
+   * <code>true</code> while the image is read in the background.
+   */
+  private boolean loading;
+  /**
+   * The scroll position set while the image is read in the background.
+   */
+  private Point pendingViewPosition;
+  /**
+   * The painted tiles.
+   */
+  private TileSource tiles;
+  /**
+   * Keeps the tiles of large images between sessions. <code>null</code> to 
+   * always decode the images.
+   */
+  private MappedTileCache tileCache;
+  /**
+   * The enhancement applied to the painted image.
+   */
+  private Enhancement enhancement = Enhancement.NONE;
+  /**
+   * The enhanced tiles of the last used settings, so going back to a setting 
+   * doesn't compute the tiles again.
+   */
+  private final Map<Enhancement, EnhancedTileSource> enhancedTiles = new LinkedHashMap<Enhancement, EnhancedTileSource>(4, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Enhancement, EnhancedTileSource> eldest) {
+      if (size() > MAX_ENHANCED_SETTINGS) {
+        eldest.getValue().close();
+        return true;
+      }
+      return false;
+    }
+  };
+  /**
+   * The last enhanced tiles painted completely. Their tiles stand in for the 
+   * ones of a new setting until those are computed.
+   */
+  private EnhancedTileSource shownEnhanced;
+  /**
+   * Computes the enhanced tiles in the background. <code>null</code> if none 
+   * were computed yet.
+   */
+  private SwingWorker<Integer, Void> preparing;
+  /**
+   * <code>true</code> if a paint needed enhanced tiles while others were 
+   * computed.
+   */
+  private boolean preparePending;
+  /**
+   * The size of the painted image, read from the image header.
+   */
+  private Dimension imageSize;
   /**
    * Decorator used to draw over the image.
    */
@@ -46,6 +140,23 @@ public class ImageViewerPanel extends JPanel implements Scrollable {
    * Scale support.
    */
   private ImageScaleSupport imageScaleSupport;
+  /**
+   * Loads the tiles around the visible ones, before they are scrolled into view.
+   */
+  private final TilePrefetcher prefetcher = new TilePrefetcher();
+  /**
+   * The visible part of the image when it was last painted, in image 
+   * coordinates. <code>null</code> before the first paint.
+   */
+  private Rectangle lastVisible;
+  /**
+   * The horizontal scroll direction, in image coordinates: -1, 0 or 1.
+   */
+  private int scrollDx;
+  /**
+   * The vertical scroll direction, in image coordinates: -1, 0 or 1.
+   */
+  private int scrollDy;
 
   /**
    * Constructor.
@@ -55,20 +166,260 @@ public class ImageViewerPanel extends JPanel implements Scrollable {
   }
   
   /**
-   * Show the given image.
+   * Show the given image. Local images are read right away. Remote ones, like 
+   * the images of an image server, are read in the background and nothing is 
+   * painted meanwhile. The {@link #IMAGE_PROPERTY} is fired once they are shown.
    * 
    * @param imageURL Image location.
    * 
    * @throws IOException Unable to load the image from the given location.
    */
-  public void showImage(URL imageURL) throws IOException {
-    image = ImageIO.read(imageURL);
+  public void showImage(final URL imageURL) throws IOException {
+    if (ImageDimensionProbe.toFile(imageURL) != null) {
+      showImage(load(imageURL));
+      return;
+    }
+
+    closeImage();
+    this.imageURL = imageURL;
+    loading = true;
+    final int generation = imageGeneration;
+    new SwingWorker<ImageHandle, Void>() {
+      @Override
+      protected ImageHandle doInBackground() throws IOException {
+        return load(imageURL);
+      }
 
+      @Override
+      protected void done() {
+        ImageHandle loaded = null;
+        try {
+          loaded = get();
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+        if (generation != imageGeneration) {
+          // Another image was shown meanwhile.
+          if (loaded != null) {
+            loaded.close();
+          }
+        } else {
+          loading = false;
+          if (loaded != null) {
+            showLoaded(loaded);
+          }
+        }
+      }
+    }.execute();
+  }
+
+  /**
+   * Reads an image: its tiles from the tile cache or a decoder, otherwise the 
+   * decoded pixels. Called in the background for remote images.
+   * 
+   * @param imageURL Image location.
+   * 
+   * @return The image.
+   * 
+   * @throws IOException Unable to load the image from the given location.
+   */
+  private ImageHandle load(URL imageURL) throws IOException {
+    TileSource opened = tileCache != null ? tileCache.open(imageURL) : null;
+    if (opened == null) {
+      // Tiled masters, very large scans and image servers are read tile by tile.
+      opened = ImageDecoders.open(imageURL);
+    }
+    if (opened != null) {
+      return new ImageHandle(imageURL, new Dimension(opened.getWidth(), opened.getHeight()), opened, null);
+    }
+    // The header is enough to size the scroll area.
+    Dimension size = ImageDimensionProbe.getInstance().probe(imageURL);
+    BufferedImage decoded = ImageIO.read(imageURL);
+    if (decoded == null) {
+      throw new IOException("Unable to read image: " + imageURL);
+    }
+    TileSource created = createTiles(decoded);
+    if (tileCache != null && tileCache.accepts(imageURL, size)) {
+      storeTiles(imageURL, created);
+    }
+    return new ImageHandle(imageURL, size, created, created instanceof ImageTileSource ? decoded : null);
+  }
+
+  /**
+   * Creates the tiles of a decoded image. The pixels of large images are moved 
+   * outside the heap.
+   * 
+   * @param decoded The decoded image.
+   * 
+   * @return The tiles.
+   */
+  private static TileSource createTiles(BufferedImage decoded) {
+    if ((long) decoded.getWidth() * decoded.getHeight() >= OffHeapTileSource.MIN_PIXELS) {
+      try {
+        return new OffHeapTileSource(decoded, TilePyramid.TILE_SIZE);
+      } catch (OutOfMemoryError e) {
+        // Not enough direct memory, the image stays on the heap.
+        e.printStackTrace();
+      }
+    }
+    return new ImageTileSource(decoded, TilePyramid.TILE_SIZE);
+  }
+
+  /**
+   * Shows an image decoded before.
+   * 
+   * @param handle The decoded image. The viewer owns it afterwards.
+   */
+  public void showImage(ImageHandle handle) {
+    setImage(handle);
+    pendingViewPosition = null;
+    if (imageScaleSupport != null) {
+      imageScaleSupport.setImageSize(imageSize);
+    }
+    decorator.clean();
+
+    imageScroll.invalidate();
+    imageScroll.revalidate();
+    imageScroll.repaint();
+  }
+
+  /**
+   * Shows an image read in the background. The zones, the zoom, the rotation 
+   * and the scroll position set meanwhile are kept.
+   * 
+   * @param handle The image. The viewer owns it afterwards.
+   */
+  private void showLoaded(ImageHandle handle) {
+    setImage(handle);
+    if (imageScaleSupport != null) {
+      int quadrants = imageScaleSupport.getQuadrants();
+      double skewAngle = imageScaleSupport.getSkewAngle();
+      imageScaleSupport.setImageSize(imageSize);
+      imageScaleSupport.setRotation(quadrants, skewAngle);
+    }
+
+    imageScroll.invalidate();
+    imageScroll.revalidate();
+    imageScroll.repaint();
+    if (pendingViewPosition != null) {
+      setViewPosition(pendingViewPosition);
+      pendingViewPosition = null;
+    }
+    firePropertyChange(IMAGE_PROPERTY, null, imageURL);
+  }
+
+  /**
+   * Replaces the shown image.
+   * 
+   * @param handle The new image. The viewer owns it afterwards.
+   */
+  private void setImage(ImageHandle handle) {
+    stopPrefetch();
+    if (tiles != null) {
+      tiles.close();
+    }
+    clearEnhancedTiles();
+    imageURL = handle.getURL();
+    imageGeneration++;
+    loading = false;
+    imageSize = handle.getSize();
+    tiles = handle.getTiles();
+    image = handle.getImage();
+    listenToTiles();
+  }
+
+  /**
+   * Repaints when a tile loaded in the background is ready.
+   */
+  private void listenToTiles() {
+    if (tiles instanceof AsyncTileSource) {
+      ((AsyncTileSource) tiles).setTileListener(new Runnable() {
+        @Override
+        public void run() {
+          repaint();
+        }
+      });
+    }
+  }
+
+  /**
+   * Closes the image and releases its memory.
+   */
+  public void closeImage() {
+    ImageHandle closed = detachImage();
+    if (closed != null) {
+      closed.close();
+    }
+  }
+
+  /**
+   * Takes the image out of the viewer, without releasing it, so it can be 
+   * shown again later without decoding it.
+   * 
+   * @return The decoded image or <code>null</code> if no image is loaded. The 
+   * caller owns it.
+   */
+  public ImageHandle detachImage() {
+    ImageHandle detached = tiles != null ? new ImageHandle(imageURL, imageSize, tiles, image) : null;
+    stopPrefetch();
+    if (tiles instanceof AsyncTileSource) {
+      // Nothing is painted until it is shown again.
+      ((AsyncTileSource) tiles).setVisibleTiles(0, 0, -1, 0, -1);
+      ((AsyncTileSource) tiles).setPrefetchTiles(0, 0, -1, 0, -1);
+      ((AsyncTileSource) tiles).setTileListener(null);
+    }
+    tiles = null;
+    clearEnhancedTiles();
+    image = null;
+    imageURL = null;
+    imageGeneration++;
+    loading = false;
+    pendingViewPosition = null;
+    imageSize = null;
+    if (imageScaleSupport != null) {
+      imageScaleSupport.setImageSize(null);
+    }
     decorator.clean();
 
     imageScroll.invalidate();
     imageScroll.revalidate();
     imageScroll.repaint();
+    return detached;
+  }
+
+  /**
+   * @return The location of the loaded image or <code>null</code> if no image is loaded.
+   */
+  public URL getImageURL() {
+    return imageURL;
+  }
+
+  /**
+   * @return The position of the visible part of the image, in view coordinates.
+   */
+  public Point getViewPosition() {
+    return imageScroll.getViewport().getViewPosition();
+  }
+
+  /**
+   * Scrolls the image, once the scroll area has been laid out. While an image 
+   * is read in the background, once it is shown.
+   * 
+   * @param position The position of the visible part of the image, in view coordinates.
+   */
+  public void setViewPosition(final Point position) {
+    if (loading) {
+      // Applied once the image is there.
+      pendingViewPosition = position;
+      return;
+    }
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        imageScroll.validate();
+        imageScroll.getViewport().setViewPosition(position);
+      }
+    });
   }
 
   /**
@@ -77,18 +428,326 @@ public class ImageViewerPanel extends JPanel implements Scrollable {
   @Override
   protected void paintComponent(Graphics g) {
     super.paintComponent(g);
-    if (image != null) { 
-      Graphics2D g2d = (Graphics2D) g;
-
-      AffineTransform tx = new AffineTransform();
-      double scale = imageScaleSupport.getScale();
-      tx.scale(scale, scale);
-      g2d.drawImage(image, tx, this);
+    if (tiles != null) { 
+      paintTiles(g);
 
       decorator.paint(g);
     }
   }
 
+  /**
+   * Paints the tiles that intersect the clip, from the level closest to the 
+   * current scale.
+   * 
+   * @param g The graphics.
+   */
+  private void paintTiles(Graphics g) {
+    TileSource painted = getPaintedTiles();
+    double scale = imageScaleSupport.getScale();
+    int level = TilePyramid.chooseLevel(scale, painted.getLevelCount());
+    int tileSize = painted.getTileSize();
+    // The painted size of a level pixel.
+    double pixelScale = scale * (1 << level);
+    double paintedTile = tileSize * pixelScale;
+
+    Rectangle clip = g.getClipBounds();
+    if (clip == null) {
+      clip = new Rectangle(getSize());
+    }
+    AffineTransform transform = imageScaleSupport.getTransform();
+    if (transform.getType() != AffineTransform.TYPE_IDENTITY 
+        && transform.getType() != AffineTransform.TYPE_UNIFORM_SCALE) {
+      paintRotatedTiles((Graphics2D) g, painted, level, imageScaleSupport.getOriginal(clip));
+      return;
+    }
+    int columns = TilePyramid.getTileCount(painted.getWidth(), tileSize, level);
+    int rows = TilePyramid.getTileCount(painted.getHeight(), tileSize, level);
+    // The whole viewport, the clip can be a small part of it.
+    Rectangle visible = getVisibleRect();
+    int fromVisibleColumn = Math.max(0, (int) (visible.x / paintedTile));
+    int fromVisibleRow = Math.max(0, (int) (visible.y / paintedTile));
+    prefetchAround(painted, level, new Rectangle(fromVisibleColumn, fromVisibleRow,
+        Math.min(columns - 1, (int) ((visible.x + visible.width) / paintedTile)) - fromVisibleColumn + 1,
+        Math.min(rows - 1, (int) ((visible.y + visible.height) / paintedTile)) - fromVisibleRow + 1), 
+        columns, rows);
+    int fromColumn = Math.max(0, (int) (clip.x / paintedTile));
+    int toColumn = Math.min(columns - 1, (int) ((clip.x + clip.width) / paintedTile));
+    int fromRow = Math.max(0, (int) (clip.y / paintedTile));
+    int toRow = Math.min(rows - 1, (int) ((clip.y + clip.height) / paintedTile));
+    if (painted instanceof EnhancedTileSource) {
+      prepareInBackground((EnhancedTileSource) painted, level, fromColumn, toColumn, fromRow, toRow);
+    }
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int column = fromColumn; column <= toColumn; column++) {
+        try {
+          BufferedImage tile = getTile(painted, level, column, row);
+          // The edges are rounded the same way for neighbors, so no seams are visible.
+          int x = (int) (column * paintedTile);
+          int y = (int) (row * paintedTile);
+          int x2 = (int) ((column * tileSize + tile.getWidth()) * pixelScale);
+          int y2 = (int) ((row * tileSize + tile.getHeight()) * pixelScale);
+          g.drawImage(tile, x, y, x2 - x, y2 - y, null);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Paints the tiles of a rotated view. The graphics are transformed, so the 
+   * tiles are placed in image coordinates.
+   * 
+   * @param g The graphics.
+   * @param painted The tiles to paint.
+   * @param level The level of the tiles.
+   * @param imageClip The bounds of the clip, in image coordinates.
+   */
+  private void paintRotatedTiles(Graphics2D g, TileSource painted, int level, Rectangle imageClip) {
+    int tileSize = painted.getTileSize();
+    // The size of a tile in image pixels.
+    int imageTile = tileSize << level;
+    int columns = TilePyramid.getTileCount(painted.getWidth(), tileSize, level);
+    int rows = TilePyramid.getTileCount(painted.getHeight(), tileSize, level);
+    int fromColumn = Math.max(0, imageClip.x / imageTile);
+    int toColumn = Math.min(columns - 1, (imageClip.x + imageClip.width) / imageTile);
+    int fromRow = Math.max(0, imageClip.y / imageTile);
+    int toRow = Math.min(rows - 1, (imageClip.y + imageClip.height) / imageTile);
+    // The whole viewport, the clip can be a small part of it.
+    Rectangle visible = imageScaleSupport.getOriginal(getVisibleRect());
+    int fromVisibleColumn = Math.max(0, visible.x / imageTile);
+    int fromVisibleRow = Math.max(0, visible.y / imageTile);
+    prefetchAround(painted, level, new Rectangle(fromVisibleColumn, fromVisibleRow,
+        Math.min(columns - 1, (visible.x + visible.width) / imageTile) - fromVisibleColumn + 1,
+        Math.min(rows - 1, (visible.y + visible.height) / imageTile) - fromVisibleRow + 1), 
+        columns, rows);
+    if (fromColumn > toColumn || fromRow > toRow) {
+      return;
+    }
+    if (painted instanceof EnhancedTileSource) {
+      prepareInBackground((EnhancedTileSource) painted, level, fromColumn, toColumn, fromRow, toRow);
+    }
+
+    Graphics2D g2d = (Graphics2D) g.create();
+    try {
+      g2d.transform(imageScaleSupport.getTransform());
+      g2d.scale(1 << level, 1 << level);
+      if (!imageScaleSupport.isAxisAligned()) {
+        // Skewed pixels are interpolated, otherwise the text gets jagged.
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      }
+      for (int row = fromRow; row <= toRow; row++) {
+        for (int column = fromColumn; column <= toColumn; column++) {
+          try {
+            g2d.drawImage(getTile(painted, level, column, row), column * tileSize, row * tileSize, null);
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    } finally {
+      g2d.dispose();
+    }
+  }
+
+  /**
+   * Gets a tile to paint. An enhanced tile that is not computed yet is replaced 
+   * by the tile of the previous setting or, if that is gone too, by the image 
+   * tile.
+   * 
+   * @param painted The painted tiles.
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   * 
+   * @return The tile.
+   * 
+   * @throws IOException Unable to read the tile.
+   */
+  private BufferedImage getTile(TileSource painted, int level, int column, int row) throws IOException {
+    if (!(painted instanceof EnhancedTileSource)) {
+      return painted.getTile(level, column, row);
+    }
+    BufferedImage tile = ((EnhancedTileSource) painted).getCachedTile(level, column, row);
+    if (tile == null && shownEnhanced != null) {
+      tile = shownEnhanced.getCachedTile(level, column, row);
+    }
+    return tile != null ? tile : tiles.getTile(level, column, row);
+  }
+
+  /**
+   * Computes the enhanced tiles of a range in the background and repaints when 
+   * they are ready. One range is computed at a time, the latest painted one 
+   * is computed next.
+   * 
+   * @param painted The enhanced tiles.
+   * @param level The level.
+   * @param fromColumn The first column.
+   * @param toColumn The last column, inclusive.
+   * @param fromRow The first row.
+   * @param toRow The last row, inclusive.
+   */
+  private void prepareInBackground(final EnhancedTileSource painted, final int level, 
+      final int fromColumn, final int toColumn, final int fromRow, final int toRow) {
+    if (painted.isPrepared(level, fromColumn, toColumn, fromRow, toRow)) {
+      shownEnhanced = painted;
+      return;
+    }
+    if (preparing != null && !preparing.isDone()) {
+      preparePending = true;
+      return;
+    }
+    preparePending = false;
+    preparing = new SwingWorker<Integer, Void>() {
+      @Override
+      protected Integer doInBackground() {
+        return painted.prepare(level, fromColumn, toColumn, fromRow, toRow);
+      }
+
+      @Override
+      protected void done() {
+        try {
+          // Only a round that added tiles repaints, so a tile that cannot be 
+          // read is not computed again and again.
+          if (get() > 0 || preparePending) {
+            repaint();
+          }
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    preparing.execute();
+  }
+
+  /**
+   * Says which tiles are visible and loads the ring of tiles around them, 
+   * mostly in the scroll direction, so panning finds them ready. The tiles 
+   * that are no longer needed are not loaded.
+   * 
+   * @param painted The painted tiles.
+   * @param level The painted level.
+   * @param visibleTiles The visible tiles: the first column and row and their counts.
+   * @param columns The number of columns of the level.
+   * @param rows The number of rows of the level.
+   */
+  private void prefetchAround(TileSource painted, int level, Rectangle visibleTiles, int columns, int rows) {
+    updateScrollDirection();
+    Rectangle ring = visibleTiles.isEmpty() ? visibleTiles
+        : TilePrefetcher.getRing(visibleTiles, scrollDx, scrollDy, columns, rows);
+    // The caches hold the visible tiles and the ring together, so they don't 
+    // evict each other.
+    int cachedTiles = ring.width * ring.height;
+    if (painted instanceof CachedTileSource) {
+      ((CachedTileSource) painted).setCachedTileCount(cachedTiles);
+    }
+    if (tiles != painted && tiles instanceof CachedTileSource) {
+      ((CachedTileSource) tiles).setCachedTileCount(cachedTiles);
+    }
+    if (tiles instanceof AsyncTileSource) {
+      // The source loads the tiles itself, the visible ones first.
+      AsyncTileSource async = (AsyncTileSource) tiles;
+      async.setVisibleTiles(level, visibleTiles.x, visibleTiles.x + visibleTiles.width - 1, 
+          visibleTiles.y, visibleTiles.y + visibleTiles.height - 1);
+      async.setPrefetchTiles(level, ring.x, ring.x + ring.width - 1, ring.y, ring.y + ring.height - 1);
+    } else {
+      prefetcher.prefetch(painted, level, visibleTiles, ring, scrollDx, scrollDy);
+    }
+  }
+
+  /**
+   * Updates the scroll direction from the visible part of the image. It is 
+   * kept while the view doesn't move.
+   */
+  private void updateScrollDirection() {
+    Rectangle visible = imageScaleSupport.getOriginal(getVisibleRect());
+    if (lastVisible != null) {
+      int dx = Integer.signum((int) (visible.getCenterX() - lastVisible.getCenterX()));
+      int dy = Integer.signum((int) (visible.getCenterY() - lastVisible.getCenterY()));
+      if (dx != 0 || dy != 0) {
+        scrollDx = dx;
+        scrollDy = dy;
+      }
+    }
+    lastVisible = visible;
+  }
+
+  /**
+   * Stops loading the tiles around the visible ones, before the tiles change.
+   */
+  private void stopPrefetch() {
+    prefetcher.cancel();
+    lastVisible = null;
+    scrollDx = 0;
+    scrollDy = 0;
+  }
+
+  /**
+   * @return The tiles to paint: the image tiles with the current enhancement.
+   */
+  private TileSource getPaintedTiles() {
+    if (enhancement.isIdentity()) {
+      return tiles;
+    }
+    EnhancedTileSource painted = enhancedTiles.get(enhancement);
+    if (painted == null) {
+      painted = new EnhancedTileSource(tiles, enhancement);
+      enhancedTiles.put(enhancement, painted);
+    }
+    return painted;
+  }
+
+  /**
+   * Sets the enhancement applied to the painted image. The image itself and the 
+   * zones are not changed.
+   * 
+   * @param enhancement The enhancement.
+   */
+  public void setEnhancement(Enhancement enhancement) {
+    this.enhancement = enhancement;
+    repaint();
+  }
+
+  /**
+   * @return The enhancement applied to the painted image.
+   */
+  public Enhancement getEnhancement() {
+    return enhancement;
+  }
+
+  /**
+   * Drops the enhanced tiles of the previous image.
+   */
+  private void clearEnhancedTiles() {
+    for (EnhancedTileSource enhanced : enhancedTiles.values()) {
+      enhanced.close();
+    }
+    enhancedTiles.clear();
+    shownEnhanced = null;
+  }
+
+  /**
+   * Writes the tiles in the tile cache, in the background.
+   * 
+   * @param url The image location.
+   * @param toStore The image tiles.
+   */
+  private void storeTiles(final URL url, final TileSource toStore) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          tileCache.store(url, toStore);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }, "Tile cache");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
   /**
    * @return The image container.
    */
@@ -147,13 +806,14 @@ public class ImageViewerPanel extends JPanel implements Scrollable {
     int scrollWidth = scrollDim.width;
     int scrollHeight = scrollDim.height;
 
-    if(image == null) {
+    if(imageSize == null) {
       toRet = new Dimension(scrollWidth, scrollHeight);
     } else {
       // One to one
-      double scale = imageScaleSupport.getScale();
-      int width2 = (int) (image.getWidth() * scale);
-      int height2 = (int) (image.getHeight() * scale);
+      // Rotated and scaled
+      Dimension viewSize = imageScaleSupport.getViewSize();
+      int width2 = viewSize.width;
+      int height2 = viewSize.height;
       toRet = 
           new Dimension(
               width2 < scrollWidth ? scrollWidth : width2, 
@@ -177,4 +837,66 @@ public class ImageViewerPanel extends JPanel implements Scrollable {
   public ImageScaleSupport getImageScaleSupport() {
     return imageScaleSupport;
   }
+  
+  /**
+   * Sets the cache that keeps the tiles of large images between sessions.
+   * 
+   * @param tileCache The tile cache. <code>null</code> to always decode the images.
+   */
+  public void setTileCache(MappedTileCache tileCache) {
+    this.tileCache = tileCache;
+  }
+  
+  /**
+   * @return A number that changes every time another image is shown.
+   */
+  public int getImageGeneration() {
+    return imageGeneration;
+  }
+
+  /**
+   * Creates the task that reads the pixels of the loaded image for an analysis, 
+   * to be called in the background. An image already on the heap is used as it 
+   * is. Others are read with a subsampling: a local or remote file through 
+   * ImageIO, an image server at a reduced size. Nothing is kept in the viewer.
+   * 
+   * @param maxPixels The most pixels to read.
+   * 
+   * @return The task or <code>null</code> if no image is loaded.
+   */
+  public Callable<ReducedImage> getReducedImage(final long maxPixels) {
+    if (tiles == null) {
+      return null;
+    }
+    final BufferedImage decoded = image;
+    final URL url = imageURL;
+    final IIIFTileSource server = tiles instanceof IIIFTileSource ? (IIIFTileSource) tiles : null;
+    return new Callable<ReducedImage>() {
+      @Override
+      public ReducedImage call() throws IOException {
+        if (decoded != null) {
+          return new ReducedImage(decoded, 1);
+        }
+        if (server != null) {
+          int width = server.getWidth();
+          int height = server.getHeight();
+          int subsampling = ReducedImage.getSubsampling(width, height, maxPixels);
+          BufferedImage read = ImageIO.read(server.getInfo().getRegionURL(0, 0, width, height,
+              (width + subsampling - 1) / subsampling, (height + subsampling - 1) / subsampling));
+          if (read == null) {
+            throw new IOException("Unable to read " + url);
+          }
+          return new ReducedImage(read, subsampling);
+        }
+        return ReducedImage.read(url, maxPixels);
+      }
+    };
+  }
+  
+  /**
+   * @return The size of the loaded image or <code>null</code> if no image is loaded.
+   */
+  public Dimension getImageSize() {
+    return imageSize != null ? new Dimension(imageSize) : null;
+  }
 }
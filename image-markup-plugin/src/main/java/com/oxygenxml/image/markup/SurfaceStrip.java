@@ -0,0 +1,346 @@
+package com.oxygenxml.image.markup;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.ListCellRenderer;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+
+import com.oxygenxml.image.markup.image.ThumbnailCache;
+
+/**
+ * A strip with a preview of every surface of the document, with its zones.
+ * The previews come from a {@link ThumbnailCache} and are loaded by a pool of
+ * workers, so the strip is presented at once and filled in as they arrive.
+ */
+public class SurfaceStrip {
+  /**
+   * The number of workers that load previews.
+   */
+  private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  /**
+   * The space around a preview.
+   */
+  private static final int PADDING = 6;
+  /**
+   * The color of the zone outlines.
+   */
+  private static final Color ZONE_COLOR = new Color(220, 0, 0);
+
+  /**
+   * Notified when a surface is chosen.
+   */
+  public interface SurfaceListener {
+    /**
+     * A surface was chosen.
+     *
+     * @param surface The surface.
+     */
+    void surfaceChosen(Surface surface);
+  }
+
+  /**
+   * A surface of the document.
+   */
+  public static class Surface {
+    /**
+     * The image reference, as written in the document.
+     */
+    private final String reference;
+    /**
+     * The image location.
+     */
+    private final URL location;
+    /**
+     * The surface extents. <code>null</code> if not known.
+     */
+    private final Dimension extents;
+    /**
+     * The zones, in image coordinates.
+     */
+    private final List<Rectangle> zones;
+
+    /**
+     * Constructor.
+     *
+     * @param reference The image reference, as written in the document.
+     * @param location The image location.
+     * @param extents The surface extents. <code>null</code> if not known.
+     * @param zones The zones, in image coordinates.
+     */
+    public Surface(String reference, URL location, Dimension extents, List<Rectangle> zones) {
+      this.reference = reference;
+      this.location = location;
+      this.extents = extents;
+      this.zones = zones;
+    }
+
+    /**
+     * @return The image reference, as written in the document.
+     */
+    public String getReference() {
+      return reference;
+    }
+
+    /**
+     * @return The image location.
+     */
+    public URL getLocation() {
+      return location;
+    }
+  }
+
+  /**
+   * The list of surfaces.
+   */
+  private final JList list;
+  /**
+   * The surfaces.
+   */
+  private final DefaultListModel model = new DefaultListModel();
+  /**
+   * The scroll pane over the list.
+   */
+  private final JScrollPane scroll;
+  /**
+   * The loaded previews, by image location.
+   */
+  private Map<String, BufferedImage> thumbnails = new HashMap<String, BufferedImage>();
+  /**
+   * The previews being loaded.
+   */
+  private final Map<String, Boolean> loading = new HashMap<String, Boolean>();
+  /**
+   * The source of the previews.
+   */
+  private ThumbnailCache cache;
+  /**
+   * Loads the previews.
+   */
+  private final ExecutorService workers = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "Surface previews");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  });
+  /**
+   * Notified when a surface is chosen.
+   */
+  private final List<SurfaceListener> listeners = new ArrayList<SurfaceListener>();
+
+  /**
+   * Constructor.
+   */
+  @SuppressWarnings("unchecked")
+  public SurfaceStrip() {
+    list = new JList(model);
+    list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    list.setFixedCellWidth(ThumbnailCache.THUMBNAIL_SIZE + 2 * PADDING);
+    list.setFixedCellHeight(ThumbnailCache.THUMBNAIL_SIZE + 2 * PADDING);
+    list.setCellRenderer(new ListCellRenderer() {
+      /**
+       * Paints the preview of the rendered surface.
+       */
+      private final SurfaceCell cell = new SurfaceCell();
+
+      @Override
+      public Component getListCellRendererComponent(JList list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+        Surface surface = (Surface) value;
+        cell.surface = surface;
+        cell.thumbnail = thumbnails.get(surface.location.toExternalForm());
+        cell.selected = isSelected;
+        cell.setToolTipText(surface.reference);
+        if (cell.thumbnail == null) {
+          load(surface.location);
+        }
+        return cell;
+      }
+    });
+    list.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        int index = list.locationToIndex(e.getPoint());
+        if (index != -1 && list.getCellBounds(index, index).contains(e.getPoint())) {
+          for (SurfaceListener listener : listeners) {
+            listener.surfaceChosen((Surface) model.get(index));
+          }
+        }
+      }
+    });
+    scroll = new JScrollPane(list);
+    scroll.setPreferredSize(new Dimension(ThumbnailCache.THUMBNAIL_SIZE + 2 * PADDING + 20, 0));
+  }
+
+  /**
+   * Sets the source of the previews.
+   *
+   * @param cache The source of the previews.
+   */
+  public void setThumbnailCache(ThumbnailCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * @return The component that presents the strip.
+   */
+  public JComponent getPlaceholder() {
+    return scroll;
+  }
+
+  /**
+   * Adds a listener notified when a surface is chosen.
+   *
+   * @param listener The listener.
+   */
+  public void addSurfaceListener(SurfaceListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Presents the given surfaces. The previews already loaded are kept, the
+   * others are loaded when their cell is first painted. The previews that
+   * failed are tried again.
+   *
+   * @param surfaces The surfaces of the document.
+   */
+  @SuppressWarnings("unchecked")
+  public void setSurfaces(List<Surface> surfaces) {
+    Map<String, BufferedImage> kept = new HashMap<String, BufferedImage>();
+    for (Surface surface : surfaces) {
+      String key = surface.location.toExternalForm();
+      BufferedImage thumbnail = thumbnails.get(key);
+      if (thumbnail != null) {
+        kept.put(key, thumbnail);
+      }
+    }
+    thumbnails = kept;
+    loading.clear();
+
+    // Replaced in place, so the selection and the scroll position stay.
+    int common = Math.min(model.size(), surfaces.size());
+    for (int i = 0; i < common; i++) {
+      model.set(i, surfaces.get(i));
+    }
+    if (model.size() > common) {
+      model.removeRange(common, model.size() - 1);
+    }
+    for (int i = common; i < surfaces.size(); i++) {
+      model.addElement(surfaces.get(i));
+    }
+  }
+
+  /**
+   * Loads a preview in the background.
+   *
+   * @param location The image location.
+   */
+  private void load(final URL location) {
+    final String key = location.toExternalForm();
+    if (cache == null || loading.containsKey(key)) {
+      return;
+    }
+    loading.put(key, Boolean.TRUE);
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        BufferedImage thumbnail = null;
+        try {
+          thumbnail = cache.getThumbnail(location);
+        } catch (IOException e) {
+          // Presented without a preview.
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+        final BufferedImage loaded = thumbnail;
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            if (loaded != null) {
+              thumbnails.put(key, loaded);
+              // A failed preview is not loaded again until the surfaces change.
+              loading.remove(key);
+            }
+            list.repaint();
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Paints the preview of a surface, with its zones.
+   */
+  private static class SurfaceCell extends JComponent {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The painted surface.
+     */
+    Surface surface;
+    /**
+     * The preview. <code>null</code> while loading.
+     */
+    BufferedImage thumbnail;
+    /**
+     * <code>true</code> if the surface is selected.
+     */
+    boolean selected;
+
+    /**
+     * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+      if (selected) {
+        g.setColor(new Color(184, 207, 229));
+        g.fillRect(0, 0, getWidth(), getHeight());
+      }
+      if (thumbnail == null) {
+        g.setColor(Color.LIGHT_GRAY);
+        g.drawRect(PADDING, PADDING, ThumbnailCache.THUMBNAIL_SIZE - 1, ThumbnailCache.THUMBNAIL_SIZE - 1);
+        return;
+      }
+
+      int x = (getWidth() - thumbnail.getWidth()) / 2;
+      int y = (getHeight() - thumbnail.getHeight()) / 2;
+      g.drawImage(thumbnail, x, y, null);
+      if (surface.extents != null && surface.extents.width > 0 && surface.extents.height > 0) {
+        double scaleX = (double) thumbnail.getWidth() / surface.extents.width;
+        double scaleY = (double) thumbnail.getHeight() / surface.extents.height;
+        g.setColor(ZONE_COLOR);
+        for (Rectangle zone : surface.zones) {
+          g.drawRect(
+              x + (int) (zone.x * scaleX),
+              y + (int) (zone.y * scaleY),
+              Math.max(1, (int) (zone.width * scaleX)),
+              Math.max(1, (int) (zone.height * scaleY)));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package com.oxygenxml.image.markup;
+
+import com.oxygenxml.image.markup.zones.ZoneChangeEvent;
+
+/**
+ * Observes the changes of the zones made in the view. Unlike
+ * {@link AreaUpdatedListener}, which writes the changes in the document, it is
+ * only told about them, once for every drag or bulk operation. Reloading the
+ * zones from the document is not a change.
+ */
+public interface ZoneChangeListener {
+  /**
+   * The zones were changed in the view.
+   *
+   * @param event The added, removed and modified zones.
+   */
+  void zonesChanged(ZoneChangeEvent event);
+}
@@ -0,0 +1,265 @@
+package com.oxygenxml.image.markup.controller;
+
+import java.awt.Point;
+import java.net.URL;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+
+import com.oxygenxml.image.markup.image.ImageHandle;
+import com.oxygenxml.image.markup.tei.FacsIndex;
+import com.oxygenxml.image.markup.zones.ZoneIndex;
+
+/**
+ * What the viewer showed for an editor, kept while another editor is selected:
+ * the image, the zones, the zoom and the scroll. The state counts the changes
+ * of the document, so the zones are only reused if the document was not
+ * modified meanwhile.
+ */
+public class EditorState implements DocumentListener {
+  /**
+   * The document of the editor.
+   */
+  private final Document document;
+  /**
+   * The name of the image, used to find its surface.
+   */
+  private String imageName;
+  /**
+   * The location of the image.
+   */
+  private URL imageURL;
+  /**
+   * The decoded image. <code>null</code> if it was released and has to be
+   * decoded again.
+   */
+  private ImageHandle image;
+  /**
+   * The zones of the surface. <code>null</code> if they were not loaded.
+   */
+  private ZoneIndex zones;
+  /**
+   * The links between the document and the zones. It keeps listening to the
+   * document, so it stays valid. <code>null</code> if there is none.
+   */
+  private FacsIndex facsIndex;
+  /**
+   * The zoom.
+   */
+  private double scale = 1;
+  /**
+   * The quarter turns of the view.
+   */
+  private int quadrants;
+  /**
+   * The deskew angle, in degrees.
+   */
+  private double skewAngle;
+  /**
+   * The scroll position. <code>null</code> for the top left corner.
+   */
+  private Point viewPosition;
+  /**
+   * The number of changes of the document, since the state was created.
+   */
+  private long modificationStamp;
+  /**
+   * The modification stamp of the document when the zones were read.
+   */
+  private long zonesStamp;
+
+  /**
+   * Constructor. The state listens to the document until it is disposed.
+   *
+   * @param document The document of the editor.
+   */
+  public EditorState(Document document) {
+    this.document = document;
+    document.addDocumentListener(this);
+  }
+
+  /**
+   * Sets the image.
+   *
+   * @param imageName The name of the image, used to find its surface.
+   * @param imageURL The location of the image.
+   * @param image The decoded image. <code>null</code> to decode it again.
+   */
+  public void setImage(String imageName, URL imageURL, ImageHandle image) {
+    this.imageName = imageName;
+    this.imageURL = imageURL;
+    this.image = image;
+  }
+
+  /**
+   * Sets the zones, read from the current document.
+   *
+   * @param zones The zones of the surface. May be <code>null</code>.
+   * @param facsIndex The links between the document and the zones. May be <code>null</code>.
+   */
+  public void setZones(ZoneIndex zones, FacsIndex facsIndex) {
+    this.zones = zones;
+    this.facsIndex = facsIndex;
+    zonesStamp = modificationStamp;
+  }
+
+  /**
+   * Sets the view.
+   *
+   * @param scale The zoom.
+   * @param quadrants The quarter turns.
+   * @param skewAngle The deskew angle, in degrees.
+   * @param viewPosition The scroll position.
+   */
+  public void setView(double scale, int quadrants, double skewAngle, Point viewPosition) {
+    this.scale = scale;
+    this.quadrants = quadrants;
+    this.skewAngle = skewAngle;
+    this.viewPosition = viewPosition != null ? new Point(viewPosition) : null;
+  }
+
+  /**
+   * @return The document of the editor.
+   */
+  public Document getDocument() {
+    return document;
+  }
+
+  /**
+   * @return The name of the image.
+   */
+  public String getImageName() {
+    return imageName;
+  }
+
+  /**
+   * @return The location of the image.
+   */
+  public URL getImageURL() {
+    return imageURL;
+  }
+
+  /**
+   * Takes the decoded image. The caller owns it afterwards.
+   *
+   * @return The decoded image. <code>null</code> if it has to be decoded again.
+   */
+  public ImageHandle takeImage() {
+    ImageHandle taken = image;
+    image = null;
+    return taken;
+  }
+
+  /**
+   * @return <code>true</code> if the decoded image is kept.
+   */
+  public boolean hasImage() {
+    return image != null;
+  }
+
+  /**
+   * Releases the decoded image. It is decoded again when the state is restored.
+   */
+  public void releaseImage() {
+    if (image != null) {
+      image.close();
+      image = null;
+    }
+  }
+
+  /**
+   * @return The zones, if the document didn't change since they were read.
+   * <code>null</code> otherwise.
+   */
+  public ZoneIndex getZones() {
+    return zonesStamp == modificationStamp ? zones : null;
+  }
+
+  /**
+   * @return The links between the document and the zones. May be <code>null</code>.
+   */
+  public FacsIndex getFacsIndex() {
+    return facsIndex;
+  }
+
+  /**
+   * @return The zoom.
+   */
+  public double getScale() {
+    return scale;
+  }
+
+  /**
+   * @return The quarter turns.
+   */
+  public int getQuadrants() {
+    return quadrants;
+  }
+
+  /**
+   * @return The deskew angle, in degrees.
+   */
+  public double getSkewAngle() {
+    return skewAngle;
+  }
+
+  /**
+   * @return The scroll position. <code>null</code> for the top left corner.
+   */
+  public Point getViewPosition() {
+    return viewPosition != null ? new Point(viewPosition) : null;
+  }
+
+  /**
+   * @return The number of changes of the document since the state was created.
+   */
+  public long getModificationStamp() {
+    return modificationStamp;
+  }
+
+  /**
+   * Stops listening to the document. The state still owns the links between
+   * the document and the zones, they are kept for the editor.
+   */
+  public void detach() {
+    document.removeDocumentListener(this);
+  }
+
+  /**
+   * Releases everything: the image and the listeners on the document.
+   */
+  public void dispose() {
+    detach();
+    releaseImage();
+    if (facsIndex != null) {
+      document.removeDocumentListener(facsIndex);
+      facsIndex = null;
+    }
+    zones = null;
+  }
+
+  /**
+   * @see javax.swing.event.DocumentListener#insertUpdate(javax.swing.event.DocumentEvent)
+   */
+  @Override
+  public void insertUpdate(DocumentEvent e) {
+    modificationStamp++;
+  }
+
+  /**
+   * @see javax.swing.event.DocumentListener#removeUpdate(javax.swing.event.DocumentEvent)
+   */
+  @Override
+  public void removeUpdate(DocumentEvent e) {
+    modificationStamp++;
+  }
+
+  /**
+   * Attribute changes don't change the text.
+   *
+   * @see javax.swing.event.DocumentListener#changedUpdate(javax.swing.event.DocumentEvent)
+   */
+  @Override
+  public void changedUpdate(DocumentEvent e) {}
+}
@@ -0,0 +1,115 @@
+package com.oxygenxml.image.markup.controller;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Keeps the viewer state of the editors that are not selected, by editor
+ * location, the least recently used ones first out. The zones and the view of
+ * many editors are kept, the decoded images only for the last few, because
+ * they are much larger.
+ */
+public class EditorStateCache {
+  /**
+   * The states, from the least recently used.
+   */
+  private final LinkedHashMap<String, EditorState> states = new LinkedHashMap<String, EditorState>(16, 0.75f, true);
+  /**
+   * The number of states kept.
+   */
+  private final int maxStates;
+  /**
+   * The number of states that keep their decoded image.
+   */
+  private final int maxImages;
+
+  /**
+   * Constructor.
+   *
+   * @param maxStates The number of states kept.
+   * @param maxImages The number of states that keep their decoded image.
+   */
+  public EditorStateCache(int maxStates, int maxImages) {
+    this.maxStates = maxStates;
+    this.maxImages = maxImages;
+  }
+
+  /**
+   * Keeps the state of an editor. A previous state of the editor is disposed.
+   *
+   * @param editorLocation The location of the editor.
+   * @param state The state.
+   */
+  public void put(String editorLocation, EditorState state) {
+    EditorState previous = states.put(editorLocation, state);
+    if (previous != null && previous != state) {
+      previous.dispose();
+    }
+    while (states.size() > maxStates) {
+      Iterator<EditorState> eldest = states.values().iterator();
+      eldest.next().dispose();
+      eldest.remove();
+    }
+    // The most recent states keep their images.
+    List<EditorState> byAge = new ArrayList<EditorState>(states.values());
+    int images = 0;
+    for (int i = byAge.size() - 1; i >= 0; i--) {
+      EditorState kept = byAge.get(i);
+      if (kept.hasImage()) {
+        images++;
+        if (images > maxImages) {
+          kept.releaseImage();
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes the state of an editor out of the cache. The caller owns it.
+   *
+   * @param editorLocation The location of the editor.
+   *
+   * @return The state or <code>null</code> if it is not kept.
+   */
+  public EditorState take(String editorLocation) {
+    return states.remove(editorLocation);
+  }
+
+  /**
+   * Disposes the state of an editor.
+   *
+   * @param editorLocation The location of the editor.
+   */
+  public void remove(String editorLocation) {
+    EditorState state = states.remove(editorLocation);
+    if (state != null) {
+      state.dispose();
+    }
+  }
+
+  /**
+   * Disposes all the states.
+   */
+  public void clear() {
+    for (EditorState state : states.values()) {
+      state.dispose();
+    }
+    states.clear();
+  }
+
+  /**
+   * @return The number of states.
+   */
+  public int size() {
+    return states.size();
+  }
+
+  /**
+   * @return The locations of the editors with a state, from the least recently used.
+   */
+  public List<String> getEditorLocations() {
+    return new ArrayList<String>(states.keySet());
+  }
+}
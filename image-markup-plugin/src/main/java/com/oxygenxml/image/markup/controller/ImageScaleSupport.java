@@ -4,12 +4,16 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.awt.event.InputEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,13 +22,39 @@ import javax.swing.JScrollPane;
 import javax.swing.SwingUtilities;
 
 /**
- * Scaling support for the panel that presents the image. 
+ * Scaling and rotation support for the panel that presents the image. The 
+ * image is rotated by quarter turns and by a small deskew angle around its 
+ * center, then scaled. The transform from image to view coordinates and its 
+ * inverse are computed once for every change.
+ * 
+ * The zones always stay in image coordinates, the transform is only applied 
+ * when painting and when reading the mouse.
  */
 public class ImageScaleSupport {
   /**
    * The scale factor.
    */
   private double scale = 1.0;
+  /**
+   * The number of clockwise quarter turns, from 0 to 3.
+   */
+  private int quadrants;
+  /**
+   * The deskew angle, in degrees, clockwise.
+   */
+  private double skewAngle;
+  /**
+   * The size of the image. <code>null</code> if no image is loaded.
+   */
+  private Dimension imageSize;
+  /**
+   * The transform from image to view coordinates.
+   */
+  private AffineTransform transform = new AffineTransform();
+  /**
+   * The transform from view to image coordinates.
+   */
+  private AffineTransform inverse = new AffineTransform();
   /**
    * Listeners interest in scale change.
    */
@@ -60,6 +90,7 @@ public class ImageScaleSupport {
           } else {
             scale = scale * 2;
           }
+          updateTransform();
           
           fireScaleListener(oldScale, scale);
           
@@ -98,25 +129,189 @@ public class ImageScaleSupport {
   }
   
   /**
-   * Applies the scaling factor on the given coordinates.
+   * Applies the scaling factor and the rotation on the given coordinates.
    * 
-   * @param p Coordinates.
+   * @param p Image coordinates.
    * 
-   * @return Scaled coordinates.
+   * @return View coordinates.
    */
   public Point applyScale(Point p) {
-    return new Point((int) (p.x * scale), (int) (p.y * scale));
+    Point2D view = transform.transform(p, null);
+    return new Point((int) Math.floor(view.getX()), (int) Math.floor(view.getY()));
   }
   
   /**
-   * Subtracts the scaling factor in order to obtain the original/real coordinates.
+   * Removes the scaling factor and the rotation in order to obtain the 
+   * original/real coordinates.
    * 
-   * @param p Coordinates.
+   * @param p View coordinates.
    * 
-   * @return Down scaled coordinates.
+   * @return Image coordinates.
    */
   public Point getOriginal(Point p) {
-    return new Point((int) (p.x / scale), (int) (p.y / scale));
+    Point2D original = inverse.transform(p, null);
+    return new Point((int) Math.floor(original.getX()), (int) Math.floor(original.getY()));
+  }
+  
+  /**
+   * Computes the view bounds of an image area.
+   * 
+   * @param area An area, in image coordinates.
+   * 
+   * @return The bounds of the transformed area, in view coordinates.
+   */
+  public Rectangle applyScale(Rectangle area) {
+    if (isAxisAligned()) {
+      Point p1 = applyScale(new Point(area.x, area.y));
+      Point p2 = applyScale(new Point(area.x + area.width, area.y + area.height));
+      int x = Math.min(p1.x, p2.x);
+      int y = Math.min(p1.y, p2.y);
+      return new Rectangle(x, y, Math.max(p1.x, p2.x) - x, Math.max(p1.y, p2.y) - y);
+    }
+    return transform.createTransformedShape(area).getBounds();
+  }
+  
+  /**
+   * Computes the image bounds of a view area.
+   * 
+   * @param area An area, in view coordinates.
+   * 
+   * @return The bounds of the area, in image coordinates.
+   */
+  public Rectangle getOriginal(Rectangle area) {
+    return inverse.createTransformedShape(area).getBounds();
+  }
+  
+  /**
+   * Transforms an image area into the view.
+   * 
+   * @param area An area, in image coordinates.
+   * 
+   * @return The area, in view coordinates. Rotated if the view is deskewed.
+   */
+  public Shape toView(Shape area) {
+    return transform.createTransformedShape(area);
+  }
+  
+  /**
+   * @return A copy of the transform from image to view coordinates.
+   */
+  public AffineTransform getTransform() {
+    return new AffineTransform(transform);
+  }
+  
+  /**
+   * @return <code>true</code> if the image axes stay horizontal and vertical in 
+   * the view: it is only rotated by quarter turns.
+   */
+  public boolean isAxisAligned() {
+    return skewAngle == 0;
+  }
+  
+  /**
+   * @return The size of the transformed image, in view coordinates. 
+   * <code>null</code> if no image is loaded.
+   */
+  public Dimension getViewSize() {
+    if (imageSize == null) {
+      return null;
+    }
+    if (quadrants == 0 && skewAngle == 0) {
+      return new Dimension((int) (imageSize.width * scale), (int) (imageSize.height * scale));
+    }
+    Rectangle bounds = transform.createTransformedShape(
+        new Rectangle(0, 0, imageSize.width, imageSize.height)).getBounds();
+    return new Dimension(bounds.x + bounds.width, bounds.y + bounds.height);
+  }
+  
+  /**
+   * Sets the size of the image, to rotate it around its center. The rotation 
+   * is reset.
+   * 
+   * @param imageSize The image size. <code>null</code> if no image is loaded.
+   */
+  public void setImageSize(Dimension imageSize) {
+    this.imageSize = imageSize != null ? new Dimension(imageSize) : null;
+    // Every image starts unrotated.
+    quadrants = 0;
+    skewAngle = 0;
+    updateTransform();
+  }
+  
+  /**
+   * Rotates the view by a quarter turn, clockwise.
+   */
+  public void rotateClockwise() {
+    setRotation((quadrants + 1) % 4, skewAngle);
+  }
+  
+  /**
+   * Sets the deskew angle, keeping the quarter turns.
+   * 
+   * @param degrees The angle, in degrees, clockwise.
+   */
+  public void setSkewAngle(double degrees) {
+    setRotation(quadrants, degrees);
+  }
+  
+  /**
+   * @return The deskew angle, in degrees, clockwise.
+   */
+  public double getSkewAngle() {
+    return skewAngle;
+  }
+  
+  /**
+   * @return The number of clockwise quarter turns, from 0 to 3.
+   */
+  public int getQuadrants() {
+    return quadrants;
+  }
+  
+  /**
+   * Sets the rotation of the view and notifies the listeners.
+   * 
+   * @param quadrants The number of clockwise quarter turns.
+   * @param degrees The deskew angle, in degrees, clockwise.
+   */
+  public void setRotation(int quadrants, double degrees) {
+    this.quadrants = ((quadrants % 4) + 4) % 4;
+    this.skewAngle = degrees;
+    updateTransform();
+    fireScaleListener(scale, scale);
+    
+    panel.invalidate();
+    panel.doLayout();
+    panel.doLayout();
+    panel.repaint();
+  }
+  
+  /**
+   * Computes the transform and its inverse. The image is rotated around its 
+   * center and moved so its rotated bounds start at the origin. Quarter turns 
+   * are exact, so zones keep integer coordinates.
+   */
+  private void updateTransform() {
+    AffineTransform t = AffineTransform.getScaleInstance(scale, scale);
+    if (imageSize != null && (quadrants != 0 || skewAngle != 0)) {
+      double radians = Math.toRadians(skewAngle);
+      boolean swapped = quadrants % 2 == 1;
+      double width = swapped ? imageSize.height : imageSize.width;
+      double height = swapped ? imageSize.width : imageSize.height;
+      double cos = Math.abs(Math.cos(radians));
+      double sin = Math.abs(Math.sin(radians));
+      t.translate((width * cos + height * sin) / 2, (width * sin + height * cos) / 2);
+      t.rotate(radians);
+      t.quadrantRotate(quadrants);
+      t.translate(-imageSize.width / 2.0, -imageSize.height / 2.0);
+    }
+    transform = t;
+    try {
+      inverse = t.createInverse();
+    } catch (NoninvertibleTransformException e) {
+      // The scale is never 0.
+      e.printStackTrace();
+    }
   }
   
   /**
@@ -178,9 +373,26 @@ public class ImageScaleSupport {
     }
   }
   
+  /**
+   * Sets the zoom.
+   * 
+   * @param newScale The new scale.
+   */
+  public void setScale(double newScale) {
+    double oldScale = scale;
+    scale = newScale;
+    updateTransform();
+    fireScaleListener(oldScale, scale);
+    
+    panel.invalidate();
+    panel.doLayout();
+    panel.doLayout();
+  }
+  
   public void zoomIn() {
     double oldScale = scale;
     scale = scale * 2;    
+    updateTransform();
     fireScaleListener(oldScale, scale);
     
     panel.invalidate();
@@ -191,6 +403,7 @@ public class ImageScaleSupport {
   public void zoomOut() {
     double oldScale = scale;
     scale = scale / 2;
+    updateTransform();
     fireScaleListener(oldScale, scale);
 
     panel.invalidate();
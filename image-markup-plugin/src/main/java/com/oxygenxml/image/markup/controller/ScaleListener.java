@@ -1,11 +1,11 @@
 package com.oxygenxml.image.markup.controller;
 
 /**
- * Listener interested in notifications when the scale changes.
+ * Listener interested in notifications when the scale or the rotation changes.
  */
 public interface ScaleListener {
   /**
-   * The applied scaled has changed.
+   * The applied scale or rotation has changed. For a rotation, both scales are the same.
    * 
    * @param oldScale Old scale.
    * @param newScale New scale.
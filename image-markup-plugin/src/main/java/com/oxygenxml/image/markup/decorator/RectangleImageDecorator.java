@@ -1,22 +1,39 @@
 package com.oxygenxml.image.markup.decorator;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Stroke;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.swing.JComponent;
 
 import com.oxygenxml.image.markup.AreaUpdatedListener;
 import com.oxygenxml.image.markup.ImageViewerPanel;
+import com.oxygenxml.image.markup.ZoneChangeListener;
 import com.oxygenxml.image.markup.controller.ImageScaleSupport;
+import com.oxygenxml.image.markup.detect.ContentSnapper;
 import com.oxygenxml.image.markup.decorator.ResizeContext.ResizeType;
+import com.oxygenxml.image.markup.zones.ReadingOrder;
+import com.oxygenxml.image.markup.zones.ZoneChangeEvent;
+import com.oxygenxml.image.markup.zones.ZoneChanges;
+import com.oxygenxml.image.markup.zones.ZoneHierarchy;
+import com.oxygenxml.image.markup.zones.ZoneIndex;
+import com.oxygenxml.image.markup.zones.ZoneSnapshot;
+import com.oxygenxml.image.markup.zones.ZoneLevelOfDetail;
+import com.oxygenxml.image.markup.zones.ZoneLevelOfDetail.Density;
+import com.oxygenxml.image.markup.zones.ZoneLevelOfDetail.Mode;
 
 /**
  * Decorates a image with rectangles. Installs listeners for adding new rectangles as 
@@ -34,24 +51,136 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
    */
   private JComponent component;
   /**
-   * All the rectangles.
+   * All the rectangles. When the zones come from an index, only the ones 
+   * around the viewport. Every change publishes a new version, the versions 
+   * handed out never change.
    */
-  private List<Rectangle> originalAreas = new ArrayList<Rectangle>();
+  private volatile ZoneSnapshot originalAreas = ZoneSnapshot.EMPTY;
+  /**
+   * All the zones of the surface. The ones around the viewport are loaded in 
+   * the areas while scrolling. <code>null</code> when all the zones are in the 
+   * areas.
+   */
+  private ZoneIndex zoneIndex;
+  /**
+   * The part of the image whose zones are loaded from the index, in image 
+   * coordinates. <code>null</code> when nothing is loaded yet.
+   */
+  private Rectangle loadedRegion;
+  /**
+   * The margin loaded around the viewport, as a fraction of its size, so a 
+   * short scroll doesn't load the zones again.
+   */
+  private static final double LOADED_MARGIN = 0.5;
+  /**
+   * The zones changed since the index was set. The index doesn't have them 
+   * until the document is scanned again. <code>null</code> when the zones 
+   * don't come from an index.
+   */
+  private ZoneChanges localChanges;
+  /**
+   * All the zones: the ones of the index with the local changes. 
+   * <code>null</code> when it has to be computed again.
+   */
+  private ZoneSnapshot allAreas;
+  /**
+   * Zones proposed by an automatic detection. They are not yet in the document.
+   */
+  private List<Rectangle> candidateAreas = new ArrayList<Rectangle>();
+  /**
+   * The color of the candidate zones.
+   */
+  private static final Color CANDIDATE_COLOR = new Color(0, 102, 204);
+  /**
+   * The stroke of the candidate zones.
+   */
+  private static final Stroke CANDIDATE_STROKE = new BasicStroke(
+      1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10, new float[] {4, 3}, 0);
+  /**
+   * Areas reported by the zone analysis: the overlapping parts and the duplicates.
+   */
+  private List<Rectangle> issueAreas = new ArrayList<Rectangle>();
+  /**
+   * The color of the analysis issues.
+   */
+  private static final Color ISSUE_COLOR = new Color(255, 0, 0, 80);
+  /**
+   * The deepest nesting level that is painted, from 1 for the top level zones.
+   */
+  private int maxVisibleDepth = Integer.MAX_VALUE;
+  /**
+   * The containment tree of the zones, computed when the levels are filtered.
+   * <code>null</code> when it has to be computed again.
+   */
+  private ZoneHierarchy hierarchy;
+  /**
+   * All the zones, in reading order. <code>null</code> when it has to be 
+   * computed again.
+   */
+  private ZoneSnapshot readingOrder;
+  /**
+   * How the zones too small to be seen at the current scale are painted.
+   */
+  private Mode levelOfDetailMode = Mode.CLUSTER;
+  /**
+   * The zones sorted by size. Computed when needed, <code>null</code> when it 
+   * has to be computed again.
+   */
+  private ZoneLevelOfDetail levelOfDetail;
+  /**
+   * Below this number of zones, all of them are painted.
+   */
+  private static final int MIN_ZONES_FOR_LEVEL_OF_DETAIL = 500;
+  /**
+   * Zones smaller than this on the screen are summarized.
+   */
+  private static final double MIN_ZONE_PIXELS = 4;
+  /**
+   * The side of the cells that summarize the small zones, on the screen.
+   */
+  private static final double CLUSTER_CELL_PIXELS = 16;
+  /**
+   * The color of the density map of the small zones.
+   */
+  private static final Color HEATMAP_COLOR = new Color(255, 120, 0);
   /**
    * Currently active area. Either because the user invoked the contextual menu onto it
-   * or because it was explicitly selected.
+   * or because it was explicitly selected. In image coordinates.
    */
   private Rectangle activeArea;
   /**
    * The context of the current resize operation.
    */
   private ResizeContext resizeContext;
+  /**
+   * Adjusts the zones to the image content while they are created or resized.
+   * <code>null</code> when snapping is not active.
+   */
+  private ContentSnapper snapper;
   
   private ImageScaleSupport imageScaleSupport;
   /**
-   * Listeners interested in area updates.
+   * Listeners interested in area updates. Copied on write, so a listener can 
+   * be added or removed while the others are notified.
+   */
+  private List<AreaUpdatedListener> listeners = new CopyOnWriteArrayList<AreaUpdatedListener>();
+  /**
+   * Listeners that observe the changes of the zones. Copied on write.
+   */
+  private List<ZoneChangeListener> zoneListeners = new CopyOnWriteArrayList<ZoneChangeListener>();
+  /**
+   * The steps of the change in progress. <code>null</code> when no change is 
+   * in progress.
+   */
+  private ZoneChanges changes;
+  /**
+   * The number of nested changes in progress.
+   */
+  private int changeDepth;
+  /**
+   * <code>true</code> while the mouse drags a zone. The whole drag is one change.
    */
-  private List<AreaUpdatedListener> listeners = new ArrayList<AreaUpdatedListener>();
+  private boolean dragging;
 
   /**
    * Installs a decorator on the given component.
@@ -78,17 +207,43 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
    * @param g Graphics to paint into.
    */
   public void paint(Graphics g) {
+    loadVisibleZones();
     Rectangle clipBounds = g.getClipBounds();
-    for (Rectangle rectangle : originalAreas) {
-      rectangle = scale(rectangle);
-      if (clipBounds.intersects(rectangle.x, rectangle.y, rectangle.width + 1, rectangle.height + 1)) {
-        g.setColor(Color.BLACK);
-        if (activeArea != null && rectangle.equals(activeArea)) {
-          g.setColor(Color.RED);	
+    ZoneHierarchy levels = maxVisibleDepth != Integer.MAX_VALUE ? getHierarchy() : null;
+    Rectangle resized = resizeContext != null ? resizeContext.getEffectiveRectangle() : null;
+    if (levelOfDetailMode != Mode.ALL && originalAreas.size() > MIN_ZONES_FOR_LEVEL_OF_DETAIL) {
+      paintLevelOfDetail(g, clipBounds, levels, resized);
+    } else {
+      for (int i = 0; i < originalAreas.size(); i++) {
+        paintZone(g, clipBounds, i, levels, resized);
+      }
+    }
+
+    if (!issueAreas.isEmpty()) {
+      g.setColor(ISSUE_COLOR);
+      for (Rectangle rectangle : issueAreas) {
+        Rectangle scaled = scale(rectangle);
+        if (clipBounds.intersects(scaled.x, scaled.y, scaled.width + 1, scaled.height + 1)) {
+          if (imageScaleSupport.isAxisAligned()) {
+            g.fillRect(scaled.x, scaled.y, Math.max(1, scaled.width), Math.max(1, scaled.height));
+          } else {
+            ((Graphics2D) g).fill(imageScaleSupport.toView(rectangle));
+          }
         }
+      }
+    }
 
-        g.drawRect(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+    if (!candidateAreas.isEmpty()) {
+      Graphics2D g2d = (Graphics2D) g.create();
+      g2d.setColor(CANDIDATE_COLOR);
+      g2d.setStroke(CANDIDATE_STROKE);
+      for (Rectangle rectangle : candidateAreas) {
+        Rectangle scaled = scale(rectangle);
+        if (clipBounds.intersects(scaled.x, scaled.y, scaled.width + 1, scaled.height + 1)) {
+          drawArea(g2d, rectangle);
+        }
       }
+      g2d.dispose();
     }
 
     if (resizeContext != null) {
@@ -99,17 +254,119 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
   }
 
 
+  /**
+   * Paints the outline of a zone.
+   * 
+   * @param g Graphics to paint into.
+   * @param clipBounds The area to paint.
+   * @param index The index of the zone.
+   * @param levels The nesting of the zones, when levels are filtered. May be <code>null</code>.
+   * @param resized The zone being resized. Always painted.
+   */
+  private void paintZone(Graphics g, Rectangle clipBounds, int index, ZoneHierarchy levels, Rectangle resized) {
+    Rectangle rectangle = originalAreas.get(index);
+    // The zone being resized can be newer than the nesting, kept until the mouse is released.
+    if (levels != null && !rectangle.equals(resized) && levels.getDepth(index) > maxVisibleDepth) {
+      return;
+    }
+    Rectangle scaled = scale(rectangle);
+    if (clipBounds.intersects(scaled.x, scaled.y, scaled.width + 1, scaled.height + 1)) {
+      g.setColor(Color.BLACK);
+      if (activeArea != null && rectangle.equals(activeArea)) {
+        g.setColor(Color.RED);	
+      }
+
+      drawArea(g, rectangle);
+    }
+  }
+
+  /**
+   * Paints the outlines of the zones large enough to be seen at the current 
+   * scale. The smaller ones are summarized, depending on the mode.
+   * 
+   * @param g Graphics to paint into.
+   * @param clipBounds The area to paint.
+   * @param levels The nesting of the zones, when levels are filtered. May be <code>null</code>.
+   * @param resized The zone being resized. Always painted.
+   */
+  private void paintLevelOfDetail(Graphics g, Rectangle clipBounds, ZoneHierarchy levels, Rectangle resized) {
+    if (levelOfDetail == null) {
+      levelOfDetail = new ZoneLevelOfDetail(originalAreas);
+    }
+    double scale = imageScaleSupport.getScale();
+    double minSize = MIN_ZONE_PIXELS / scale;
+    int visible = levelOfDetail.countLarger(minSize);
+    for (int rank = 0; rank < visible; rank++) {
+      int zone = levelOfDetail.getZone(rank);
+      // The active zone is painted last, over the others.
+      if (activeArea == null || !activeArea.equals(originalAreas.get(zone))) {
+        paintZone(g, clipBounds, zone, levels, resized);
+      }
+    }
+
+    if (visible < levelOfDetail.getZoneCount() && levelOfDetailMode != Mode.SKIP) {
+      Density density = levelOfDetail.getDensity(CLUSTER_CELL_PIXELS / scale, minSize);
+      // The cells are in image coordinates, the clip is mapped back to them.
+      double cellSize = density.getCellSize();
+      Rectangle imageClip = imageScaleSupport.getOriginal(clipBounds);
+      int fromColumn = Math.max(0, (int) (imageClip.x / cellSize));
+      int toColumn = Math.min(density.getColumns(), (int) ((imageClip.x + imageClip.width) / cellSize) + 1);
+      int fromRow = Math.max(0, (int) (imageClip.y / cellSize));
+      int toRow = Math.min(density.getRows(), (int) ((imageClip.y + imageClip.height) / cellSize) + 1);
+      Graphics2D g2d = (Graphics2D) g;
+      for (int row = fromRow; row < toRow; row++) {
+        for (int column = fromColumn; column < toColumn; column++) {
+          int count = density.getCount(column, row);
+          if (count > 0) {
+            Shape cell = imageScaleSupport.toView(
+                new Rectangle2D.Double(column * cellSize, row * cellSize, cellSize, cellSize));
+            if (levelOfDetailMode == Mode.HEATMAP) {
+              g.setColor(new Color(HEATMAP_COLOR.getRed(), HEATMAP_COLOR.getGreen(), HEATMAP_COLOR.getBlue(), 
+                  40 + 160 * count / density.getMaxCount()));
+              g2d.fill(cell);
+            } else {
+              // The mark grows with the number of zones it stands for.
+              int side = 2 + Math.min(6, 31 - Integer.numberOfLeadingZeros(count));
+              Rectangle2D bounds = cell.getBounds2D();
+              g.setColor(Color.DARK_GRAY);
+              g.fillRect((int) (bounds.getCenterX() - side / 2.0), (int) (bounds.getCenterY() - side / 2.0), side, side);
+            }
+          }
+        }
+      }
+    }
+
+    // These two are painted even when small.
+    if (resized != null) {
+      g.setColor(Color.BLACK);
+      drawArea(g, resized);
+    }
+    if (activeArea != null) {
+      g.setColor(Color.RED);
+      drawArea(g, activeArea);
+    }
+  }
+
   private void updateRectangleArea(Point draggedPoint) {
     ResizeContext oldContext = resizeContext;
+    // The zone replaced by this step.
+    Rectangle cleared = null;
+    // Its index, kept by the new area so the nesting stays valid while dragging.
+    int clearedIndex = -1;
+    beginChanges();
 
     if (oldContext != null) {
       resizeContext = oldContext.derive(draggedPoint);
+      if (resizeContext != null && snapper != null) {
+        resizeContext = resizeContext.snap(snapper.snap(resizeContext.getRectangle()));
+      }
       
       // Temporary rectangle. Clear.
-      Rectangle toClear = oldContext.getRectangle();
+      Rectangle toClear = oldContext.getEffectiveRectangle();
       int indexOf = originalAreas.indexOf(toClear);
       if (indexOf != -1) {
-        originalAreas.remove(indexOf);
+        cleared = toClear;
+        clearedIndex = indexOf;
       }
       
       toClear = scale(toClear);
@@ -119,14 +376,33 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
     }
 
     if (resizeContext != null) {
-      Rectangle newRect = resizeContext.getRectangle();
-      originalAreas.add(newRect);
+      Rectangle newRect = resizeContext.getEffectiveRectangle();
+      if (cleared != null) {
+        originalAreas = originalAreas.replace(clearedIndex, newRect);
+        modified(cleared, newRect);
+      } else {
+        // Appended, the nesting of the other zones keeps its indexes.
+        originalAreas = originalAreas.with(newRect);
+        added(newRect);
+      }
+      // The nesting is computed again once the mouse is released.
+      readingOrder = null;
+      allAreas = null;
+      levelOfDetail = null;
 
       newRect = scale(newRect);
       component.repaint(newRect.x, newRect.y, newRect.width + 1, newRect.height + 1);
       Rectangle hintArea = getHintArea(scale(resizeContext.getResizePoint()));
       component.repaint(hintArea.x, hintArea.y, hintArea.width + 1, hintArea.height + 1);
+    } else if (cleared != null) {
+      originalAreas = originalAreas.without(clearedIndex);
+      removed(cleared);
+      hierarchy = null;
+      readingOrder = null;
+      allAreas = null;
+      levelOfDetail = null;
     }
+    endChanges();
   }
   
   @Override
@@ -153,6 +429,11 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
         resizeContext = new ResizeContext(ResizeType.CORNER, resizePoint, new Rectangle(resizePoint.x, resizePoint.y, 0, 0));
       }
 
+      if (!dragging) {
+        // Ends when the mouse is released.
+        dragging = true;
+        beginChanges();
+      }
       updateRectangleArea(resizePoint);
     }
   }
@@ -164,18 +445,25 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
     if (oldContext != null) {
       if (oldContext.getOriginalRectangle().width > 0) {
         // An actual rectangle was being resized. Not a new one.
-        fireAreaUpdated(oldContext.getOriginalRectangle(), oldContext.getRectangle());
-      } else if (oldContext.getRectangle().width > 1) {
-        fireRectangleAdded(oldContext.getRectangle());
+        fireAreaUpdated(oldContext.getOriginalRectangle(), oldContext.getEffectiveRectangle());
+      } else if (oldContext.getEffectiveRectangle().width > 1) {
+        fireRectangleAdded(oldContext.getEffectiveRectangle());
       }
     }
     
     if (oldContext != null) {
-      if (oldContext.getRectangle().width <= 1) {
-        Rectangle toClear = oldContext.getRectangle();
+      if (oldContext.getEffectiveRectangle().width <= 1) {
+        Rectangle toClear = oldContext.getEffectiveRectangle();
         int indexOf = originalAreas.indexOf(toClear);
+        if (indexOf != -1 && dragging) {
+          removed(toClear);
+        }
         if (indexOf != -1) {
-          originalAreas.remove(indexOf);
+          originalAreas = originalAreas.without(indexOf);
+          hierarchy = null;
+          readingOrder = null;
+          allAreas = null;
+          levelOfDetail = null;
         }
         
         toClear = scale(toClear);
@@ -184,6 +472,15 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
       Rectangle hintArea = getHintArea(scale(oldContext.getResizePoint()));
       component.repaint(hintArea.x, hintArea.y, hintArea.width + 1, hintArea.height + 1);
     }
+    if (dragging) {
+      dragging = false;
+      // The resized zone can now show or hide other levels.
+      hierarchy = null;
+      if (maxVisibleDepth != Integer.MAX_VALUE) {
+        component.repaint();
+      }
+      endChanges();
+    }
   }
 
 
@@ -211,7 +508,16 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
 
 
   public void clean() {
-    originalAreas.clear();
+    originalAreas = ZoneSnapshot.EMPTY;
+    zoneIndex = null;
+    localChanges = null;
+    loadedRegion = null;
+    hierarchy = null;
+    readingOrder = null;
+    allAreas = null;
+    levelOfDetail = null;
+    candidateAreas.clear();
+    issueAreas.clear();
     resizeContext = null;
     activeArea = null;
   }
@@ -219,23 +525,232 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
   
 
   public void setAreas(List<Rectangle> areas2) {
-    originalAreas.clear();
-    originalAreas.addAll(areas2);
+    zoneIndex = null;
+    localChanges = null;
+    loadedRegion = null;
+    originalAreas = ZoneSnapshot.of(areas2);
+    hierarchy = null;
+    readingOrder = null;
+    allAreas = null;
+    levelOfDetail = null;
+    // The analysis was done on the old zones.
+    issueAreas.clear();
   }
 
-  public List<Rectangle> getAreas() {
+  /**
+   * @return The current version of the zones. When they come from an index, 
+   * only the ones around the viewport. It can be read from any thread.
+   */
+  public ZoneSnapshot getAreas() {
     return originalAreas;
   }
 
+  /**
+   * Presents the zones of an index. Only the zones around the viewport are 
+   * loaded, when painted.
+   * 
+   * @param index The zones.
+   */
+  public void setZoneIndex(ZoneIndex index) {
+    zoneIndex = index;
+    localChanges = new ZoneChanges();
+    loadedRegion = null;
+    originalAreas = ZoneSnapshot.EMPTY;
+    if (resizeContext != null) {
+      // The zone being resized stays, until its change reaches the document.
+      originalAreas = originalAreas.with(resizeContext.getEffectiveRectangle());
+    }
+    hierarchy = null;
+    readingOrder = null;
+    allAreas = null;
+    levelOfDetail = null;
+    // The analysis was done on the old zones.
+    issueAreas.clear();
+    component.repaint();
+  }
+
+  /**
+   * @return The zones presented from an index. <code>null</code> if the zones 
+   * were set directly.
+   */
+  public ZoneIndex getZoneIndex() {
+    return zoneIndex;
+  }
+
+  /**
+   * Adds a zone to the loaded ones.
+   * 
+   * @param area The zone, in image coordinates.
+   */
+  public void addArea(Rectangle area) {
+    beginChanges();
+    originalAreas = originalAreas.with(area);
+    added(area);
+    hierarchy = null;
+    readingOrder = null;
+    allAreas = null;
+    levelOfDetail = null;
+    Rectangle scaled = scale(area);
+    component.repaint(scaled.x, scaled.y, scaled.width + 1, scaled.height + 1);
+    endChanges();
+  }
+
+  /**
+   * Adds zones to the loaded ones, as one change.
+   * 
+   * @param areas The zones, in image coordinates.
+   */
+  public void addAreas(List<Rectangle> areas) {
+    beginChanges();
+    for (Rectangle area : areas) {
+      addArea(area);
+    }
+    endChanges();
+  }
+
+  /**
+   * Called on the event dispatch thread. The version returned never changes, 
+   * so a background task can read it.
+   * 
+   * @return All the zones of the surface, also the ones that are not loaded.
+   */
+  public ZoneSnapshot getAllAreas() {
+    if (zoneIndex == null) {
+      return originalAreas;
+    }
+    if (allAreas == null) {
+      allAreas = ZoneSnapshot.of(localChanges.applyTo(zoneIndex.getAll(), null));
+    }
+    return allAreas;
+  }
+
+  /**
+   * Loads from the index the zones around the viewport, if it moved outside 
+   * the loaded region. Nothing changes while a zone is resized.
+   */
+  private void loadVisibleZones() {
+    if (zoneIndex == null || resizeContext != null) {
+      return;
+    }
+    Rectangle visible = imageScaleSupport.getOriginal(component.getVisibleRect());
+    if (loadedRegion == null || !loadedRegion.contains(visible)) {
+      int marginX = (int) Math.ceil(visible.width * LOADED_MARGIN);
+      int marginY = (int) Math.ceil(visible.height * LOADED_MARGIN);
+      Rectangle region = new Rectangle(visible.x - marginX, visible.y - marginY, 
+          visible.width + 2 * marginX, visible.height + 2 * marginY);
+      // The zones changed since the index was set are not in it yet.
+      originalAreas = ZoneSnapshot.of(localChanges.applyTo(zoneIndex.query(region), region));
+      // All the zones stay the same, only fewer or other ones are loaded.
+      loadedRegion = region;
+      hierarchy = null;
+      levelOfDetail = null;
+    }
+  }
+
+  /**
+   * Sets the support used to adjust the zones to the image content while they 
+   * are created or resized.
+   * 
+   * @param snapper The snapping support. <code>null</code> to disable snapping.
+   */
+  public void setSnapper(ContentSnapper snapper) {
+    this.snapper = snapper;
+  }
+
+  /**
+   * Presents zones that are proposed but not yet in the document.
+   * 
+   * @param candidates The candidate zones.
+   */
+  public void setCandidateAreas(List<Rectangle> candidates) {
+    candidateAreas = new ArrayList<Rectangle>(candidates);
+    component.repaint();
+  }
+
+  /**
+   * @return The zones that are proposed but not yet in the document.
+   */
+  public List<Rectangle> getCandidateAreas() {
+    return candidateAreas;
+  }
+
+  /**
+   * Presents the issues found by the zone analysis.
+   * 
+   * @param issues The overlapping parts and the duplicate zones. They are 
+   * discarded when the zones are reloaded.
+   */
+  public void setIssueAreas(List<Rectangle> issues) {
+    issueAreas = new ArrayList<Rectangle>(issues);
+    component.repaint();
+  }
+
+  /**
+   * Paints only the zones up to a nesting level. The nesting follows the 
+   * containment of the zones, nested in the document or not.
+   * 
+   * @param depth The deepest level that is painted, from 1 for the top level 
+   * zones. {@link Integer#MAX_VALUE} to paint all the zones.
+   */
+  public void setMaxVisibleDepth(int depth) {
+    maxVisibleDepth = depth;
+    component.repaint();
+  }
+
+  /**
+   * Sets how the zones too small to be seen at the current scale are painted.
+   * 
+   * @param mode The painting mode.
+   */
+  public void setLevelOfDetailMode(Mode mode) {
+    levelOfDetailMode = mode;
+    component.repaint();
+  }
+
+  /**
+   * @return All the zones, in reading order. Loading other zones around the 
+   * viewport doesn't change it.
+   */
+  public ZoneSnapshot getReadingOrder() {
+    if (readingOrder == null) {
+      ZoneSnapshot all = getAllAreas();
+      int[] order = ReadingOrder.compute(all);
+      List<Rectangle> ordered = new ArrayList<Rectangle>(order.length);
+      for (int index : order) {
+        ordered.add(all.get(index));
+      }
+      readingOrder = ZoneSnapshot.of(ordered);
+    }
+    return readingOrder;
+  }
+  
+  /**
+   * @return The active zone, in image coordinates. <code>null</code> if there is none.
+   */
+  public Rectangle getActive() {
+    return activeArea != null ? new Rectangle(activeArea) : null;
+  }
+
+  /**
+   * @return The containment tree of the zones.
+   */
+  private ZoneHierarchy getHierarchy() {
+    if (hierarchy == null) {
+      hierarchy = ZoneHierarchy.compute(originalAreas);
+    }
+    return hierarchy;
+  }
+
   public void setActive(Rectangle buildRectangle) {
-    Rectangle oldActiveArea = activeArea;
-    if (oldActiveArea != null) {
+    if (activeArea != null) {
+      Rectangle oldActiveArea = scale(activeArea);
       component.repaint(oldActiveArea.x, oldActiveArea.y, oldActiveArea.width + 1, oldActiveArea.height + 1);
     }
 
-    activeArea = buildRectangle != null ? scale(buildRectangle) : null;
+    activeArea = buildRectangle != null ? new Rectangle(buildRectangle) : null;
     if (activeArea != null) {
-      component.repaint(activeArea.x, activeArea.y, activeArea.width + 1, activeArea.height + 1);
+      Rectangle scaled = scale(activeArea);
+      component.repaint(scaled.x, scaled.y, scaled.width + 1, scaled.height + 1);
     }
 
   }
@@ -243,52 +758,63 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
   public void removeArea(Rectangle toProcess) {
     int indexOf = originalAreas.indexOf(toProcess);
     if (indexOf != -1) {
-      originalAreas.remove(indexOf);
+      beginChanges();
+      removed(toProcess);
+      originalAreas = originalAreas.without(indexOf);
+      hierarchy = null;
+      readingOrder = null;
+      allAreas = null;
+      levelOfDetail = null;
 
       Rectangle scaled = scale(toProcess);
       component.repaint(scaled.x, scaled.y, scaled.width + 1, scaled.height + 1);
+      endChanges();
     }
   }
   
   
-  private Rectangle scale(Rectangle area) {
-    // Scale the area
-    int x = imageScaleSupport.applyScale(area.x);
-    int y = imageScaleSupport.applyScale(area.y);
-    int lx = imageScaleSupport.applyScale(area.x + area.width);
-    int ly = imageScaleSupport.applyScale(area.y + area.height);
-    
-    return new Rectangle(x, y, lx - x, ly -y);
+  /**
+   * Draws the outline of a zone. Rotated when the view is deskewed.
+   * 
+   * @param g Graphics to paint into.
+   * @param area The zone, in image coordinates.
+   */
+  private void drawArea(Graphics g, Rectangle area) {
+    if (imageScaleSupport.isAxisAligned()) {
+      Rectangle rectangle = scale(area);
+      g.drawRect(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+    } else {
+      ((Graphics2D) g).draw(imageScaleSupport.toView(area));
+    }
   }
   
-  private Point scale(Point area) {
-    // Scale the area
-    int x = imageScaleSupport.applyScale(area.x);
-    int y = imageScaleSupport.applyScale(area.y);
-    
-    return new Point(x, y);
+  /**
+   * @param area An area, in image coordinates.
+   * 
+   * @return The bounds of the area in the view.
+   */
+  private Rectangle scale(Rectangle area) {
+    return imageScaleSupport.applyScale(area);
   }
   
-  private Rectangle original(Rectangle area) {
-    // Scale the area
-    int x = imageScaleSupport .getOriginal(area.x);
-    int y = imageScaleSupport.getOriginal(area.y);
-    int lx = imageScaleSupport.getOriginal(area.x + area.width);
-    int ly = imageScaleSupport.getOriginal(area.y + area.height);
-    
-    return new Rectangle(x, y, lx - x, ly -y);
+  /**
+   * @param area A point, in image coordinates.
+   * 
+   * @return The point in the view.
+   */
+  private Point scale(Point area) {
+    return imageScaleSupport.applyScale(area);
   }
   
+  /**
+   * @param area A point in the view.
+   * 
+   * @return The point, in image coordinates.
+   */
   private Point original(Point area) {
-    // Scale the area
-    int x = imageScaleSupport.getOriginal(area.x);
-    int y = imageScaleSupport.getOriginal(area.y);
-    
-    return new Point(x, y);
+    return imageScaleSupport.getOriginal(area);
   }
   
-  
-
   /**
    * Checks if the given point is over a resize area of one of the existing rectangles and returns that rectangle.
    * 
@@ -357,7 +883,98 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
   public void addAreaUpdateListener(AreaUpdatedListener areaUpdatedListener) {
     listeners.add(areaUpdatedListener);
   }
+
+  /**
+   * Removes an update listener.
+   * 
+   * @param areaUpdatedListener Area update listener.
+   */
+  public void removeAreaUpdateListener(AreaUpdatedListener areaUpdatedListener) {
+    listeners.remove(areaUpdatedListener);
+  }
+
+  /**
+   * Adds a listener that observes the changes of the zones.
+   * 
+   * @param listener The listener.
+   */
+  public void addZoneChangeListener(ZoneChangeListener listener) {
+    zoneListeners.add(listener);
+  }
+
+  /**
+   * Removes a listener that observes the changes of the zones.
+   * 
+   * @param listener The listener.
+   */
+  public void removeZoneChangeListener(ZoneChangeListener listener) {
+    zoneListeners.remove(listener);
+  }
+
+  /**
+   * Starts a change. The steps until the matching {@link #endChanges()} are 
+   * reported as one event. Changes can be nested.
+   */
+  private void beginChanges() {
+    if (changeDepth++ == 0) {
+      changes = new ZoneChanges();
+    }
+  }
+
+  /**
+   * Ends a change. When the outermost change ends, the listeners are told 
+   * about its net delta, if there is one.
+   */
+  private void endChanges() {
+    if (--changeDepth == 0) {
+      ZoneChanges done = changes;
+      changes = null;
+      if (!done.isEmpty() && !zoneListeners.isEmpty()) {
+        ZoneChangeEvent event = done.toEvent(originalAreas);
+        for (ZoneChangeListener listener : zoneListeners) {
+          listener.zonesChanged(event);
+        }
+      }
+    }
+  }
   
+  /**
+   * A zone was added, in the change in progress.
+   * 
+   * @param zone The zone.
+   */
+  private void added(Rectangle zone) {
+    changes.added(zone);
+    if (localChanges != null) {
+      localChanges.added(zone);
+    }
+  }
+
+  /**
+   * A zone was removed, in the change in progress.
+   * 
+   * @param zone The zone, at its current area.
+   */
+  private void removed(Rectangle zone) {
+    changes.removed(zone);
+    if (localChanges != null) {
+      localChanges.removed(zone);
+    }
+  }
+
+  /**
+   * A zone was modified, in the change in progress.
+   * 
+   * @param from The current area of the zone.
+   * @param to The new area of the zone.
+   */
+  private void modified(Rectangle from, Rectangle to) {
+    changes.modified(from, to);
+    if (localChanges != null) {
+      localChanges.modified(from, to);
+    }
+  }
+
   /**
    * Notify the registered listeners that an area was changed.
    * 
@@ -377,22 +994,35 @@ public class RectangleImageDecorator implements ImageDecorator, MouseListener, M
    * @param newArea The newly added rectangle.
    */
   void fireRectangleAdded(Rectangle newArea) {
-    Rectangle candidate = null;
-    int delta = Integer.MAX_VALUE;
-    // Search for an already existing rectangle, closest to the new one.
-    for (Rectangle rectangle : originalAreas) {
-      if (!rectangle.contains(newArea)) {
-        int cDelta = newArea.y - rectangle.y;
-        if (candidate == null || cDelta > 0 && cDelta < delta) {
+    List<Rectangle> newAreas = new ArrayList<Rectangle>(1);
+    newAreas.add(newArea);
+    fireRectanglesAdded(newAreas);
+  }
+
+  /**
+   * New rectangles were added. The reading order is computed once for all of 
+   * them.
+   * 
+   * @param newAreas The newly added rectangles.
+   */
+  void fireRectanglesAdded(List<Rectangle> newAreas) {
+    ZoneSnapshot order = getReadingOrder();
+    for (Rectangle newArea : newAreas) {
+      // The zone that comes before the new one in reading order. A container 
+      // can't be the reference, the new zone is not inserted inside it.
+      Rectangle candidate = null;
+      int position = order.lastIndexOf(newArea);
+      for (int i = position - 1; i >= 0 && candidate == null; i--) {
+        Rectangle rectangle = order.get(i);
+        if (!rectangle.contains(newArea)) {
           candidate = rectangle;
-          delta = cDelta;
         }
       }
-    }
-    
-    for (Iterator<AreaUpdatedListener> iterator = listeners.iterator(); iterator.hasNext();) {
-      AreaUpdatedListener listener = iterator.next();
-      listener.rectangleAdded(newArea, candidate);
+
+      for (Iterator<AreaUpdatedListener> iterator = listeners.iterator(); iterator.hasNext();) {
+        AreaUpdatedListener listener = iterator.next();
+        listener.rectangleAdded(newArea, candidate);
+      }
     }
   }
 }
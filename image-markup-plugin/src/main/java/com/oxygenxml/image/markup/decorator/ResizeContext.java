@@ -20,6 +20,11 @@ public class ResizeContext {
    * The original rectangle being resized.
    */
   private Rectangle originalRectangle;
+  /**
+   * The resized rectangle adjusted to the image content. <code>null</code> when 
+   * snapping is not active.
+   */
+  private Rectangle snappedRectangle;
 
   /**
    * Creates a new resizing context.
@@ -79,6 +84,28 @@ public class ResizeContext {
     return new Rectangle(Math.min(p1.x, p2.x), Math.min(p1.y, p2.y), Math.abs(p1.x - p2.x), Math.abs(p1.y - p2.y));
   }
 
+  /**
+   * Creates a context with the same resize state that presents the given 
+   * rectangle instead of the resized one.
+   * 
+   * @param snapped The resized rectangle adjusted to the image content.
+   * 
+   * @return The new context.
+   */
+  public ResizeContext snap(Rectangle snapped) {
+    ResizeContext derived = new ResizeContext(resizeType, resizePoint, rectangle, originalRectangle);
+    derived.snappedRectangle = snapped;
+    return derived;
+  }
+
+  /**
+   * @return The rectangle to present and commit: the snapped one if snapping is 
+   * active, the resized one otherwise.
+   */
+  public Rectangle getEffectiveRectangle() {
+    return snappedRectangle != null ? snappedRectangle : rectangle;
+  }
+
   public Rectangle getOriginalRectangle() {
     return originalRectangle;
   }
@@ -0,0 +1,154 @@
+package com.oxygenxml.image.markup.detect;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.oxygenxml.image.markup.image.ParallelStrips;
+import com.oxygenxml.image.markup.image.ParallelStrips.StripTask;
+
+/**
+ * Separates the ink from the background using a global Otsu threshold on the
+ * luminance. Both passes are done on strips, in parallel.
+ */
+public class Binarizer {
+
+  /**
+   * Private constructor.
+   */
+  private Binarizer() {}
+
+  /**
+   * Binarizes the given image.
+   *
+   * @param image The image.
+   *
+   * @return The ink mask.
+   */
+  public static BinaryImage binarize(BufferedImage image) {
+    return binarize(image, computeThreshold(image));
+  }
+
+  /**
+   * Binarizes the given image with a known threshold.
+   *
+   * @param image The image.
+   * @param threshold Pixels with a luminance lower or equal to it are ink.
+   *
+   * @return The ink mask.
+   */
+  public static BinaryImage binarize(final BufferedImage image, final int threshold) {
+    final int width = image.getWidth();
+    final BinaryImage binary = new BinaryImage(width, image.getHeight());
+    ParallelStrips.forEachStrip(image.getHeight(), new StripTask() {
+      @Override
+      public void process(int fromY, int toY) {
+        int[] row = new int[width];
+        for (int y = fromY; y < toY; y++) {
+          image.getRGB(0, y, width, 1, row, 0, width);
+          for (int x = 0; x < width; x++) {
+            if (luminance(row[x]) <= threshold) {
+              binary.setInk(x, y);
+            }
+          }
+        }
+      }
+    });
+    return binary;
+  }
+
+  /**
+   * Computes the Otsu threshold of the luminance histogram.
+   *
+   * @param image The image.
+   *
+   * @return The threshold, between 0 and 255.
+   */
+  public static int computeThreshold(final BufferedImage image) {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    int strips = ParallelStrips.getParallelism();
+    List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>(strips);
+    for (int i = 0; i < strips; i++) {
+      final int fromY = (int) ((long) height * i / strips);
+      final int toY = (int) ((long) height * (i + 1) / strips);
+      tasks.add(new Callable<long[]>() {
+        @Override
+        public long[] call() {
+          long[] histogram = new long[256];
+          int[] row = new int[width];
+          for (int y = fromY; y < toY; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+              histogram[luminance(row[x])]++;
+            }
+          }
+          return histogram;
+        }
+      });
+    }
+
+    long[] histogram = new long[256];
+    for (long[] partial : ParallelStrips.invokeAll(tasks)) {
+      for (int i = 0; i < 256; i++) {
+        histogram[i] += partial[i];
+      }
+    }
+
+    return otsu(histogram);
+  }
+
+  /**
+   * Otsu's method: the threshold that maximizes the variance between the two classes.
+   *
+   * @param histogram The luminance histogram.
+   *
+   * @return The threshold.
+   */
+  static int otsu(long[] histogram) {
+    long total = 0;
+    double sum = 0;
+    for (int i = 0; i < 256; i++) {
+      total += histogram[i];
+      sum += (double) i * histogram[i];
+    }
+
+    double sumBackground = 0;
+    long weightBackground = 0;
+    double maxVariance = -1;
+    int threshold = 127;
+    for (int t = 0; t < 256; t++) {
+      weightBackground += histogram[t];
+      if (weightBackground == 0) {
+        continue;
+      }
+      long weightForeground = total - weightBackground;
+      if (weightForeground == 0) {
+        break;
+      }
+      sumBackground += (double) t * histogram[t];
+      double meanBackground = sumBackground / weightBackground;
+      double meanForeground = (sum - sumBackground) / weightForeground;
+      double diff = meanBackground - meanForeground;
+      double variance = (double) weightBackground * weightForeground * diff * diff;
+      if (variance > maxVariance) {
+        maxVariance = variance;
+        threshold = t;
+      }
+    }
+    return threshold;
+  }
+
+  /**
+   * @param rgb A packed RGB value.
+   *
+   * @return The luminance, between 0 and 255.
+   */
+  static int luminance(int rgb) {
+    int r = (rgb >> 16) & 0xFF;
+    int g = (rgb >> 8) & 0xFF;
+    int b = rgb & 0xFF;
+    return (r * 77 + g * 150 + b * 29) >> 8;
+  }
+}
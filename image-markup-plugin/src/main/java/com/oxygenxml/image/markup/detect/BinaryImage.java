@@ -0,0 +1,102 @@
+package com.oxygenxml.image.markup.detect;
+
+/**
+ * A black and white image, packed one bit per pixel. A set bit is ink. Every row
+ * starts on a word boundary, so strips of rows can be written concurrently.
+ */
+public class BinaryImage {
+  /**
+   * The image width.
+   */
+  private final int width;
+  /**
+   * The image height.
+   */
+  private final int height;
+  /**
+   * The number of words on a row.
+   */
+  private final int wordsPerRow;
+  /**
+   * The bits.
+   */
+  private final long[] bits;
+
+  /**
+   * Constructor. All the pixels are background.
+   *
+   * @param width The image width.
+   * @param height The image height.
+   */
+  public BinaryImage(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.wordsPerRow = (width + 63) >>> 6;
+    this.bits = new long[wordsPerRow * height];
+  }
+
+  /**
+   * @return The image width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return The image height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Marks a pixel as ink.
+   *
+   * @param x The column.
+   * @param y The row.
+   */
+  public void setInk(int x, int y) {
+    bits[y * wordsPerRow + (x >>> 6)] |= 1L << (x & 63);
+  }
+
+  /**
+   * @param x The column.
+   * @param y The row.
+   *
+   * @return <code>true</code> if the pixel is ink.
+   */
+  public boolean isInk(int x, int y) {
+    return (bits[y * wordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
+  }
+
+  /**
+   * Counts the ink pixels on a row segment.
+   *
+   * @param y The row.
+   * @param fromX First column, inclusive.
+   * @param toX Last column, exclusive.
+   *
+   * @return The number of ink pixels.
+   */
+  public int countRow(int y, int fromX, int toX) {
+    if (fromX >= toX) {
+      return 0;
+    }
+    int rowStart = y * wordsPerRow;
+    int firstWord = fromX >>> 6;
+    int lastWord = (toX - 1) >>> 6;
+    long firstMask = -1L << (fromX & 63);
+    long lastMask = -1L >>> (63 - ((toX - 1) & 63));
+
+    if (firstWord == lastWord) {
+      return Long.bitCount(bits[rowStart + firstWord] & firstMask & lastMask);
+    }
+
+    int count = Long.bitCount(bits[rowStart + firstWord] & firstMask);
+    for (int w = firstWord + 1; w < lastWord; w++) {
+      count += Long.bitCount(bits[rowStart + w]);
+    }
+    count += Long.bitCount(bits[rowStart + lastWord] & lastMask);
+    return count;
+  }
+}
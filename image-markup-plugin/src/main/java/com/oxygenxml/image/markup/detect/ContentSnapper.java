@@ -0,0 +1,86 @@
+package com.oxygenxml.image.markup.detect;
+
+import java.awt.Rectangle;
+
+/**
+ * Adjusts the edges of a zone to the ink. Every edge first shrinks over the
+ * empty rows and columns inside the zone, then grows while the row or column
+ * just outside it has ink, so that glyphs cut by the edge are included.
+ *
+ * Every step asks the {@link IntegralImage} about one line of pixels, in
+ * constant time, so a snap is linear in the perimeter of the zone.
+ */
+public class ContentSnapper {
+  /**
+   * The minimum distance an edge can grow, in image pixels.
+   */
+  private static final int MIN_GROW = 8;
+
+  /**
+   * The ink table.
+   */
+  private final IntegralImage integral;
+
+  /**
+   * Constructor.
+   *
+   * @param integral The ink table of the image.
+   */
+  public ContentSnapper(IntegralImage integral) {
+    this.integral = integral;
+  }
+
+  /**
+   * Snaps the given zone to the ink.
+   *
+   * @param area The zone, in image coordinates.
+   *
+   * @return The adjusted zone. The given one if there is no ink inside it.
+   */
+  public Rectangle snap(Rectangle area) {
+    int step = integral.getFactor();
+    int left = Math.max(0, area.x);
+    int top = Math.max(0, area.y);
+    int right = Math.min(integral.getWidth(), area.x + area.width);
+    int bottom = Math.min(integral.getHeight(), area.y + area.height);
+    if (left >= right || top >= bottom || integral.count(left, top, right, bottom) == 0) {
+      return area;
+    }
+
+    // Shrink to the ink inside.
+    while (integral.count(left, top, left + step, bottom) == 0) {
+      left += step;
+    }
+    while (integral.count(right - step, top, right, bottom) == 0) {
+      right -= step;
+    }
+    while (integral.count(left, top, right, top + step) == 0) {
+      top += step;
+    }
+    while (integral.count(left, bottom - step, right, bottom) == 0) {
+      bottom -= step;
+    }
+
+    // Grow over the glyphs cut by the edges, but not over the neighbouring lines.
+    int maxGrowX = Math.max(MIN_GROW, (right - left) / 10);
+    int maxGrowY = Math.max(MIN_GROW, (bottom - top) / 4);
+    int limit = Math.max(0, left - maxGrowX);
+    while (left - step >= limit && integral.count(left - step, top, left, bottom) > 0) {
+      left -= step;
+    }
+    limit = Math.min(integral.getWidth(), right + maxGrowX);
+    while (right + step <= limit && integral.count(right, top, right + step, bottom) > 0) {
+      right += step;
+    }
+    limit = Math.max(0, top - maxGrowY);
+    while (top - step >= limit && integral.count(left, top - step, right, top) > 0) {
+      top -= step;
+    }
+    limit = Math.min(integral.getHeight(), bottom + maxGrowY);
+    while (bottom + step <= limit && integral.count(left, bottom, right, bottom + step) > 0) {
+      bottom += step;
+    }
+
+    return new Rectangle(left, top, right - left, bottom - top);
+  }
+}
@@ -0,0 +1,210 @@
+package com.oxygenxml.image.markup.detect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.oxygenxml.image.markup.image.ParallelStrips;
+
+/**
+ * A summed-area table of the ink. Counts the ink pixels of any rectangle in
+ * constant time.
+ *
+ * Very large scans are first reduced by an integer factor, a reduced pixel
+ * being ink if any of its pixels is ink, to keep the table within
+ * {@link #MAX_CELLS} entries. The ink can also come from an image read with a
+ * subsampling. Coordinates are always in image pixels.
+ */
+public class IntegralImage {
+  /**
+   * The maximum number of entries in the table.
+   */
+  static final int MAX_CELLS = 24 * 1024 * 1024;
+
+  /**
+   * The image width, in pixels.
+   */
+  private final int imageWidth;
+  /**
+   * The image height, in pixels.
+   */
+  private final int imageHeight;
+  /**
+   * The number of image pixels, on each axis, in a table cell.
+   */
+  private final int factor;
+  /**
+   * The number of ink pixels, on each axis, in a table cell.
+   */
+  private final int inkFactor;
+  /**
+   * The number of columns of the table.
+   */
+  private final int width;
+  /**
+   * The number of rows of the table.
+   */
+  private final int height;
+  /**
+   * The table, with an extra first row and column of zeros. The entry for
+   * <code>(x, y)</code> is the ink count of the cells <code>[0, x) x [0, y)</code>.
+   */
+  private final int[] sums;
+
+  /**
+   * Builds the table for the given ink.
+   *
+   * @param ink The ink.
+   */
+  public IntegralImage(BinaryImage ink) {
+    this(ink, 1);
+  }
+
+  /**
+   * Builds the table for the ink of an image read with a subsampling.
+   *
+   * @param ink The ink.
+   * @param scale The number of image pixels, on each axis, in an ink pixel.
+   */
+  public IntegralImage(final BinaryImage ink, int scale) {
+    imageWidth = ink.getWidth() * scale;
+    imageHeight = ink.getHeight() * scale;
+    int f = 1;
+    while ((long) (ink.getWidth() / f + 1) * (ink.getHeight() / f + 1) > MAX_CELLS) {
+      f++;
+    }
+    inkFactor = f;
+    factor = f * scale;
+    width = (ink.getWidth() + inkFactor - 1) / inkFactor;
+    height = (ink.getHeight() + inkFactor - 1) / inkFactor;
+    final int stride = width + 1;
+    sums = new int[stride * (height + 1)];
+
+    // First pass: every strip accumulates its own rows, as if it was alone.
+    final int strips = Math.min(ParallelStrips.getParallelism(), Math.max(1, height / 64));
+    final int[] stripStarts = new int[strips + 1];
+    for (int i = 0; i <= strips; i++) {
+      stripStarts[i] = (int) ((long) height * i / strips);
+    }
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(strips);
+    for (int i = 0; i < strips; i++) {
+      final int s = i;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int y = stripStarts[s]; y < stripStarts[s + 1]; y++) {
+            int row = (y + 1) * stride;
+            int previousRow = y == stripStarts[s] ? -1 : y * stride;
+            int rowSum = 0;
+            for (int x = 0; x < width; x++) {
+              if (isInk(ink, x, y)) {
+                rowSum++;
+              }
+              sums[row + x + 1] = rowSum + (previousRow == -1 ? 0 : sums[previousRow + x + 1]);
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ParallelStrips.invokeAll(tasks);
+
+    // Second pass: add the totals of the strips above.
+    final int[][] offsets = new int[strips][];
+    offsets[0] = new int[stride];
+    for (int s = 1; s < strips; s++) {
+      int[] offset = new int[stride];
+      int lastRow = stripStarts[s] * stride;
+      for (int x = 0; x < stride; x++) {
+        offset[x] = offsets[s - 1][x] + sums[lastRow + x];
+      }
+      offsets[s] = offset;
+    }
+    tasks.clear();
+    for (int i = 1; i < strips; i++) {
+      final int s = i;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          int[] offset = offsets[s];
+          for (int y = stripStarts[s]; y < stripStarts[s + 1]; y++) {
+            int row = (y + 1) * stride;
+            for (int x = 0; x < stride; x++) {
+              sums[row + x] += offset[x];
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ParallelStrips.invokeAll(tasks);
+  }
+
+  /**
+   * @return <code>true</code> if any pixel of the cell is ink.
+   */
+  private boolean isInk(BinaryImage ink, int cellX, int cellY) {
+    if (inkFactor == 1) {
+      return ink.isInk(cellX, cellY);
+    }
+    int fromX = cellX * inkFactor;
+    int toX = Math.min(ink.getWidth(), fromX + inkFactor);
+    int toY = Math.min(ink.getHeight(), (cellY + 1) * inkFactor);
+    for (int y = cellY * inkFactor; y < toY; y++) {
+      if (ink.countRow(y, fromX, toX) > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The image width, in pixels.
+   */
+  public int getWidth() {
+    return imageWidth;
+  }
+
+  /**
+   * @return The image height, in pixels.
+   */
+  public int getHeight() {
+    return imageHeight;
+  }
+
+  /**
+   * @return The precision of the table, in image pixels.
+   */
+  public int getFactor() {
+    return factor;
+  }
+
+  /**
+   * Counts the ink inside a rectangle. The rectangle is clipped to the image.
+   *
+   * @param x1 Left, inclusive, in image pixels.
+   * @param y1 Top, inclusive, in image pixels.
+   * @param x2 Right, exclusive, in image pixels.
+   * @param y2 Bottom, exclusive, in image pixels.
+   *
+   * @return The number of ink cells.
+   */
+  public int count(int x1, int y1, int x2, int y2) {
+    int cx1 = clamp(x1 / factor, width);
+    int cy1 = clamp(y1 / factor, height);
+    int cx2 = clamp((x2 + factor - 1) / factor, width);
+    int cy2 = clamp((y2 + factor - 1) / factor, height);
+    if (cx1 >= cx2 || cy1 >= cy2) {
+      return 0;
+    }
+    int stride = width + 1;
+    return sums[cy2 * stride + cx2] - sums[cy1 * stride + cx2] - sums[cy2 * stride + cx1] + sums[cy1 * stride + cx1];
+  }
+
+  /**
+   * Clamps a value to <code>[0, max]</code>.
+   */
+  private static int clamp(int value, int max) {
+    return value < 0 ? 0 : (value > max ? max : value);
+  }
+}
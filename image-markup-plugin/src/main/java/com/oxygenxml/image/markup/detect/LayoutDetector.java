@@ -0,0 +1,392 @@
+package com.oxygenxml.image.markup.detect;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.oxygenxml.image.markup.image.ParallelStrips;
+import com.oxygenxml.image.markup.image.ParallelStrips.StripTask;
+
+/**
+ * Detects text blocks and text lines on a page image.
+ * <ol>
+ * <li>The image is binarized.</li>
+ * <li>The ink is reduced on a coarse grid whose cells are about one typographic
+ * point on a full page. The gaps between words and between lines are closed on
+ * this grid.</li>
+ * <li>The connected components of the grid are the text blocks.</li>
+ * <li>Every block is split in lines using the horizontal projection profile of
+ * its ink.</li>
+ * </ol>
+ * The grid reduction, the gap closing and the line splitting run in parallel.
+ */
+public class LayoutDetector {
+  /**
+   * The detected zones.
+   */
+  public static class Result {
+    /**
+     * The text blocks.
+     */
+    private final List<Rectangle> blocks;
+    /**
+     * The text lines.
+     */
+    private final List<Rectangle> lines;
+
+    Result(List<Rectangle> blocks, List<Rectangle> lines) {
+      this.blocks = blocks;
+      this.lines = lines;
+    }
+
+    /**
+     * @return The text blocks, top to bottom.
+     */
+    public List<Rectangle> getBlocks() {
+      return blocks;
+    }
+
+    /**
+     * @return The text lines, top to bottom.
+     */
+    public List<Rectangle> getLines() {
+      return lines;
+    }
+  }
+
+  /**
+   * The number of grid cells on the longest side of the page.
+   */
+  private static final int GRID_RESOLUTION = 800;
+  /**
+   * The horizontal gap closed inside a block, as a fraction of the longest side.
+   */
+  private static final double HORIZONTAL_GAP = 0.012;
+  /**
+   * The vertical gap closed inside a block, as a fraction of the longest side.
+   */
+  private static final double VERTICAL_GAP = 0.008;
+  /**
+   * The minimum block size, as a fraction of the longest side.
+   */
+  private static final double MIN_BLOCK_SIZE = 0.008;
+
+  /**
+   * Orders zones top to bottom, then left to right.
+   */
+  private static final Comparator<Rectangle> TOP_DOWN = new Comparator<Rectangle>() {
+    @Override
+    public int compare(Rectangle o1, Rectangle o2) {
+      if (o1.y != o2.y) {
+        return o1.y < o2.y ? -1 : 1;
+      }
+      return o1.x < o2.x ? -1 : (o1.x == o2.x ? 0 : 1);
+    }
+  };
+
+  /**
+   * Detects the blocks and the lines on the given image.
+   *
+   * @param image The page image.
+   *
+   * @return The detected zones.
+   */
+  public Result detect(BufferedImage image) {
+    return detect(Binarizer.binarize(image));
+  }
+
+  /**
+   * Detects the blocks and the lines on the given ink mask.
+   *
+   * @param ink The page ink.
+   *
+   * @return The detected zones.
+   */
+  public Result detect(final BinaryImage ink) {
+    int width = ink.getWidth();
+    int height = ink.getHeight();
+    int longest = Math.max(width, height);
+    int cell = Math.max(1, longest / GRID_RESOLUTION);
+    int gridWidth = (width + cell - 1) / cell;
+    int gridHeight = (height + cell - 1) / cell;
+
+    boolean[] grid = reduce(ink, cell, gridWidth, gridHeight);
+    closeHorizontalGaps(grid, gridWidth, gridHeight, (int) Math.ceil(longest * HORIZONTAL_GAP / cell));
+    closeVerticalGaps(grid, gridWidth, gridHeight, (int) Math.ceil(longest * VERTICAL_GAP / cell));
+
+    int minSize = (int) Math.max(3, longest * MIN_BLOCK_SIZE);
+    List<Rectangle> blocks = new ArrayList<Rectangle>();
+    for (Rectangle component : findComponents(grid, gridWidth, gridHeight)) {
+      Rectangle block = new Rectangle(component.x * cell, component.y * cell, component.width * cell, component.height * cell);
+      block = block.intersection(new Rectangle(0, 0, width, height));
+      block = tighten(ink, block);
+      if (block == null
+          || block.width < minSize && block.height < minSize
+          // Dark scan margins.
+          || block.width >= width * 0.95 && block.height >= height * 0.95) {
+        continue;
+      }
+      blocks.add(block);
+    }
+    Collections.sort(blocks, TOP_DOWN);
+
+    List<Callable<List<Rectangle>>> tasks = new ArrayList<Callable<List<Rectangle>>>(blocks.size());
+    for (final Rectangle block : blocks) {
+      tasks.add(new Callable<List<Rectangle>>() {
+        @Override
+        public List<Rectangle> call() {
+          return splitLines(ink, block);
+        }
+      });
+    }
+    List<Rectangle> lines = new ArrayList<Rectangle>();
+    for (List<Rectangle> blockLines : ParallelStrips.invokeAll(tasks)) {
+      lines.addAll(blockLines);
+    }
+    Collections.sort(lines, TOP_DOWN);
+
+    return new Result(blocks, lines);
+  }
+
+  /**
+   * Reduces the ink on the coarse grid. A cell is ink if at least a sixteenth of
+   * its pixels are ink, which drops the scanning noise.
+   */
+  private static boolean[] reduce(final BinaryImage ink, final int cell, final int gridWidth, int gridHeight) {
+    final boolean[] grid = new boolean[gridWidth * gridHeight];
+    final int minInk = Math.max(1, cell * cell / 16);
+    ParallelStrips.forEachStrip(gridHeight, new StripTask() {
+      @Override
+      public void process(int fromY, int toY) {
+        int[] counts = new int[gridWidth];
+        for (int gy = fromY; gy < toY; gy++) {
+          Arrays.fill(counts, 0);
+          int maxY = Math.min(ink.getHeight(), (gy + 1) * cell);
+          for (int y = gy * cell; y < maxY; y++) {
+            for (int gx = 0; gx < gridWidth; gx++) {
+              counts[gx] += ink.countRow(y, gx * cell, Math.min(ink.getWidth(), (gx + 1) * cell));
+            }
+          }
+          for (int gx = 0; gx < gridWidth; gx++) {
+            grid[gy * gridWidth + gx] = counts[gx] >= minInk;
+          }
+        }
+      }
+    });
+    return grid;
+  }
+
+  /**
+   * Fills the background runs between two ink cells on the same row, if shorter than the gap.
+   */
+  private static void closeHorizontalGaps(final boolean[] grid, final int gridWidth, int gridHeight, final int gap) {
+    ParallelStrips.forEachStrip(gridHeight, new StripTask() {
+      @Override
+      public void process(int fromY, int toY) {
+        for (int gy = fromY; gy < toY; gy++) {
+          int row = gy * gridWidth;
+          int lastInk = -1;
+          for (int gx = 0; gx < gridWidth; gx++) {
+            if (grid[row + gx]) {
+              if (lastInk != -1 && gx - lastInk - 1 <= gap) {
+                Arrays.fill(grid, row + lastInk + 1, row + gx, true);
+              }
+              lastInk = gx;
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Fills the background runs between two ink cells on the same column, if shorter than the gap.
+   */
+  private static void closeVerticalGaps(final boolean[] grid, final int gridWidth, final int gridHeight, final int gap) {
+    // The strips are made of columns.
+    ParallelStrips.forEachStrip(gridWidth, new StripTask() {
+      @Override
+      public void process(int fromX, int toX) {
+        for (int gx = fromX; gx < toX; gx++) {
+          int lastInk = -1;
+          for (int gy = 0; gy < gridHeight; gy++) {
+            if (grid[gy * gridWidth + gx]) {
+              if (lastInk != -1 && gy - lastInk - 1 <= gap) {
+                for (int y = lastInk + 1; y < gy; y++) {
+                  grid[y * gridWidth + gx] = true;
+                }
+              }
+              lastInk = gy;
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Labels the 4-connected components of the grid.
+   *
+   * @return The bounds of every component, in grid cells.
+   */
+  static List<Rectangle> findComponents(boolean[] grid, int gridWidth, int gridHeight) {
+    List<Rectangle> components = new ArrayList<Rectangle>();
+    boolean[] visited = new boolean[grid.length];
+    int[] stack = new int[grid.length];
+    for (int start = 0; start < grid.length; start++) {
+      if (grid[start] && !visited[start]) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = -1;
+        int maxY = -1;
+        int size = 0;
+        stack[size++] = start;
+        visited[start] = true;
+        while (size > 0) {
+          int index = stack[--size];
+          int x = index % gridWidth;
+          int y = index / gridWidth;
+          minX = Math.min(minX, x);
+          maxX = Math.max(maxX, x);
+          minY = Math.min(minY, y);
+          maxY = Math.max(maxY, y);
+
+          if (x > 0 && grid[index - 1] && !visited[index - 1]) {
+            visited[index - 1] = true;
+            stack[size++] = index - 1;
+          }
+          if (x < gridWidth - 1 && grid[index + 1] && !visited[index + 1]) {
+            visited[index + 1] = true;
+            stack[size++] = index + 1;
+          }
+          if (y > 0 && grid[index - gridWidth] && !visited[index - gridWidth]) {
+            visited[index - gridWidth] = true;
+            stack[size++] = index - gridWidth;
+          }
+          if (y < gridHeight - 1 && grid[index + gridWidth] && !visited[index + gridWidth]) {
+            visited[index + gridWidth] = true;
+            stack[size++] = index + gridWidth;
+          }
+        }
+        components.add(new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1));
+      }
+    }
+    return components;
+  }
+
+  /**
+   * Splits a block in lines using the horizontal projection profile. Rows with
+   * ink form lines. Very thin lines, like accents or underlines, are merged
+   * with their closest neighbor.
+   *
+   * @param ink The page ink.
+   * @param block The block.
+   *
+   * @return The lines. Empty if the block has a single line.
+   */
+  static List<Rectangle> splitLines(BinaryImage ink, Rectangle block) {
+    int[] profile = new int[block.height];
+    for (int i = 0; i < block.height; i++) {
+      profile[i] = ink.countRow(block.y + i, block.x, block.x + block.width);
+    }
+
+    // Rows with just a few pixels of ink are the ascenders and descenders
+    // touching the space between lines.
+    int threshold = Math.max(1, block.width / 100);
+    List<int[]> runs = new ArrayList<int[]>();
+    int runStart = -1;
+    for (int i = 0; i <= block.height; i++) {
+      boolean text = i < block.height && profile[i] >= threshold;
+      if (text && runStart == -1) {
+        runStart = i;
+      } else if (!text && runStart != -1) {
+        runs.add(new int[] {runStart, i});
+        runStart = -1;
+      }
+    }
+    if (runs.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    int[] heights = new int[runs.size()];
+    for (int i = 0; i < heights.length; i++) {
+      heights[i] = runs.get(i)[1] - runs.get(i)[0];
+    }
+    Arrays.sort(heights);
+    int minHeight = heights[heights.length / 2] * 3 / 10;
+    for (int i = 0; i < runs.size() && runs.size() > 1;) {
+      int[] run = runs.get(i);
+      if (run[1] - run[0] < minHeight) {
+        int[] previous = i > 0 ? runs.get(i - 1) : null;
+        int[] next = i < runs.size() - 1 ? runs.get(i + 1) : null;
+        if (next == null || previous != null && run[0] - previous[1] <= next[0] - run[1]) {
+          previous[1] = run[1];
+        } else {
+          next[0] = run[0];
+        }
+        runs.remove(i);
+      } else {
+        i++;
+      }
+    }
+
+    List<Rectangle> lines = new ArrayList<Rectangle>();
+    if (runs.size() > 1) {
+      for (int[] run : runs) {
+        Rectangle line = tighten(ink, new Rectangle(block.x, block.y + run[0], block.width, run[1] - run[0]));
+        if (line != null) {
+          lines.add(line);
+        }
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * Shrinks the given area to the bounds of the ink inside it.
+   *
+   * @param ink The page ink.
+   * @param area The area.
+   *
+   * @return The ink bounds or <code>null</code> if there is no ink.
+   */
+  static Rectangle tighten(BinaryImage ink, Rectangle area) {
+    int top = area.y;
+    int bottom = area.y + area.height;
+    int left = area.x;
+    int right = area.x + area.width;
+    while (top < bottom && ink.countRow(top, left, right) == 0) {
+      top++;
+    }
+    while (bottom > top && ink.countRow(bottom - 1, left, right) == 0) {
+      bottom--;
+    }
+    if (top == bottom) {
+      return null;
+    }
+    while (left < right && !hasInkInColumn(ink, left, top, bottom)) {
+      left++;
+    }
+    while (right > left && !hasInkInColumn(ink, right - 1, top, bottom)) {
+      right--;
+    }
+    return new Rectangle(left, top, right - left, bottom - top);
+  }
+
+  /**
+   * @return <code>true</code> if there is ink on the given column segment.
+   */
+  private static boolean hasInkInColumn(BinaryImage ink, int x, int fromY, int toY) {
+    for (int y = fromY; y < toY; y++) {
+      if (ink.isInk(x, y)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,156 @@
+package com.oxygenxml.image.markup.detect;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.oxygenxml.image.markup.image.ParallelStrips;
+
+/**
+ * Detects the skew of the text lines on a page image.
+ * <ol>
+ * <li>The image is binarized and the ink is sampled on a regular grid.</li>
+ * <li>For every candidate angle, the ink is projected on the direction
+ * perpendicular to the lines. When the angle matches the lines, the profile
+ * alternates between full rows (the lines) and empty rows (the gaps), so it
+ * has the largest variance.</li>
+ * <li>The angles are tried coarse first, then fine around the best one.</li>
+ * </ol>
+ * The candidate angles are scored in parallel.
+ */
+public class SkewDetector {
+  /**
+   * The largest skew detected, in degrees.
+   */
+  public static final double MAX_ANGLE = 5;
+  /**
+   * The step of the coarse search, in degrees.
+   */
+  private static final double COARSE_STEP = 0.5;
+  /**
+   * The step of the fine search, in degrees.
+   */
+  private static final double FINE_STEP = 0.05;
+  /**
+   * The number of sampled pixels on the longest side of the page.
+   */
+  private static final int SAMPLE_RESOLUTION = 1200;
+  /**
+   * Fewer ink samples than this can't tell the direction of the lines.
+   */
+  private static final int MIN_INK_SAMPLES = 50;
+
+  /**
+   * Detects the skew of the lines.
+   *
+   * @param image The page image.
+   *
+   * @return The angle of the lines, in degrees, clockwise: positive when the
+   * lines go down to the right. 0 if there is not enough ink.
+   */
+  public double detect(BufferedImage image) {
+    BinaryImage ink = Binarizer.binarize(image);
+    int step = Math.max(1, (Math.max(ink.getWidth(), ink.getHeight()) + SAMPLE_RESOLUTION - 1) / SAMPLE_RESOLUTION);
+    int[] xs = new int[64];
+    int[] ys = new int[64];
+    int count = 0;
+    for (int y = 0; y < ink.getHeight(); y += step) {
+      for (int x = 0; x < ink.getWidth(); x += step) {
+        if (ink.isInk(x, y)) {
+          if (count == xs.length) {
+            int[] grownX = new int[count * 2];
+            int[] grownY = new int[count * 2];
+            System.arraycopy(xs, 0, grownX, 0, count);
+            System.arraycopy(ys, 0, grownY, 0, count);
+            xs = grownX;
+            ys = grownY;
+          }
+          // In sample units, so a profile bin is one sampled row.
+          xs[count] = x / step;
+          ys[count] = y / step;
+          count++;
+        }
+      }
+    }
+    if (count < MIN_INK_SAMPLES) {
+      return 0;
+    }
+
+    int diagonal = (int) Math.ceil(Math.hypot(ink.getWidth(), ink.getHeight()) / step) + 1;
+    double coarse = findBest(xs, ys, count, diagonal, -MAX_ANGLE, MAX_ANGLE, COARSE_STEP);
+    return findBest(xs, ys, count, diagonal, coarse - COARSE_STEP, coarse + COARSE_STEP, FINE_STEP);
+  }
+
+  /**
+   * Scores the angles of a range and keeps the best one.
+   *
+   * @param xs The columns of the ink samples.
+   * @param ys The rows of the ink samples.
+   * @param count The number of ink samples.
+   * @param diagonal The number of bins of a profile.
+   * @param from The first angle, in degrees.
+   * @param to The last angle, in degrees.
+   * @param step The step between the angles.
+   *
+   * @return The angle with the largest profile variance. The smallest angle
+   * wins a tie.
+   */
+  private static double findBest(final int[] xs, final int[] ys, final int count, final int diagonal,
+      double from, double to, double step) {
+    int angles = (int) Math.round((to - from) / step) + 1;
+    List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(angles);
+    final double[] candidates = new double[angles];
+    for (int i = 0; i < angles; i++) {
+      candidates[i] = from + i * step;
+      final double angle = candidates[i];
+      tasks.add(new Callable<Double>() {
+        @Override
+        public Double call() throws Exception {
+          return score(xs, ys, count, diagonal, angle);
+        }
+      });
+    }
+    List<Double> scores = ParallelStrips.invokeAll(tasks);
+
+    double best = 0;
+    double bestScore = -1;
+    for (int i = 0; i < angles; i++) {
+      double score = scores.get(i);
+      if (score > bestScore || (score == bestScore && Math.abs(candidates[i]) < Math.abs(best))) {
+        best = candidates[i];
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Projects the ink perpendicular to the given direction of the lines.
+   *
+   * @param xs The columns of the ink samples.
+   * @param ys The rows of the ink samples.
+   * @param count The number of ink samples.
+   * @param diagonal The number of bins of a profile.
+   * @param angle The direction of the lines, in degrees, clockwise.
+   *
+   * @return The sum of the squared bins. The number of samples is the same for
+   * every angle, so this orders the angles like the variance of the profile.
+   */
+  private static double score(int[] xs, int[] ys, int count, int diagonal, double angle) {
+    double radians = Math.toRadians(angle);
+    double cos = Math.cos(radians);
+    double sin = Math.sin(radians);
+    // The offset keeps the bins positive, whatever the sign of the angle.
+    int[] profile = new int[2 * diagonal + 1];
+    for (int i = 0; i < count; i++) {
+      int bin = (int) Math.round(ys[i] * cos - xs[i] * sin) + diagonal;
+      profile[bin]++;
+    }
+    double sum = 0;
+    for (int bin : profile) {
+      sum += (double) bin * bin;
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,580 @@
+package com.oxygenxml.image.markup.enhance;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.oxygenxml.image.markup.image.AsyncTileSource;
+import com.oxygenxml.image.markup.image.CachedTileSource;
+import com.oxygenxml.image.markup.image.ParallelStrips;
+import com.oxygenxml.image.markup.image.TilePyramid;
+import com.oxygenxml.image.markup.image.TileSource;
+
+/**
+ * The tiles of an image with an {@link Enhancement} applied. The source is not
+ * changed and the tiles keep their geometry, so the zone coordinates are the
+ * same as for the source.
+ *
+ * Every pixel goes through a lookup table. For the local contrast, every tile
+ * is a CLAHE context region: its clipped luminance histogram gives a mapping,
+ * and every pixel interpolates the mappings of the four closest regions. Only
+ * the regions around the requested tiles are computed.
+ *
+ * The enhanced tiles and the mappings are cached, so the same setting is never
+ * computed twice for a tile.
+ */
+public class EnhancedTileSource implements CachedTileSource {
+  /**
+   * The number of enhanced tiles kept, at least.
+   */
+  static final int MIN_CACHED_TILES = 96;
+  /**
+   * The number of local contrast mappings kept.
+   */
+  private static final int MAX_CACHED_MAPPINGS = 4096;
+  /**
+   * The histogram bins are clipped at this multiple of the mean bin.
+   */
+  private static final int CLIP_LIMIT = 3;
+
+  /**
+   * The source tiles.
+   */
+  private final TileSource source;
+  /**
+   * The enhancement.
+   */
+  private final Enhancement enhancement;
+  /**
+   * The levels, gamma and inversion table.
+   */
+  private final int[] lookupTable;
+  /**
+   * The number of enhanced tiles kept. Grows with the prepared ranges and 
+   * follows the tiles painted and prefetched together.
+   */
+  private volatile int capacity = MIN_CACHED_TILES;
+  /**
+   * The enhanced tiles, by tile key.
+   */
+  private final Map<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+      return size() > capacity;
+    }
+  };
+  /**
+   * The local contrast mapping of every context region, by tile key.
+   */
+  private final Map<Long, int[]> mappings = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+      return size() > MAX_CACHED_MAPPINGS;
+    }
+  };
+
+  /**
+   * Constructor.
+   *
+   * @param source The source tiles.
+   * @param enhancement The enhancement.
+   */
+  public EnhancedTileSource(TileSource source, Enhancement enhancement) {
+    this.source = source;
+    this.enhancement = enhancement;
+    this.lookupTable = enhancement.createLookupTable();
+  }
+
+  /**
+   * @return The enhancement.
+   */
+  public Enhancement getEnhancement() {
+    return enhancement;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getWidth()
+   */
+  @Override
+  public int getWidth() {
+    return source.getWidth();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getHeight()
+   */
+  @Override
+  public int getHeight() {
+    return source.getHeight();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTileSize()
+   */
+  @Override
+  public int getTileSize() {
+    return source.getTileSize();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getLevelCount()
+   */
+  @Override
+  public int getLevelCount() {
+    return source.getLevelCount();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.CachedTileSource#setCachedTileCount(int)
+   */
+  @Override
+  public void setCachedTileCount(int count) {
+    synchronized (tiles) {
+      capacity = Math.max(MIN_CACHED_TILES, count);
+      Iterator<BufferedImage> eldest = tiles.values().iterator();
+      while (tiles.size() > capacity && eldest.hasNext()) {
+        eldest.next();
+        eldest.remove();
+      }
+    }
+  }
+
+  /**
+   * Checks if the tiles from a range can be painted without computing them. 
+   * The tiles still loading don't count, they are computed once loaded.
+   *
+   * @param level The level.
+   * @param fromColumn The first column.
+   * @param toColumn The last column, inclusive.
+   * @param fromRow The first row.
+   * @param toRow The last row, inclusive.
+   *
+   * @return <code>true</code> if {@link #prepare(int, int, int, int, int)} has 
+   * nothing to compute.
+   */
+  public boolean isPrepared(int level, int fromColumn, int toColumn, int fromRow, int toRow) {
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int column = fromColumn; column <= toColumn; column++) {
+        if (getCachedTile(level, column, row) == null && isSourceReady(level, column, row)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Computes in parallel the tiles from a range that are not in the cache yet.
+   * The tiles still loading are skipped. The cache grows to hold the whole 
+   * range, so its tiles don't evict each other. Takes a while, call it in the 
+   * background.
+   *
+   * @param level The level.
+   * @param fromColumn The first column.
+   * @param toColumn The last column, inclusive.
+   * @param fromRow The first row.
+   * @param toRow The last row, inclusive.
+   *
+   * @return The number of tiles of the range added to the cache. 0 when 
+   * nothing more can be computed.
+   */
+  public int prepare(final int level, int fromColumn, int toColumn, int fromRow, int toRow) {
+    int count = Math.max(0, toColumn - fromColumn + 1) * Math.max(0, toRow - fromRow + 1);
+    if (count > capacity) {
+      capacity = count;
+    }
+    int before = getCachedCount(level, fromColumn, toColumn, fromRow, toRow);
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int column = fromColumn; column <= toColumn; column++) {
+        if (getCachedTile(level, column, row) == null && isSourceReady(level, column, row)) {
+          final int c = column;
+          final int r = row;
+          tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+              try {
+                getTile(level, c, r);
+              } catch (IOException e) {
+                // Reported when the tile is painted.
+              }
+              return null;
+            }
+          });
+        }
+      }
+    }
+    ParallelStrips.invokeAll(tasks);
+    return Math.max(0, getCachedCount(level, fromColumn, toColumn, fromRow, toRow) - before);
+  }
+
+  /**
+   * Counts the cached tiles of a range.
+   *
+   * @param level The level.
+   * @param fromColumn The first column.
+   * @param toColumn The last column, inclusive.
+   * @param fromRow The first row.
+   * @param toRow The last row, inclusive.
+   *
+   * @return The number of cached tiles.
+   */
+  private int getCachedCount(int level, int fromColumn, int toColumn, int fromRow, int toRow) {
+    int count = 0;
+    synchronized (tiles) {
+      for (int row = fromRow; row <= toRow; row++) {
+        for (int column = fromColumn; column <= toColumn; column++) {
+          if (tiles.containsKey(key(level, column, row))) {
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Gets an enhanced tile, only if it was already computed.
+   *
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   *
+   * @return The tile or <code>null</code>.
+   */
+  public BufferedImage getCachedTile(int level, int column, int row) {
+    synchronized (tiles) {
+      return tiles.get(key(level, column, row));
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the source tile is loaded.
+   */
+  private boolean isSourceReady(int level, int column, int row) {
+    return !(source instanceof AsyncTileSource) || ((AsyncTileSource) source).isTileReady(level, column, row);
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTile(int, int, int)
+   */
+  @Override
+  public BufferedImage getTile(int level, int column, int row) throws IOException {
+    Long key = key(level, column, row);
+    BufferedImage tile;
+    synchronized (tiles) {
+      tile = tiles.get(key);
+    }
+    if (tile == null) {
+      // A tile still loading is enhanced again once it is loaded.
+      boolean ready = isSourceReady(level, column, row);
+      tile = enhance(level, column, row);
+      if (ready) {
+        synchronized (tiles) {
+          tiles.put(key, tile);
+        }
+      }
+    }
+    return tile;
+  }
+
+  /**
+   * Enhances a source tile.
+   *
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   *
+   * @return The enhanced tile.
+   *
+   * @throws IOException Unable to read the source tiles.
+   */
+  private BufferedImage enhance(int level, int column, int row) throws IOException {
+    BufferedImage sourceTile = source.getTile(level, column, row);
+    int width = sourceTile.getWidth();
+    int height = sourceTile.getHeight();
+    BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    sourceTile.getRGB(0, 0, width, height, pixels, 0, width);
+
+    LocalContrast contrast = enhancement.isLocalContrast() ? new LocalContrast(level, column, row, width, height) : null;
+    boolean grayscale = enhancement.isGrayscale();
+    int[] table = lookupTable;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int index = y * width + x;
+        int rgb = pixels[index];
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        if (grayscale || contrast != null) {
+          int luminance = luminance(rgb);
+          if (grayscale) {
+            r = g = b = luminance;
+          }
+          if (contrast != null) {
+            // Moves the channels with the luminance, so the hue is kept.
+            int delta = contrast.map(x, y, luminance) - luminance;
+            r = clamp(r + delta);
+            g = clamp(g + delta);
+            b = clamp(b + delta);
+          }
+        }
+        pixels[index] = table[r] << 16 | table[g] << 8 | table[b];
+      }
+    }
+    return tile;
+  }
+
+  /**
+   * The local contrast mappings around a tile, with the interpolation weights
+   * of every column and row of the tile.
+   */
+  private class LocalContrast {
+    /**
+     * The mappings of the regions around the tile, from -1 to +1 in both directions.
+     */
+    private final int[][] around = new int[9][];
+    /**
+     * For every column, the left region, from -1 to +1.
+     */
+    private final int[] left;
+    /**
+     * For every column, the right region, from -1 to +1.
+     */
+    private final int[] right;
+    /**
+     * For every column, the weight of the right region.
+     */
+    private final float[] rightWeight;
+    /**
+     * For every row, the top region, from -1 to +1.
+     */
+    private final int[] top;
+    /**
+     * For every row, the bottom region, from -1 to +1.
+     */
+    private final int[] bottom;
+    /**
+     * For every row, the weight of the bottom region.
+     */
+    private final float[] bottomWeight;
+
+    /**
+     * Constructor.
+     *
+     * @param level The level.
+     * @param column The tile column.
+     * @param row The tile row.
+     * @param width The tile width.
+     * @param height The tile height.
+     *
+     * @throws IOException Unable to read the source tiles.
+     */
+    LocalContrast(int level, int column, int row, int width, int height) throws IOException {
+      int tileSize = source.getTileSize();
+      int columns = TilePyramid.getTileCount(source.getWidth(), tileSize, level);
+      int rows = TilePyramid.getTileCount(source.getHeight(), tileSize, level);
+      for (int dy = -1; dy <= 1; dy++) {
+        for (int dx = -1; dx <= 1; dx++) {
+          int c = column + dx;
+          int r = row + dy;
+          if (c >= 0 && c < columns && r >= 0 && r < rows) {
+            around[(dy + 1) * 3 + dx + 1] = getMapping(level, c, r);
+          }
+        }
+      }
+
+      int levelWidth = TilePyramid.getLevelSize(source.getWidth(), level);
+      left = new int[width];
+      right = new int[width];
+      rightWeight = new float[width];
+      for (int x = 0; x < width; x++) {
+        computeWeights(x, tileSize, column, levelWidth, left, right, rightWeight);
+      }
+      int levelHeight = TilePyramid.getLevelSize(source.getHeight(), level);
+      top = new int[height];
+      bottom = new int[height];
+      bottomWeight = new float[height];
+      for (int y = 0; y < height; y++) {
+        computeWeights(y, tileSize, row, levelHeight, top, bottom, bottomWeight);
+      }
+    }
+
+    /**
+     * Computes the two regions whose centers surround a pixel, along one axis.
+     *
+     * @param position The pixel position in the tile.
+     * @param tileSize The side of a tile.
+     * @param index The tile index.
+     * @param levelExtent The extent of the level.
+     * @param before Receives the region before, from -1 to +1.
+     * @param after Receives the region after, from -1 to +1.
+     * @param afterWeight Receives the weight of the region after.
+     */
+    private void computeWeights(int position, int tileSize, int index, int levelExtent,
+        int[] before, int[] after, float[] afterWeight) {
+      float pixel = index * tileSize + position + 0.5f;
+      float center = center(index, tileSize, levelExtent);
+      if (pixel < center && index > 0) {
+        float previous = center(index - 1, tileSize, levelExtent);
+        before[position] = -1;
+        after[position] = 0;
+        afterWeight[position] = (pixel - previous) / (center - previous);
+      } else if (pixel >= center && (index + 1) * tileSize < levelExtent) {
+        float next = center(index + 1, tileSize, levelExtent);
+        before[position] = 0;
+        after[position] = 1;
+        afterWeight[position] = (pixel - center) / (next - center);
+      } else {
+        // Past the outer centers, only this region counts.
+        before[position] = 0;
+        after[position] = 0;
+        afterWeight[position] = 0;
+      }
+    }
+
+    /**
+     * @return The center of a region along one axis. The last region can be smaller.
+     */
+    private float center(int index, int tileSize, int levelExtent) {
+      return index * tileSize + Math.min(tileSize, levelExtent - index * tileSize) / 2f;
+    }
+
+    /**
+     * Maps a luminance by interpolating the mappings of the closest regions.
+     *
+     * @param x The column in the tile.
+     * @param y The row in the tile.
+     * @param luminance The luminance.
+     *
+     * @return The new luminance.
+     */
+    int map(int x, int y, int luminance) {
+      float wx = rightWeight[x];
+      float wy = bottomWeight[y];
+      int[] topLeft = around[(top[y] + 1) * 3 + left[x] + 1];
+      int[] topRight = around[(top[y] + 1) * 3 + right[x] + 1];
+      int[] bottomLeft = around[(bottom[y] + 1) * 3 + left[x] + 1];
+      int[] bottomRight = around[(bottom[y] + 1) * 3 + right[x] + 1];
+      float upper = topLeft[luminance] * (1 - wx) + topRight[luminance] * wx;
+      float lower = bottomLeft[luminance] * (1 - wx) + bottomRight[luminance] * wx;
+      return Math.round(upper * (1 - wy) + lower * wy);
+    }
+  }
+
+  /**
+   * Gets the local contrast mapping of a context region.
+   *
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   *
+   * @return The new luminance for every luminance.
+   *
+   * @throws IOException Unable to read the source tile.
+   */
+  private int[] getMapping(int level, int column, int row) throws IOException {
+    Long key = key(level, column, row);
+    int[] mapping;
+    synchronized (mappings) {
+      mapping = mappings.get(key);
+    }
+    if (mapping == null) {
+      BufferedImage tile = source.getTile(level, column, row);
+      int width = tile.getWidth();
+      int height = tile.getHeight();
+      int[] pixels = new int[width];
+      int[] histogram = new int[256];
+      for (int y = 0; y < height; y++) {
+        tile.getRGB(0, y, width, 1, pixels, 0, width);
+        for (int x = 0; x < width; x++) {
+          histogram[luminance(pixels[x])]++;
+        }
+      }
+      mapping = equalize(histogram, width * height);
+      // The mapping of a tile still loading is computed again once it is loaded.
+      if (isSourceReady(level, column, row)) {
+        synchronized (mappings) {
+          mappings.put(key, mapping);
+        }
+      }
+    }
+    return mapping;
+  }
+
+  /**
+   * Computes the contrast limited equalization of a histogram.
+   *
+   * @param histogram The luminance histogram. It is clipped in place.
+   * @param count The number of pixels.
+   *
+   * @return The new luminance for every luminance.
+   */
+  static int[] equalize(int[] histogram, int count) {
+    int limit = Math.max(1, CLIP_LIMIT * count / histogram.length);
+    int excess = 0;
+    for (int i = 0; i < histogram.length; i++) {
+      if (histogram[i] > limit) {
+        excess += histogram[i] - limit;
+        histogram[i] = limit;
+      }
+    }
+    // The clipped pixels are spread over all the bins.
+    int spread = excess / histogram.length;
+    int rest = excess % histogram.length;
+    int[] mapping = new int[histogram.length];
+    long cumulated = 0;
+    for (int i = 0; i < histogram.length; i++) {
+      cumulated += histogram[i] + spread + (i < rest ? 1 : 0);
+      mapping[i] = (int) Math.min(255, cumulated * 255 / count);
+    }
+    return mapping;
+  }
+
+  /**
+   * Computes the luminance of a pixel, with the weights used for binarization.
+   *
+   * @param rgb The pixel.
+   *
+   * @return The luminance, between 0 and 255.
+   */
+  private static int luminance(int rgb) {
+    return (((rgb >> 16) & 0xFF) * 77 + ((rgb >> 8) & 0xFF) * 150 + (rgb & 0xFF) * 29) >> 8;
+  }
+
+  /**
+   * Clamps a channel to <code>[0, 255]</code>.
+   */
+  private static int clamp(int value) {
+    return value < 0 ? 0 : (value > 255 ? 255 : value);
+  }
+
+  /**
+   * @return The cache key of a tile.
+   */
+  private static Long key(int level, int column, int row) {
+    return Long.valueOf((long) level << 56 | (long) row << 28 | column);
+  }
+
+  /**
+   * Drops the cached tiles. The source stays open, it belongs to the caller.
+   *
+   * @see com.oxygenxml.image.markup.image.TileSource#close()
+   */
+  @Override
+  public void close() {
+    synchronized (tiles) {
+      tiles.clear();
+    }
+    synchronized (mappings) {
+      mappings.clear();
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.oxygenxml.image.markup.enhance;
+
+/**
+ * The settings of the image enhancement: levels, gamma, local contrast
+ * (CLAHE), grayscale and invert. The settings are immutable, so they can be
+ * used as cache keys.
+ *
+ * The levels, the gamma and the inversion are folded in one lookup table, see
+ * {@link #createLookupTable()}.
+ */
+public class Enhancement {
+  /**
+   * No enhancement.
+   */
+  public static final Enhancement NONE = new Enhancement(0, 255, 1, false, false, false);
+
+  /**
+   * The value mapped to black.
+   */
+  private final int blackPoint;
+  /**
+   * The value mapped to white.
+   */
+  private final int whitePoint;
+  /**
+   * The gamma. Values above 1 brighten the middle tones.
+   */
+  private final double gamma;
+  /**
+   * <code>true</code> to equalize the contrast locally, with CLAHE.
+   */
+  private final boolean localContrast;
+  /**
+   * <code>true</code> to present the luminance only.
+   */
+  private final boolean grayscale;
+  /**
+   * <code>true</code> to invert the values.
+   */
+  private final boolean invert;
+
+  /**
+   * Constructor.
+   *
+   * @param blackPoint The value mapped to black, between 0 and 254.
+   * @param whitePoint The value mapped to white, above the black point and up to 255.
+   * @param gamma The gamma. Values above 1 brighten the middle tones.
+   * @param localContrast <code>true</code> to equalize the contrast locally, with CLAHE.
+   * @param grayscale <code>true</code> to present the luminance only.
+   * @param invert <code>true</code> to invert the values.
+   */
+  public Enhancement(int blackPoint, int whitePoint, double gamma, boolean localContrast, boolean grayscale, boolean invert) {
+    if (blackPoint < 0 || whitePoint > 255 || blackPoint >= whitePoint || gamma <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid levels: " + blackPoint + ", " + whitePoint + ", gamma " + gamma);
+    }
+    this.blackPoint = blackPoint;
+    this.whitePoint = whitePoint;
+    this.gamma = gamma;
+    this.localContrast = localContrast;
+    this.grayscale = grayscale;
+    this.invert = invert;
+  }
+
+  /**
+   * @return The value mapped to black.
+   */
+  public int getBlackPoint() {
+    return blackPoint;
+  }
+
+  /**
+   * @return The value mapped to white.
+   */
+  public int getWhitePoint() {
+    return whitePoint;
+  }
+
+  /**
+   * @return The gamma.
+   */
+  public double getGamma() {
+    return gamma;
+  }
+
+  /**
+   * @return <code>true</code> to equalize the contrast locally, with CLAHE.
+   */
+  public boolean isLocalContrast() {
+    return localContrast;
+  }
+
+  /**
+   * @return <code>true</code> to present the luminance only.
+   */
+  public boolean isGrayscale() {
+    return grayscale;
+  }
+
+  /**
+   * @return <code>true</code> to invert the values.
+   */
+  public boolean isInvert() {
+    return invert;
+  }
+
+  /**
+   * @return <code>true</code> if the pixels are not changed.
+   */
+  public boolean isIdentity() {
+    return equals(NONE);
+  }
+
+  /**
+   * Computes the table that applies the levels, the gamma and the inversion to
+   * a channel value.
+   *
+   * @return The new value of every channel value, from 0 to 255.
+   */
+  public int[] createLookupTable() {
+    int[] table = new int[256];
+    double range = whitePoint - blackPoint;
+    for (int value = 0; value < 256; value++) {
+      double level = Math.min(1, Math.max(0, (value - blackPoint) / range));
+      int mapped = (int) Math.round(255 * Math.pow(level, 1 / gamma));
+      table[value] = invert ? 255 - mapped : mapped;
+    }
+    return table;
+  }
+
+  /**
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof Enhancement)) {
+      return false;
+    }
+    Enhancement other = (Enhancement) obj;
+    return blackPoint == other.blackPoint
+        && whitePoint == other.whitePoint
+        && Double.compare(gamma, other.gamma) == 0
+        && localContrast == other.localContrast
+        && grayscale == other.grayscale
+        && invert == other.invert;
+  }
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    long bits = Double.doubleToLongBits(gamma);
+    int hash = blackPoint;
+    hash = 31 * hash + whitePoint;
+    hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+    hash = 31 * hash + (localContrast ? 1 : 0);
+    hash = 31 * hash + (grayscale ? 1 : 0);
+    hash = 31 * hash + (invert ? 1 : 0);
+    return hash;
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "levels " + blackPoint + "-" + whitePoint + ", gamma " + gamma
+        + (localContrast ? ", local contrast" : "")
+        + (grayscale ? ", grayscale" : "")
+        + (invert ? ", inverted" : "");
+  }
+}
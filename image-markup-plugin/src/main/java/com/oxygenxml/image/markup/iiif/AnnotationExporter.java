@@ -0,0 +1,442 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import com.oxygenxml.image.markup.image.ParallelStrips;
+import com.oxygenxml.image.markup.tei.FacsimileScanner;
+
+/**
+ * Exports the zones of TEI documents as W3C Web Annotations, usable by IIIF
+ * viewers. Every surface with zones becomes an <code>AnnotationPage</code>
+ * file that targets its canvas, every zone an <code>Annotation</code> with an
+ * <code>xywh</code> fragment selector.
+ *
+ * The documents are scanned and the JSON is written at the same time, so the
+ * memory use doesn't depend on the size of the facsimile.
+ */
+public class AnnotationExporter {
+  /**
+   * The JSON-LD context of the W3C annotations.
+   */
+  private static final String ANNOTATION_CONTEXT = "http://www.w3.org/ns/anno.jsonld";
+  /**
+   * The specification of the <code>xywh</code> selectors.
+   */
+  private static final String MEDIA_FRAGMENTS = "http://www.w3.org/TR/media-frags/";
+  /**
+   * The size of the output buffers.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The folder where the annotation pages are written.
+   */
+  private final File outputDir;
+  /**
+   * The prefix of the canvas IDs. <code>null</code> to use the image URLs as canvas IDs.
+   */
+  private final String canvasPrefix;
+  /**
+   * Documents that couldn't be exported, mapped to the reason.
+   */
+  private final Map<String, String> failures = Collections.synchronizedMap(new TreeMap<String, String>());
+
+  /**
+   * Constructor.
+   *
+   * @param outputDir The folder where the annotation pages are written.
+   * @param canvasPrefix The prefix of the canvas IDs, followed by the surface
+   * <code>xml:id</code>. <code>null</code> or empty to use the image URLs as canvas IDs.
+   */
+  public AnnotationExporter(File outputDir, String canvasPrefix) {
+    this.outputDir = outputDir;
+    this.canvasPrefix = canvasPrefix != null && canvasPrefix.length() > 0 ? canvasPrefix : null;
+  }
+
+  /**
+   * Exports one document.
+   *
+   * @param document The document.
+   * @param systemID The location of the document. Image references are relative to it.
+   * @param name The name of the document, used as prefix of the output files.
+   *
+   * @return The number of annotation pages written.
+   *
+   * @throws IOException Unable to read the document or to write the annotations.
+   */
+  public int exportDocument(Reader document, String systemID, String name) throws IOException {
+    PageWriter writer = new PageWriter(systemID, name);
+    try {
+      new FacsimileScanner().scan(document, systemID, writer);
+    } catch (WriteException e) {
+      throw e.getCause();
+    } finally {
+      writer.closeAll();
+    }
+    return writer.pages;
+  }
+
+  /**
+   * Exports all the XML documents in a folder and its sub-folders, in parallel.
+   * The documents that can't be exported are reported by {@link #getFailures()}.
+   *
+   * @param corpusDir The folder.
+   *
+   * @return The number of annotation pages written.
+   */
+  public int exportCorpus(final File corpusDir) {
+    List<File> files = new ArrayList<File>();
+    collectDocuments(corpusDir, files);
+    // The same documents always get the same names.
+    Collections.sort(files);
+
+    List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(files.size());
+    String root = corpusDir.getAbsolutePath();
+    // The names given so far, lower case for the file systems that ignore the case.
+    Set<String> taken = new HashSet<String>();
+    for (final File file : files) {
+      // Documents with the same name in different folders shouldn't overwrite each other.
+      String relative = file.getAbsolutePath().substring(root.length() + 1);
+      final String name = uniqueName(toFileName(stripExtension(relative).replace(File.separatorChar, '_')), taken);
+      tasks.add(new Callable<Integer>() {
+        @Override
+        public Integer call() {
+          String systemID = file.toURI().toString();
+          PageWriter writer = new PageWriter(systemID, name);
+          try {
+            InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            try {
+              new FacsimileScanner().scan(is, systemID, writer);
+            } finally {
+              is.close();
+            }
+          } catch (WriteException e) {
+            failures.put(file.getPath(), e.getCause().getMessage());
+          } catch (IOException e) {
+            failures.put(file.getPath(), e.getMessage());
+          } finally {
+            writer.closeAll();
+          }
+          return writer.pages;
+        }
+      });
+    }
+
+    int pages = 0;
+    for (Integer count : ParallelStrips.invokeAll(tasks)) {
+      pages += count;
+    }
+    return pages;
+  }
+
+  /**
+   * @return The documents that couldn't be exported, mapped to the reason.
+   */
+  public Map<String, String> getFailures() {
+    return failures;
+  }
+
+  /**
+   * Collects the XML documents of a folder, recursively.
+   */
+  private static void collectDocuments(File dir, List<File> files) {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          collectDocuments(child, files);
+        } else if (child.getName().toLowerCase().endsWith(".xml")) {
+          files.add(child);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The file name without the extension.
+   */
+  private static String stripExtension(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot > name.lastIndexOf(File.separatorChar) ? name.substring(0, dot) : name;
+  }
+
+  /**
+   * Makes a name differ from the ones given before, with a numeric suffix. 
+   * "a/b.xml" and "a_b.xml" are both flattened to "a_b".
+   *
+   * @param name The name.
+   * @param taken The names given before, lower case. The returned one is added.
+   *
+   * @return The unique name.
+   */
+  static String uniqueName(String name, Set<String> taken) {
+    String unique = name;
+    for (int suffix = 2; !taken.add(unique.toLowerCase()); suffix++) {
+      unique = name + "_" + suffix;
+    }
+    return unique;
+  }
+
+  /**
+   * @return The name with all the characters that are not safe in a file name replaced.
+   */
+  static String toFileName(String name) {
+    return name.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  /**
+   * Carries a write error through the scanner.
+   */
+  private static class WriteException extends RuntimeException {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param cause The write error.
+     */
+    WriteException(IOException cause) {
+      super(cause);
+    }
+
+    /**
+     * @see java.lang.Throwable#getCause()
+     */
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+
+  /**
+   * An open surface.
+   */
+  private static class Surface {
+    /**
+     * The index of the surface in the document.
+     */
+    int index;
+    /**
+     * The <code>xml:id</code> of the surface.
+     */
+    String id;
+    /**
+     * The image of the surface.
+     */
+    String graphic;
+    /**
+     * The ID of the annotation page. Set when the page is started.
+     */
+    String pageID;
+    /**
+     * The output file. Opened at the first zone.
+     */
+    Writer out;
+    /**
+     * Writes the annotation page.
+     */
+    JsonWriter json;
+    /**
+     * The number of zones written so far.
+     */
+    int zones;
+  }
+
+  /**
+   * Writes the zones of one document, an annotation page for every surface.
+   */
+  private class PageWriter implements FacsimileScanner.Handler {
+    /**
+     * The location of the document.
+     */
+    private final String systemID;
+    /**
+     * The prefix of the output files.
+     */
+    private final String name;
+    /**
+     * The open surfaces. Surfaces can nest.
+     */
+    private final List<Surface> surfaces = new ArrayList<Surface>();
+    /**
+     * The number of pages written.
+     */
+    int pages;
+
+    /**
+     * Constructor.
+     *
+     * @param systemID The location of the document.
+     * @param name The prefix of the output files.
+     */
+    PageWriter(String systemID, String name) {
+      this.systemID = systemID;
+      this.name = toFileName(name);
+    }
+
+    /**
+     * @see FacsimileScanner.Handler#startSurface(int, String)
+     */
+    @Override
+    public void startSurface(int index, String id) {
+      Surface surface = new Surface();
+      surface.index = index;
+      surface.id = id;
+      surfaces.add(surface);
+    }
+
+    /**
+     * @see FacsimileScanner.Handler#graphic(String)
+     */
+    @Override
+    public void graphic(String url) {
+      Surface surface = surfaces.get(surfaces.size() - 1);
+      if (surface.graphic == null) {
+        surface.graphic = url;
+      }
+    }
+
+    /**
+     * @see FacsimileScanner.Handler#zone(String, double, double, double, double)
+     */
+    @Override
+    public void zone(String id, double ulx, double uly, double lrx, double lry) {
+      Surface surface = surfaces.get(surfaces.size() - 1);
+      int x = (int) Math.floor(ulx);
+      int y = (int) Math.floor(uly);
+      int w = (int) Math.ceil(lrx) - x;
+      int h = (int) Math.ceil(lry) - y;
+      if (w <= 0 || h <= 0) {
+        return;
+      }
+      try {
+        if (surface.json == null) {
+          startPage(surface);
+        }
+        surface.zones++;
+        JsonWriter json = surface.json;
+        json.beginObject();
+        json.member("id", surface.pageID + "#" + (id != null ? id : "a" + surface.zones));
+        json.member("type", "Annotation");
+        json.member("motivation", "highlighting");
+        if (id != null) {
+          json.name("body").beginObject();
+          json.member("type", "TextualBody");
+          json.member("purpose", "identifying");
+          json.member("value", id);
+          json.endObject();
+        }
+        json.name("target").beginObject();
+        json.member("type", "SpecificResource");
+        json.member("source", getCanvasID(surface));
+        json.name("selector").beginObject();
+        json.member("type", "FragmentSelector");
+        json.member("conformsTo", MEDIA_FRAGMENTS);
+        json.member("value", "xywh=" + x + "," + y + "," + w + "," + h);
+        json.endObject();
+        json.endObject();
+        json.endObject();
+      } catch (IOException e) {
+        throw new WriteException(e);
+      }
+    }
+
+    /**
+     * @see FacsimileScanner.Handler#endSurface()
+     */
+    @Override
+    public void endSurface() {
+      Surface surface = surfaces.remove(surfaces.size() - 1);
+      try {
+        endPage(surface);
+      } catch (IOException e) {
+        throw new WriteException(e);
+      }
+    }
+
+    /**
+     * Closes the pages of the surfaces left open by an error.
+     */
+    void closeAll() {
+      for (Surface surface : surfaces) {
+        if (surface.out != null) {
+          try {
+            surface.out.close();
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+      }
+      surfaces.clear();
+    }
+
+    /**
+     * Opens the annotation page of a surface.
+     */
+    private void startPage(Surface surface) throws IOException {
+      String suffix = surface.id != null ? toFileName(surface.id) : String.valueOf(surface.index + 1);
+      File file = new File(outputDir, name + "-" + suffix + ".json");
+      surface.pageID = file.toURI().toString();
+      surface.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), BUFFER_SIZE);
+      surface.json = new JsonWriter(surface.out);
+      surface.json.beginObject();
+      surface.json.member("@context", ANNOTATION_CONTEXT);
+      surface.json.member("id", surface.pageID);
+      surface.json.member("type", "AnnotationPage");
+      surface.json.name("items").beginArray();
+      pages++;
+    }
+
+    /**
+     * Ends the annotation page of a surface, if it has one.
+     */
+    private void endPage(Surface surface) throws IOException {
+      if (surface.json != null) {
+        try {
+          surface.json.endArray().endObject();
+        } finally {
+          surface.out.close();
+        }
+      }
+    }
+
+    /**
+     * @return The ID of the canvas of the surface.
+     */
+    private String getCanvasID(Surface surface) {
+      String reference = surface.id != null ? surface.id : String.valueOf(surface.index + 1);
+      if (canvasPrefix != null) {
+        return canvasPrefix + reference;
+      } else if (surface.graphic != null) {
+        try {
+          return new URL(new URL(systemID), surface.graphic).toString();
+        } catch (MalformedURLException e) {
+          return surface.graphic;
+        }
+      }
+      return systemID + "#" + reference;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.io.IOException;
+import java.net.URL;
+
+import com.oxygenxml.image.markup.image.ImageDecoder;
+import com.oxygenxml.image.markup.image.TileSource;
+
+/**
+ * Opens the images of IIIF Image API servers: an <code>info.json</code>, an
+ * image request or the base URL of an image service. Only the visible tiles
+ * are downloaded, never the whole image.
+ */
+public class IIIFDecoder implements ImageDecoder {
+  /**
+   * The downloaded tiles. <code>null</code> for no cache.
+   */
+  private final IIIFTileCache cache;
+
+  /**
+   * Constructor.
+   *
+   * @param cache The downloaded tiles. <code>null</code> for no cache.
+   */
+  public IIIFDecoder(IIIFTileCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.ImageDecoder#getFileSuffixes()
+   */
+  @Override
+  public String[] getFileSuffixes() {
+    return new String[] {"json"};
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.ImageDecoder#open(java.net.URL)
+   */
+  @Override
+  public TileSource open(URL imageURL) throws IOException {
+    URL infoURL = IIIFImageInfo.getInfoURL(imageURL);
+    if (infoURL == null) {
+      return null;
+    }
+    IIIFImageInfo info;
+    try {
+      info = IIIFImageInfo.read(infoURL);
+    } catch (IOException e) {
+      if (IIIFImageInfo.isImageService(imageURL)) {
+        throw e;
+      }
+      // Only looked like an image service.
+      return null;
+    }
+    return new IIIFTileSource(info, cache);
+  }
+}
@@ -0,0 +1,372 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The description of an image on a IIIF Image API server, read from its
+ * <code>info.json</code>. Builds the URLs of the regions of the image, at any
+ * size. Versions 2 and 3 of the API are supported.
+ */
+public class IIIFImageInfo {
+  /**
+   * The time to wait for a connection, in milliseconds.
+   */
+  static final int CONNECT_TIMEOUT = 10000;
+  /**
+   * The time to wait for data, in milliseconds.
+   */
+  static final int READ_TIMEOUT = 30000;
+  /**
+   * An image request: the service, the region, the size, the rotation, the
+   * quality and the format.
+   */
+  private static final Pattern IMAGE_REQUEST = Pattern.compile(
+      "(.*)/([^/]+)/[^/]+/!?[0-9.]+/(default|color|gray|bitonal|native)\\.[a-z0-9]+");
+  /**
+   * A region in pixels: x, y, width and height.
+   */
+  private static final Pattern PIXEL_REGION = Pattern.compile("([0-9]+),([0-9]+),([0-9]+),([0-9]+)");
+
+  /**
+   * The base URL of the image service, without a trailing slash.
+   */
+  private final String id;
+  /**
+   * The version of the API, 2 or 3.
+   */
+  private final int version;
+  /**
+   * The image width.
+   */
+  private final int width;
+  /**
+   * The image height.
+   */
+  private final int height;
+  /**
+   * The width of the tiles of the server. 0 if the server has no tiles.
+   */
+  private final int tileWidth;
+  /**
+   * The height of the tiles of the server. 0 if the server has no tiles.
+   */
+  private final int tileHeight;
+  /**
+   * The scale factors the server has tiles for. Empty if not listed, then 
+   * any factor is served.
+   */
+  private final int[] scaleFactors;
+  /**
+   * The sizes the server has the full image at: width and height. Empty if 
+   * not listed, then any size is served.
+   */
+  private final int[][] sizes;
+
+  /**
+   * Constructor.
+   *
+   * @param id The base URL of the image service.
+   * @param version The version of the API.
+   * @param width The image width.
+   * @param height The image height.
+   * @param tileWidth The width of the server tiles, 0 if none.
+   * @param tileHeight The height of the server tiles, 0 if none.
+   * @param scaleFactors The scale factors of the server tiles, empty if not listed.
+   * @param sizes The sizes of the full image, empty if not listed.
+   */
+  IIIFImageInfo(String id, int version, int width, int height, int tileWidth, int tileHeight,
+      int[] scaleFactors, int[][] sizes) {
+    this.id = id.endsWith("/") ? id.substring(0, id.length() - 1) : id;
+    this.version = version;
+    this.width = width;
+    this.height = height;
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    this.scaleFactors = scaleFactors;
+    this.sizes = sizes;
+  }
+
+  /**
+   * Finds the <code>info.json</code> of an image location, if it looks like an
+   * image service: the <code>info.json</code> itself, an image request or a
+   * remote location without a file extension.
+   *
+   * @param url The image location.
+   *
+   * @return The location of the <code>info.json</code>, or <code>null</code>
+   * if the location is not an image service.
+   */
+  public static URL getInfoURL(URL url) {
+    String protocol = url.getProtocol();
+    if (!"http".equals(protocol) && !"https".equals(protocol)) {
+      return null;
+    }
+    String path = url.getPath();
+    if (path.endsWith("/info.json")) {
+      return url;
+    }
+    String base = null;
+    Matcher matcher = IMAGE_REQUEST.matcher(path);
+    if (matcher.matches()) {
+      base = matcher.group(1);
+    } else if (url.getQuery() == null && path.lastIndexOf('.') <= path.lastIndexOf('/')) {
+      base = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+    if (base == null || base.length() == 0) {
+      return null;
+    }
+    try {
+      return new URL(url, base + "/info.json");
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Checks if a location is surely an image service, not just one that could be.
+   *
+   * @param url The image location.
+   *
+   * @return <code>true</code> for an <code>info.json</code> or an image request.
+   */
+  public static boolean isImageService(URL url) {
+    return url.getPath().endsWith("/info.json") || IMAGE_REQUEST.matcher(url.getPath()).matches();
+  }
+
+  /**
+   * Reads the region of an image request.
+   *
+   * @param url The image location.
+   *
+   * @return The region, in pixels of the full image. <code>null</code> if the 
+   * location is not an image request, or if it requests the full image, a 
+   * square or a region in percents.
+   */
+  public static Rectangle getRegion(URL url) {
+    Matcher request = IMAGE_REQUEST.matcher(url.getPath());
+    if (request.matches()) {
+      Matcher region = PIXEL_REGION.matcher(request.group(2));
+      if (region.matches()) {
+        try {
+          return new Rectangle(Integer.parseInt(region.group(1)), Integer.parseInt(region.group(2)),
+              Integer.parseInt(region.group(3)), Integer.parseInt(region.group(4)));
+        } catch (NumberFormatException e) {
+          // Too large.
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Downloads and reads the description of an image.
+   *
+   * @param infoURL The location of the <code>info.json</code>.
+   *
+   * @return The description.
+   *
+   * @throws IOException Unable to download it or not a description of an image.
+   */
+  public static IIIFImageInfo read(URL infoURL) throws IOException {
+    URLConnection connection = infoURL.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setReadTimeout(READ_TIMEOUT);
+    InputStream is = connection.getInputStream();
+    try {
+      return parse(new BufferedReader(new InputStreamReader(is, "UTF-8")), infoURL);
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Reads the description of an image.
+   *
+   * @param in The <code>info.json</code>.
+   * @param infoURL Its location, the service URL if it doesn't have one.
+   *
+   * @return The description.
+   *
+   * @throws IOException Unable to read it or not a description of an image.
+   */
+  static IIIFImageInfo parse(Reader in, URL infoURL) throws IOException {
+    Object document = JsonReader.read(in);
+    if (!(document instanceof Map)) {
+      throw new IOException("Not a IIIF image description: " + infoURL);
+    }
+    Map<?, ?> info = (Map<?, ?>) document;
+    Object width = info.get("width");
+    Object height = info.get("height");
+    if (!(width instanceof Number) || !(height instanceof Number)) {
+      throw new IOException("Not a IIIF image description: " + infoURL);
+    }
+    Object context = info.get("@context");
+    int version = context != null && context.toString().contains("/image/3/") ? 3 : 2;
+    Object id = info.get(version == 3 ? "id" : "@id");
+    if (!(id instanceof String)) {
+      String location = infoURL.toExternalForm();
+      id = location.substring(0, location.length() - "/info.json".length());
+    }
+
+    int tileWidth = 0;
+    int tileHeight = 0;
+    List<Integer> scaleFactors = new ArrayList<Integer>();
+    Object tiles = info.get("tiles");
+    if (tiles instanceof List && !((List<?>) tiles).isEmpty() && ((List<?>) tiles).get(0) instanceof Map) {
+      Map<?, ?> tile = (Map<?, ?>) ((List<?>) tiles).get(0);
+      if (tile.get("width") instanceof Number) {
+        tileWidth = ((Number) tile.get("width")).intValue();
+        tileHeight = tile.get("height") instanceof Number ? ((Number) tile.get("height")).intValue() : tileWidth;
+      }
+      if (tile.get("scaleFactors") instanceof List) {
+        for (Object factor : (List<?>) tile.get("scaleFactors")) {
+          if (factor instanceof Number) {
+            scaleFactors.add(((Number) factor).intValue());
+          }
+        }
+      }
+    }
+    List<int[]> sizes = new ArrayList<int[]>();
+    if (info.get("sizes") instanceof List) {
+      for (Object size : (List<?>) info.get("sizes")) {
+        if (size instanceof Map && ((Map<?, ?>) size).get("width") instanceof Number
+            && ((Map<?, ?>) size).get("height") instanceof Number) {
+          sizes.add(new int[] {
+              ((Number) ((Map<?, ?>) size).get("width")).intValue(),
+              ((Number) ((Map<?, ?>) size).get("height")).intValue()});
+        }
+      }
+    }
+    int[] factors = new int[scaleFactors.size()];
+    for (int i = 0; i < factors.length; i++) {
+      factors[i] = scaleFactors.get(i);
+    }
+    return new IIIFImageInfo((String) id, version, ((Number) width).intValue(), ((Number) height).intValue(),
+        tileWidth, tileHeight, factors, sizes.toArray(new int[sizes.size()][]));
+  }
+
+  /**
+   * @return The base URL of the image service.
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * @return The image width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return The image height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return The width of the server tiles. 0 if the server has no tiles.
+   */
+  public int getTileWidth() {
+    return tileWidth;
+  }
+
+  /**
+   * @return The height of the server tiles. 0 if the server has no tiles.
+   */
+  public int getTileHeight() {
+    return tileHeight;
+  }
+
+  /**
+   * @param factor A scale factor: 1 for the full resolution, 2 for half of it...
+   *
+   * @return <code>true</code> if the server has tiles at this scale, or if it 
+   * doesn't list its scale factors.
+   */
+  public boolean hasScaleFactor(int factor) {
+    if (scaleFactors.length == 0) {
+      return true;
+    }
+    for (int scaleFactor : scaleFactors) {
+      if (scaleFactor == factor) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Chooses the size to ask the full image at, for a given size.
+   *
+   * @param sizeWidth The width needed.
+   * @param sizeHeight The height needed.
+   *
+   * @return The width and the height. The smallest size the server lists that 
+   * is at least as large, else the largest one it lists. The given size if 
+   * the server lists none.
+   */
+  public int[] getServedSize(int sizeWidth, int sizeHeight) {
+    int[] served = null;
+    int[] largest = null;
+    for (int[] size : sizes) {
+      if (size[0] >= sizeWidth && size[1] >= sizeHeight && (served == null || size[0] < served[0])) {
+        served = size;
+      }
+      if (largest == null || size[0] > largest[0]) {
+        largest = size;
+      }
+    }
+    if (served == null) {
+      served = largest != null ? largest : new int[] {sizeWidth, sizeHeight};
+    }
+    return new int[] {served[0], served[1]};
+  }
+
+  /**
+   * Builds the URL of a region of the image.
+   *
+   * @param x The left of the region, in image pixels.
+   * @param y The top of the region, in image pixels.
+   * @param regionWidth The width of the region.
+   * @param regionHeight The height of the region.
+   * @param sizeWidth The width of the returned image.
+   * @param sizeHeight The height of the returned image.
+   *
+   * @return The URL.
+   *
+   * @throws MalformedURLException The service URL is not valid.
+   */
+  public URL getRegionURL(int x, int y, int regionWidth, int regionHeight, int sizeWidth, int sizeHeight)
+      throws MalformedURLException {
+    String region = x == 0 && y == 0 && regionWidth == width && regionHeight == height
+        ? "full" : x + "," + y + "," + regionWidth + "," + regionHeight;
+    // The canonical sizes: only the width for version 2.
+    String size = version == 3 ? sizeWidth + "," + sizeHeight : sizeWidth + ",";
+    return new URL(id + "/" + region + "/" + size + "/0/default.jpg");
+  }
+
+  /**
+   * @return The URL of the whole image, at full resolution.
+   *
+   * @throws MalformedURLException The service URL is not valid.
+   */
+  public URL getFullImageURL() throws MalformedURLException {
+    return new URL(id + "/full/" + (version == 3 ? "max" : "full") + "/0/default.jpg");
+  }
+}
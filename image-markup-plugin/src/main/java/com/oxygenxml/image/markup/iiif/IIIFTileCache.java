@@ -0,0 +1,162 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.oxygenxml.image.markup.image.ImageDimensionProbe;
+
+/**
+ * Keeps the tiles downloaded from image servers, as they were served, one file
+ * for every tile URL. The tiles of a page opened again are read from the disk,
+ * also in a later session.
+ *
+ * A tile is written under a temporary name and renamed when complete, so
+ * concurrent readers never see a partial file. The files are evicted in least
+ * recently used order, by their modification time, when their total size goes
+ * over a limit.
+ */
+public class IIIFTileCache {
+  /**
+   * The extension of the tile files.
+   */
+  private static final String EXTENSION = ".tile";
+  /**
+   * The size is checked after this many stored tiles.
+   */
+  private static final int EVICT_INTERVAL = 256;
+
+  /**
+   * The cache folder.
+   */
+  private final File dir;
+  /**
+   * The largest total size of the files, in bytes.
+   */
+  private final long maxSize;
+  /**
+   * The tiles stored since the size was last checked.
+   */
+  private final AtomicInteger stored = new AtomicInteger();
+
+  /**
+   * Constructor.
+   *
+   * @param dir The cache folder. Created if missing.
+   * @param maxSize The largest total size of the files, in bytes.
+   */
+  public IIIFTileCache(File dir, long maxSize) {
+    this.dir = dir;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Gets the cached file of a tile.
+   *
+   * @param tileURL The tile location.
+   *
+   * @return The file or <code>null</code> if the tile is not in the cache.
+   */
+  public File get(URL tileURL) {
+    File file = getFile(tileURL);
+    return file.isFile() ? file : null;
+  }
+
+  /**
+   * Marks a tile as recently used, so it is evicted last.
+   *
+   * @param file The file of the tile.
+   */
+  public void touch(File file) {
+    file.setLastModified(System.currentTimeMillis());
+  }
+
+  /**
+   * Writes a tile in the cache.
+   *
+   * @param tileURL The tile location.
+   * @param data The tile, as served.
+   *
+   * @throws IOException Unable to write the file.
+   */
+  public void store(URL tileURL, byte[] data) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create the cache folder: " + dir);
+    }
+    File file = getFile(tileURL);
+    File temp = File.createTempFile("tile", ".tmp", dir);
+    try {
+      OutputStream os = new FileOutputStream(temp);
+      try {
+        os.write(data);
+      } finally {
+        os.close();
+      }
+      if (!temp.renameTo(file)) {
+        // Another worker was faster, or the platform doesn't replace files.
+        file.delete();
+        temp.renameTo(file);
+      }
+    } finally {
+      temp.delete();
+    }
+    if (stored.incrementAndGet() % EVICT_INTERVAL == 0) {
+      evict();
+    }
+  }
+
+  /**
+   * Deletes the least recently used tiles until the cache fits its size.
+   */
+  void evict() {
+    File[] files = dir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().endsWith(EXTENSION);
+      }
+    });
+    if (files == null) {
+      return;
+    }
+    long total = 0;
+    final long[] stamps = new long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      total += files[i].length();
+      stamps[i] = files[i].lastModified();
+    }
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        long s1 = stamps[o1];
+        long s2 = stamps[o2];
+        return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < order.length && total > maxSize; i++) {
+      File file = files[order[i]];
+      long length = file.length();
+      if (file.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  /**
+   * @param tileURL The tile location.
+   *
+   * @return The file of the tile.
+   */
+  private File getFile(URL tileURL) {
+    return new File(dir, ImageDimensionProbe.getStampKey(tileURL, "iiif") + EXTENSION);
+  }
+}
@@ -0,0 +1,771 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import com.oxygenxml.image.markup.image.AsyncTileSource;
+import com.oxygenxml.image.markup.image.CachedTileSource;
+import com.oxygenxml.image.markup.image.ImageTileSource;
+import com.oxygenxml.image.markup.image.TilePyramid;
+
+/**
+ * The tiles of an image on a IIIF Image API server. Only the tiles that are
+ * visible, or about to be, are downloaded, a few at a time, at the scale they
+ * are painted. The requests for tiles scrolled out of view are cancelled.
+ * <p>
+ * The coarse levels, and the ones the server lists no tiles for, come from an
+ * overview, downloaded in the background when the image is opened, at a size
+ * the server lists. Until a fine tile is downloaded, the overview is
+ * painted in its place, and a blank tile until the overview is. The
+ * downloaded tiles are kept in a {@link IIIFTileCache} and read back from it
+ * in the background too, never while painting.
+ */
+public class IIIFTileSource implements AsyncTileSource, CachedTileSource {
+  /**
+   * The largest side of the overview.
+   */
+  static final int OVERVIEW_SIZE = 1024;
+  /**
+   * The number of downloaded tiles kept in memory, at least.
+   */
+  static final int MIN_CACHED_TILES = 128;
+  /**
+   * The number of tiles downloaded at the same time.
+   */
+  private static final int MAX_REQUESTS = 4;
+  /**
+   * The time, in milliseconds, before a tile that could not be downloaded is 
+   * requested again. Doubled after every new failure.
+   */
+  static final long RETRY_DELAY = 1000;
+  /**
+   * The longest time, in milliseconds, before a failed tile is requested again.
+   */
+  private static final long MAX_RETRY_DELAY = 60 * 1000;
+  /**
+   * Downloads the tiles of all the images.
+   */
+  private static final ExecutorService REQUESTS = Executors.newFixedThreadPool(MAX_REQUESTS, new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "IIIF tiles");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * The description of the image.
+   */
+  private final IIIFImageInfo info;
+  /**
+   * The downloaded tiles. <code>null</code> to download them every time.
+   */
+  private final IIIFTileCache cache;
+  /**
+   * The side of a tile.
+   */
+  private final int tileSize;
+  /**
+   * The number of levels.
+   */
+  private final int levelCount;
+  /**
+   * The first level served from the overview.
+   */
+  private final int overviewLevel;
+  /**
+   * The overview. <code>null</code> until it is downloaded.
+   */
+  private volatile BufferedImage overviewImage;
+  /**
+   * The tiles of the coarse levels. <code>null</code> until the overview is 
+   * downloaded.
+   */
+  private volatile ImageTileSource overview;
+  /**
+   * The download of the overview. Guarded by the requests lock.
+   */
+  private Future<?> overviewRequest;
+  /**
+   * The number of failed downloads of the overview and the time after which it 
+   * can be requested again. <code>null</code> if it did not fail. Guarded by 
+   * the requests lock.
+   */
+  private long[] overviewFailure;
+  /**
+   * <code>true</code> after closing.
+   */
+  private volatile boolean closed;
+  /**
+   * The number of downloaded tiles kept in memory: the visible and the 
+   * prefetched ones.
+   */
+  private volatile int capacity = MIN_CACHED_TILES;
+  /**
+   * The downloaded tiles, by tile key. The least recently used first.
+   */
+  private final Map<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+      return size() > capacity;
+    }
+  };
+  /**
+   * The requests in progress or waiting, by tile key.
+   */
+  private final Map<Long, Request> requests = new HashMap<Long, Request>();
+  /**
+   * The tiles that could not be downloaded, by tile key: the number of 
+   * failures and the time after which the tile can be requested again. 
+   * Guarded by the requests lock.
+   */
+  private final Map<Long, long[]> failed = new HashMap<Long, long[]>();
+  /**
+   * The visible tiles: the level, the first and last column and the first and
+   * last row. Guarded by the requests lock.
+   */
+  private int[] visibleRange = new int[] {0, 0, -1, 0, -1};
+  /**
+   * The tiles prefetched around the visible ones, like {@link #visibleRange}.
+   */
+  private int[] prefetchRange = new int[] {0, 0, -1, 0, -1};
+  /**
+   * Told when a tile was downloaded.
+   */
+  private volatile Runnable listener;
+
+  /**
+   * Constructor. Starts downloading the overview.
+   *
+   * @param info The description of the image.
+   * @param cache The downloaded tiles. <code>null</code> for no cache.
+   */
+  public IIIFTileSource(IIIFImageInfo info, IIIFTileCache cache) {
+    this.info = info;
+    this.cache = cache;
+    // The tiles of the server, when they are square.
+    tileSize = info.getTileWidth() > 0 && info.getTileWidth() == info.getTileHeight()
+        ? info.getTileWidth() : TilePyramid.TILE_SIZE;
+    int width = info.getWidth();
+    int height = info.getHeight();
+    levelCount = TilePyramid.getLevelCount(width, height, tileSize);
+    // The levels the server has no tiles for come from the overview too.
+    int level = 0;
+    while (level + 1 < levelCount && info.hasScaleFactor(1 << level)
+        && Math.max(TilePyramid.getLevelSize(width, level), TilePyramid.getLevelSize(height, level)) > OVERVIEW_SIZE) {
+      level++;
+    }
+    overviewLevel = level;
+    requestOverview();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getWidth()
+   */
+  @Override
+  public int getWidth() {
+    return info.getWidth();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getHeight()
+   */
+  @Override
+  public int getHeight() {
+    return info.getHeight();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTileSize()
+   */
+  @Override
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getLevelCount()
+   */
+  @Override
+  public int getLevelCount() {
+    return levelCount;
+  }
+
+  /**
+   * @return The description of the image.
+   */
+  public IIIFImageInfo getInfo() {
+    return info;
+  }
+
+  /**
+   * Gets a tile from memory. Until it is read from the disk cache or 
+   * downloaded, it is scaled up from the overview.
+   *
+   * @see com.oxygenxml.image.markup.image.TileSource#getTile(int, int, int)
+   */
+  @Override
+  public BufferedImage getTile(int level, int column, int row) throws IOException {
+    if (closed) {
+      throw new IOException("The tiles are closed.");
+    }
+    BufferedImage coarse = overviewImage;
+    if (coarse == null) {
+      requestOverview();
+    }
+    if (level >= overviewLevel) {
+      ImageTileSource coarseTiles = overview;
+      return coarseTiles != null ? coarseTiles.getTile(level - overviewLevel, column, row) : createBlankTile(level, column, row);
+    }
+    BufferedImage tile;
+    synchronized (tiles) {
+      tile = tiles.get(key(level, column, row));
+    }
+    if (tile == null) {
+      request(level, column, row);
+      tile = coarse != null ? scaleOverview(coarse, level, column, row) : createBlankTile(level, column, row);
+    }
+    return tile;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.AsyncTileSource#isTileReady(int, int, int)
+   */
+  @Override
+  public boolean isTileReady(int level, int column, int row) {
+    if (level >= overviewLevel) {
+      return overviewImage != null;
+    }
+    synchronized (tiles) {
+      return tiles.containsKey(key(level, column, row));
+    }
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.CachedTileSource#setCachedTileCount(int)
+   */
+  @Override
+  public void setCachedTileCount(int count) {
+    synchronized (tiles) {
+      capacity = Math.max(MIN_CACHED_TILES, count);
+      Iterator<BufferedImage> eldest = tiles.values().iterator();
+      while (tiles.size() > capacity && eldest.hasNext()) {
+        eldest.next();
+        eldest.remove();
+      }
+    }
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.AsyncTileSource#setVisibleTiles(int, int, int, int, int)
+   */
+  @Override
+  public void setVisibleTiles(int level, int fromColumn, int toColumn, int fromRow, int toRow) {
+    int[] range = new int[] {level, fromColumn, toColumn, fromRow, toRow};
+    synchronized (requests) {
+      visibleRange = range;
+      cancelUnwanted();
+    }
+    requestRange(range);
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.AsyncTileSource#setPrefetchTiles(int, int, int, int, int)
+   */
+  @Override
+  public void setPrefetchTiles(int level, int fromColumn, int toColumn, int fromRow, int toRow) {
+    int[] range = new int[] {level, fromColumn, toColumn, fromRow, toRow};
+    synchronized (requests) {
+      prefetchRange = range;
+      cancelUnwanted();
+    }
+    requestRange(range);
+  }
+
+  /**
+   * Cancels the requests for tiles that are neither visible nor prefetched.
+   * Called while holding the requests lock.
+   */
+  private void cancelUnwanted() {
+    for (Iterator<Request> iterator = requests.values().iterator(); iterator.hasNext();) {
+      Request request = iterator.next();
+      if (!contains(visibleRange, request) && !contains(prefetchRange, request)) {
+        request.cancel();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * @param range The level, the first and last column and the first and last row.
+   * @param request A request.
+   *
+   * @return <code>true</code> if the tile of the request is in the range.
+   */
+  private static boolean contains(int[] range, Request request) {
+    return request.level == range[0] && request.column >= range[1] && request.column <= range[2]
+        && request.row >= range[3] && request.row <= range[4];
+  }
+
+  /**
+   * Requests the tiles of a range that are not loaded yet.
+   *
+   * @param range The level, the first and last column and the first and last row.
+   */
+  private void requestRange(int[] range) {
+    int level = range[0];
+    if (level < overviewLevel) {
+      for (int row = range[3]; row <= range[4]; row++) {
+        for (int column = range[1]; column <= range[2]; column++) {
+          if (!isTileReady(level, column, row)) {
+            request(level, column, row);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.AsyncTileSource#setTileListener(java.lang.Runnable)
+   */
+  @Override
+  public void setTileListener(Runnable listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Starts downloading a tile, unless it is already requested.
+   *
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   */
+  private void request(int level, int column, int row) {
+    Long key = key(level, column, row);
+    synchronized (requests) {
+      long[] failure = failed.get(key);
+      if (!closed && !requests.containsKey(key) 
+          && (failure == null || System.currentTimeMillis() >= failure[1])) {
+        Request request = new Request(level, column, row);
+        requests.put(key, request);
+        request.future = REQUESTS.submit(request);
+      }
+    }
+  }
+
+  /**
+   * Starts downloading the overview, unless it is downloaded, being downloaded 
+   * or failed a short while ago.
+   */
+  private void requestOverview() {
+    synchronized (requests) {
+      if (!closed && overviewImage == null && (overviewRequest == null || overviewRequest.isDone())
+          && (overviewFailure == null || System.currentTimeMillis() >= overviewFailure[1])) {
+        overviewRequest = REQUESTS.submit(new Runnable() {
+          @Override
+          public void run() {
+            loadOverview();
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Downloads the overview and tells the listener.
+   */
+  private void loadOverview() {
+    try {
+      int width = info.getWidth();
+      int height = info.getHeight();
+      int overviewWidth = TilePyramid.getLevelSize(width, overviewLevel);
+      int overviewHeight = TilePyramid.getLevelSize(height, overviewLevel);
+      // A server that lists its sizes may serve only those.
+      int[] size = info.getServedSize(overviewWidth, overviewHeight);
+      URL url = info.getRegionURL(0, 0, width, height, size[0], size[1]);
+      BufferedImage image = fit(decode(load(url, null), url), overviewWidth, overviewHeight);
+      synchronized (requests) {
+        if (closed) {
+          return;
+        }
+        overview = new ImageTileSource(image, tileSize);
+        overviewImage = image;
+        overviewFailure = null;
+      }
+    } catch (IOException e) {
+      if (closed) {
+        return;
+      }
+      e.printStackTrace();
+      synchronized (requests) {
+        overviewFailure = nextFailure(overviewFailure);
+      }
+    }
+    Runnable toNotify = listener;
+    if (toNotify != null) {
+      toNotify.run();
+    }
+  }
+
+  /**
+   * Computes when a download that failed again can be tried next. The delay 
+   * doubles with every failure.
+   *
+   * @param failure The number of failures and the time of the next try, 
+   * <code>null</code> for the first failure.
+   *
+   * @return The new number of failures and the time of the next try.
+   */
+  private static long[] nextFailure(long[] failure) {
+    long count = failure == null ? 1 : failure[0] + 1;
+    long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(count - 1, 16));
+    return new long[] {count, System.currentTimeMillis() + delay};
+  }
+
+  /**
+   * @return The number of tiles being downloaded or waiting to be.
+   */
+  int getPendingCount() {
+    synchronized (requests) {
+      return requests.size();
+    }
+  }
+
+  /**
+   * Downloads a tile.
+   */
+  private class Request implements Runnable {
+    /**
+     * The level.
+     */
+    final int level;
+    /**
+     * The tile column.
+     */
+    final int column;
+    /**
+     * The tile row.
+     */
+    final int row;
+    /**
+     * The task, to cancel it before it starts.
+     */
+    volatile Future<?> future;
+    /**
+     * The open connection, to cancel the download.
+     */
+    volatile URLConnection connection;
+    /**
+     * <code>true</code> when the tile is no longer needed.
+     */
+    volatile boolean cancelled;
+
+    /**
+     * Constructor.
+     *
+     * @param level The level.
+     * @param column The tile column.
+     * @param row The tile row.
+     */
+    Request(int level, int column, int row) {
+      this.level = level;
+      this.column = column;
+      this.row = row;
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+      Long key = key(level, column, row);
+      try {
+        if (!cancelled) {
+          URL url = getTileURL(level, column, row);
+          BufferedImage tile = readCached(url);
+          if (tile == null) {
+            byte[] data = load(url, this);
+            tile = decode(data, url);
+            if (!cancelled && cache != null) {
+              cache.store(url, data);
+            }
+          }
+          if (!cancelled) {
+            synchronized (tiles) {
+              tiles.put(key, fit(tile, getTileWidth(level, column), getTileHeight(level, row)));
+            }
+            synchronized (requests) {
+              failed.remove(key);
+            }
+          }
+        }
+      } catch (IOException e) {
+        if (!cancelled) {
+          e.printStackTrace();
+          synchronized (requests) {
+            // Asked again later, the server may be busy or the network down.
+            failed.put(key, nextFailure(failed.get(key)));
+          }
+        }
+      } finally {
+        synchronized (requests) {
+          if (requests.get(key) == this) {
+            requests.remove(key);
+          }
+        }
+      }
+      Runnable toNotify = listener;
+      if (!cancelled && toNotify != null) {
+        toNotify.run();
+      }
+    }
+
+    /**
+     * Reads a tile downloaded before from the disk cache.
+     *
+     * @param url The tile location.
+     *
+     * @return The tile or <code>null</code> if it is not in the cache.
+     *
+     * @throws IOException Unable to read the cache.
+     */
+    private BufferedImage readCached(URL url) throws IOException {
+      File file = cache != null ? cache.get(url) : null;
+      if (file == null) {
+        return null;
+      }
+      BufferedImage tile = ImageIO.read(file);
+      if (tile == null) {
+        // Not an image, maybe cut short.
+        file.delete();
+      } else {
+        cache.touch(file);
+      }
+      return tile;
+    }
+
+    /**
+     * Cancels the download. The connection is closed if it already started.
+     */
+    void cancel() {
+      cancelled = true;
+      Future<?> task = future;
+      if (task != null) {
+        task.cancel(false);
+      }
+      URLConnection open = connection;
+      if (open instanceof HttpURLConnection) {
+        ((HttpURLConnection) open).disconnect();
+      }
+    }
+  }
+
+  /**
+   * Downloads a resource.
+   *
+   * @param url The location.
+   * @param request The request, to check if it was cancelled. May be <code>null</code>.
+   *
+   * @return The content.
+   *
+   * @throws IOException Unable to download, or the request was cancelled.
+   */
+  private static byte[] load(URL url, Request request) throws IOException {
+    URLConnection connection = url.openConnection();
+    connection.setConnectTimeout(IIIFImageInfo.CONNECT_TIMEOUT);
+    connection.setReadTimeout(IIIFImageInfo.READ_TIMEOUT);
+    if (request != null) {
+      request.connection = connection;
+    }
+    InputStream is = connection.getInputStream();
+    try {
+      ByteArrayOutputStream data = new ByteArrayOutputStream(32 * 1024);
+      byte[] buffer = new byte[8 * 1024];
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        if (request != null && request.cancelled) {
+          throw new IOException("Cancelled: " + url);
+        }
+        data.write(buffer, 0, read);
+      }
+      return data.toByteArray();
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Decodes a downloaded image.
+   *
+   * @param data The content.
+   * @param url The location, for error reporting.
+   *
+   * @return The image.
+   *
+   * @throws IOException Not an image.
+   */
+  private static BufferedImage decode(byte[] data, URL url) throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+    if (image == null) {
+      throw new IOException("Not an image: " + url);
+    }
+    return image;
+  }
+
+  /**
+   * Scales a served image to the expected size, when the server rounded it
+   * differently.
+   *
+   * @param image The served image.
+   * @param width The expected width.
+   * @param height The expected height.
+   *
+   * @return An image of the expected size.
+   */
+  private static BufferedImage fit(BufferedImage image, int width, int height) {
+    if (image.getWidth() == width && image.getHeight() == height) {
+      return image;
+    }
+    BufferedImage fitted = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = fitted.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return fitted;
+  }
+
+  /**
+   * Scales up the part of the overview under a tile, painted until the tile
+   * is downloaded.
+   *
+   * @param coarse The overview.
+   * @param level The level of the tile, finer than the overview.
+   * @param column The tile column.
+   * @param row The tile row.
+   *
+   * @return The tile, blurred.
+   */
+  private BufferedImage scaleOverview(BufferedImage coarse, int level, int column, int row) {
+    int width = getTileWidth(level, column);
+    int height = getTileHeight(level, row);
+    int shift = overviewLevel - level;
+    int x = (column * tileSize) >> shift;
+    int y = (row * tileSize) >> shift;
+    int x2 = Math.min(coarse.getWidth(), Math.max(x + 1, (column * tileSize + width + (1 << shift) - 1) >> shift));
+    int y2 = Math.min(coarse.getHeight(), Math.max(y + 1, (row * tileSize + height + (1 << shift) - 1) >> shift));
+    BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = tile.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(coarse, 0, 0, width, height, x, y, x2, y2, null);
+    } finally {
+      g.dispose();
+    }
+    return tile;
+  }
+
+  /**
+   * Creates the tile painted until the overview is downloaded.
+   *
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   *
+   * @return A blank tile.
+   */
+  private BufferedImage createBlankTile(int level, int column, int row) {
+    BufferedImage tile = new BufferedImage(getTileWidth(level, column), getTileHeight(level, row), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = tile.createGraphics();
+    try {
+      g.setColor(Color.LIGHT_GRAY);
+      g.fillRect(0, 0, tile.getWidth(), tile.getHeight());
+    } finally {
+      g.dispose();
+    }
+    return tile;
+  }
+
+  /**
+   * @return The URL of a tile, at the size it is painted.
+   */
+  private URL getTileURL(int level, int column, int row) throws IOException {
+    int side = tileSize << level;
+    int x = column * side;
+    int y = row * side;
+    return info.getRegionURL(x, y, Math.min(side, info.getWidth() - x), Math.min(side, info.getHeight() - y),
+        getTileWidth(level, column), getTileHeight(level, row));
+  }
+
+  /**
+   * @return The width of the tiles of a column.
+   */
+  private int getTileWidth(int level, int column) {
+    return Math.min(tileSize, TilePyramid.getLevelSize(info.getWidth(), level) - column * tileSize);
+  }
+
+  /**
+   * @return The height of the tiles of a row.
+   */
+  private int getTileHeight(int level, int row) {
+    return Math.min(tileSize, TilePyramid.getLevelSize(info.getHeight(), level) - row * tileSize);
+  }
+
+  /**
+   * @return The key of a tile.
+   */
+  private static Long key(int level, int column, int row) {
+    return Long.valueOf((long) level << 48 | (long) column << 24 | row);
+  }
+
+  /**
+   * Cancels the downloads and drops the tiles. The cached files stay.
+   *
+   * @see com.oxygenxml.image.markup.image.TileSource#close()
+   */
+  @Override
+  public void close() {
+    synchronized (requests) {
+      closed = true;
+      for (Request request : requests.values()) {
+        request.cancel();
+      }
+      requests.clear();
+      if (overviewRequest != null) {
+        overviewRequest.cancel(false);
+      }
+    }
+    synchronized (tiles) {
+      tiles.clear();
+    }
+    ImageTileSource coarse = overview;
+    if (coarse != null) {
+      coarse.close();
+    }
+    overview = null;
+    overviewImage = null;
+  }
+}
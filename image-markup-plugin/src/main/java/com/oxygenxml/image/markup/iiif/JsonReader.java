@@ -0,0 +1,252 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a JSON document into maps, lists, strings, numbers, booleans and 
+ * <code>null</code>. The numbers are read as doubles. Enough for the small 
+ * documents of the image servers.
+ */
+public class JsonReader {
+  /**
+   * The input.
+   */
+  private final Reader in;
+  /**
+   * The next character, -1 at the end.
+   */
+  private int next;
+  /**
+   * The number of characters read, for the error messages.
+   */
+  private int position;
+
+  /**
+   * Constructor.
+   *
+   * @param in The input. Should be buffered.
+   */
+  private JsonReader(Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Reads a JSON document.
+   *
+   * @param in The input. Should be buffered.
+   *
+   * @return The value of the document: a {@link Map}, a {@link List}, a
+   * {@link String}, a {@link Double}, a {@link Boolean} or <code>null</code>.
+   *
+   * @throws IOException Unable to read or not JSON.
+   */
+  public static Object read(Reader in) throws IOException {
+    JsonReader reader = new JsonReader(in);
+    reader.advance();
+    Object value = reader.readValue();
+    reader.skipSpaces();
+    if (reader.next != -1) {
+      throw reader.error("End of document expected");
+    }
+    return value;
+  }
+
+  /**
+   * Reads a value.
+   */
+  private Object readValue() throws IOException {
+    skipSpaces();
+    switch (next) {
+      case '{':
+        return readObject();
+      case '[':
+        return readArray();
+      case '"':
+        return readString();
+      case 't':
+        readWord("true");
+        return Boolean.TRUE;
+      case 'f':
+        readWord("false");
+        return Boolean.FALSE;
+      case 'n':
+        readWord("null");
+        return null;
+      default:
+        return readNumber();
+    }
+  }
+
+  /**
+   * Reads an object. The members keep their order.
+   */
+  private Map<String, Object> readObject() throws IOException {
+    Map<String, Object> object = new LinkedHashMap<String, Object>();
+    advance();
+    skipSpaces();
+    if (next == '}') {
+      advance();
+      return object;
+    }
+    while (true) {
+      skipSpaces();
+      if (next != '"') {
+        throw error("Member name expected");
+      }
+      String name = readString();
+      skipSpaces();
+      expect(':');
+      object.put(name, readValue());
+      skipSpaces();
+      if (next == '}') {
+        advance();
+        return object;
+      }
+      expect(',');
+    }
+  }
+
+  /**
+   * Reads an array.
+   */
+  private List<Object> readArray() throws IOException {
+    List<Object> array = new ArrayList<Object>();
+    advance();
+    skipSpaces();
+    if (next == ']') {
+      advance();
+      return array;
+    }
+    while (true) {
+      array.add(readValue());
+      skipSpaces();
+      if (next == ']') {
+        advance();
+        return array;
+      }
+      expect(',');
+    }
+  }
+
+  /**
+   * Reads a quoted string and its escapes.
+   */
+  private String readString() throws IOException {
+    StringBuilder value = new StringBuilder();
+    advance();
+    while (next != '"') {
+      if (next == -1) {
+        throw error("Unterminated string");
+      }
+      if (next == '\\') {
+        advance();
+        switch (next) {
+          case 'n':
+            value.append('\n');
+            break;
+          case 'r':
+            value.append('\r');
+            break;
+          case 't':
+            value.append('\t');
+            break;
+          case 'b':
+            value.append('\b');
+            break;
+          case 'f':
+            value.append('\f');
+            break;
+          case 'u':
+            int code = 0;
+            for (int i = 0; i < 4; i++) {
+              advance();
+              int digit = Character.digit(next, 16);
+              if (digit == -1) {
+                throw error("Invalid unicode escape");
+              }
+              code = code * 16 + digit;
+            }
+            value.append((char) code);
+            break;
+          case '"':
+          case '\\':
+          case '/':
+            value.append((char) next);
+            break;
+          default:
+            throw error("Invalid escape");
+        }
+      } else {
+        value.append((char) next);
+      }
+      advance();
+    }
+    advance();
+    return value.toString();
+  }
+
+  /**
+   * Reads a number.
+   */
+  private Double readNumber() throws IOException {
+    StringBuilder number = new StringBuilder();
+    while (next == '-' || next == '+' || next == '.' || next == 'e' || next == 'E'
+        || (next >= '0' && next <= '9')) {
+      number.append((char) next);
+      advance();
+    }
+    try {
+      return Double.valueOf(number.toString());
+    } catch (NumberFormatException e) {
+      throw error("Value expected");
+    }
+  }
+
+  /**
+   * Reads a keyword.
+   */
+  private void readWord(String word) throws IOException {
+    for (int i = 0; i < word.length(); i++) {
+      expect(word.charAt(i));
+    }
+  }
+
+  /**
+   * Reads the given character.
+   */
+  private void expect(char c) throws IOException {
+    if (next != c) {
+      throw error("'" + c + "' expected");
+    }
+    advance();
+  }
+
+  /**
+   * Skips the white space.
+   */
+  private void skipSpaces() throws IOException {
+    while (next == ' ' || next == '\t' || next == '\n' || next == '\r') {
+      advance();
+    }
+  }
+
+  /**
+   * Reads the next character.
+   */
+  private void advance() throws IOException {
+    next = in.read();
+    position++;
+  }
+
+  /**
+   * @return An error at the current position.
+   */
+  private IOException error(String message) {
+    return new IOException(message + " at character " + position + ".");
+  }
+}
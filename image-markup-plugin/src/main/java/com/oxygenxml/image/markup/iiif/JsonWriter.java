@@ -0,0 +1,206 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON as it is produced, without building a tree. Takes care of the
+ * separators and of the string escapes, the caller takes care of the nesting.
+ */
+public class JsonWriter {
+  /**
+   * The output.
+   */
+  private final Writer out;
+  /**
+   * For every open object or array, whether it already has a member.
+   */
+  private boolean[] hasMembers = new boolean[16];
+  /**
+   * The number of open objects and arrays.
+   */
+  private int depth;
+  /**
+   * <code>true</code> after a name, when the value comes next.
+   */
+  private boolean afterName;
+
+  /**
+   * Constructor.
+   *
+   * @param out The output. Should be buffered.
+   */
+  public JsonWriter(Writer out) {
+    this.out = out;
+  }
+
+  /**
+   * Starts an object.
+   *
+   * @return This writer.
+   */
+  public JsonWriter beginObject() throws IOException {
+    return open('{');
+  }
+
+  /**
+   * Ends the current object.
+   *
+   * @return This writer.
+   */
+  public JsonWriter endObject() throws IOException {
+    return close('}');
+  }
+
+  /**
+   * Starts an array.
+   *
+   * @return This writer.
+   */
+  public JsonWriter beginArray() throws IOException {
+    return open('[');
+  }
+
+  /**
+   * Ends the current array.
+   *
+   * @return This writer.
+   */
+  public JsonWriter endArray() throws IOException {
+    return close(']');
+  }
+
+  /**
+   * Writes the name of the next object member.
+   *
+   * @param name The name.
+   *
+   * @return This writer.
+   */
+  public JsonWriter name(String name) throws IOException {
+    separate();
+    writeString(name);
+    out.write(':');
+    afterName = true;
+    return this;
+  }
+
+  /**
+   * Writes a string value.
+   *
+   * @param value The value.
+   *
+   * @return This writer.
+   */
+  public JsonWriter value(String value) throws IOException {
+    separate();
+    writeString(value);
+    return this;
+  }
+
+  /**
+   * Writes a numeric value.
+   *
+   * @param value The value.
+   *
+   * @return This writer.
+   */
+  public JsonWriter value(long value) throws IOException {
+    separate();
+    out.write(Long.toString(value));
+    return this;
+  }
+
+  /**
+   * Writes a member with a string value.
+   *
+   * @param name The name.
+   * @param value The value.
+   *
+   * @return This writer.
+   */
+  public JsonWriter member(String name, String value) throws IOException {
+    return name(name).value(value);
+  }
+
+  /**
+   * Flushes the output.
+   */
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Opens an object or an array.
+   */
+  private JsonWriter open(char c) throws IOException {
+    separate();
+    out.write(c);
+    if (depth == hasMembers.length) {
+      boolean[] grown = new boolean[depth * 2];
+      System.arraycopy(hasMembers, 0, grown, 0, depth);
+      hasMembers = grown;
+    }
+    hasMembers[depth++] = false;
+    return this;
+  }
+
+  /**
+   * Closes an object or an array.
+   */
+  private JsonWriter close(char c) throws IOException {
+    if (depth == 0) {
+      throw new IllegalStateException("Nothing to close.");
+    }
+    depth--;
+    out.write(c);
+    return this;
+  }
+
+  /**
+   * Writes the comma before a value, if it is not the first one.
+   */
+  private void separate() throws IOException {
+    if (afterName) {
+      afterName = false;
+    } else if (depth > 0) {
+      if (hasMembers[depth - 1]) {
+        out.write(',');
+      }
+      hasMembers[depth - 1] = true;
+    }
+  }
+
+  /**
+   * Writes a quoted and escaped string.
+   */
+  private void writeString(String value) throws IOException {
+    out.write('"');
+    int length = value.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      String escape = null;
+      if (c == '"') {
+        escape = "\\\"";
+      } else if (c == '\\') {
+        escape = "\\\\";
+      } else if (c == '\n') {
+        escape = "\\n";
+      } else if (c == '\r') {
+        escape = "\\r";
+      } else if (c == '\t') {
+        escape = "\\t";
+      } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+        escape = String.format("\\u%04x", (int) c);
+      }
+      if (escape != null) {
+        out.write(value, start, i - start);
+        out.write(escape);
+        start = i + 1;
+      }
+    }
+    out.write(value, start, length - start);
+    out.write('"');
+  }
+}
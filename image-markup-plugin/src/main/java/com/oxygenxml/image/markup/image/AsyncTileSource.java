@@ -0,0 +1,50 @@
+package com.oxygenxml.image.markup.image;
+
+/**
+ * Tiles that are loaded in the background, like the tiles of an image server.
+ * Until a tile is loaded, {@link #getTile(int, int, int)} returns a coarser
+ * version of it, so painting never waits and never shows blank areas.
+ */
+public interface AsyncTileSource extends TileSource {
+  /**
+   * Says which tiles are visible. The ones not loaded yet are requested and
+   * the requests for tiles outside the range are cancelled.
+   *
+   * @param level The painted level.
+   * @param fromColumn The first column.
+   * @param toColumn The last column, inclusive.
+   * @param fromRow The first row.
+   * @param toRow The last row, inclusive.
+   */
+  void setVisibleTiles(int level, int fromColumn, int toColumn, int fromRow, int toRow);
+
+  /**
+   * Says which tiles will probably be visible soon, around the visible ones in
+   * the scroll direction. They are requested after the visible ones and their
+   * requests are not cancelled by {@link #setVisibleTiles(int, int, int, int, int)}.
+   *
+   * @param level The painted level.
+   * @param fromColumn The first column.
+   * @param toColumn The last column, inclusive.
+   * @param fromRow The first row.
+   * @param toRow The last row, inclusive.
+   */
+  void setPrefetchTiles(int level, int fromColumn, int toColumn, int fromRow, int toRow);
+
+  /**
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   *
+   * @return <code>true</code> if the tile is loaded, <code>false</code> if a
+   * coarser version of it is returned for now.
+   */
+  boolean isTileReady(int level, int column, int row);
+
+  /**
+   * Sets the listener told, from a background thread, when a tile was loaded.
+   *
+   * @param listener The listener. <code>null</code> for none.
+   */
+  void setTileListener(Runnable listener);
+}
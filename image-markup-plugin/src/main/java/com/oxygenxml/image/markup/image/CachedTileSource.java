@@ -0,0 +1,16 @@
+package com.oxygenxml.image.markup.image;
+
+/**
+ * Tiles kept in a bounded cache once decoded, downloaded or computed. The 
+ * viewer sizes the cache to the tiles it paints and prefetches together, so 
+ * they don't evict each other.
+ */
+public interface CachedTileSource extends TileSource {
+  /**
+   * Makes the cache hold at least the given number of tiles. The cache keeps 
+   * its own minimum when fewer are asked for.
+   *
+   * @param count The number of tiles.
+   */
+  void setCachedTileCount(int count);
+}
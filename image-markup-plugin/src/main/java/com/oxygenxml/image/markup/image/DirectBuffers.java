@@ -0,0 +1,69 @@
+package com.oxygenxml.image.markup.image;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases the memory of direct and mapped buffers right away, instead of
+ * waiting for the garbage collector to find them. There is no public API for
+ * this, so the platform cleaner is looked up by reflection; if it can't be
+ * found, the memory is released by the garbage collector as usual.
+ *
+ * A released buffer must never be used again, not even through a duplicate.
+ */
+public class DirectBuffers {
+  /**
+   * <code>sun.misc.Unsafe.invokeCleaner</code>, on Java 9 and later.
+   */
+  private static Method invokeCleaner;
+  /**
+   * The <code>sun.misc.Unsafe</code> instance, on Java 9 and later.
+   */
+  private static Object unsafe;
+
+  static {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+    } catch (Exception e) {
+      // Before Java 9, the cleaner of the buffer is used.
+      invokeCleaner = null;
+    }
+  }
+
+  /**
+   * Private constructor.
+   */
+  private DirectBuffers() {}
+
+  /**
+   * Releases the memory of a buffer.
+   *
+   * @param buffer A direct or mapped buffer, as allocated. Not a slice or a duplicate.
+   */
+  public static void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    try {
+      if (invokeCleaner != null) {
+        invokeCleaner.invoke(unsafe, buffer);
+      } else {
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          Method clean = cleaner.getClass().getMethod("clean");
+          clean.setAccessible(true);
+          clean.invoke(cleaner);
+        }
+      }
+    } catch (Exception e) {
+      // Released by the garbage collector.
+    }
+  }
+}
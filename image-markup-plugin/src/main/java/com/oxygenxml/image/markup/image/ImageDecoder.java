@@ -0,0 +1,32 @@
+package com.oxygenxml.image.markup.image;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Opens the tiles of an image without decoding all its pixels, for the formats
+ * that can be read tile by tile or keep reduced resolutions.
+ * <p>
+ * Decoders are registered with {@link ImageDecoders#register(ImageDecoder)} or
+ * listed in
+ * <code>META-INF/services/com.oxygenxml.image.markup.image.ImageDecoder</code>.
+ * The images that no decoder opens are decoded whole.
+ */
+public interface ImageDecoder {
+  /**
+   * @return The suffixes of the image files this decoder reads, without the dot.
+   */
+  String[] getFileSuffixes();
+
+  /**
+   * Opens the tiles of an image.
+   *
+   * @param imageURL The image location.
+   *
+   * @return The tiles or <code>null</code> if the image is not handled by this 
+   * decoder.
+   *
+   * @throws IOException Unable to read the image.
+   */
+  TileSource open(URL imageURL) throws IOException;
+}
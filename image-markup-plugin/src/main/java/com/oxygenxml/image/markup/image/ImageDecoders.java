@@ -0,0 +1,101 @@
+package com.oxygenxml.image.markup.image;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The registered image decoders. The decoders found on the class path come 
+ * first, so they can take over the formats of the built-in ones.
+ */
+public class ImageDecoders {
+  /**
+   * The decoders, in the order they are asked.
+   */
+  private static final List<ImageDecoder> DECODERS = new CopyOnWriteArrayList<ImageDecoder>();
+
+  static {
+    Iterator<ImageDecoder> found = ServiceLoader.load(ImageDecoder.class, ImageDecoder.class.getClassLoader()).iterator();
+    while (true) {
+      try {
+        if (!found.hasNext()) {
+          break;
+        }
+        DECODERS.add(found.next());
+      } catch (ServiceConfigurationError e) {
+        // A broken decoder doesn't hide the others.
+        e.printStackTrace();
+      }
+    }
+    DECODERS.add(new ImageIODecoder());
+  }
+
+  /**
+   * Private constructor.
+   */
+  private ImageDecoders() {}
+
+  /**
+   * Registers a decoder, before the others.
+   *
+   * @param decoder The decoder.
+   */
+  public static void register(ImageDecoder decoder) {
+    DECODERS.add(0, decoder);
+  }
+
+  /**
+   * Removes a decoder.
+   *
+   * @param decoder The decoder.
+   */
+  public static void unregister(ImageDecoder decoder) {
+    DECODERS.remove(decoder);
+  }
+
+  /**
+   * Opens the tiles of an image with the first decoder that handles it.
+   *
+   * @param imageURL The image location.
+   *
+   * @return The tiles or <code>null</code> if the image should be decoded whole.
+   */
+  public static TileSource open(URL imageURL) {
+    for (ImageDecoder decoder : DECODERS) {
+      try {
+        TileSource tiles = decoder.open(imageURL);
+        if (tiles != null) {
+          return tiles;
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The suffixes of all the image files that can be shown, lower case 
+   * and sorted.
+   */
+  public static String[] getFileSuffixes() {
+    Set<String> suffixes = new TreeSet<String>();
+    for (String suffix : ImageIO.getReaderFileSuffixes()) {
+      suffixes.add(suffix.toLowerCase());
+    }
+    for (ImageDecoder decoder : DECODERS) {
+      for (String suffix : decoder.getFileSuffixes()) {
+        suffixes.add(suffix.toLowerCase());
+      }
+    }
+    return suffixes.toArray(new String[suffixes.size()]);
+  }
+}
@@ -0,0 +1,222 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads the dimensions of an image from its header, without decoding any pixels.
+ * Results for local files are cached by path and invalidated when the file's
+ * modification time or length changes.
+ *
+ * The probe is thread safe, so it can be used from a pool of workers.
+ */
+public class ImageDimensionProbe {
+  /**
+   * The shared instance.
+   */
+  private static final ImageDimensionProbe INSTANCE = new ImageDimensionProbe();
+
+  /**
+   * The dimensions of a file, together with the file stamp they were read for.
+   */
+  private static class CacheEntry {
+    /**
+     * The last modification time of the file.
+     */
+    final long lastModified;
+    /**
+     * The length of the file.
+     */
+    final long length;
+    /**
+     * The image width.
+     */
+    final int width;
+    /**
+     * The image height.
+     */
+    final int height;
+
+    CacheEntry(long lastModified, long length, int width, int height) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  /**
+   * Already probed files. The key is the absolute file path.
+   */
+  private final Map<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+
+  /**
+   * @return The shared probe.
+   */
+  public static ImageDimensionProbe getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Reads the dimensions of the image from the given location. Local files are
+   * served from the cache when possible.
+   *
+   * @param imageURL Image location.
+   *
+   * @return The image dimensions.
+   *
+   * @throws IOException Unable to read the image header or the format is not supported.
+   */
+  public Dimension probe(URL imageURL) throws IOException {
+    File file = toFile(imageURL);
+    if (file != null) {
+      return probe(file);
+    }
+
+    InputStream is = imageURL.openStream();
+    try {
+      return readDimension(is, imageURL.toExternalForm());
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Reads the dimensions of the given image file.
+   *
+   * @param file Image file.
+   *
+   * @return The image dimensions.
+   *
+   * @throws IOException Unable to read the image header or the format is not supported.
+   */
+  public Dimension probe(File file) throws IOException {
+    String key = file.getAbsolutePath();
+    long lastModified = file.lastModified();
+    long length = file.length();
+
+    CacheEntry entry = cache.get(key);
+    if (entry == null || entry.lastModified != lastModified || entry.length != length) {
+      if (!file.isFile()) {
+        cache.remove(key);
+        throw new IOException("Image not found: " + file);
+      }
+      Dimension dimension = readDimension(file, key);
+      entry = new CacheEntry(lastModified, length, dimension.width, dimension.height);
+      cache.put(key, entry);
+    }
+
+    return new Dimension(entry.width, entry.height);
+  }
+
+  /**
+   * Discards all the cached dimensions.
+   */
+  public void clear() {
+    cache.clear();
+  }
+
+  /**
+   * Reads the dimensions from the header of the image.
+   *
+   * @param input The image source. Either a file or a stream.
+   * @param systemID The image location. Used for error reporting.
+   *
+   * @return The dimensions of the first image in the source.
+   *
+   * @throws IOException Unable to read the header.
+   */
+  private static Dimension readDimension(Object input, String systemID) throws IOException {
+    ImageInputStream iis = ImageIO.createImageInputStream(input);
+    if (iis == null) {
+      throw new IOException("Unable to read image: " + systemID);
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) {
+        throw new IOException("Unsupported image format: " + systemID);
+      }
+
+      ImageReader reader = readers.next();
+      try {
+        // Seek forward only and ignore metadata. The readers only parse the
+        // header to answer these calls.
+        reader.setInput(iis, true, true);
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      iis.close();
+    }
+  }
+
+  /**
+   * Converts a "file:" URL into a file.
+   *
+   * @param url The URL to convert.
+   *
+   * @return The file or <code>null</code> if the URL doesn't point to a local file.
+   */
+  public static File toFile(URL url) {
+    File file = null;
+    if ("file".equals(url.getProtocol())) {
+      try {
+        file = new File(url.toURI());
+      } catch (URISyntaxException e) {
+        file = new File(url.getPath());
+      } catch (IllegalArgumentException e) {
+        // URLs with an authority component.
+        file = new File(url.getPath());
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Computes a key that changes when the image changes: a hash of the image
+   * location and, for local files, of its length and modification time. The
+   * content itself is not read, hashing a large master would cost as much as
+   * decoding it.
+   *
+   * @param imageURL The image location.
+   * @param variant Distinguishes the data derived from the same image.
+   *
+   * @return The key, a SHA-1 in hexadecimal.
+   */
+  public static String getStampKey(URL imageURL, String variant) {
+    StringBuilder identity = new StringBuilder(imageURL.toExternalForm());
+    File file = toFile(imageURL);
+    if (file != null) {
+      identity.append('|').append(file.length()).append('|').append(file.lastModified());
+    }
+    identity.append('|').append(variant);
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(identity.toString().getBytes("UTF-8"));
+      StringBuilder key = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every platform has SHA-1.
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.net.URL;
+
+/**
+ * A decoded image taken out of the viewer, so it can be shown again without
+ * decoding it. The handle owns the tiles until it is shown or closed.
+ */
+public class ImageHandle {
+  /**
+   * The location of the image.
+   */
+  private final URL url;
+  /**
+   * The size of the image.
+   */
+  private final Dimension size;
+  /**
+   * The tiles of the image.
+   */
+  private final TileSource tiles;
+  /**
+   * All the pixels. <code>null</code> if they were not needed or are kept
+   * outside the heap.
+   */
+  private final BufferedImage image;
+
+  /**
+   * Constructor.
+   *
+   * @param url The location of the image.
+   * @param size The size of the image.
+   * @param tiles The tiles of the image.
+   * @param image All the pixels. May be <code>null</code>.
+   */
+  public ImageHandle(URL url, Dimension size, TileSource tiles, BufferedImage image) {
+    this.url = url;
+    this.size = new Dimension(size);
+    this.tiles = tiles;
+    this.image = image;
+  }
+
+  /**
+   * @return The location of the image.
+   */
+  public URL getURL() {
+    return url;
+  }
+
+  /**
+   * @return The size of the image.
+   */
+  public Dimension getSize() {
+    return new Dimension(size);
+  }
+
+  /**
+   * @return The tiles of the image.
+   */
+  public TileSource getTiles() {
+    return tiles;
+  }
+
+  /**
+   * @return All the pixels. <code>null</code> if they were not decoded.
+   */
+  public BufferedImage getImage() {
+    return image;
+  }
+
+  /**
+   * Releases the tiles.
+   */
+  public void close() {
+    tiles.close();
+  }
+}
@@ -0,0 +1,33 @@
+package com.oxygenxml.image.markup.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Reads local files through the installed ImageIO readers: the tiles and 
+ * reduced resolutions of the file when it has them, otherwise only the painted 
+ * regions of very large images, a whole row of tiles at a time for sequential 
+ * formats like JPEG and PNG. TIFF is read on Java 9 and later, JPEG 2000 when 
+ * an ImageIO plugin for it is installed.
+ */
+public class ImageIODecoder implements ImageDecoder {
+  /**
+   * @see com.oxygenxml.image.markup.image.ImageDecoder#getFileSuffixes()
+   */
+  @Override
+  public String[] getFileSuffixes() {
+    return ImageIO.getReaderFileSuffixes();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.ImageDecoder#open(java.net.URL)
+   */
+  @Override
+  public TileSource open(URL imageURL) throws IOException {
+    File file = ImageDimensionProbe.toFile(imageURL);
+    return file != null ? RegionTileSource.open(file, TilePyramid.TILE_SIZE) : null;
+  }
+}
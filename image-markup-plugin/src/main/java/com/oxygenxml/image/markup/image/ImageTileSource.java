@@ -0,0 +1,114 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Tiles over a decoded image. The tiles of the full resolution share the pixels
+ * of the image, the other levels are scaled down from the previous one the first
+ * time they are needed.
+ */
+public class ImageTileSource implements TileSource {
+  /**
+   * The image at every level. <code>null</code> for the levels not yet computed.
+   */
+  private final BufferedImage[] levels;
+  /**
+   * The side of a tile.
+   */
+  private final int tileSize;
+
+  /**
+   * Constructor.
+   *
+   * @param image The decoded image.
+   * @param tileSize The side of a tile.
+   */
+  public ImageTileSource(BufferedImage image, int tileSize) {
+    this.tileSize = tileSize;
+    levels = new BufferedImage[TilePyramid.getLevelCount(image.getWidth(), image.getHeight(), tileSize)];
+    levels[0] = image;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getWidth()
+   */
+  @Override
+  public int getWidth() {
+    return levels[0].getWidth();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getHeight()
+   */
+  @Override
+  public int getHeight() {
+    return levels[0].getHeight();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTileSize()
+   */
+  @Override
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getLevelCount()
+   */
+  @Override
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTile(int, int, int)
+   */
+  @Override
+  public BufferedImage getTile(int level, int column, int row) {
+    BufferedImage image = getLevel(level);
+    int x = column * tileSize;
+    int y = row * tileSize;
+    return image.getSubimage(
+        x, y, Math.min(tileSize, image.getWidth() - x), Math.min(tileSize, image.getHeight() - y));
+  }
+
+  /**
+   * Gets the image at a level, scaling it down from the previous level if needed.
+   *
+   * @param level The level.
+   *
+   * @return The image at the given level.
+   */
+  private synchronized BufferedImage getLevel(int level) {
+    if (levels[level] == null) {
+      BufferedImage previous = getLevel(level - 1);
+      int width = TilePyramid.getLevelSize(getWidth(), level);
+      int height = TilePyramid.getLevelSize(getHeight(), level);
+      BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = scaled.createGraphics();
+      try {
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(previous, 0, 0, width, height, null);
+      } finally {
+        g.dispose();
+      }
+      levels[level] = scaled;
+    }
+    return levels[level];
+  }
+
+  /**
+   * The image stays with its owner, only the scaled levels are dropped.
+   *
+   * @see com.oxygenxml.image.markup.image.TileSource#close()
+   */
+  @Override
+  public synchronized void close() {
+    for (int i = 1; i < levels.length; i++) {
+      levels[i] = null;
+    }
+  }
+}
@@ -0,0 +1,450 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the decoded tiles of large images in files, one for every image, so an
+ * image opened again is paged in from the file instead of being decoded. The
+ * files are memory mapped: only the tiles that are painted are read, by the
+ * operating system, and they don't count against the Java heap.
+ *
+ * A file is written under a temporary name and renamed when complete, and its
+ * length is checked when opened, so a crash never leaves a file that is used.
+ * The files are evicted in least recently used order, by their modification
+ * time, when their total size goes over a limit.
+ *
+ * The file layout: a header with the magic number, the image width and height,
+ * the tile size and the level count, followed by the tiles as RGB integers,
+ * level by level and row by row.
+ */
+public class MappedTileCache {
+  /**
+   * The images with fewer pixels are decoded faster than they are cached.
+   */
+  public static final long MIN_CACHED_PIXELS = 16L * 1024 * 1024;
+  /**
+   * Identifies a tiles file.
+   */
+  private static final int MAGIC = 0x544C4331;
+  /**
+   * The size of the header, in bytes.
+   */
+  static final int HEADER_SIZE = 5 * 4;
+  /**
+   * The extension of the tiles files.
+   */
+  private static final String EXTENSION = ".tiles";
+  /**
+   * The largest mapped region. Tiles never cross regions.
+   */
+  private static final long MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+  /**
+   * The age after which a temporary file is considered left over by a crash.
+   */
+  private static final long STALE_TEMP_AGE = 60L * 60 * 1000;
+
+  /**
+   * The cache folder.
+   */
+  private final File dir;
+  /**
+   * The largest total size of the files, in bytes.
+   */
+  private final long maxSize;
+
+  /**
+   * Constructor.
+   *
+   * @param dir The cache folder. Created if missing.
+   * @param maxSize The largest total size of the files, in bytes.
+   */
+  public MappedTileCache(File dir, long maxSize) {
+    this.dir = dir;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Checks if an image is worth caching: a local file with many pixels.
+   *
+   * @param imageURL The image location.
+   * @param size The image size.
+   *
+   * @return <code>true</code> to cache the tiles of the image.
+   */
+  public boolean accepts(URL imageURL, Dimension size) {
+    return ImageDimensionProbe.toFile(imageURL) != null
+        && (long) size.width * size.height >= MIN_CACHED_PIXELS;
+  }
+
+  /**
+   * Opens the cached tiles of an image.
+   *
+   * @param imageURL The image location.
+   *
+   * @return The tiles. <code>null</code> if the image is not in the cache.
+   *
+   * @throws IOException Unable to map the file.
+   */
+  public TileSource open(URL imageURL) throws IOException {
+    File file = getFile(imageURL);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    TileSource tiles = null;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      tiles = map(raf.getChannel());
+    } finally {
+      // The mappings stay valid after the channel is closed.
+      raf.close();
+    }
+    if (tiles == null) {
+      // Not a complete tiles file.
+      file.delete();
+    } else {
+      // Marks it as recently used.
+      file.setLastModified(System.currentTimeMillis());
+    }
+    return tiles;
+  }
+
+  /**
+   * Maps a tiles file.
+   *
+   * @param channel The file channel.
+   *
+   * @return The tiles. <code>null</code> if the file is not complete.
+   *
+   * @throws IOException Unable to map the file.
+   */
+  private static TileSource map(FileChannel channel) throws IOException {
+    long length = channel.size();
+    if (length < HEADER_SIZE) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining() && channel.read(header) >= 0) {
+      // Reads the whole header.
+    }
+    header.flip();
+    if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+      return null;
+    }
+    int width = header.getInt();
+    int height = header.getInt();
+    int tileSize = header.getInt();
+    int levelCount = header.getInt();
+    if (width <= 0 || height <= 0 || tileSize <= 0
+        || levelCount != TilePyramid.getLevelCount(width, height, tileSize)) {
+      return null;
+    }
+
+    TileLayout layout = new TileLayout(width, height, tileSize, levelCount);
+    if (layout.getEnd() != length) {
+      return null;
+    }
+
+    // Groups the tiles in regions of a bounded size.
+    int tileCount = layout.getTileCount();
+    int[] segmentOf = new int[tileCount];
+    int[] positions = new int[tileCount];
+    MappedByteBuffer[] segments = new MappedByteBuffer[tileCount];
+    int segmentCount = 0;
+    long segmentStart = HEADER_SIZE;
+    for (int i = 0; i <= tileCount; i++) {
+      long start = i < tileCount ? layout.getOffset(i) : length;
+      long end = i < tileCount ? layout.getOffset(i) + layout.getByteCount(i) : length;
+      if (i == tileCount || end - segmentStart > MAX_SEGMENT_SIZE) {
+        segments[segmentCount++] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, start - segmentStart);
+        segmentStart = start;
+      }
+      if (i < tileCount) {
+        segmentOf[i] = segmentCount;
+        positions[i] = (int) (start - segmentStart);
+      }
+    }
+    return new MappedTileSource(layout, Arrays.copyOf(segments, segmentCount), segmentOf, positions);
+  }
+
+  /**
+   * Writes the tiles of an image in the cache and evicts the least recently
+   * used files if the cache is over its size.
+   *
+   * @param imageURL The image location.
+   * @param tiles The image tiles.
+   *
+   * @throws IOException Unable to write the file.
+   */
+  public void store(URL imageURL, TileSource tiles) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create the cache folder: " + dir);
+    }
+    File file = getFile(imageURL);
+    File temp = File.createTempFile("tiles", ".tmp", dir);
+    try {
+      FileOutputStream os = new FileOutputStream(temp);
+      try {
+        write(tiles, os.getChannel());
+        // On the disk before the rename, so a crash never leaves a complete looking file with missing pixels.
+        os.getChannel().force(true);
+      } finally {
+        os.close();
+      }
+      if (!temp.renameTo(file)) {
+        // The platform doesn't replace files.
+        file.delete();
+        if (!temp.renameTo(file)) {
+          throw new IOException("Unable to create " + file);
+        }
+      }
+    } finally {
+      temp.delete();
+    }
+    evict(file);
+  }
+
+  /**
+   * Writes the tiles.
+   *
+   * @param tiles The image tiles.
+   * @param channel The output channel.
+   *
+   * @throws IOException Unable to write.
+   */
+  private static void write(TileSource tiles, FileChannel channel) throws IOException {
+    int tileSize = tiles.getTileSize();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(tiles.getWidth()).putInt(tiles.getHeight()).putInt(tileSize).putInt(tiles.getLevelCount());
+    header.flip();
+    writeFully(channel, header);
+
+    int[] pixels = new int[tileSize * tileSize];
+    ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length * 4);
+    IntBuffer ints = buffer.asIntBuffer();
+    for (int level = 0; level < tiles.getLevelCount(); level++) {
+      int columns = TilePyramid.getTileCount(tiles.getWidth(), tileSize, level);
+      int rows = TilePyramid.getTileCount(tiles.getHeight(), tileSize, level);
+      for (int row = 0; row < rows; row++) {
+        for (int column = 0; column < columns; column++) {
+          BufferedImage tile = tiles.getTile(level, column, row);
+          int count = tile.getWidth() * tile.getHeight();
+          tile.getRGB(0, 0, tile.getWidth(), tile.getHeight(), pixels, 0, tile.getWidth());
+          ints.clear();
+          ints.put(pixels, 0, count);
+          buffer.clear();
+          buffer.limit(count * 4);
+          writeFully(channel, buffer);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes all the remaining bytes of a buffer.
+   *
+   * @param channel The output channel.
+   * @param buffer The bytes.
+   *
+   * @throws IOException Unable to write.
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Deletes the least recently used files until the cache fits its size, and
+   * the temporary files left over by a crash.
+   *
+   * @param keep A file that is not deleted.
+   */
+  void evict(File keep) {
+    final long now = System.currentTimeMillis();
+    File[] stale = dir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().endsWith(".tmp") && now - file.lastModified() > STALE_TEMP_AGE;
+      }
+    });
+    if (stale != null) {
+      for (File file : stale) {
+        file.delete();
+      }
+    }
+
+    File[] files = dir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().endsWith(EXTENSION);
+      }
+    });
+    if (files == null) {
+      return;
+    }
+    long total = 0;
+    final long[] stamps = new long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      total += files[i].length();
+      stamps[i] = files[i].lastModified();
+    }
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        long s1 = stamps[o1];
+        long s2 = stamps[o2];
+        return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < order.length && total > maxSize; i++) {
+      File file = files[order[i]];
+      if (!file.equals(keep)) {
+        long length = file.length();
+        // A file mapped by a viewer can't be deleted on some platforms.
+        if (file.delete()) {
+          total -= length;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param imageURL The image location.
+   *
+   * @return The tiles file of the image.
+   */
+  File getFile(URL imageURL) {
+    return new File(dir, ImageDimensionProbe.getStampKey(imageURL, "tiles") + EXTENSION);
+  }
+
+  /**
+   * The position of every tile in a tiles file.
+   */
+  static class TileLayout {
+    /**
+     * The image width.
+     */
+    final int width;
+    /**
+     * The image height.
+     */
+    final int height;
+    /**
+     * The side of a tile.
+     */
+    final int tileSize;
+    /**
+     * The index of the first tile of every level, and the tile count at the end.
+     */
+    final int[] levelStarts;
+    /**
+     * The file offset of every tile, and the file length at the end.
+     */
+    private final long[] offsets;
+
+    /**
+     * Constructor.
+     *
+     * @param width The image width.
+     * @param height The image height.
+     * @param tileSize The side of a tile.
+     * @param levelCount The number of levels.
+     */
+    TileLayout(int width, int height, int tileSize, int levelCount) {
+      this.width = width;
+      this.height = height;
+      this.tileSize = tileSize;
+      levelStarts = new int[levelCount + 1];
+      for (int level = 0; level < levelCount; level++) {
+        levelStarts[level + 1] = levelStarts[level]
+            + TilePyramid.getTileCount(width, tileSize, level) * TilePyramid.getTileCount(height, tileSize, level);
+      }
+      offsets = new long[levelStarts[levelCount] + 1];
+      long offset = HEADER_SIZE;
+      int index = 0;
+      for (int level = 0; level < levelCount; level++) {
+        int levelWidth = TilePyramid.getLevelSize(width, level);
+        int levelHeight = TilePyramid.getLevelSize(height, level);
+        int columns = TilePyramid.getTileCount(width, tileSize, level);
+        int rows = TilePyramid.getTileCount(height, tileSize, level);
+        for (int row = 0; row < rows; row++) {
+          int tileHeight = Math.min(tileSize, levelHeight - row * tileSize);
+          for (int column = 0; column < columns; column++) {
+            int tileWidth = Math.min(tileSize, levelWidth - column * tileSize);
+            offsets[index++] = offset;
+            offset += 4L * tileWidth * tileHeight;
+          }
+        }
+      }
+      offsets[index] = offset;
+    }
+
+    /**
+     * @return The number of levels.
+     */
+    int getLevelCount() {
+      return levelStarts.length - 1;
+    }
+
+    /**
+     * @return The number of tiles.
+     */
+    int getTileCount() {
+      return offsets.length - 1;
+    }
+
+    /**
+     * @param level The level.
+     * @param column The tile column.
+     * @param row The tile row.
+     *
+     * @return The index of the tile.
+     */
+    int getIndex(int level, int column, int row) {
+      return levelStarts[level] + row * TilePyramid.getTileCount(width, tileSize, level) + column;
+    }
+
+    /**
+     * @param index The index of a tile.
+     *
+     * @return The file offset of the tile.
+     */
+    long getOffset(int index) {
+      return offsets[index];
+    }
+
+    /**
+     * @param index The index of a tile.
+     *
+     * @return The size of the tile, in bytes.
+     */
+    int getByteCount(int index) {
+      return (int) (offsets[index + 1] - offsets[index]);
+    }
+
+    /**
+     * @return The file length.
+     */
+    long getEnd() {
+      return offsets[offsets.length - 1];
+    }
+  }
+}
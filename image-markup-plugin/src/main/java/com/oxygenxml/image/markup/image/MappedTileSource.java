@@ -0,0 +1,132 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.oxygenxml.image.markup.image.MappedTileCache.TileLayout;
+
+/**
+ * Tiles read from a memory mapped tiles file. The pixels of a tile are paged
+ * in by the operating system and copied in a small image that can be painted.
+ */
+class MappedTileSource implements TileSource {
+  /**
+   * The position of the tiles in the file.
+   */
+  private final TileLayout layout;
+  /**
+   * The mapped regions of the file. <code>null</code> after closing.
+   */
+  private MappedByteBuffer[] segments;
+  /**
+   * Tiles are read under the read lock, the regions are unmapped under the write lock.
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /**
+   * The region of every tile.
+   */
+  private final int[] segmentOf;
+  /**
+   * The position of every tile in its region.
+   */
+  private final int[] positions;
+
+  /**
+   * Constructor.
+   *
+   * @param layout The position of the tiles in the file.
+   * @param segments The mapped regions of the file.
+   * @param segmentOf The region of every tile.
+   * @param positions The position of every tile in its region.
+   */
+  MappedTileSource(TileLayout layout, MappedByteBuffer[] segments, int[] segmentOf, int[] positions) {
+    this.layout = layout;
+    this.segments = segments;
+    this.segmentOf = segmentOf;
+    this.positions = positions;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getWidth()
+   */
+  @Override
+  public int getWidth() {
+    return layout.width;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getHeight()
+   */
+  @Override
+  public int getHeight() {
+    return layout.height;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTileSize()
+   */
+  @Override
+  public int getTileSize() {
+    return layout.tileSize;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getLevelCount()
+   */
+  @Override
+  public int getLevelCount() {
+    return layout.getLevelCount();
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTile(int, int, int)
+   */
+  @Override
+  public BufferedImage getTile(int level, int column, int row) throws IOException {
+    int tileSize = layout.tileSize;
+    int width = Math.min(tileSize, TilePyramid.getLevelSize(layout.width, level) - column * tileSize);
+    int height = Math.min(tileSize, TilePyramid.getLevelSize(layout.height, level) - row * tileSize);
+    int index = layout.getIndex(level, column, row);
+
+    BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    lock.readLock().lock();
+    try {
+      if (segments == null) {
+        throw new IOException("The tiles are closed.");
+      }
+      // A view of the shared mapping, so concurrent reads don't interfere.
+      ByteBuffer view = segments[segmentOf[index]].duplicate();
+      view.position(positions[index]);
+      view.asIntBuffer().get(pixels, 0, width * height);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return tile;
+  }
+
+  /**
+   * Unmaps the file. Waits for the tiles being read.
+   *
+   * @see com.oxygenxml.image.markup.image.TileSource#close()
+   */
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      if (segments != null) {
+        for (MappedByteBuffer segment : segments) {
+          DirectBuffers.release(segment);
+        }
+        segments = null;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,263 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.oxygenxml.image.markup.image.ParallelStrips.StripTask;
+
+/**
+ * Tiles kept outside the Java heap, in direct buffers, so large scans don't add
+ * to the work of the garbage collector. Every level of the pyramid is stored as
+ * bands of RGB integers, one tile high. Only the tiles that are painted are
+ * copied in small images on the heap.
+ *
+ * The memory is released by {@link #close()}, without waiting for a garbage
+ * collection.
+ */
+public class OffHeapTileSource implements TileSource {
+  /**
+   * The images with fewer pixels are kept on the heap.
+   */
+  public static final long MIN_PIXELS = 16L * 1024 * 1024;
+
+  /**
+   * The image width.
+   */
+  private final int width;
+  /**
+   * The image height.
+   */
+  private final int height;
+  /**
+   * The side of a tile.
+   */
+  private final int tileSize;
+  /**
+   * The allocated buffers, by level and tile row.
+   */
+  private final ByteBuffer[][] buffers;
+  /**
+   * The pixels of every band, row by row, by level and tile row.
+   */
+  private final IntBuffer[][] bands;
+  /**
+   * Tiles are read under the read lock, the memory is released under the write lock.
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /**
+   * <code>true</code> after the memory was released.
+   */
+  private boolean closed;
+
+  /**
+   * Copies an image and its scaled down levels outside the heap.
+   *
+   * @param image The decoded image. It can be discarded afterwards.
+   * @param tileSize The side of a tile.
+   *
+   * @throws OutOfMemoryError Not enough direct memory. Nothing stays allocated.
+   */
+  public OffHeapTileSource(final BufferedImage image, int tileSize) {
+    this.width = image.getWidth();
+    this.height = image.getHeight();
+    this.tileSize = tileSize;
+    int levelCount = TilePyramid.getLevelCount(width, height, tileSize);
+    buffers = new ByteBuffer[levelCount][];
+    bands = new IntBuffer[levelCount][];
+    try {
+      for (int level = 0; level < levelCount; level++) {
+        allocate(level);
+      }
+    } catch (OutOfMemoryError e) {
+      close();
+      throw e;
+    }
+
+    ParallelStrips.forEachStrip(height, new StripTask() {
+      @Override
+      public void process(int fromY, int toY) {
+        int[] row = new int[width];
+        for (int y = fromY; y < toY; y++) {
+          image.getRGB(0, y, width, 1, row, 0, width);
+          putRow(0, y, row);
+        }
+      }
+    });
+    for (int level = 1; level < levelCount; level++) {
+      scaleDown(level);
+    }
+  }
+
+  /**
+   * Allocates the bands of a level.
+   *
+   * @param level The level.
+   */
+  private void allocate(int level) {
+    int levelWidth = TilePyramid.getLevelSize(width, level);
+    int levelHeight = TilePyramid.getLevelSize(height, level);
+    int rows = TilePyramid.getTileCount(height, tileSize, level);
+    buffers[level] = new ByteBuffer[rows];
+    bands[level] = new IntBuffer[rows];
+    for (int row = 0; row < rows; row++) {
+      int bandHeight = Math.min(tileSize, levelHeight - row * tileSize);
+      buffers[level][row] = ByteBuffer.allocateDirect(4 * levelWidth * bandHeight).order(ByteOrder.nativeOrder());
+      bands[level][row] = buffers[level][row].asIntBuffer();
+    }
+  }
+
+  /**
+   * Computes a level from the previous one, by averaging blocks of 2 x 2 pixels.
+   *
+   * @param level The level.
+   */
+  private void scaleDown(final int level) {
+    final int sourceWidth = TilePyramid.getLevelSize(width, level - 1);
+    final int sourceHeight = TilePyramid.getLevelSize(height, level - 1);
+    final int levelWidth = TilePyramid.getLevelSize(width, level);
+    ParallelStrips.forEachStrip(TilePyramid.getLevelSize(height, level), new StripTask() {
+      @Override
+      public void process(int fromY, int toY) {
+        int[] upper = new int[sourceWidth];
+        int[] lower = new int[sourceWidth];
+        int[] row = new int[levelWidth];
+        for (int y = fromY; y < toY; y++) {
+          getRow(level - 1, 2 * y, upper);
+          getRow(level - 1, Math.min(2 * y + 1, sourceHeight - 1), lower);
+          for (int x = 0; x < levelWidth; x++) {
+            int x0 = 2 * x;
+            int x1 = Math.min(x0 + 1, sourceWidth - 1);
+            row[x] = average(upper[x0], upper[x1], lower[x0], lower[x1]);
+          }
+          putRow(level, y, row);
+        }
+      }
+    });
+  }
+
+  /**
+   * Averages four RGB pixels, channel by channel.
+   */
+  private static int average(int p1, int p2, int p3, int p4) {
+    int r = ((p1 >> 16 & 0xFF) + (p2 >> 16 & 0xFF) + (p3 >> 16 & 0xFF) + (p4 >> 16 & 0xFF) + 2) >> 2;
+    int g = ((p1 >> 8 & 0xFF) + (p2 >> 8 & 0xFF) + (p3 >> 8 & 0xFF) + (p4 >> 8 & 0xFF) + 2) >> 2;
+    int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+    return r << 16 | g << 8 | b;
+  }
+
+  /**
+   * Reads a row of a level.
+   *
+   * @param level The level.
+   * @param y The row.
+   * @param row Receives the pixels.
+   */
+  private void getRow(int level, int y, int[] row) {
+    IntBuffer band = bands[level][y / tileSize].duplicate();
+    band.position((y % tileSize) * row.length);
+    band.get(row);
+  }
+
+  /**
+   * Writes a row of a level.
+   *
+   * @param level The level.
+   * @param y The row.
+   * @param row The pixels.
+   */
+  private void putRow(int level, int y, int[] row) {
+    IntBuffer band = bands[level][y / tileSize].duplicate();
+    band.position((y % tileSize) * row.length);
+    band.put(row);
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getWidth()
+   */
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getHeight()
+   */
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTileSize()
+   */
+  @Override
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getLevelCount()
+   */
+  @Override
+  public int getLevelCount() {
+    return bands.length;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTile(int, int, int)
+   */
+  @Override
+  public BufferedImage getTile(int level, int column, int row) throws IOException {
+    int levelWidth = TilePyramid.getLevelSize(width, level);
+    int x = column * tileSize;
+    int tileWidth = Math.min(tileSize, levelWidth - x);
+    int tileHeight = Math.min(tileSize, TilePyramid.getLevelSize(height, level) - row * tileSize);
+    BufferedImage tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+
+    lock.readLock().lock();
+    try {
+      if (closed) {
+        throw new IOException("The tiles are closed.");
+      }
+      IntBuffer band = bands[level][row].duplicate();
+      for (int y = 0; y < tileHeight; y++) {
+        band.position(y * levelWidth + x);
+        band.get(pixels, y * tileWidth, tileWidth);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return tile;
+  }
+
+  /**
+   * Releases the memory. Waits for the tiles being read.
+   *
+   * @see com.oxygenxml.image.markup.image.TileSource#close()
+   */
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      if (!closed) {
+        closed = true;
+        for (ByteBuffer[] level : buffers) {
+          if (level != null) {
+            for (ByteBuffer buffer : level) {
+              DirectBuffers.release(buffer);
+            }
+          }
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
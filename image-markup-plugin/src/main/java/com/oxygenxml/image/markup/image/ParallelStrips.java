@@ -0,0 +1,142 @@
+package com.oxygenxml.image.markup.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Splits an image in horizontal strips and processes them in parallel, on a
+ * pool with one thread per core.
+ */
+public class ParallelStrips {
+  /**
+   * Processes one strip of rows.
+   */
+  public interface StripTask {
+    /**
+     * Processes the rows from the given interval.
+     *
+     * @param fromY First row, inclusive.
+     * @param toY Last row, exclusive.
+     */
+    void process(int fromY, int toY);
+  }
+
+  /**
+   * The minimum number of rows worth a separate task.
+   */
+  private static final int MIN_STRIP_HEIGHT = 32;
+
+  /**
+   * The number of threads in the pool.
+   */
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Marks the threads of the pool, to avoid waiting on the pool from inside it.
+   */
+  private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<Boolean>();
+
+  /**
+   * The shared pool.
+   */
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+    @Override
+    public Thread newThread(final Runnable r) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          WORKER.set(Boolean.TRUE);
+          r.run();
+        }
+      }, "Image strips");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.NORM_PRIORITY - 1);
+      return thread;
+    }
+  });
+
+  /**
+   * Private constructor.
+   */
+  private ParallelStrips() {}
+
+  /**
+   * @return The number of strips the work is split into, when enough rows are available.
+   */
+  public static int getParallelism() {
+    return THREADS;
+  }
+
+  /**
+   * Processes all the rows from <code>[0, height)</code> in parallel and waits
+   * for all the strips to finish.
+   *
+   * @param height The number of rows.
+   * @param task The processing.
+   */
+  public static void forEachStrip(int height, final StripTask task) {
+    int strips = Math.min(THREADS * 2, Math.max(1, height / MIN_STRIP_HEIGHT));
+    if (strips == 1 || Boolean.TRUE.equals(WORKER.get())) {
+      task.process(0, height);
+      return;
+    }
+
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(strips);
+    for (int i = 0; i < strips; i++) {
+      final int fromY = (int) ((long) height * i / strips);
+      final int toY = (int) ((long) height * (i + 1) / strips);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          task.process(fromY, toY);
+          return null;
+        }
+      });
+    }
+    invokeAll(tasks);
+  }
+
+  /**
+   * Runs the given tasks on the pool and waits for them.
+   *
+   * @param tasks The tasks to run.
+   *
+   * @return The results, in the order of the tasks.
+   */
+  public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+    List<T> results = new ArrayList<T>(tasks.size());
+    try {
+      if (Boolean.TRUE.equals(WORKER.get())) {
+        for (Callable<T> callable : tasks) {
+          results.add(callable.call());
+        }
+      } else {
+        for (Future<T> future : POOL.invokeAll(tasks)) {
+          results.add(future.get());
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted", e);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    return results;
+  }
+}
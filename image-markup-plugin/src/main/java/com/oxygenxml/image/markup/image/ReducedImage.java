@@ -0,0 +1,141 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An image read with a subsampling, for the analyses that don't need every
+ * pixel of a large scan: the ink table, the layout and the skew. The results
+ * are brought back to image coordinates with {@link #getScale()}.
+ */
+public class ReducedImage {
+  /**
+   * The most pixels read for an analysis.
+   */
+  public static final long MAX_PIXELS = 16L * 1024 * 1024;
+
+  /**
+   * The pixels.
+   */
+  private final BufferedImage image;
+  /**
+   * The number of image pixels, on each axis, in a pixel of {@link #image}.
+   */
+  private final int scale;
+
+  /**
+   * Constructor.
+   *
+   * @param image The pixels.
+   * @param scale The number of image pixels, on each axis, in a pixel.
+   */
+  public ReducedImage(BufferedImage image, int scale) {
+    this.image = image;
+    this.scale = scale;
+  }
+
+  /**
+   * @return The pixels.
+   */
+  public BufferedImage getImage() {
+    return image;
+  }
+
+  /**
+   * @return The number of image pixels, on each axis, in a pixel.
+   */
+  public int getScale() {
+    return scale;
+  }
+
+  /**
+   * Computes the subsampling that keeps an image within a number of pixels.
+   *
+   * @param width The image width.
+   * @param height The image height.
+   * @param maxPixels The most pixels.
+   *
+   * @return The subsampling, at least 1.
+   */
+  public static int getSubsampling(int width, int height, long maxPixels) {
+    int subsampling = 1;
+    while ((long) ((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling) > maxPixels) {
+      subsampling++;
+    }
+    return subsampling;
+  }
+
+  /**
+   * Reads an image, subsampled so it has at most the given number of pixels.
+   * Only the kept pixels are decoded.
+   *
+   * @param imageURL The image location.
+   * @param maxPixels The most pixels.
+   *
+   * @return The image.
+   *
+   * @throws IOException Unable to read the image.
+   */
+  public static ReducedImage read(URL imageURL, long maxPixels) throws IOException {
+    File file = ImageDimensionProbe.toFile(imageURL);
+    InputStream is = null;
+    ImageInputStream iis;
+    if (file != null) {
+      iis = ImageIO.createImageInputStream(file);
+    } else {
+      is = imageURL.openStream();
+      iis = ImageIO.createImageInputStream(is);
+    }
+    if (iis == null) {
+      throw new IOException("Unable to read " + imageURL);
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) {
+        throw new IOException("Unsupported image format: " + imageURL);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(iis, true, true);
+        int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), maxPixels);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return new ReducedImage(reader.read(0, param), subsampling);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      iis.close();
+      if (is != null) {
+        is.close();
+      }
+    }
+  }
+
+  /**
+   * Brings areas found on the reduced pixels back to image coordinates.
+   *
+   * @param areas Areas, in reduced pixels.
+   *
+   * @return The areas, in image pixels.
+   */
+  public List<Rectangle> toImage(List<Rectangle> areas) {
+    List<Rectangle> scaled = new ArrayList<Rectangle>(areas.size());
+    for (Rectangle area : areas) {
+      scaled.add(new Rectangle(area.x * scale, area.y * scale, area.width * scale, area.height * scale));
+    }
+    return scaled;
+  }
+}
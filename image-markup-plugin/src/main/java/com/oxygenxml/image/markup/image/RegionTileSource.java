@@ -0,0 +1,569 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Tiles decoded from the image file only when they are painted. A tile is read
+ * with a source region and a subsampling, so the reader keeps in memory only
+ * the pixels of that tile, never the whole image.
+ * <p>
+ * Tiled formats, like tiled TIFF, are read with the tiles of the file, so a
+ * region touches only the file tiles under it. When the file also keeps the
+ * image at reduced resolutions, like a pyramidal TIFF, the coarse levels are
+ * read from the closest reduced image instead of the full one. Samples deeper
+ * than 8 bits, from 16-bit masters, are converted to RGB when decoded.
+ * <p>
+ * Only TIFF tiles and strips and JPEG 2000 can be read at any place. The 
+ * readers of sequential formats, like JPEG and PNG, decode all the rows above 
+ * a region to reach it, so for them a whole row of tiles is decoded at once 
+ * and all its tiles are cached.
+ * <p>
+ * The coarse levels are served from an overview, decoded once with a large
+ * subsampling, because their tiles cover most of the image anyway. The fine
+ * tiles are kept in a small cache, so zooming into a word of a very large scan
+ * needs only a few megabytes.
+ */
+public class RegionTileSource implements CachedTileSource {
+  /**
+   * The images with fewer pixels are decoded whole, unless they are tiled or 
+   * have reduced resolutions.
+   */
+  public static final long MIN_PIXELS = 64L * 1024 * 1024;
+  /**
+   * The smallest file tile used as it is.
+   */
+  private static final int MIN_NATIVE_TILE = 64;
+  /**
+   * The largest file tile used as it is.
+   */
+  private static final int MAX_NATIVE_TILE = 1024;
+  /**
+   * The largest side of the overview.
+   */
+  static final int OVERVIEW_SIZE = 1024;
+  /**
+   * The number of decoded pixels kept in the tile cache, at least: the tiles 
+   * of a full screen and the ring prefetched around them.
+   */
+  private static final long MIN_CACHED_PIXELS = 8L * 1024 * 1024;
+
+  /**
+   * The stream of the image file.
+   */
+  private final ImageInputStream input;
+  /**
+   * Decodes the regions. Used by one thread at a time.
+   */
+  private final ImageReader reader;
+  /**
+   * The image width.
+   */
+  private final int width;
+  /**
+   * The image height.
+   */
+  private final int height;
+  /**
+   * The side of a tile.
+   */
+  private final int tileSize;
+  /**
+   * The number of levels.
+   */
+  private final int levelCount;
+  /**
+   * The index of the images kept by the file at reduced resolutions, the full 
+   * resolution first.
+   */
+  private final int[] resolutions;
+  /**
+   * How many times every image in {@link #resolutions} is smaller than the 
+   * full resolution. Powers of two, increasing.
+   */
+  private final int[] reductions;
+  /**
+   * <code>true</code> if the reader decodes a region without the rows above it.
+   */
+  private final boolean randomAccess;
+  /**
+   * The first level served from the overview.
+   */
+  private final int overviewLevel;
+  /**
+   * The tiles of the coarse levels. <code>null</code> after closing.
+   */
+  private volatile ImageTileSource overview;
+  /**
+   * The decoded tiles of the fine levels, the least recently used first.
+   */
+  private final Map<Long, BufferedImage> cache = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true);
+  /**
+   * The number of decoded pixels kept in the tile cache. Guarded by the cache 
+   * lock.
+   */
+  private long maxCachedPixels = MIN_CACHED_PIXELS;
+  /**
+   * The number of pixels in the cache.
+   */
+  private long cachedPixels;
+
+  /**
+   * Constructor. Decodes the overview.
+   *
+   * @param input The stream of the image. Closed with the source.
+   * @param reader The reader, with the stream as input. Disposed with the source.
+   * @param tileSize The side of a tile.
+   * @param resolutions The index of the images at reduced resolutions, the 
+   * full resolution first.
+   * @param reductions How many times every image is smaller than the full one.
+   * @param randomAccess <code>true</code> if the reader decodes a region 
+   * without the rows above it.
+   *
+   * @throws IOException Unable to decode the overview.
+   */
+  RegionTileSource(ImageInputStream input, ImageReader reader, int tileSize, 
+      int[] resolutions, int[] reductions, boolean randomAccess) throws IOException {
+    this.input = input;
+    this.reader = reader;
+    this.tileSize = tileSize;
+    this.resolutions = resolutions;
+    this.reductions = reductions;
+    this.randomAccess = randomAccess;
+    width = reader.getWidth(0);
+    height = reader.getHeight(0);
+    levelCount = TilePyramid.getLevelCount(width, height, tileSize);
+    int level = 0;
+    while (level + 1 < levelCount
+        && Math.max(TilePyramid.getLevelSize(width, level), TilePyramid.getLevelSize(height, level)) > OVERVIEW_SIZE) {
+      level++;
+    }
+    overviewLevel = level;
+    overview = new ImageTileSource(decode(new Rectangle(0, 0, width, height), 1 << level), tileSize);
+  }
+
+  /**
+   * Opens the tiles of an image file, if it is large, tiled or keeps reduced 
+   * resolutions.
+   *
+   * @param file The image file.
+   * @param tileSize The side of a tile, used when the file tiles can't be.
+   *
+   * @return The tiles or <code>null</code> if no reader supports the format or 
+   * the image is better decoded whole.
+   *
+   * @throws IOException Unable to read the file.
+   */
+  public static RegionTileSource open(File file, int tileSize) throws IOException {
+    return open(file, tileSize, MIN_PIXELS);
+  }
+
+  /**
+   * Opens the tiles of an image file, if it is tiled or large enough.
+   *
+   * @param file The image file.
+   * @param tileSize The side of a tile, used when the file tiles can't be.
+   * @param minPixels The untiled images with fewer pixels are not opened.
+   *
+   * @return The tiles or <code>null</code>.
+   *
+   * @throws IOException Unable to read the file.
+   */
+  static RegionTileSource open(File file, int tileSize, long minPixels) throws IOException {
+    ImageInputStream input = ImageIO.createImageInputStream(file);
+    if (input == null) {
+      throw new IOException("Unable to read image: " + file);
+    }
+    RegionTileSource source = null;
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (readers.hasNext()) {
+        ImageReader reader = readers.next();
+        try {
+          // The stream is read again for every region.
+          reader.setInput(input, false, true);
+          boolean tiled = reader.isImageTiled(0);
+          List<int[]> levels = tiled ? findResolutions(reader) : Collections.<int[]>emptyList();
+          if (tiled || (long) reader.getWidth(0) * reader.getHeight(0) >= minPixels) {
+            int[] resolutions = new int[levels.size() + 1];
+            int[] reductions = new int[levels.size() + 1];
+            reductions[0] = 1;
+            for (int i = 0; i < levels.size(); i++) {
+              resolutions[i + 1] = levels.get(i)[0];
+              reductions[i + 1] = levels.get(i)[1];
+            }
+            source = new RegionTileSource(input, reader, 
+                tiled ? getNativeTileSize(reader, tileSize) : tileSize, resolutions, reductions, 
+                hasRandomAccess(reader));
+          }
+        } finally {
+          if (source == null) {
+            reader.dispose();
+          }
+        }
+      }
+    } finally {
+      if (source == null) {
+        input.close();
+      }
+    }
+    return source;
+  }
+
+  /**
+   * Checks if a reader decodes a region without decoding the rows above it: 
+   * the tiles and strips of a TIFF, the code blocks of JPEG 2000.
+   *
+   * @param reader The reader.
+   *
+   * @return <code>true</code> for random access, <code>false</code> for a 
+   * sequential format.
+   *
+   * @throws IOException Unable to read the file.
+   */
+  private static boolean hasRandomAccess(ImageReader reader) throws IOException {
+    if (reader.isImageTiled(0)) {
+      return true;
+    }
+    String format = reader.getFormatName().toLowerCase(Locale.ENGLISH);
+    if (format.replace(" ", "").equals("jpeg2000")) {
+      return true;
+    }
+    // The reader presents the strips of a TIFF as full width tiles.
+    return format.startsWith("tif") && reader.getTileHeight(0) < reader.getHeight(0);
+  }
+
+  /**
+   * Finds the images that keep the first one at reduced resolutions, like the 
+   * subfiles of a pyramidal TIFF.
+   *
+   * @param reader The reader.
+   *
+   * @return The index and the reduction of every reduced image, the largest 
+   * first. The reductions are powers of two.
+   *
+   * @throws IOException Unable to read the file.
+   */
+  private static List<int[]> findResolutions(ImageReader reader) throws IOException {
+    List<int[]> found = new ArrayList<int[]>();
+    int width = reader.getWidth(0);
+    int height = reader.getHeight(0);
+    int count = reader.getNumImages(true);
+    int last = 1;
+    for (int index = 1; index < count; index++) {
+      int reduction = (int) Math.round((double) width / reader.getWidth(index));
+      if (reduction > last && reduction <= 1 << 16 && Integer.bitCount(reduction) == 1
+          && Math.abs(TilePyramid.getLevelSize(width, Integer.numberOfTrailingZeros(reduction)) - reader.getWidth(index)) <= 1
+          && Math.abs(TilePyramid.getLevelSize(height, Integer.numberOfTrailingZeros(reduction)) - reader.getHeight(index)) <= 1) {
+        found.add(new int[] {index, reduction});
+        last = reduction;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Chooses the tile side from the tiles of the file, so a painted tile reads 
+   * exactly one file tile.
+   *
+   * @param reader The reader.
+   * @param fallback The side used when the file tiles are not square or have 
+   * an unusual size.
+   *
+   * @return The tile side.
+   *
+   * @throws IOException Unable to read the file.
+   */
+  private static int getNativeTileSize(ImageReader reader, int fallback) throws IOException {
+    int side = reader.getTileWidth(0);
+    return side == reader.getTileHeight(0) && side >= MIN_NATIVE_TILE && side <= MAX_NATIVE_TILE
+        ? side : fallback;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getWidth()
+   */
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getHeight()
+   */
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTileSize()
+   */
+  @Override
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getLevelCount()
+   */
+  @Override
+  public int getLevelCount() {
+    return levelCount;
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.TileSource#getTile(int, int, int)
+   */
+  @Override
+  public BufferedImage getTile(int level, int column, int row) throws IOException {
+    ImageTileSource coarse = overview;
+    if (coarse == null) {
+      throw new IOException("The tiles are closed.");
+    }
+    if (level >= overviewLevel) {
+      return coarse.getTile(level - overviewLevel, column, row);
+    }
+
+    BufferedImage tile = getCachedTile(level, column, row);
+    if (tile != null) {
+      return tile;
+    }
+    if (!randomAccess) {
+      return decodeBand(level, column, row);
+    }
+    // The tile size in image pixels.
+    int side = tileSize << level;
+    int x = column * side;
+    int y = row * side;
+    tile = decode(new Rectangle(x, y, Math.min(side, width - x), Math.min(side, height - y)), 1 << level);
+    cacheTile(level, column, row, tile);
+    return tile;
+  }
+
+  /**
+   * Decodes a whole row of tiles and caches them all, so a sequential reader 
+   * goes through the rows above it once for the row, not once for every tile.
+   *
+   * @param level The level.
+   * @param column The requested tile column.
+   * @param row The tile row.
+   *
+   * @return The requested tile.
+   *
+   * @throws IOException Unable to decode the row.
+   */
+  private BufferedImage decodeBand(int level, int column, int row) throws IOException {
+    synchronized (reader) {
+      // Another thread may have decoded the row meanwhile.
+      BufferedImage tile = getCachedTile(level, column, row);
+      if (tile != null) {
+        return tile;
+      }
+      int side = tileSize << level;
+      int y = row * side;
+      BufferedImage band = decode(new Rectangle(0, y, width, Math.min(side, height - y)), 1 << level);
+      int columns = TilePyramid.getTileCount(width, tileSize, level);
+      for (int c = 0; c < columns; c++) {
+        int x = c * tileSize;
+        BufferedImage part = band.getSubimage(x, 0, Math.min(tileSize, band.getWidth() - x), band.getHeight());
+        // Copied, so an evicted tile doesn't keep the whole band in memory.
+        BufferedImage copy = new BufferedImage(band.getColorModel(), 
+            part.getRaster().createCompatibleWritableRaster(), band.isAlphaPremultiplied(), null);
+        part.copyData(copy.getRaster());
+        cacheTile(level, c, row, copy);
+        if (c == column) {
+          tile = copy;
+        }
+      }
+      return tile;
+    }
+  }
+
+  /**
+   * Gets a decoded tile of a fine level from the cache.
+   *
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   *
+   * @return The tile or <code>null</code>.
+   */
+  private BufferedImage getCachedTile(int level, int column, int row) {
+    synchronized (cache) {
+      return cache.get(key(level, column, row));
+    }
+  }
+
+  /**
+   * Puts a decoded tile in the cache and evicts the least recently used tiles 
+   * over the limit.
+   *
+   * @param level The level.
+   * @param column The tile column.
+   * @param row The tile row.
+   * @param tile The tile.
+   */
+  private void cacheTile(int level, int column, int row, BufferedImage tile) {
+    synchronized (cache) {
+      if (cache.put(key(level, column, row), tile) == null) {
+        cachedPixels += (long) tile.getWidth() * tile.getHeight();
+      }
+      evict();
+    }
+  }
+
+  /**
+   * Evicts the least recently used tiles over the limit. Called while holding 
+   * the cache lock.
+   */
+  private void evict() {
+    Iterator<BufferedImage> eldest = cache.values().iterator();
+    while (cachedPixels > maxCachedPixels && eldest.hasNext()) {
+      BufferedImage evicted = eldest.next();
+      cachedPixels -= (long) evicted.getWidth() * evicted.getHeight();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * @see com.oxygenxml.image.markup.image.CachedTileSource#setCachedTileCount(int)
+   */
+  @Override
+  public void setCachedTileCount(int count) {
+    synchronized (cache) {
+      maxCachedPixels = Math.max(MIN_CACHED_PIXELS, (long) count * tileSize * tileSize);
+      evict();
+    }
+  }
+
+  /**
+   * @return The number of cached tiles.
+   */
+  int getCachedTileCount() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * @return The cache key of a tile.
+   */
+  private static Long key(int level, int column, int row) {
+    return Long.valueOf((long) level << 48 | (long) column << 24 | row);
+  }
+
+  /**
+   * Decodes a region of the image, from the smallest image of the file that 
+   * still has enough pixels.
+   *
+   * @param region The region, in image pixels.
+   * @param subsampling Only every n-th pixel is decoded, on both axes. A power 
+   * of two.
+   *
+   * @return The decoded pixels, <code>region / subsampling</code> rounded up, 
+   * with at most 8 bits for a sample.
+   *
+   * @throws IOException Unable to decode the region.
+   */
+  private BufferedImage decode(Rectangle region, int subsampling) throws IOException {
+    int resolution = 0;
+    while (resolution + 1 < reductions.length && reductions[resolution + 1] <= subsampling) {
+      resolution++;
+    }
+    int reduction = reductions[resolution];
+    int index = resolutions[resolution];
+    BufferedImage decoded;
+    synchronized (reader) {
+      if (reader.getInput() == null) {
+        throw new IOException("The tiles are closed.");
+      }
+      int x = region.x / reduction;
+      int y = region.y / reduction;
+      ImageReadParam param = reader.getDefaultReadParam();
+      param.setSourceRegion(new Rectangle(x, y,
+          Math.max(1, Math.min(reader.getWidth(index), ceilDiv(region.x + region.width, reduction)) - x),
+          Math.max(1, Math.min(reader.getHeight(index), ceilDiv(region.y + region.height, reduction)) - y)));
+      param.setSourceSubsampling(subsampling / reduction, subsampling / reduction, 0, 0);
+      decoded = reader.read(index, param);
+    }
+    return normalize(decoded, ceilDiv(region.width, subsampling), ceilDiv(region.height, subsampling));
+  }
+
+  /**
+   * Converts the decoded pixels to RGB when they have deep samples or, read 
+   * from a reduced image, are off by a pixel from the tile size.
+   *
+   * @param decoded The decoded pixels.
+   * @param width The width of the tile.
+   * @param height The height of the tile.
+   *
+   * @return The tile.
+   */
+  private static BufferedImage normalize(BufferedImage decoded, int width, int height) {
+    boolean deep = false;
+    for (int bits : decoded.getColorModel().getComponentSize()) {
+      deep |= bits > 8;
+    }
+    if (!deep && decoded.getWidth() == width && decoded.getHeight() == height) {
+      return decoded;
+    }
+    BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = tile.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(decoded, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return tile;
+  }
+
+  /**
+   * @return The quotient, rounded up.
+   */
+  private static int ceilDiv(int value, int divisor) {
+    return (value + divisor - 1) / divisor;
+  }
+
+  /**
+   * Releases the reader and the file. Waits for the region being decoded.
+   *
+   * @see com.oxygenxml.image.markup.image.TileSource#close()
+   */
+  @Override
+  public void close() {
+    overview = null;
+    synchronized (cache) {
+      cache.clear();
+      cachedPixels = 0;
+    }
+    synchronized (reader) {
+      if (reader.getInput() != null) {
+        reader.setInput(null);
+        reader.dispose();
+        try {
+          input.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+}
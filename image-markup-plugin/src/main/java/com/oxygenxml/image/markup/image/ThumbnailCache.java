@@ -0,0 +1,222 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Small previews of images, kept as PNG files in a cache folder. A preview is
+ * keyed by a hash of the image location and, for local files, of its length
+ * and modification time, so a changed image gets a new preview.
+ *
+ * The previews are decoded with subsampling, so even large scans only have a
+ * fraction of their pixels read. The cache is thread safe: a preview is written
+ * to a temporary file and then renamed, so concurrent readers never see a
+ * partial file. The previews are evicted in least recently used order, by their
+ * modification time, when their total size goes over a limit.
+ */
+public class ThumbnailCache {
+  /**
+   * The largest side of a preview, in pixels.
+   */
+  public static final int THUMBNAIL_SIZE = 96;
+  /**
+   * The extension of the preview files.
+   */
+  private static final String EXTENSION = ".png";
+  /**
+   * The size is checked after this many stored previews.
+   */
+  private static final int EVICT_INTERVAL = 64;
+
+  /**
+   * The cache folder.
+   */
+  private final File dir;
+  /**
+   * The largest total size of the previews, in bytes.
+   */
+  private final long maxSize;
+  /**
+   * The previews stored since the size was last checked.
+   */
+  private final AtomicInteger stored = new AtomicInteger();
+
+  /**
+   * Constructor.
+   *
+   * @param dir The cache folder. Created when the first preview is stored.
+   * @param maxSize The largest total size of the previews, in bytes.
+   */
+  public ThumbnailCache(File dir, long maxSize) {
+    this.dir = dir;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Gets the preview of an image, from the cache or by decoding the image.
+   *
+   * @param imageURL The image location.
+   *
+   * @return The preview.
+   *
+   * @throws IOException Unable to read the image.
+   */
+  public BufferedImage getThumbnail(URL imageURL) throws IOException {
+    File cached = new File(dir, getKey(imageURL) + EXTENSION);
+    if (cached.isFile()) {
+      BufferedImage thumbnail = ImageIO.read(cached);
+      if (thumbnail != null) {
+        // Evicted last.
+        cached.setLastModified(System.currentTimeMillis());
+        return thumbnail;
+      }
+    }
+
+    BufferedImage thumbnail = createThumbnail(imageURL);
+    if (dir.isDirectory() || dir.mkdirs()) {
+      File temp = File.createTempFile("thumb", ".tmp", dir);
+      try {
+        ImageIO.write(thumbnail, "png", temp);
+        if (!temp.renameTo(cached)) {
+          // Another worker was faster, or the platform doesn't replace files.
+          cached.delete();
+          temp.renameTo(cached);
+        }
+      } finally {
+        temp.delete();
+      }
+      if (stored.incrementAndGet() % EVICT_INTERVAL == 0) {
+        evict();
+      }
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Deletes the least recently used previews until the cache fits its size.
+   */
+  void evict() {
+    File[] files = dir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().endsWith(EXTENSION);
+      }
+    });
+    if (files == null) {
+      return;
+    }
+    long total = 0;
+    final long[] stamps = new long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      total += files[i].length();
+      stamps[i] = files[i].lastModified();
+    }
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        long s1 = stamps[o1];
+        long s2 = stamps[o2];
+        return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < order.length && total > maxSize; i++) {
+      File file = files[order[i]];
+      long length = file.length();
+      if (file.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  /**
+   * Decodes a preview of the image.
+   *
+   * @param imageURL The image location.
+   *
+   * @return The preview.
+   *
+   * @throws IOException Unable to read the image.
+   */
+  static BufferedImage createThumbnail(URL imageURL) throws IOException {
+    File file = ImageDimensionProbe.toFile(imageURL);
+    InputStream is = null;
+    ImageInputStream iis;
+    if (file != null) {
+      iis = ImageIO.createImageInputStream(file);
+    } else {
+      is = imageURL.openStream();
+      iis = ImageIO.createImageInputStream(is);
+    }
+    if (iis == null) {
+      throw new IOException("Unable to read " + imageURL);
+    }
+
+    BufferedImage decoded;
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) {
+        throw new IOException("Unsupported image format: " + imageURL);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(iis, true, true);
+        int side = Math.max(reader.getWidth(0), reader.getHeight(0));
+        // Read about twice the needed pixels, the rest is smoothed when scaling.
+        int subsampling = Math.max(1, side / (2 * THUMBNAIL_SIZE));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        decoded = reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      iis.close();
+      if (is != null) {
+        is.close();
+      }
+    }
+
+    double scale = Math.min(1, (double) THUMBNAIL_SIZE / Math.max(decoded.getWidth(), decoded.getHeight()));
+    int width = Math.max(1, (int) Math.round(decoded.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(decoded.getHeight() * scale));
+    BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = thumbnail.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(decoded, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Computes the cache key of an image.
+   *
+   * @param imageURL The image location.
+   *
+   * @return The key, a SHA-1 in hexadecimal.
+   */
+  static String getKey(URL imageURL) {
+    return ImageDimensionProbe.getStampKey(imageURL, String.valueOf(THUMBNAIL_SIZE));
+  }
+}
@@ -0,0 +1,194 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads in the background the tiles around the visible ones, the ones ahead in
+ * the scroll direction first, so they are already decoded or scaled when they
+ * are scrolled into view. A new visible range cancels the tiles still waiting
+ * from the previous one.
+ *
+ * The tile ranges are rectangles of tiles: <code>x</code> is the first column,
+ * <code>y</code> the first row, <code>width</code> the number of columns and
+ * <code>height</code> the number of rows.
+ */
+public class TilePrefetcher {
+  /**
+   * The number of tiles loaded ahead of the visible ones, in the scroll direction.
+   */
+  static final int AHEAD = 2;
+  /**
+   * The most tiles loaded for a visible range, to bound the background work.
+   * The caches of the sources are sized to the visible tiles and the ring, see
+   * {@link CachedTileSource}.
+   */
+  static final int MAX_PREFETCHED = 32;
+  /**
+   * Loads the tiles of all the viewers, one at a time.
+   */
+  private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "Tile prefetch");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.NORM_PRIORITY - 1);
+      return thread;
+    }
+  });
+
+  /**
+   * Incremented for every new visible range. The loading of an older range
+   * stops when it sees a newer value.
+   */
+  private final AtomicInteger generation = new AtomicInteger();
+  /**
+   * The loading in progress, or <code>null</code>.
+   */
+  private Future<?> job;
+  /**
+   * The source of the last prefetch.
+   */
+  private TileSource lastSource;
+  /**
+   * The level of the last prefetch.
+   */
+  private int lastLevel;
+  /**
+   * The ring of the last prefetch.
+   */
+  private Rectangle lastRing;
+
+  /**
+   * Computes the tiles worth loading around the visible ones: one tile all
+   * around and {@link #AHEAD} tiles in the scroll direction.
+   *
+   * @param visible The visible tiles.
+   * @param dx The horizontal scroll direction: -1, 0 or 1.
+   * @param dy The vertical scroll direction: -1, 0 or 1.
+   * @param columns The number of columns of the level.
+   * @param rows The number of rows of the level.
+   *
+   * @return The tiles of the ring, including the visible ones.
+   */
+  public static Rectangle getRing(Rectangle visible, int dx, int dy, int columns, int rows) {
+    int fromColumn = Math.max(0, visible.x - (dx < 0 ? AHEAD : 1));
+    int toColumn = Math.min(columns - 1, visible.x + visible.width - 1 + (dx > 0 ? AHEAD : 1));
+    int fromRow = Math.max(0, visible.y - (dy < 0 ? AHEAD : 1));
+    int toRow = Math.min(rows - 1, visible.y + visible.height - 1 + (dy > 0 ? AHEAD : 1));
+    return new Rectangle(fromColumn, fromRow, Math.max(0, toColumn - fromColumn + 1), Math.max(0, toRow - fromRow + 1));
+  }
+
+  /**
+   * Orders the tiles of a ring that are not visible: the ones ahead in the
+   * scroll direction first, then the closest ones. At most
+   * {@link #MAX_PREFETCHED} tiles are returned.
+   *
+   * @param visible The visible tiles.
+   * @param ring The ring around them.
+   * @param dx The horizontal scroll direction: -1, 0 or 1.
+   * @param dy The vertical scroll direction: -1, 0 or 1.
+   *
+   * @return The column and row of the tiles to load, in loading order.
+   */
+  static List<Point> getRingTiles(final Rectangle visible, Rectangle ring, final int dx, final int dy) {
+    List<Point> ringTiles = new ArrayList<Point>();
+    for (int row = ring.y; row < ring.y + ring.height; row++) {
+      for (int column = ring.x; column < ring.x + ring.width; column++) {
+        if (!visible.contains(column, row)) {
+          ringTiles.add(new Point(column, row));
+        }
+      }
+    }
+    // Doubled, so the center of the visible tiles is a whole number.
+    final int centerX = 2 * visible.x + visible.width - 1;
+    final int centerY = 2 * visible.y + visible.height - 1;
+    Collections.sort(ringTiles, new Comparator<Point>() {
+      @Override
+      public int compare(Point p1, Point p2) {
+        int ahead1 = dx * (2 * p1.x - centerX) + dy * (2 * p1.y - centerY);
+        int ahead2 = dx * (2 * p2.x - centerX) + dy * (2 * p2.y - centerY);
+        if (ahead1 != ahead2) {
+          return ahead2 - ahead1;
+        }
+        return distance(p1) - distance(p2);
+      }
+
+      /**
+       * @return The number of tiles between a tile and the visible ones.
+       */
+      private int distance(Point p) {
+        int x = Math.max(visible.x - p.x, p.x - (visible.x + visible.width - 1));
+        int y = Math.max(visible.y - p.y, p.y - (visible.y + visible.height - 1));
+        return Math.max(x, y);
+      }
+    });
+    return ringTiles.size() > MAX_PREFETCHED ? ringTiles.subList(0, MAX_PREFETCHED) : ringTiles;
+  }
+
+  /**
+   * Loads the ring of tiles around the visible ones, in the background. The
+   * tiles of the previous ring that are still waiting are no longer loaded.
+   * Nothing is done if the ring didn't change.
+   *
+   * @param source The tiles.
+   * @param level The painted level.
+   * @param visible The visible tiles.
+   * @param ring The ring around them, from {@link #getRing(Rectangle, int, int, int, int)}.
+   * @param dx The horizontal scroll direction: -1, 0 or 1.
+   * @param dy The vertical scroll direction: -1, 0 or 1.
+   */
+  public void prefetch(final TileSource source, final int level, Rectangle visible, Rectangle ring, int dx, int dy) {
+    if (source == lastSource && level == lastLevel && ring.equals(lastRing)) {
+      return;
+    }
+    cancel();
+    lastSource = source;
+    lastLevel = level;
+    lastRing = ring;
+    final List<Point> ringTiles = getRingTiles(visible, ring, dx, dy);
+    if (ringTiles.isEmpty()) {
+      return;
+    }
+    final int current = generation.get();
+    job = WORKER.submit(new Runnable() {
+      @Override
+      public void run() {
+        for (Point tile : ringTiles) {
+          if (generation.get() != current) {
+            // Scrolled somewhere else meanwhile.
+            return;
+          }
+          try {
+            source.getTile(level, tile.x, tile.y);
+          } catch (IOException e) {
+            // Reported when the tile is painted.
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops loading the tiles, for instance because the source is closed.
+   */
+  public void cancel() {
+    generation.incrementAndGet();
+    if (job != null) {
+      job.cancel(false);
+      job = null;
+    }
+    lastSource = null;
+    lastRing = null;
+  }
+}
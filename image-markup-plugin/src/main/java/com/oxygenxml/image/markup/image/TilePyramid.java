@@ -0,0 +1,79 @@
+package com.oxygenxml.image.markup.image;
+
+/**
+ * The geometry of a tiled image with resolution levels. Level 0 has the full
+ * resolution and level <code>n</code> is <code>2^n</code> times smaller, until
+ * the whole image fits in a tile.
+ */
+public class TilePyramid {
+  /**
+   * The default side of a tile, in pixels.
+   */
+  public static final int TILE_SIZE = 256;
+
+  /**
+   * Private constructor.
+   */
+  private TilePyramid() {}
+
+  /**
+   * Computes the number of levels needed for the whole image to fit in a tile.
+   *
+   * @param width The image width.
+   * @param height The image height.
+   * @param tileSize The side of a tile.
+   *
+   * @return The number of levels, at least 1.
+   */
+  public static int getLevelCount(int width, int height, int tileSize) {
+    int levels = 1;
+    int side = Math.max(width, height);
+    while (side > tileSize) {
+      side = (side + 1) / 2;
+      levels++;
+    }
+    return levels;
+  }
+
+  /**
+   * Computes a dimension at a level.
+   *
+   * @param size The dimension, at full resolution.
+   * @param level The level.
+   *
+   * @return The dimension at the given level, at least 1.
+   */
+  public static int getLevelSize(int size, int level) {
+    return Math.max(1, (int) (((long) size + (1L << level) - 1) >> level));
+  }
+
+  /**
+   * Computes the number of tiles along a dimension at a level.
+   *
+   * @param size The dimension, at full resolution.
+   * @param tileSize The side of a tile.
+   * @param level The level.
+   *
+   * @return The number of tiles.
+   */
+  public static int getTileCount(int size, int tileSize, int level) {
+    return (getLevelSize(size, level) + tileSize - 1) / tileSize;
+  }
+
+  /**
+   * Chooses the level to paint at a scale: the smallest one that still has at
+   * least one pixel for every painted pixel.
+   *
+   * @param scale The painting scale, 1 for full resolution.
+   * @param levelCount The number of levels.
+   *
+   * @return The level.
+   */
+  public static int chooseLevel(double scale, int levelCount) {
+    int level = 0;
+    while (level + 1 < levelCount && scale * (1 << (level + 1)) <= 1) {
+      level++;
+    }
+    return level;
+  }
+}
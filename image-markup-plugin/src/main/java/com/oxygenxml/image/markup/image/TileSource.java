@@ -0,0 +1,51 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * An image split in square tiles, at several resolution levels. Level 0 has the
+ * full resolution and every following level halves it, as described by
+ * {@link TilePyramid}. The tiles on the right and bottom edges can be smaller.
+ *
+ * The sources are thread safe, tiles can be requested from several workers.
+ */
+public interface TileSource {
+  /**
+   * @return The image width, at full resolution.
+   */
+  int getWidth();
+
+  /**
+   * @return The image height, at full resolution.
+   */
+  int getHeight();
+
+  /**
+   * @return The side of a tile, in pixels.
+   */
+  int getTileSize();
+
+  /**
+   * @return The number of resolution levels.
+   */
+  int getLevelCount();
+
+  /**
+   * Gets a tile. The returned image must not be modified.
+   *
+   * @param level The resolution level.
+   * @param column The tile column.
+   * @param row The tile row.
+   *
+   * @return The tile.
+   *
+   * @throws IOException Unable to read the tile.
+   */
+  BufferedImage getTile(int level, int column, int row) throws IOException;
+
+  /**
+   * Releases the resources of the source. No tiles can be requested afterwards.
+   */
+  void close();
+}
@@ -0,0 +1,294 @@
+package com.oxygenxml.image.markup.ocr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the layout produced by an OCR engine, in ALTO, PAGE-XML or hOCR (XHTML)
+ * format. The document is streamed, only the coordinates are passed on to a
+ * {@link Handler}, so there is no limit on the number of words.
+ */
+public class OCRLayoutReader {
+  /**
+   * The granularity of a layout zone.
+   */
+  public static enum Level {
+    /**
+     * A text block or region.
+     */
+    BLOCK,
+    /**
+     * A text line.
+     */
+    LINE,
+    /**
+     * A word.
+     */
+    WORD
+  }
+
+  /**
+   * Receives the layout.
+   */
+  public interface Handler {
+    /**
+     * The page size. Reported before the zones of the page.
+     *
+     * @param width The page width, in the coordinates of the layout.
+     * @param height The page height, in the coordinates of the layout.
+     */
+    void page(double width, double height);
+
+    /**
+     * A layout zone.
+     *
+     * @param level The granularity of the zone.
+     * @param x1 Left.
+     * @param y1 Top.
+     * @param x2 Right.
+     * @param y2 Bottom.
+     */
+    void zone(Level level, double x1, double y1, double x2, double y2);
+  }
+
+  /**
+   * Reads the first page of the given layout.
+   *
+   * @param is The layout.
+   * @param systemID The location of the layout.
+   * @param handler Receives the layout.
+   *
+   * @throws IOException Unable to read or unsupported format.
+   */
+  public void read(InputStream is, String systemID, Handler handler) throws IOException {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    // hOCR files declare the XHTML DTD. Don't fetch it.
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+
+    XMLStreamReader reader = null;
+    try {
+      reader = factory.createXMLStreamReader(systemID, is);
+      while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+        // Skip the prolog.
+      }
+      if (!reader.isStartElement()) {
+        throw new IOException("Empty layout: " + systemID);
+      }
+
+      String root = reader.getLocalName();
+      if ("alto".equals(root)) {
+        readALTO(reader, handler);
+      } else if ("PcGts".equals(root)) {
+        readPAGE(reader, handler);
+      } else if ("html".equals(root)) {
+        readHOCR(reader, handler);
+      } else {
+        throw new IOException("Unsupported layout format: <" + root + ">. Expected ALTO, PAGE-XML or hOCR.");
+      }
+    } catch (XMLStreamException e) {
+      IOException ioe = new IOException(e.getMessage());
+      ioe.initCause(e);
+      throw ioe;
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads an ALTO layout. The zones are <code>TextBlock</code>, <code>TextLine</code>
+   * and <code>String</code>, with <code>HPOS, VPOS, WIDTH, HEIGHT</code>. The
+   * measurement unit doesn't matter, the page size is expressed in the same unit.
+   */
+  private static void readALTO(XMLStreamReader reader, Handler handler) throws XMLStreamException {
+    boolean inPage = false;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = reader.getLocalName();
+        if ("Page".equals(name)) {
+          inPage = true;
+          handler.page(getNumber(reader, "WIDTH"), getNumber(reader, "HEIGHT"));
+        } else if (inPage) {
+          Level level = null;
+          if ("TextBlock".equals(name)) {
+            level = Level.BLOCK;
+          } else if ("TextLine".equals(name)) {
+            level = Level.LINE;
+          } else if ("String".equals(name)) {
+            level = Level.WORD;
+          }
+          if (level != null) {
+            double x = getNumber(reader, "HPOS");
+            double y = getNumber(reader, "VPOS");
+            handler.zone(level, x, y, x + getNumber(reader, "WIDTH"), y + getNumber(reader, "HEIGHT"));
+          }
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT && "Page".equals(reader.getLocalName())) {
+        // Only the first page.
+        break;
+      }
+    }
+  }
+
+  /**
+   * Reads a PAGE-XML layout. The zones are <code>TextRegion</code>, <code>TextLine</code>
+   * and <code>Word</code>. Their outline is given by a <code>Coords</code> child,
+   * either with a <code>points</code> attribute or with <code>Point</code> children.
+   */
+  private static void readPAGE(XMLStreamReader reader, Handler handler) throws XMLStreamException {
+    // The levels of the open elements. null for the other elements.
+    List<Level> stack = new ArrayList<Level>();
+    double[] bounds = null;
+    Level coordsLevel = null;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = reader.getLocalName();
+        Level level = null;
+        if ("Page".equals(name)) {
+          handler.page(getNumber(reader, "imageWidth"), getNumber(reader, "imageHeight"));
+        } else if ("TextRegion".equals(name)) {
+          level = Level.BLOCK;
+        } else if ("TextLine".equals(name)) {
+          level = Level.LINE;
+        } else if ("Word".equals(name)) {
+          level = Level.WORD;
+        } else if ("Coords".equals(name) && !stack.isEmpty() && stack.get(stack.size() - 1) != null) {
+          coordsLevel = stack.get(stack.size() - 1);
+          bounds = new double[] {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+          String points = reader.getAttributeValue(null, "points");
+          if (points != null) {
+            for (String point : points.trim().split("\\s+")) {
+              int comma = point.indexOf(',');
+              if (comma != -1) {
+                addPoint(bounds, parse(point.substring(0, comma)), parse(point.substring(comma + 1)));
+              }
+            }
+          }
+        } else if ("Point".equals(name) && bounds != null) {
+          addPoint(bounds, getNumber(reader, "x"), getNumber(reader, "y"));
+        }
+        stack.add(level);
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        String name = reader.getLocalName();
+        stack.remove(stack.size() - 1);
+        if ("Coords".equals(name) && bounds != null) {
+          if (bounds[0] <= bounds[2]) {
+            handler.zone(coordsLevel, bounds[0], bounds[1], bounds[2], bounds[3]);
+          }
+          bounds = null;
+        } else if ("Page".equals(name)) {
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads an hOCR layout. The zones are the elements with the <code>ocr_carea</code>,
+   * <code>ocr_line</code> (and the other line classes) and <code>ocrx_word</code>
+   * classes. The coordinates are in the <code>bbox</code> property of the title.
+   */
+  private static void readHOCR(XMLStreamReader reader, Handler handler) throws XMLStreamException {
+    boolean inPage = false;
+    int depth = 0;
+    int pageDepth = -1;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+        String classes = reader.getAttributeValue(null, "class");
+        String title = reader.getAttributeValue(null, "title");
+        if (classes != null && title != null) {
+          double[] bbox = getBBox(title);
+          if (bbox != null) {
+            Level level = null;
+            for (String cls : classes.trim().split("\\s+")) {
+              if ("ocr_page".equals(cls)) {
+                inPage = true;
+                pageDepth = depth;
+                handler.page(bbox[2], bbox[3]);
+              } else if ("ocr_carea".equals(cls)) {
+                level = Level.BLOCK;
+              } else if ("ocr_line".equals(cls)
+                  || "ocr_header".equals(cls)
+                  || "ocr_caption".equals(cls)
+                  || "ocr_textfloat".equals(cls)) {
+                level = Level.LINE;
+              } else if ("ocrx_word".equals(cls)) {
+                level = Level.WORD;
+              }
+            }
+            if (inPage && level != null) {
+              handler.zone(level, bbox[0], bbox[1], bbox[2], bbox[3]);
+            }
+          }
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth == pageDepth) {
+          break;
+        }
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * Extracts the <code>bbox x0 y0 x1 y1</code> property of an hOCR title.
+   *
+   * @return The bounding box or <code>null</code>.
+   */
+  static double[] getBBox(String title) {
+    for (String property : title.split(";")) {
+      String[] tokens = property.trim().split("\\s+");
+      if (tokens.length == 5 && "bbox".equals(tokens[0])) {
+        return new double[] {parse(tokens[1]), parse(tokens[2]), parse(tokens[3]), parse(tokens[4])};
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Extends the bounds with a point.
+   */
+  private static void addPoint(double[] bounds, double x, double y) {
+    bounds[0] = Math.min(bounds[0], x);
+    bounds[1] = Math.min(bounds[1], y);
+    bounds[2] = Math.max(bounds[2], x);
+    bounds[3] = Math.max(bounds[3], y);
+  }
+
+  /**
+   * @return The numeric value of an attribute. 0 if missing or invalid.
+   */
+  private static double getNumber(XMLStreamReader reader, String attribute) {
+    String value = reader.getAttributeValue(null, attribute);
+    return value != null ? parse(value) : 0;
+  }
+
+  /**
+   * @return The numeric value. 0 if invalid.
+   */
+  private static double parse(String value) {
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
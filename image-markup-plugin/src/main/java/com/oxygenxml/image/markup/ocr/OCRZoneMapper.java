@@ -0,0 +1,81 @@
+package com.oxygenxml.image.markup.ocr;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.oxygenxml.image.markup.ocr.OCRLayoutReader.Level;
+
+/**
+ * Maps the zones of an OCR layout onto the coordinate space of a
+ * <code>surface</code>. The page of the layout is stretched over the surface
+ * extents, which takes care both of the measurement unit of the layout and of
+ * OCR done on a scaled copy of the image.
+ */
+public class OCRZoneMapper implements OCRLayoutReader.Handler {
+  /**
+   * The surface extents.
+   */
+  private final Rectangle surface;
+  /**
+   * The granularities to keep.
+   */
+  private final Set<Level> levels;
+  /**
+   * The horizontal scale from the layout to the surface.
+   */
+  private double scaleX = 1;
+  /**
+   * The vertical scale from the layout to the surface.
+   */
+  private double scaleY = 1;
+  /**
+   * The mapped zones, in the order of the layout.
+   */
+  private final List<Rectangle> zones = new ArrayList<Rectangle>();
+
+  /**
+   * Constructor.
+   *
+   * @param surface The surface extents: ulx, uly, lrx - ulx, lry - uly.
+   * @param levels The granularities to keep.
+   */
+  public OCRZoneMapper(Rectangle surface, Set<Level> levels) {
+    this.surface = surface;
+    this.levels = levels;
+  }
+
+  /**
+   * @see OCRLayoutReader.Handler#page(double, double)
+   */
+  @Override
+  public void page(double width, double height) {
+    scaleX = width > 0 ? surface.width / width : 1;
+    scaleY = height > 0 ? surface.height / height : 1;
+  }
+
+  /**
+   * @see OCRLayoutReader.Handler#zone(Level, double, double, double, double)
+   */
+  @Override
+  public void zone(Level level, double x1, double y1, double x2, double y2) {
+    if (levels.contains(level)) {
+      int left = (int) Math.floor(surface.x + x1 * scaleX);
+      int top = (int) Math.floor(surface.y + y1 * scaleY);
+      int right = (int) Math.ceil(surface.x + x2 * scaleX);
+      int bottom = (int) Math.ceil(surface.y + y2 * scaleY);
+      Rectangle zone = new Rectangle(left, top, right - left, bottom - top).intersection(surface);
+      if (zone.width > 0 && zone.height > 0) {
+        zones.add(zone);
+      }
+    }
+  }
+
+  /**
+   * @return The mapped zones, in the order of the layout.
+   */
+  public List<Rectangle> getZones() {
+    return zones;
+  }
+}
@@ -0,0 +1,567 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Position;
+
+/**
+ * Links the elements of a document to the zones they point to, through their
+ * <code>facs</code> and <code>corresp</code> attributes. The document text is
+ * scanned once and the elements are kept as positions, so typing in the
+ * transcription only moves them. Edits inside an indexed start tag update that
+ * element. Other markup edits mark the index as stale and it is scanned again
+ * on the next lookup.
+ *
+ * Both directions are answered without XPath: the zone linked to a caret offset
+ * and the elements that reference a zone.
+ */
+public class FacsIndex implements DocumentListener {
+  /**
+   * The attributes that point to zones.
+   */
+  private static final String[] LINK_ATTRIBUTES = {"facs", "corresp"};
+  /**
+   * The size of the chunks read around an edit.
+   */
+  private static final int CHUNK = 256;
+
+  /**
+   * An element that links to zones or a zone.
+   */
+  private static class Entry {
+    /**
+     * The offset of the start tag.
+     */
+    Position start;
+    /**
+     * The offset of the last character, the '&gt;' of the end tag. Text typed
+     * after the element pushes this position forward.
+     */
+    Position last;
+    /**
+     * The closest enclosing entry. <code>null</code> for the top level ones.
+     */
+    Entry parent;
+    /**
+     * The IDs this element points to.
+     */
+    String[] targets;
+    /**
+     * The <code>xml:id</code>. <code>null</code> if missing.
+     */
+    String id;
+    /**
+     * The area, for zones. <code>null</code> for the other elements.
+     */
+    Rectangle zone;
+  }
+
+  /**
+   * The indexed document.
+   */
+  private final Document document;
+  /**
+   * The entries, in document order.
+   */
+  private List<Entry> entries;
+  /**
+   * The zones, by <code>xml:id</code>.
+   */
+  private Map<String, Entry> zonesById;
+  /**
+   * The elements that point to an ID.
+   */
+  private Map<String, List<Entry>> referencesById;
+  /**
+   * <code>true</code> if the markup was changed and the document must be scanned again.
+   */
+  private boolean stale = true;
+
+  /**
+   * Constructor. The document is scanned on the first lookup.
+   *
+   * @param document The document to index. The index must be added as its listener.
+   */
+  public FacsIndex(Document document) {
+    this.document = document;
+  }
+
+  /**
+   * @return The indexed document.
+   */
+  public Document getDocument() {
+    return document;
+  }
+
+  /**
+   * Finds the zone linked to an offset: the innermost zone that contains it,
+   * or the first zone pointed to by the innermost element that contains it.
+   *
+   * @param offset The offset, usually the caret.
+   *
+   * @return The zone area or <code>null</code>.
+   */
+  public Rectangle getLinkedZone(int offset) {
+    ensureIndexed();
+    Entry entry = findInnermost(offset);
+    while (entry != null) {
+      if (entry.zone != null) {
+        return new Rectangle(entry.zone);
+      }
+      for (String target : entry.targets) {
+        Entry zone = zonesById.get(target);
+        if (zone != null && zone.zone != null) {
+          return new Rectangle(zone.zone);
+        }
+      }
+      entry = entry.parent;
+    }
+    return null;
+  }
+
+  /**
+   * Finds the elements that point to the zones with the given area.
+   *
+   * @param zone The zone area.
+   *
+   * @return The start and end offsets of the elements, in document order.
+   */
+  public List<int[]> getReferences(Rectangle zone) {
+    ensureIndexed();
+    List<int[]> ranges = new ArrayList<int[]>();
+    for (Entry candidate : zonesById.values()) {
+      if (zone.equals(candidate.zone)) {
+        List<Entry> references = referencesById.get(candidate.id);
+        if (references != null) {
+          for (Entry reference : references) {
+            ranges.add(new int[] {reference.start.getOffset(), reference.last.getOffset() + 1});
+          }
+        }
+      }
+    }
+    Collections.sort(ranges, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] o1, int[] o2) {
+        return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+      }
+    });
+    return ranges;
+  }
+
+  /**
+   * Finds the first zone element with the given area.
+   *
+   * @param zone The zone area.
+   *
+   * @return The start and end offsets of the element or <code>null</code>.
+   */
+  public int[] getZone(Rectangle zone) {
+    ensureIndexed();
+    for (Entry entry : entries) {
+      if (zone.equals(entry.zone)) {
+        return new int[] {entry.start.getOffset(), entry.last.getOffset() + 1};
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The number of indexed elements, zones included.
+   */
+  public int size() {
+    ensureIndexed();
+    return entries.size();
+  }
+
+  /**
+   * Finds the innermost entry that contains the offset.
+   */
+  private Entry findInnermost(int offset) {
+    // The last entry that starts before the offset. If it doesn't contain it,
+    // the one that does is one of its ancestors.
+    int found = findLastStart(offset);
+    Entry entry = found != -1 ? entries.get(found) : null;
+    while (entry != null && entry.last.getOffset() < offset) {
+      entry = entry.parent;
+    }
+    return entry;
+  }
+
+  /**
+   * @return The index of the last entry that starts before or at the offset.
+   * -1 if there is none.
+   */
+  private int findLastStart(int offset) {
+    int low = 0;
+    int high = entries.size() - 1;
+    int found = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (entries.get(middle).start.getOffset() <= offset) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Scans the document if the markup has changed.
+   */
+  private void ensureIndexed() {
+    if (stale) {
+      try {
+        scan(document.getText(0, document.getLength()));
+      } catch (BadLocationException e) {
+        e.printStackTrace();
+        entries = new ArrayList<Entry>();
+        zonesById = new HashMap<String, Entry>();
+        referencesById = new HashMap<String, List<Entry>>();
+      }
+      stale = false;
+    }
+  }
+
+  /**
+   * Indexes the elements of the document text.
+   *
+   * @param text The document text.
+   *
+   * @throws BadLocationException Should not happen.
+   */
+  private void scan(String text) throws BadLocationException {
+    entries = new ArrayList<Entry>();
+    zonesById = new HashMap<String, Entry>();
+    referencesById = new HashMap<String, List<Entry>>();
+    // For every open element, its entry or the closest enclosing one.
+    List<Entry> open = new ArrayList<Entry>();
+    // For every open element, whether it has its own entry.
+    List<Boolean> indexed = new ArrayList<Boolean>();
+    int length = text.length();
+    TagTokenizer tags = new TagTokenizer(text);
+    while (tags.next()) {
+      int next = tags.getEnd();
+      if (tags.isEndTag()) {
+        if (!open.isEmpty()) {
+          int last = open.size() - 1;
+          if (indexed.remove(last)) {
+            open.get(last).last = document.createPosition(next > 0 ? next - 1 : length - 1);
+          }
+          open.remove(last);
+        }
+      } else {
+        Entry parent = open.isEmpty() ? null : open.get(open.size() - 1);
+        Entry entry = parseStartTag(tags.getTag());
+        if (entry != null) {
+          entry.start = document.createPosition(tags.getStart());
+          entry.parent = parent;
+          entries.add(entry);
+          addToMaps(entry);
+        }
+        if (tags.isSelfClosing()) {
+          if (entry != null) {
+            entry.last = document.createPosition(next - 1);
+          }
+        } else {
+          open.add(entry != null ? entry : parent);
+          indexed.add(entry != null);
+        }
+      }
+    }
+    // Elements that are not closed extend to the end of the document.
+    for (int j = 0; j < open.size(); j++) {
+      if (indexed.get(j)) {
+        open.get(j).last = document.createPosition(length - 1);
+      }
+    }
+  }
+
+  /**
+   * Adds an entry to the maps.
+   */
+  private void addToMaps(Entry entry) {
+    if (entry.zone != null && entry.id != null) {
+      zonesById.put(entry.id, entry);
+    }
+    for (String target : entry.targets) {
+      List<Entry> references = referencesById.get(target);
+      if (references == null) {
+        references = new ArrayList<Entry>(1);
+        referencesById.put(target, references);
+      }
+      references.add(entry);
+    }
+  }
+
+  /**
+   * Removes an entry from the maps, but not from the ordered list.
+   */
+  private void removeFromMaps(Entry entry) {
+    if (entry.id != null && zonesById.get(entry.id) == entry) {
+      zonesById.remove(entry.id);
+    }
+    for (String target : entry.targets) {
+      List<Entry> references = referencesById.get(target);
+      if (references != null) {
+        references.remove(entry);
+        if (references.isEmpty()) {
+          referencesById.remove(target);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the links, the ID and the area of a start tag.
+   *
+   * @param tag The start tag.
+   *
+   * @return The entry or <code>null</code> if the element is neither a zone
+   * nor a link.
+   */
+  private static Entry parseStartTag(String tag) {
+    boolean zone = isZone(tag);
+    if (!zone && tag.indexOf("facs") == -1 && tag.indexOf("corresp") == -1) {
+      // Fast path for most of the elements.
+      return null;
+    }
+    List<String> targets = new ArrayList<String>(1);
+    for (String attribute : LINK_ATTRIBUTES) {
+      String value = XMLTagUtil.getAttribute(tag, attribute);
+      if (value != null) {
+        for (String pointer : value.trim().split("\\s+")) {
+          // Only the local references can be resolved.
+          if (pointer.length() > 1 && pointer.charAt(0) == '#') {
+            targets.add(pointer.substring(1));
+          }
+        }
+      }
+    }
+    Rectangle area = zone ? parseArea(tag) : null;
+    if (area == null && targets.isEmpty()) {
+      return null;
+    }
+    Entry entry = new Entry();
+    entry.targets = targets.toArray(new String[targets.size()]);
+    entry.id = XMLTagUtil.getAttribute(tag, "xml:id");
+    entry.zone = area;
+    return entry;
+  }
+
+  /**
+   * @return <code>true</code> if the start tag is a zone, with or without a prefix.
+   */
+  private static boolean isZone(String tag) {
+    int nameEnd = 1;
+    while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd))
+        && tag.charAt(nameEnd) != '/' && tag.charAt(nameEnd) != '>') {
+      nameEnd++;
+    }
+    String name = tag.substring(1, nameEnd);
+    return name.equals("zone") || name.endsWith(":zone");
+  }
+
+  /**
+   * Reads the coordinates of a zone. Decimal coordinates are rounded.
+   *
+   * @return The area or <code>null</code> if the coordinates are missing or not numbers.
+   */
+  private static Rectangle parseArea(String tag) {
+    int[] area = new int[4];
+    return TagTokenizer.parseArea(tag, area, 0)
+        ? new Rectangle(area[0], area[1], area[2] - area[0], area[3] - area[1]) : null;
+  }
+
+  /**
+   * Text without markup only moves the positions. Text typed inside a start
+   * tag updates its element.
+   *
+   * @see javax.swing.event.DocumentListener#insertUpdate(javax.swing.event.DocumentEvent)
+   */
+  @Override
+  public void insertUpdate(DocumentEvent e) {
+    if (stale) {
+      return;
+    }
+    try {
+      String inserted = document.getText(e.getOffset(), e.getLength());
+      if (inserted.indexOf('<') != -1 || inserted.indexOf('>') != -1
+          || inserted.indexOf('"') != -1 || inserted.indexOf('\'') != -1) {
+        stale = true;
+      } else {
+        updateEnclosingTag(e.getOffset());
+      }
+    } catch (BadLocationException ex) {
+      stale = true;
+    }
+  }
+
+  /**
+   * The removed text is no longer available. A removal that touched the tags
+   * of an indexed element moved one of its positions on the removal offset.
+   *
+   * @see javax.swing.event.DocumentListener#removeUpdate(javax.swing.event.DocumentEvent)
+   */
+  @Override
+  public void removeUpdate(DocumentEvent e) {
+    if (stale) {
+      return;
+    }
+    int offset = e.getOffset();
+    int found = findLastStart(offset);
+    if (found != -1) {
+      Entry entry = entries.get(found);
+      if (entry.start.getOffset() == offset) {
+        stale = true;
+        return;
+      }
+      // The removed end tags were just before the offset. Those elements
+      // enclose the last one that starts before it.
+      while (entry != null) {
+        if (entry.last.getOffset() == offset) {
+          stale = true;
+          return;
+        }
+        entry = entry.parent;
+      }
+    }
+    try {
+      updateEnclosingTag(offset);
+    } catch (BadLocationException ex) {
+      stale = true;
+    }
+  }
+
+  /**
+   * @see javax.swing.event.DocumentListener#changedUpdate(javax.swing.event.DocumentEvent)
+   */
+  @Override
+  public void changedUpdate(DocumentEvent e) {
+    // Only the attributes of the text.
+  }
+
+  /**
+   * Reads again the start tag around an edit.
+   *
+   * @param offset The offset of the edit.
+   *
+   * @throws BadLocationException The offset is outside the document.
+   */
+  private void updateEnclosingTag(int offset) throws BadLocationException {
+    int tagStart = findEnclosingTagStart(offset);
+    if (tagStart == -1) {
+      if (isBeforeTagEnd(offset)) {
+        // Part of a tag was removed.
+        stale = true;
+      }
+      return;
+    }
+    if (tagStart + 1 < document.getLength() && "/".equals(document.getText(tagStart + 1, 1))) {
+      // An end tag, the nesting may have changed.
+      stale = true;
+      return;
+    }
+    Entry entry = findInnermost(tagStart);
+    // Tags are short, the text is read in growing chunks.
+    String text;
+    int tagEnd;
+    int read = CHUNK;
+    do {
+      read = Math.min(document.getLength() - tagStart, read * 4);
+      text = document.getText(tagStart, read);
+      tagEnd = XMLTagUtil.findTagEnd(text, 0);
+    } while (tagEnd == -1 && read < document.getLength() - tagStart);
+    Entry updated = tagEnd != -1 ? parseStartTag(text.substring(0, tagEnd)) : null;
+    if (entry != null && entry.start.getOffset() == tagStart) {
+      boolean selfClosing = tagEnd != -1 && text.charAt(tagEnd - 2) == '/';
+      if (tagEnd == -1 || selfClosing != (entry.last.getOffset() == tagStart + tagEnd - 1)) {
+        // The element was closed or opened, its content changed.
+        stale = true;
+        return;
+      }
+      removeFromMaps(entry);
+      if (updated != null) {
+        entry.targets = updated.targets;
+        entry.id = updated.id;
+        entry.zone = updated.zone;
+      } else {
+        entry.targets = new String[0];
+        entry.id = null;
+        entry.zone = null;
+      }
+      // Back in the maps, the entry keeps its place in the order.
+      addToMaps(entry);
+    } else if (updated != null) {
+      // A new link or zone, its place in the nesting is not known.
+      stale = true;
+    }
+  }
+
+  /**
+   * Checks if the closest markup character after an offset ends a tag.
+   *
+   * @param offset The offset.
+   *
+   * @return <code>true</code> if a '&gt;' comes before any '&lt;'.
+   *
+   * @throws BadLocationException The offset is outside the document.
+   */
+  private boolean isBeforeTagEnd(int offset) throws BadLocationException {
+    int length = document.getLength();
+    int from = offset;
+    while (from < length) {
+      int to = Math.min(length, from + CHUNK);
+      String chunk = document.getText(from, to - from);
+      for (int i = 0; i < chunk.length(); i++) {
+        char c = chunk.charAt(i);
+        if (c == '<') {
+          return false;
+        } else if (c == '>') {
+          return true;
+        }
+      }
+      from = to;
+    }
+    return false;
+  }
+
+  /**
+   * Finds the tag that contains an offset. The closest markup character before
+   * the offset tells if it is inside a tag.
+   *
+   * @param offset The offset.
+   *
+   * @return The offset of the '&lt;' character or -1 if the offset is in text.
+   *
+   * @throws BadLocationException The offset is outside the document.
+   */
+  private int findEnclosingTagStart(int offset) throws BadLocationException {
+    int to = offset;
+    while (to > 0) {
+      int from = Math.max(0, to - CHUNK);
+      String chunk = document.getText(from, to - from);
+      for (int i = chunk.length() - 1; i >= 0; i--) {
+        char c = chunk.charAt(i);
+        if (c == '>') {
+          return -1;
+        } else if (c == '<') {
+          return from + i;
+        }
+      }
+      to = from;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,195 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams the surfaces and zones of a TEI document. Nothing is kept in memory
+ * besides the open surfaces, so documents of any size can be scanned.
+ */
+public class FacsimileScanner {
+  /**
+   * The XML namespace, for <code>xml:id</code>.
+   */
+  private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+  /**
+   * Receives the facsimile.
+   */
+  public interface Handler {
+    /**
+     * A surface starts.
+     *
+     * @param index The index of the surface in the document, from 0.
+     * @param id The <code>xml:id</code> of the surface. <code>null</code> if missing.
+     */
+    void startSurface(int index, String id);
+
+    /**
+     * The image of the current surface. Usually reported before its zones.
+     *
+     * @param url The <code>url</code> or <code>target</code> of the <code>graphic</code>.
+     */
+    void graphic(String url);
+
+    /**
+     * A zone of the current surface.
+     *
+     * @param id The <code>xml:id</code> of the zone. <code>null</code> if missing.
+     * @param ulx Left.
+     * @param uly Top.
+     * @param lrx Right.
+     * @param lry Bottom.
+     */
+    void zone(String id, double ulx, double uly, double lrx, double lry);
+
+    /**
+     * The current surface ends.
+     */
+    void endSurface();
+  }
+
+  /**
+   * Scans a document.
+   *
+   * @param reader The document.
+   * @param systemID The location of the document.
+   * @param handler Receives the facsimile.
+   *
+   * @throws IOException Unable to read or parse the document.
+   */
+  public void scan(Reader reader, String systemID, Handler handler) throws IOException {
+    try {
+      scan(createFactory().createXMLStreamReader(systemID, reader), handler);
+    } catch (XMLStreamException e) {
+      throw toIOException(systemID, e);
+    }
+  }
+
+  /**
+   * Scans a document.
+   *
+   * @param is The document.
+   * @param systemID The location of the document.
+   * @param handler Receives the facsimile.
+   *
+   * @throws IOException Unable to read or parse the document.
+   */
+  public void scan(InputStream is, String systemID, Handler handler) throws IOException {
+    try {
+      scan(createFactory().createXMLStreamReader(systemID, is), handler);
+    } catch (XMLStreamException e) {
+      throw toIOException(systemID, e);
+    }
+  }
+
+  /**
+   * @return A parser factory that doesn't resolve DTDs or external entities.
+   */
+  private static XMLInputFactory createFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    return factory;
+  }
+
+  /**
+   * Reports the surfaces and zones to the handler.
+   */
+  private static void scan(XMLStreamReader reader, Handler handler) throws XMLStreamException {
+    // For every open element, whether it is a surface.
+    List<Boolean> stack = new ArrayList<Boolean>();
+    int openSurfaces = 0;
+    int surfaceCount = 0;
+    try {
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          String name = reader.getLocalName();
+          boolean surface = "surface".equals(name);
+          if (surface) {
+            openSurfaces++;
+            handler.startSurface(surfaceCount++, reader.getAttributeValue(XML_NS, "id"));
+          } else if (openSurfaces > 0 && "graphic".equals(name)) {
+            String url = reader.getAttributeValue(null, "url");
+            if (url == null) {
+              url = reader.getAttributeValue(null, "target");
+            }
+            if (url != null) {
+              handler.graphic(url);
+            }
+          } else if (openSurfaces > 0 && "zone".equals(name)) {
+            double[] bounds = getBounds(reader);
+            if (bounds != null) {
+              handler.zone(reader.getAttributeValue(XML_NS, "id"), bounds[0], bounds[1], bounds[2], bounds[3]);
+            }
+          }
+          stack.add(surface);
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (stack.remove(stack.size() - 1)) {
+            openSurfaces--;
+            handler.endSurface();
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads the bounds of a zone, from its corners or from its <code>points</code>.
+   *
+   * @return ulx, uly, lrx, lry or <code>null</code> if the zone has no coordinates.
+   */
+  static double[] getBounds(XMLStreamReader reader) {
+    String ulx = reader.getAttributeValue(null, "ulx");
+    String uly = reader.getAttributeValue(null, "uly");
+    String lrx = reader.getAttributeValue(null, "lrx");
+    String lry = reader.getAttributeValue(null, "lry");
+    try {
+      if (ulx != null && uly != null && lrx != null && lry != null) {
+        return new double[] {
+            Double.parseDouble(ulx.trim()), Double.parseDouble(uly.trim()),
+            Double.parseDouble(lrx.trim()), Double.parseDouble(lry.trim())};
+      }
+      String points = reader.getAttributeValue(null, "points");
+      if (points != null && points.trim().length() > 0) {
+        double[] bounds = new double[] {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (String point : points.trim().split("\\s+")) {
+          int comma = point.indexOf(',');
+          if (comma != -1) {
+            double x = Double.parseDouble(point.substring(0, comma));
+            double y = Double.parseDouble(point.substring(comma + 1));
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.max(bounds[2], x);
+            bounds[3] = Math.max(bounds[3], y);
+          }
+        }
+        return bounds[0] <= bounds[2] ? bounds : null;
+      }
+    } catch (NumberFormatException e) {
+      // Invalid coordinates.
+    }
+    return null;
+  }
+
+  /**
+   * Wraps a parse error.
+   */
+  private static IOException toIOException(String systemID, XMLStreamException e) {
+    IOException ioe = new IOException(systemID + ": " + e.getMessage());
+    ioe.initCause(e);
+    return ioe;
+  }
+}
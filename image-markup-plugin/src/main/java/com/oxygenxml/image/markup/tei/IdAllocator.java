@@ -0,0 +1,237 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextEditorPage;
+import ro.sync.exml.workspace.api.editor.page.text.xml.XPathException;
+
+/**
+ * Hands out <code>xml:id</code> values that are unique in a document. The
+ * existing IDs are read once, every ID handed out is reserved, so any number
+ * of IDs can be allocated without looking at the document again.
+ *
+ * Besides the editor variables, the pattern accepts:
+ * <ul>
+ * <li><code>${seq}</code> - a number, counted for every expanded prefix, skipping the taken values.</li>
+ * <li><code>${page}</code> - the surface the zone belongs to.</li>
+ * </ul>
+ * When the pattern has no <code>${seq}</code>, a colliding ID gets a numeric suffix.
+ */
+public class IdAllocator {
+  /**
+   * The sequence token.
+   */
+  public static final String SEQ = "${seq}";
+  /**
+   * The page token.
+   */
+  public static final String PAGE = "${page}";
+  /**
+   * Returns all the IDs in the document.
+   */
+  private static final String IDS_XPATH = "for $id in //@xml:id return string($id)";
+  /**
+   * How many times a random pattern is expanded again before adding a suffix.
+   */
+  private static final int MAX_RETRIES = 3;
+
+  /**
+   * Expands the editor variables of a pattern.
+   */
+  public interface VariableExpander {
+    /**
+     * Expands the variables.
+     *
+     * @param pattern The pattern, without the tokens of the allocator.
+     *
+     * @return The expanded pattern.
+     */
+    String expand(String pattern);
+  }
+
+  /**
+   * The taken IDs.
+   */
+  private final Set<String> taken;
+  /**
+   * The ID pattern.
+   */
+  private final String pattern;
+  /**
+   * Expands the editor variables.
+   */
+  private final VariableExpander expander;
+  /**
+   * The expanded text around <code>${seq}</code>, for every page. Editor
+   * variables are expanded only once for every page.
+   */
+  private final Map<String, String[]> sequenceParts = new HashMap<String, String[]>();
+  /**
+   * The next sequence number to try, for every expanded prefix.
+   */
+  private final Map<String, Integer> nextSequence = new HashMap<String, Integer>();
+
+  /**
+   * Constructor.
+   *
+   * @param existing The IDs already in the document.
+   * @param pattern The ID pattern.
+   * @param expander Expands the editor variables.
+   */
+  public IdAllocator(Collection<String> existing, String pattern, VariableExpander expander) {
+    this.taken = new HashSet<String>(existing);
+    this.pattern = pattern;
+    this.expander = expander;
+  }
+
+  /**
+   * Creates an allocator that avoids the IDs of the given document.
+   *
+   * @param page The document.
+   * @param pattern The ID pattern.
+   * @param expander Expands the editor variables.
+   *
+   * @return The allocator.
+   *
+   * @throws XPathException Unable to read the IDs.
+   */
+  public static IdAllocator create(WSXMLTextEditorPage page, String pattern, VariableExpander expander) throws XPathException {
+    List<String> existing = new ArrayList<String>();
+    Object[] ids = page.evaluateXPath(IDS_XPATH);
+    if (ids != null) {
+      for (Object id : ids) {
+        existing.add(id.toString());
+      }
+    }
+    return new IdAllocator(existing, pattern, expander);
+  }
+
+  /**
+   * Allocates an ID.
+   *
+   * @param page The value of <code>${page}</code>. May be <code>null</code>.
+   *
+   * @return A new, unique ID.
+   */
+  public String next(String page) {
+    String id;
+    String[] parts = getSequenceParts(page);
+    if (parts != null) {
+      String key = parts[0] + SEQ + parts[1];
+      Integer next = nextSequence.get(key);
+      int seq = next != null ? next : 1;
+      do {
+        id = parts[0] + seq + parts[1];
+        seq++;
+      } while (taken.contains(id));
+      nextSequence.put(key, seq);
+    } else {
+      String withPage = replacePage(pattern, page);
+      id = expander.expand(withPage);
+      // Random variables usually succeed on the next try.
+      for (int i = 0; i < MAX_RETRIES && taken.contains(id); i++) {
+        id = expander.expand(withPage);
+      }
+      if (taken.contains(id)) {
+        String base = id;
+        int suffix = 2;
+        do {
+          id = base + "_" + suffix++;
+        } while (taken.contains(id));
+      }
+    }
+    taken.add(id);
+    return id;
+  }
+
+  /**
+   * Allocates several IDs.
+   *
+   * @param page The value of <code>${page}</code>. May be <code>null</code>.
+   * @param count The number of IDs.
+   *
+   * @return The new, unique IDs.
+   */
+  public List<String> next(String page, int count) {
+    List<String> ids = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      ids.add(next(page));
+    }
+    return ids;
+  }
+
+  /**
+   * Reserves an ID that was added to the document by other means.
+   *
+   * @param id The ID.
+   */
+  public void reserve(String id) {
+    taken.add(id);
+  }
+
+  /**
+   * @param id An ID.
+   *
+   * @return <code>true</code> if the ID is already used.
+   */
+  public boolean isTaken(String id) {
+    return taken.contains(id);
+  }
+
+  /**
+   * Turns a name into one that can start an <code>xml:id</code>, an NCName. 
+   * The characters not allowed in an NCName become <code>_</code>, and a 
+   * name that starts with a digit, a <code>.</code> or a <code>-</code> gets 
+   * a <code>_</code> in front.
+   *
+   * @param name The name, like the name of an image.
+   *
+   * @return The NCName.
+   */
+  public static String toNCName(String name) {
+    StringBuilder b = new StringBuilder(name.length() + 1);
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      b.append(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' ? c : '_');
+    }
+    if (b.length() == 0 || !(Character.isLetter(b.charAt(0)) || b.charAt(0) == '_')) {
+      b.insert(0, '_');
+    }
+    return b.toString();
+  }
+
+  /**
+   * Expands the pattern around <code>${seq}</code>, once for every page.
+   *
+   * @return The text before and after the sequence number. <code>null</code> if
+   * the pattern has no sequence.
+   */
+  private String[] getSequenceParts(String page) {
+    int seqIndex = pattern.indexOf(SEQ);
+    if (seqIndex == -1) {
+      return null;
+    }
+    String key = String.valueOf(page);
+    String[] parts = sequenceParts.get(key);
+    if (parts == null) {
+      parts = new String[] {
+          expander.expand(replacePage(pattern.substring(0, seqIndex), page)),
+          expander.expand(replacePage(pattern.substring(seqIndex + SEQ.length()), page))};
+      sequenceParts.put(key, parts);
+    }
+    return parts;
+  }
+
+  /**
+   * Replaces <code>${page}</code> in the pattern.
+   */
+  private static String replacePage(String pattern, String page) {
+    return pattern.replace(PAGE, page != null ? page : "");
+  }
+}
@@ -0,0 +1,260 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.text.BadLocationException;
+
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextEditorPage;
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextNodeRange;
+import ro.sync.exml.workspace.api.editor.page.text.xml.XPathException;
+
+import com.oxygenxml.image.markup.iiif.IIIFImageInfo;
+import com.oxygenxml.image.markup.image.ImageDimensionProbe;
+
+/**
+ * Sets the extents of every <code>surface</code> and the dimensions of its
+ * <code>graphic</code> from the real image sizes. The work is split in three steps:
+ * <ol>
+ * <li>{@link #collectGraphics()} reads the image of every surface, on the AWT thread.</li>
+ * <li>{@link #probe(String[])} reads the image headers in parallel, on any thread.</li>
+ * <li>{@link #computeEdits(String[], Map)} builds the attribute changes, on the AWT thread.
+ * They can then be applied with {@link TextEdit#applyAll(javax.swing.text.Document, List)}.</li>
+ * </ol>
+ */
+public class SurfaceExtentsUpdater {
+  /**
+   * Identifies all the surfaces in the document.
+   */
+  private static final String SURFACES_XPATH = "//surface";
+  /**
+   * Returns the image reference of each surface, in document order.
+   */
+  private static final String GRAPHICS_XPATH =
+      "for $surface in //surface return string(($surface/graphic/@url, $surface/graphic/@target)[1])";
+  /**
+   * Returns the image reference of the first graphic of each surface, in 
+   * document order. This is the graphic whose dimensions are set.
+   */
+  private static final String FIRST_GRAPHICS_XPATH =
+      "for $surface in //surface return string((for $graphic in ($surface/graphic)[1] "
+      + "return ($graphic/@url, $graphic/@target))[1])";
+  /**
+   * Maximum number of headers read at the same time.
+   */
+  private static final int MAX_THREADS = 16;
+
+  /**
+   * The page to update.
+   */
+  private final WSXMLTextEditorPage page;
+  /**
+   * The location of the edited document. Image references are relative to it.
+   */
+  private final URL baseURL;
+  /**
+   * Image references that couldn't be read, mapped to the reason.
+   */
+  private final Map<String, String> failures = new LinkedHashMap<String, String>();
+  /**
+   * The image reference of the first graphic of each surface, unescaped. 
+   * <code>null</code> until the graphics are collected.
+   */
+  private String[] firstGraphics;
+
+  /**
+   * Constructor.
+   *
+   * @param page The page to update.
+   * @param baseURL The location of the edited document.
+   */
+  public SurfaceExtentsUpdater(WSXMLTextEditorPage page, URL baseURL) {
+    this.page = page;
+    this.baseURL = baseURL;
+  }
+
+  /**
+   * Reads the image referred by each surface.
+   *
+   * @return The image references, in document order. An empty string for
+   * surfaces without a graphic.
+   *
+   * @throws XPathException Unable to evaluate the XPath.
+   */
+  public String[] collectGraphics() throws XPathException {
+    Object[] result = page.evaluateXPath(GRAPHICS_XPATH);
+    String[] urls = new String[result != null ? result.length : 0];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = result[i] != null ? result[i].toString().trim() : "";
+    }
+    Object[] first = page.evaluateXPath(FIRST_GRAPHICS_XPATH);
+    firstGraphics = new String[first != null ? first.length : 0];
+    for (int i = 0; i < firstGraphics.length; i++) {
+      firstGraphics[i] = first[i] != null ? first[i].toString().trim() : "";
+    }
+    return urls;
+  }
+
+  /**
+   * Reads the dimensions of the given images in parallel. Every distinct image
+   * is read once.
+   *
+   * @param urls Image references, relative to the document.
+   *
+   * @return The dimensions of the images that could be read.
+   */
+  public Map<String, Dimension> probe(String[] urls) {
+    Map<String, Future<Dimension>> tasks = new LinkedHashMap<String, Future<Dimension>>();
+    int threads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() * 2);
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Image probe");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    Map<String, Dimension> dimensions = new LinkedHashMap<String, Dimension>();
+    try {
+      for (final String url : urls) {
+        if (url.length() > 0 && !tasks.containsKey(url)) {
+          tasks.put(url, executor.submit(new Callable<Dimension>() {
+            @Override
+            public Dimension call() throws IOException {
+              return ImageDimensionProbe.getInstance().probe(new URL(baseURL, url));
+            }
+          }));
+        }
+      }
+
+      for (Map.Entry<String, Future<Dimension>> entry : tasks.entrySet()) {
+        try {
+          dimensions.put(entry.getKey(), entry.getValue().get());
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          String reason = cause instanceof MalformedURLException ? "Invalid URL" : cause.getMessage();
+          synchronized (failures) {
+            failures.put(entry.getKey(), reason);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return dimensions;
+  }
+
+  /**
+   * Computes the changes that bring the surfaces in sync with the image sizes.
+   * The surface extents become <code>0, 0, width, height</code> because zones
+   * are expressed in image pixels. For a IIIF request of a region, the viewer 
+   * presents the full image, so the extents are the region, from its origin. 
+   * The graphic gets <code>@width</code> and <code>@height</code> in pixels.
+   *
+   * @param urls The image references, as returned by {@link #collectGraphics()}.
+   * @param dimensions The image dimensions, as returned by {@link #probe(String[])}.
+   *
+   * @return The edits. Only tags that actually change are edited.
+   *
+   * @throws XPathException Unable to identify the surfaces.
+   * @throws BadLocationException Unable to read the document.
+   * @throws IllegalStateException The document changed since the images were collected.
+   */
+  public List<TextEdit> computeEdits(String[] urls, Map<String, Dimension> dimensions)
+      throws XPathException, BadLocationException {
+    WSXMLTextNodeRange[] surfaces = page.findElementsByXPath(SURFACES_XPATH);
+    if (surfaces == null) {
+      surfaces = new WSXMLTextNodeRange[0];
+    }
+    if (surfaces.length != urls.length) {
+      throw new IllegalStateException("The document has changed.");
+    }
+
+    String text = TextPageUtil.getText(page);
+    List<TextEdit> edits = new ArrayList<TextEdit>();
+    for (int i = 0; i < surfaces.length; i++) {
+      Dimension dimension = dimensions.get(urls[i]);
+      if (dimension != null) {
+        int start = TextPageUtil.getStartOffset(page, surfaces[i]);
+        int end = TextPageUtil.getEndOffset(page, surfaces[i]);
+        int tagEnd = XMLTagUtil.findTagEnd(text, start);
+        if (tagEnd == -1) {
+          continue;
+        }
+
+        Rectangle extents = getRegion(urls[i]);
+        if (extents == null) {
+          extents = new Rectangle(0, 0, dimension.width, dimension.height);
+        }
+        String surfaceTag = text.substring(start, tagEnd);
+        String newSurfaceTag = surfaceTag;
+        newSurfaceTag = XMLTagUtil.setAttribute(newSurfaceTag, "ulx", String.valueOf(extents.x));
+        newSurfaceTag = XMLTagUtil.setAttribute(newSurfaceTag, "uly", String.valueOf(extents.y));
+        newSurfaceTag = XMLTagUtil.setAttribute(newSurfaceTag, "lrx", String.valueOf(extents.x + extents.width));
+        newSurfaceTag = XMLTagUtil.setAttribute(newSurfaceTag, "lry", String.valueOf(extents.y + extents.height));
+        if (!newSurfaceTag.equals(surfaceTag)) {
+          edits.add(new TextEdit(start, surfaceTag.length(), newSurfaceTag));
+        }
+
+        // Only the graphic that was probed. Its reference is compared unescaped, 
+        // an '&' is serialized as "&amp;".
+        if (!surfaceTag.endsWith("/>")
+            && firstGraphics != null && i < firstGraphics.length && firstGraphics[i].equals(urls[i])) {
+          int graphicStart = XMLTagUtil.findStartTag(text, "graphic", tagEnd, end);
+          int graphicEnd = graphicStart != -1 ? XMLTagUtil.findTagEnd(text, graphicStart) : -1;
+          if (graphicEnd != -1) {
+            String graphicTag = text.substring(graphicStart, graphicEnd);
+            String newGraphicTag = XMLTagUtil.setAttribute(graphicTag, "width", dimension.width + "px");
+            newGraphicTag = XMLTagUtil.setAttribute(newGraphicTag, "height", dimension.height + "px");
+            if (!newGraphicTag.equals(graphicTag)) {
+              edits.add(new TextEdit(graphicStart, graphicTag.length(), newGraphicTag));
+            }
+          }
+        }
+      }
+    }
+
+    return edits;
+  }
+
+  /**
+   * @param reference An image reference, relative to the document.
+   *
+   * @return The region of the full image, if the reference is a IIIF request 
+   * of a region in pixels. <code>null</code> otherwise.
+   */
+  private Rectangle getRegion(String reference) {
+    try {
+      return IIIFImageInfo.getRegion(new URL(baseURL, reference));
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return Image references that couldn't be read, mapped to the reason.
+   */
+  public Map<String, String> getFailures() {
+    synchronized (failures) {
+      return new LinkedHashMap<String, String>(failures);
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.oxygenxml.image.markup.zones.ZoneIndex;
+
+/**
+ * Indexes the zones of the surface an image was loaded from, with one pass
+ * over the document text. The surface is the first one with a
+ * <code>graphic</code> child whose <code>url</code> or <code>target</code>
+ * ends with the image name. The zones are all its descendants, like the
+ * <code>//zone</code> of the surface. Zones without numeric coordinates are
+ * left out.
+ */
+public class SurfaceZoneScanner {
+  /**
+   * A surface with an image, as listed by
+   * {@link SurfaceZoneScanner#scanSurfaces(String)}.
+   */
+  public static class Surface {
+    /**
+     * The <code>url</code> of the graphic, or its <code>target</code>.
+     */
+    private final String graphic;
+    /**
+     * The <code>lrx</code> of the surface. <code>null</code> if missing.
+     */
+    private final String lrx;
+    /**
+     * The <code>lry</code> of the surface. <code>null</code> if missing.
+     */
+    private final String lry;
+    /**
+     * The zones inside the surface, in document order.
+     */
+    private final List<Rectangle> zones;
+
+    /**
+     * Constructor.
+     *
+     * @param graphic The image of the surface.
+     * @param lrx The <code>lrx</code> of the surface.
+     * @param lry The <code>lry</code> of the surface.
+     * @param zones The zones inside the surface.
+     */
+    Surface(String graphic, String lrx, String lry, List<Rectangle> zones) {
+      this.graphic = graphic;
+      this.lrx = lrx;
+      this.lry = lry;
+      this.zones = Collections.unmodifiableList(zones);
+    }
+
+    /**
+     * @return The <code>url</code> of the graphic, or its <code>target</code>.
+     */
+    public String getGraphic() {
+      return graphic;
+    }
+
+    /**
+     * @return The <code>lrx</code> of the surface. <code>null</code> if missing.
+     */
+    public String getLrx() {
+      return lrx;
+    }
+
+    /**
+     * @return The <code>lry</code> of the surface. <code>null</code> if missing.
+     */
+    public String getLry() {
+      return lry;
+    }
+
+    /**
+     * @return The zones inside the surface, nested ones included, in document order.
+     */
+    public List<Rectangle> getZones() {
+      return zones;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Surface)) {
+        return false;
+      }
+      Surface other = (Surface) obj;
+      return graphic.equals(other.graphic) && equal(lrx, other.lrx) && equal(lry, other.lry)
+          && zones.equals(other.zones);
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+      return 31 * graphic.hashCode() + zones.hashCode();
+    }
+
+    /**
+     * @return <code>true</code> if both values are <code>null</code> or equal.
+     */
+    private static boolean equal(String first, String second) {
+      return first == null ? second == null : first.equals(second);
+    }
+  }
+
+  /**
+   * Private constructor.
+   */
+  private SurfaceZoneScanner() {}
+
+  /**
+   * Indexes the zones of a surface.
+   *
+   * @param text The document text.
+   * @param imageName The name of the image of the surface. <code>null</code>
+   * for all the zones of the document.
+   *
+   * @return The zones.
+   */
+  public static ZoneIndex scan(String text, String imageName) {
+    // The zones of the document, in document order: left, top, right, bottom, offset.
+    int[] zones = new int[80];
+    int count = 0;
+    // For every open element, the index of its surface in the lists below, or -1.
+    List<Integer> open = new ArrayList<Integer>();
+    // The first zone of every open surface and whether it shows the image.
+    List<Integer> firstZones = new ArrayList<Integer>();
+    List<Boolean> matches = new ArrayList<Boolean>();
+    int from = imageName == null ? 0 : -1;
+    int to = -1;
+
+    TagTokenizer tags = new TagTokenizer(text);
+    while (to == -1 && tags.next()) {
+      if (tags.isEndTag()) {
+        if (!open.isEmpty()) {
+          int surface = open.remove(open.size() - 1);
+          if (surface != -1) {
+            // An enclosing surface that shows the image comes first.
+            if (matches.get(surface) && !matches.subList(0, surface).contains(Boolean.TRUE)) {
+              from = firstZones.get(surface);
+              to = count;
+            }
+            firstZones.remove(surface);
+            matches.remove(surface);
+          }
+        }
+      } else {
+        String name = tags.getLocalName();
+        boolean selfClosing = tags.isSelfClosing();
+        int surface = -1;
+        if (name.equals("zone")) {
+          if (count * 5 == zones.length) {
+            zones = Arrays.copyOf(zones, zones.length * 2);
+          }
+          if (TagTokenizer.parseArea(tags.getTag(), zones, count * 5)) {
+            zones[count * 5 + 4] = tags.getStart();
+            count++;
+          }
+        } else if (name.equals("surface")) {
+          if (!selfClosing) {
+            surface = firstZones.size();
+            firstZones.add(count);
+            matches.add(Boolean.FALSE);
+          }
+        } else if (name.equals("graphic") && imageName != null && !open.isEmpty()
+            && open.get(open.size() - 1) != -1) {
+          String tag = tags.getTag();
+          String url = XMLTagUtil.getAttribute(tag, "url");
+          String target = XMLTagUtil.getAttribute(tag, "target");
+          if ((url != null && url.endsWith(imageName)) || (target != null && target.endsWith(imageName))) {
+            matches.set(open.get(open.size() - 1), Boolean.TRUE);
+          }
+        }
+        if (!selfClosing) {
+          open.add(surface);
+        }
+      }
+    }
+    if (from == -1) {
+      // A surface that is not closed extends to the end of the document.
+      for (int j = 0; j < firstZones.size() && from == -1; j++) {
+        if (matches.get(j)) {
+          from = firstZones.get(j);
+        }
+      }
+    }
+    if (to == -1) {
+      to = count;
+    }
+
+    ZoneIndex.Builder builder = new ZoneIndex.Builder();
+    if (from != -1) {
+      for (int j = from; j < to; j++) {
+        int k = j * 5;
+        builder.add(zones[k], zones[k + 1], zones[k + 2], zones[k + 3], zones[k + 4]);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Lists the surfaces of a document that have a <code>graphic</code> child
+   * with a location, with all their zones, in one pass over the text. Like
+   * <code>//surface[graphic]</code>, nested surfaces are listed too and their
+   * zones also belong to the enclosing surfaces.
+   *
+   * @param text The document text.
+   *
+   * @return The surfaces, in document order.
+   */
+  public static List<Surface> scanSurfaces(String text) {
+    // The surfaces in document order: the url and target of the graphics, lrx, lry.
+    List<String[]> found = new ArrayList<String[]>();
+    List<List<Rectangle>> foundZones = new ArrayList<List<Rectangle>>();
+    // For every open element, the index of its surface in the lists above, or -1.
+    List<Integer> open = new ArrayList<Integer>();
+    int[] area = new int[4];
+
+    TagTokenizer tags = new TagTokenizer(text);
+    while (tags.next()) {
+      if (tags.isEndTag()) {
+        if (!open.isEmpty()) {
+          open.remove(open.size() - 1);
+        }
+      } else {
+        String name = tags.getLocalName();
+        boolean selfClosing = tags.isSelfClosing();
+        int surface = -1;
+        if (name.equals("zone")) {
+          if (TagTokenizer.parseArea(tags.getTag(), area, 0)) {
+            Rectangle zone = new Rectangle(area[0], area[1], area[2] - area[0], area[3] - area[1]);
+            for (Integer enclosing : open) {
+              if (enclosing != -1) {
+                foundZones.get(enclosing).add(zone);
+              }
+            }
+          }
+        } else if (name.equals("surface")) {
+          if (!selfClosing) {
+            String tag = tags.getTag();
+            surface = found.size();
+            found.add(new String[] {null, null, 
+                XMLTagUtil.getAttribute(tag, "lrx"), XMLTagUtil.getAttribute(tag, "lry")});
+            foundZones.add(new ArrayList<Rectangle>());
+          }
+        } else if (name.equals("graphic") && !open.isEmpty() && open.get(open.size() - 1) != -1) {
+          String tag = tags.getTag();
+          String[] graphic = found.get(open.get(open.size() - 1));
+          // The first url of the graphics wins over their first target.
+          if (graphic[0] == null) {
+            graphic[0] = XMLTagUtil.getAttribute(tag, "url");
+          }
+          if (graphic[1] == null) {
+            graphic[1] = XMLTagUtil.getAttribute(tag, "target");
+          }
+        }
+        if (!selfClosing) {
+          open.add(surface);
+        }
+      }
+    }
+
+    List<Surface> surfaces = new ArrayList<Surface>();
+    for (int j = 0; j < found.size(); j++) {
+      String[] surface = found.get(j);
+      if (surface[0] != null || surface[1] != null) {
+        surfaces.add(new Surface(surface[0] != null ? surface[0] : surface[1], surface[2], surface[3],
+            foundZones.get(j)));
+      }
+    }
+    return surfaces;
+  }
+}
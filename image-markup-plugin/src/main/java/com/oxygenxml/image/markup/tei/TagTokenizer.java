@@ -0,0 +1,173 @@
+package com.oxygenxml.image.markup.tei;
+
+/**
+ * Walks the start and end tags of a document text, in one pass. Comments,
+ * CDATA sections, processing instructions and the document type declaration
+ * are skipped. The walk stops at a tag that is not closed.
+ */
+class TagTokenizer {
+  /**
+   * The coordinate attributes of a zone, in the order they are read.
+   */
+  private static final String[] AREA_ATTRIBUTES = {"ulx", "uly", "lrx", "lry"};
+
+  /**
+   * The document text.
+   */
+  private final String text;
+  /**
+   * The offset of the '&lt;' of the current tag.
+   */
+  private int start = -1;
+  /**
+   * The offset after the '&gt;' of the current tag. 0 for an end tag that
+   * is not closed.
+   */
+  private int end;
+  /**
+   * <code>true</code> if the current tag is an end tag.
+   */
+  private boolean endTag;
+
+  /**
+   * Constructor.
+   *
+   * @param text The document text.
+   */
+  TagTokenizer(String text) {
+    this.text = text;
+  }
+
+  /**
+   * Moves to the next start or end tag.
+   *
+   * @return <code>true</code> if there is one.
+   */
+  boolean next() {
+    int length = text.length();
+    int i = start == -1 ? text.indexOf('<') : (end > 0 ? text.indexOf('<', end) : -1);
+    while (i != -1 && i < length - 1) {
+      int next;
+      char c = text.charAt(i + 1);
+      if (text.startsWith("<!--", i)) {
+        next = skipTo("-->", i);
+      } else if (text.startsWith("<![CDATA[", i)) {
+        next = skipTo("]]>", i);
+      } else if (c == '?') {
+        next = skipTo("?>", i);
+      } else if (c == '!') {
+        int subset = text.indexOf('[', i);
+        int close = text.indexOf('>', i);
+        next = subset != -1 && subset < close ? skipTo("]>", subset) : close + 1;
+      } else if (c == '/') {
+        start = i;
+        end = text.indexOf('>', i) + 1;
+        endTag = true;
+        return true;
+      } else {
+        next = XMLTagUtil.findTagEnd(text, i);
+        if (next == -1) {
+          break;
+        }
+        start = i;
+        end = next;
+        endTag = false;
+        return true;
+      }
+      if (next <= 0) {
+        break;
+      }
+      i = text.indexOf('<', next);
+    }
+    start = length;
+    end = 0;
+    return false;
+  }
+
+  /**
+   * @return <code>true</code> if the current tag is an end tag.
+   */
+  boolean isEndTag() {
+    return endTag;
+  }
+
+  /**
+   * @return <code>true</code> if the current tag is an empty element tag.
+   */
+  boolean isSelfClosing() {
+    return !endTag && text.charAt(end - 2) == '/';
+  }
+
+  /**
+   * @return The offset of the '&lt;' of the current tag.
+   */
+  int getStart() {
+    return start;
+  }
+
+  /**
+   * @return The offset after the '&gt;' of the current tag. 0 for an end tag
+   * that is not closed.
+   */
+  int getEnd() {
+    return end;
+  }
+
+  /**
+   * @return The current start tag.
+   */
+  String getTag() {
+    return text.substring(start, end);
+  }
+
+  /**
+   * @return The name of the element of the current start tag, without the prefix.
+   */
+  String getLocalName() {
+    int nameStart = start + 1;
+    int nameEnd = nameStart;
+    while (nameEnd < text.length()) {
+      char c = text.charAt(nameEnd);
+      if (Character.isWhitespace(c) || c == '/' || c == '>') {
+        break;
+      }
+      if (c == ':') {
+        nameStart = nameEnd + 1;
+      }
+      nameEnd++;
+    }
+    return text.substring(nameStart, nameEnd);
+  }
+
+  /**
+   * @return The offset after the given terminator or the text length if it is missing.
+   */
+  private int skipTo(String terminator, int from) {
+    int index = text.indexOf(terminator, from);
+    return index != -1 ? index + terminator.length() : text.length();
+  }
+
+  /**
+   * Reads the coordinates of a zone. Decimal coordinates are rounded.
+   *
+   * @param tag The start tag of the zone.
+   * @param area Receives left, top, right and bottom.
+   * @param at Where to put the coordinates.
+   *
+   * @return <code>true</code> if the zone has all its coordinates.
+   */
+  static boolean parseArea(String tag, int[] area, int at) {
+    try {
+      for (int j = 0; j < AREA_ATTRIBUTES.length; j++) {
+        String value = XMLTagUtil.getAttribute(tag, AREA_ATTRIBUTES[j]);
+        if (value == null) {
+          return false;
+        }
+        area[at + j] = (int) Math.round(Double.parseDouble(value.trim()));
+      }
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+}
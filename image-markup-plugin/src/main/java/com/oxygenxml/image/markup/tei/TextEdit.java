@@ -0,0 +1,91 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * A replacement of a document interval. Edits are computed against a snapshot of
+ * the document text and then applied together.
+ */
+public class TextEdit {
+  /**
+   * Start offset of the replaced interval.
+   */
+  private final int offset;
+  /**
+   * Length of the replaced interval.
+   */
+  private final int length;
+  /**
+   * The replacement text.
+   */
+  private final String text;
+
+  /**
+   * Constructor.
+   *
+   * @param offset Start offset of the replaced interval.
+   * @param length Length of the replaced interval. 0 for an insertion.
+   * @param text The replacement text.
+   */
+  public TextEdit(int offset, int length, String text) {
+    this.offset = offset;
+    this.length = length;
+    this.text = text;
+  }
+
+  /**
+   * @return Start offset of the replaced interval.
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return Length of the replaced interval.
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return The replacement text.
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Applies the given edits. They are applied from the end of the document
+   * towards the start, so that the offsets computed on the original text remain
+   * valid. The edits must not overlap.
+   *
+   * @param document The document to change.
+   * @param edits The edits to apply.
+   *
+   * @throws BadLocationException An edit is outside the document.
+   */
+  public static void applyAll(Document document, List<TextEdit> edits) throws BadLocationException {
+    List<TextEdit> sorted = new ArrayList<TextEdit>(edits);
+    Collections.sort(sorted, new Comparator<TextEdit>() {
+      @Override
+      public int compare(TextEdit o1, TextEdit o2) {
+        return o2.offset < o1.offset ? -1 : (o2.offset == o1.offset ? 0 : 1);
+      }
+    });
+
+    for (TextEdit edit : sorted) {
+      if (edit.length > 0) {
+        document.remove(edit.offset, edit.length);
+      }
+      if (edit.text.length() > 0) {
+        document.insertString(edit.offset, edit.text, null);
+      }
+    }
+  }
+}
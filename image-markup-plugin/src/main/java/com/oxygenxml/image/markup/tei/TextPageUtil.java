@@ -0,0 +1,60 @@
+package com.oxygenxml.image.markup.tei;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextEditorPage;
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextNodeRange;
+
+/**
+ * Offset related utilities for the text page.
+ */
+public class TextPageUtil {
+
+  /**
+   * Private constructor.
+   */
+  private TextPageUtil() {}
+
+  /**
+   * Computes the start offset of a node range.
+   *
+   * @param page The text page.
+   * @param range The node range.
+   *
+   * @return The offset of the first character of the node.
+   *
+   * @throws BadLocationException The range is outside the document.
+   */
+  public static int getStartOffset(WSXMLTextEditorPage page, WSXMLTextNodeRange range) throws BadLocationException {
+    return page.getOffsetOfLineStart(range.getStartLine()) + range.getStartColumn() - 1;
+  }
+
+  /**
+   * Computes the end offset of a node range.
+   *
+   * @param page The text page.
+   * @param range The node range.
+   *
+   * @return The offset after the last character of the node.
+   *
+   * @throws BadLocationException The range is outside the document.
+   */
+  public static int getEndOffset(WSXMLTextEditorPage page, WSXMLTextNodeRange range) throws BadLocationException {
+    return page.getOffsetOfLineStart(range.getEndLine()) + range.getEndColumn() - 1;
+  }
+
+  /**
+   * Reads the whole document text.
+   *
+   * @param page The text page.
+   *
+   * @return The document text.
+   *
+   * @throws BadLocationException Should not happen.
+   */
+  public static String getText(WSXMLTextEditorPage page) throws BadLocationException {
+    Document document = page.getDocument();
+    return document.getText(0, document.getLength());
+  }
+}
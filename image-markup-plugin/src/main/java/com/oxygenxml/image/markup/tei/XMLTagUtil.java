@@ -0,0 +1,130 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Textual operations over the serialization of XML start tags. Used to change
+ * attributes without reparsing the document.
+ */
+public class XMLTagUtil {
+  /**
+   * The compiled attribute patterns, by attribute name. A scan reads the same
+   * few attributes from every tag.
+   */
+  private static final Map<String, Pattern> ATTRIBUTE_PATTERNS = new ConcurrentHashMap<String, Pattern>();
+
+  /**
+   * Private constructor.
+   */
+  private XMLTagUtil() {}
+
+  /**
+   * Finds the end of the tag that starts at the given offset. Quoted attribute
+   * values are skipped.
+   *
+   * @param text The document text.
+   * @param start The offset of the '&lt;' character.
+   *
+   * @return The offset after the closing '&gt;' or -1 if the tag is not closed.
+   */
+  public static int findTagEnd(CharSequence text, int start) {
+    char quote = 0;
+    for (int i = start; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the first start tag with the given local name, in the given interval.
+   *
+   * @param text The document text.
+   * @param localName The local name of the element.
+   * @param from Start offset, inclusive.
+   * @param to End offset, exclusive.
+   *
+   * @return The offset of the '&lt;' character or -1 if there is no such tag.
+   */
+  public static int findStartTag(CharSequence text, String localName, int from, int to) {
+    Pattern pattern = Pattern.compile("<([\\w.\\-]+:)?" + Pattern.quote(localName) + "[\\s/>]");
+    Matcher matcher = pattern.matcher(text);
+    matcher.region(from, to);
+    return matcher.find() ? matcher.start() : -1;
+  }
+
+  /**
+   * Gets the value of an attribute from a start tag.
+   *
+   * @param startTag The start tag serialization.
+   * @param name The qualified name of the attribute.
+   *
+   * @return The attribute value, as written in the tag, or <code>null</code>.
+   */
+  public static String getAttribute(String startTag, String name) {
+    Matcher matcher = attributePattern(name).matcher(startTag);
+    String value = null;
+    if (matcher.find()) {
+      value = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+    }
+    return value;
+  }
+
+  /**
+   * Sets the value of an attribute inside a start tag. An existing attribute is
+   * replaced in place, otherwise the attribute is appended.
+   *
+   * @param startTag The start tag serialization.
+   * @param name The qualified name of the attribute.
+   * @param value The new value. It must not need escaping.
+   *
+   * @return The new start tag.
+   */
+  public static String setAttribute(String startTag, String name, String value) {
+    Matcher matcher = attributePattern(name).matcher(startTag);
+    StringBuilder b = new StringBuilder(startTag.length() + name.length() + value.length() + 4);
+    if (matcher.find()) {
+      b.append(startTag, 0, matcher.start(1));
+      b.append(name).append("=\"").append(value).append('"');
+      b.append(startTag, matcher.end(), startTag.length());
+    } else {
+      int insertAt = startTag.endsWith("/>") ? startTag.length() - 2 : startTag.length() - 1;
+      // Keep the existing whitespace before the tag end.
+      while (insertAt > 0 && Character.isWhitespace(startTag.charAt(insertAt - 1))) {
+        insertAt--;
+      }
+      b.append(startTag, 0, insertAt);
+      b.append(' ').append(name).append("=\"").append(value).append('"');
+      b.append(startTag, insertAt, startTag.length());
+    }
+    return b.toString();
+  }
+
+  /**
+   * Creates a pattern that matches the given attribute. Group 1 is the attribute
+   * name, groups 2 and 3 are the double and single quoted values.
+   *
+   * @param name The qualified attribute name.
+   *
+   * @return The pattern.
+   */
+  private static Pattern attributePattern(String name) {
+    Pattern pattern = ATTRIBUTE_PATTERNS.get(name);
+    if (pattern == null) {
+      pattern = Pattern.compile("\\s(" + Pattern.quote(name) + ")\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+      ATTRIBUTE_PATTERNS.put(name, pattern);
+    }
+    return pattern;
+  }
+}
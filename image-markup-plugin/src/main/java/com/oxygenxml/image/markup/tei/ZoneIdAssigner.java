@@ -0,0 +1,64 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextEditorPage;
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextNodeRange;
+import ro.sync.exml.workspace.api.editor.page.text.xml.XPathException;
+
+/**
+ * Gives an <code>xml:id</code> to the zones that don't have one. The changes
+ * are computed together, to be applied with {@link TextEdit#applyAll(javax.swing.text.Document, List)}.
+ */
+public class ZoneIdAssigner {
+  /**
+   * Private constructor.
+   */
+  private ZoneIdAssigner() {}
+
+  /**
+   * Computes the ID insertions for the given zones.
+   *
+   * @param page The text page.
+   * @param zonesXPath Identifies the zones.
+   * @param allocator Hands out the IDs.
+   * @param pageName The value of <code>${page}</code>. May be <code>null</code>.
+   *
+   * @return The insertions, one for every zone without an ID.
+   *
+   * @throws XPathException Unable to find the zones.
+   * @throws BadLocationException Unable to read the document.
+   */
+  public static List<TextEdit> computeEdits(
+      WSXMLTextEditorPage page, String zonesXPath, IdAllocator allocator, String pageName)
+      throws XPathException, BadLocationException {
+    List<TextEdit> edits = new ArrayList<TextEdit>();
+    WSXMLTextNodeRange[] zones = page.findElementsByXPath(zonesXPath);
+    if (zones != null && zones.length > 0) {
+      String text = TextPageUtil.getText(page);
+      for (WSXMLTextNodeRange zone : zones) {
+        int start = TextPageUtil.getStartOffset(page, zone);
+        int tagEnd = XMLTagUtil.findTagEnd(text, start);
+        if (tagEnd != -1 && XMLTagUtil.getAttribute(text.substring(start, tagEnd), "xml:id") == null) {
+          // The ID goes first, right after the name, as in the zones created by the plugin.
+          int nameEnd = start + 1;
+          while (nameEnd < tagEnd && !isNameEnd(text.charAt(nameEnd))) {
+            nameEnd++;
+          }
+          edits.add(new TextEdit(nameEnd, 0, " xml:id=\"" + allocator.next(pageName) + "\""));
+        }
+      }
+    }
+    return edits;
+  }
+
+  /**
+   * @return <code>true</code> if the character can't be part of an element name.
+   */
+  private static boolean isNameEnd(char c) {
+    return Character.isWhitespace(c) || c == '/' || c == '>';
+  }
+}
@@ -0,0 +1,108 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextEditorPage;
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextNodeRange;
+import ro.sync.exml.workspace.api.editor.page.text.xml.XPathException;
+
+/**
+ * Serializes zones and inserts many of them with a single document change.
+ */
+public class ZoneInserter {
+
+  /**
+   * Private constructor.
+   */
+  private ZoneInserter() {}
+
+  /**
+   * Builds an TEI zone element for the given rectangle.
+   *
+   * @param area Rectangle to serialize.
+   * @param id The ID of the zone. <code>null</code> for no ID.
+   *
+   * @return A serialization of the rectangle, that can be inserted in the document.
+   */
+  public static String buildZoneElement(Rectangle area, String id) {
+    StringBuilder b = new StringBuilder("<zone");
+    if (id != null) {
+      b.append(" xml:id=\"").append(id).append("\"");
+    }
+    buildZoneAttrs(area, b);
+    b.append("/>");
+    return b.toString();
+  }
+
+  /**
+   * Builds the coordinates.
+   *
+   * @param area Rectangle to write the coordinates for.
+   * @param b Builder to write them into.
+   */
+  public static void buildZoneAttrs(Rectangle area, StringBuilder b) {
+    b.append(" ulx=\"").append(area.x).append("\"");
+    b.append(" uly=\"").append(area.y).append("\"");
+    b.append(" lrx=\"").append(area.x + area.width).append("\"");
+    b.append(" lry=\"").append(area.y + area.height).append("\"");
+  }
+
+  /**
+   * Inserts the given zones after a reference node, with the indentation of the
+   * reference node. All the zones are inserted at once.
+   *
+   * @param page The text page.
+   * @param referenceXPaths XPath expressions for the reference node. The first one
+   * that identifies a node is used.
+   * @param areas The zones to insert, in the order they should appear.
+   * @param ids The IDs of the zones, in the same order. <code>null</code> to insert
+   * zones without IDs.
+   *
+   * @return The offsets of the inserted text: start, end. <code>null</code> if
+   * none of the XPath expressions identified a reference.
+   *
+   * @throws XPathException Unable to evaluate the reference.
+   * @throws BadLocationException Unable to insert.
+   */
+  public static int[] insertZones(
+      WSXMLTextEditorPage page,
+      String[] referenceXPaths,
+      List<Rectangle> areas,
+      List<String> ids) throws XPathException, BadLocationException {
+    WSXMLTextNodeRange reference = null;
+    for (int i = 0; i < referenceXPaths.length && reference == null; i++) {
+      WSXMLTextNodeRange[] ranges = page.findElementsByXPath(referenceXPaths[i]);
+      if (ranges != null && ranges.length > 0) {
+        reference = ranges[0];
+      }
+    }
+
+    int[] inserted = null;
+    if (reference != null) {
+      Document document = page.getDocument();
+      int lineStart = page.getOffsetOfLineStart(reference.getStartLine());
+      int start = TextPageUtil.getStartOffset(page, reference);
+      String indent = document.getText(lineStart, start - lineStart);
+      int indentLength = 0;
+      while (indentLength < indent.length() && Character.isWhitespace(indent.charAt(indentLength))) {
+        indentLength++;
+      }
+      indent = indent.substring(0, indentLength);
+
+      StringBuilder b = new StringBuilder(areas.size() * (indent.length() + 64));
+      for (int i = 0; i < areas.size(); i++) {
+        b.append('\n').append(indent);
+        b.append(buildZoneElement(areas.get(i), ids != null ? ids.get(i) : null));
+      }
+
+      int end = TextPageUtil.getEndOffset(page, reference);
+      document.insertString(end, b.toString(), null);
+      inserted = new int[] {end, end + b.length()};
+    }
+    return inserted;
+  }
+}
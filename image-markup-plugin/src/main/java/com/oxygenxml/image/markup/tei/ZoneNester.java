@@ -0,0 +1,236 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextEditorPage;
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextNodeRange;
+import ro.sync.exml.workspace.api.editor.page.text.xml.XPathException;
+
+import com.oxygenxml.image.markup.zones.ZoneHierarchy;
+
+/**
+ * Rewrites a flat list of zones as nested zones, following their containment:
+ * every zone is moved inside the smallest zone that contains it. The changes
+ * are computed together, to be applied with {@link TextEdit#applyAll(javax.swing.text.Document, List)}.
+ */
+public class ZoneNester {
+  /**
+   * The indentation added for every nesting level.
+   */
+  private static final String INDENT = "  ";
+
+  /**
+   * The document text.
+   */
+  private final String text;
+  /**
+   * The start offset of every zone.
+   */
+  private final int[] starts;
+  /**
+   * The end offset of every zone.
+   */
+  private final int[] ends;
+  /**
+   * The children of every zone, in document order.
+   */
+  private final List<List<Integer>> children;
+
+  /**
+   * Constructor.
+   *
+   * @param text The document text.
+   * @param starts The start offset of every zone.
+   * @param ends The end offset of every zone.
+   * @param children The children of every zone, in document order.
+   */
+  private ZoneNester(String text, int[] starts, int[] ends, List<List<Integer>> children) {
+    this.text = text;
+    this.starts = starts;
+    this.ends = ends;
+    this.children = children;
+  }
+
+  /**
+   * Computes the changes that nest the given sibling zones.
+   *
+   * @param page The text page.
+   * @param zonesXPath Identifies the zones. They must be siblings.
+   *
+   * @return The changes. Empty if no zone contains another one.
+   *
+   * @throws XPathException Unable to find the zones.
+   * @throws BadLocationException Unable to read the document.
+   */
+  public static List<TextEdit> computeEdits(WSXMLTextEditorPage page, String zonesXPath)
+      throws XPathException, BadLocationException {
+    List<TextEdit> edits = new ArrayList<TextEdit>();
+    WSXMLTextNodeRange[] ranges = page.findElementsByXPath(zonesXPath);
+    if (ranges == null || ranges.length < 2) {
+      return edits;
+    }
+
+    int n = ranges.length;
+    int[] starts = new int[n];
+    int[] ends = new int[n];
+    for (int i = 0; i < n; i++) {
+      starts[i] = TextPageUtil.getStartOffset(page, ranges[i]);
+      ends[i] = TextPageUtil.getEndOffset(page, ranges[i]);
+    }
+    return computeEdits(TextPageUtil.getText(page), starts, ends);
+  }
+
+  /**
+   * Computes the changes that nest the given sibling zones.
+   *
+   * @param text The document text.
+   * @param starts The start offset of every zone, in document order.
+   * @param ends The end offset of every zone.
+   *
+   * @return The changes. Empty if no zone contains another one.
+   */
+  static List<TextEdit> computeEdits(String text, int[] starts, int[] ends) {
+    List<TextEdit> edits = new ArrayList<TextEdit>();
+    int n = starts.length;
+    List<Rectangle> areas = new ArrayList<Rectangle>(n);
+    for (int i = 0; i < n; i++) {
+      int tagEnd = XMLTagUtil.findTagEnd(text, starts[i]);
+      // Zones without coordinates stay where they are.
+      areas.add(tagEnd != -1 ? getArea(text.substring(starts[i], tagEnd)) : new Rectangle());
+    }
+
+    ZoneHierarchy hierarchy = ZoneHierarchy.compute(areas);
+    if (hierarchy.getMaxDepth() < 2) {
+      return edits;
+    }
+    List<List<Integer>> children = new ArrayList<List<Integer>>(n);
+    for (int i = 0; i < n; i++) {
+      children.add(null);
+    }
+    for (int i = 0; i < n; i++) {
+      int parent = hierarchy.getParent(i);
+      if (parent != -1) {
+        if (children.get(parent) == null) {
+          children.set(parent, new ArrayList<Integer>());
+        }
+        children.get(parent).add(i);
+      }
+    }
+
+    ZoneNester nester = new ZoneNester(text, starts, ends, children);
+    for (int i = 0; i < n; i++) {
+      if (hierarchy.getParent(i) != -1) {
+        // Moved inside the parent. Remove it with its line, if it is alone on it.
+        int deleteFrom = starts[i];
+        while (deleteFrom > 0 && (text.charAt(deleteFrom - 1) == ' ' || text.charAt(deleteFrom - 1) == '\t')) {
+          deleteFrom--;
+        }
+        if (deleteFrom > 0 && text.charAt(deleteFrom - 1) == '\n') {
+          deleteFrom--;
+          if (deleteFrom > 0 && text.charAt(deleteFrom - 1) == '\r') {
+            deleteFrom--;
+          }
+        } else {
+          deleteFrom = starts[i];
+        }
+        edits.add(new TextEdit(deleteFrom, ends[i] - deleteFrom, ""));
+      } else if (children.get(i) != null) {
+        edits.add(new TextEdit(starts[i], ends[i] - starts[i], nester.render(i, nester.getIndent(i))));
+      }
+    }
+    return edits;
+  }
+
+  /**
+   * Serializes a zone with its new children.
+   *
+   * @param zone The zone.
+   * @param indent The indentation of the zone.
+   *
+   * @return The zone serialization.
+   */
+  private String render(int zone, String indent) {
+    String own = text.substring(starts[zone], ends[zone]);
+    List<Integer> nested = children.get(zone);
+    if (nested == null) {
+      return own;
+    }
+
+    String childIndent = indent + INDENT;
+    StringBuilder b = new StringBuilder();
+    String closing;
+    if (own.endsWith("/>")) {
+      b.append(own, 0, own.length() - 2);
+      trimEnd(b);
+      b.append('>');
+      int nameEnd = 1;
+      while (nameEnd < own.length() && !Character.isWhitespace(own.charAt(nameEnd))
+          && own.charAt(nameEnd) != '/' && own.charAt(nameEnd) != '>') {
+        nameEnd++;
+      }
+      closing = "</" + own.substring(1, nameEnd) + ">";
+    } else {
+      int closeStart = own.lastIndexOf("</");
+      b.append(own, 0, closeStart);
+      trimEnd(b);
+      closing = own.substring(closeStart);
+    }
+    for (Integer child : nested) {
+      b.append('\n').append(childIndent).append(render(child, childIndent));
+    }
+    b.append('\n').append(indent).append(closing);
+    return b.toString();
+  }
+
+  /**
+   * @return The whitespace between the start of the line and the zone.
+   */
+  private String getIndent(int zone) {
+    int lineStart = starts[zone];
+    while (lineStart > 0 && (text.charAt(lineStart - 1) == ' ' || text.charAt(lineStart - 1) == '\t')) {
+      lineStart--;
+    }
+    return text.substring(lineStart, starts[zone]);
+  }
+
+  /**
+   * Removes the trailing whitespace.
+   */
+  private static void trimEnd(StringBuilder b) {
+    int length = b.length();
+    while (length > 0 && Character.isWhitespace(b.charAt(length - 1))) {
+      length--;
+    }
+    b.setLength(length);
+  }
+
+  /**
+   * Reads the area of a zone from its start tag.
+   *
+   * @param startTag The start tag.
+   *
+   * @return The area. Empty if the zone has no coordinates.
+   */
+  static Rectangle getArea(String startTag) {
+    try {
+      String ulx = XMLTagUtil.getAttribute(startTag, "ulx");
+      String uly = XMLTagUtil.getAttribute(startTag, "uly");
+      String lrx = XMLTagUtil.getAttribute(startTag, "lrx");
+      String lry = XMLTagUtil.getAttribute(startTag, "lry");
+      if (ulx != null && uly != null && lrx != null && lry != null) {
+        int x = (int) Math.round(Double.parseDouble(ulx.trim()));
+        int y = (int) Math.round(Double.parseDouble(uly.trim()));
+        return new Rectangle(x, y,
+            (int) Math.round(Double.parseDouble(lrx.trim())) - x,
+            (int) Math.round(Double.parseDouble(lry.trim())) - y);
+      }
+    } catch (NumberFormatException e) {
+      // Invalid coordinates.
+    }
+    return new Rectangle();
+  }
+}
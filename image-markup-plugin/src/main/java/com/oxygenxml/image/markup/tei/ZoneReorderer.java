@@ -0,0 +1,89 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextEditorPage;
+import ro.sync.exml.workspace.api.editor.page.text.xml.WSXMLTextNodeRange;
+import ro.sync.exml.workspace.api.editor.page.text.xml.XPathException;
+
+import com.oxygenxml.image.markup.zones.ReadingOrder;
+
+/**
+ * Rewrites sibling zones in reading order. The zones swap places, the text 
+ * between them stays where it is. Zones without coordinates are not moved. The
+ * changes are computed together, to be applied with 
+ * {@link TextEdit#applyAll(javax.swing.text.Document, List)}.
+ */
+public class ZoneReorderer {
+
+  /**
+   * Private constructor.
+   */
+  private ZoneReorderer() {}
+
+  /**
+   * Computes the changes that put the given sibling zones in reading order.
+   *
+   * @param page The text page.
+   * @param zonesXPath Identifies the zones. They must be siblings.
+   *
+   * @return The changes. Empty if the zones are already in reading order.
+   *
+   * @throws XPathException Unable to find the zones.
+   * @throws BadLocationException Unable to read the document.
+   */
+  public static List<TextEdit> computeEdits(WSXMLTextEditorPage page, String zonesXPath)
+      throws XPathException, BadLocationException {
+    WSXMLTextNodeRange[] ranges = page.findElementsByXPath(zonesXPath);
+    if (ranges == null || ranges.length < 2) {
+      return new ArrayList<TextEdit>();
+    }
+
+    int n = ranges.length;
+    int[] starts = new int[n];
+    int[] ends = new int[n];
+    for (int i = 0; i < n; i++) {
+      starts[i] = TextPageUtil.getStartOffset(page, ranges[i]);
+      ends[i] = TextPageUtil.getEndOffset(page, ranges[i]);
+    }
+    return computeEdits(TextPageUtil.getText(page), starts, ends);
+  }
+
+  /**
+   * Computes the changes that put the given sibling zones in reading order.
+   *
+   * @param text The document text.
+   * @param starts The start offset of every zone, in document order.
+   * @param ends The end offset of every zone.
+   *
+   * @return The changes. Empty if the zones are already in reading order.
+   */
+  static List<TextEdit> computeEdits(String text, int[] starts, int[] ends) {
+    // Only the zones with coordinates are ordered, in their own slots.
+    List<Integer> slots = new ArrayList<Integer>();
+    List<Rectangle> areas = new ArrayList<Rectangle>();
+    for (int i = 0; i < starts.length; i++) {
+      int tagEnd = XMLTagUtil.findTagEnd(text, starts[i]);
+      Rectangle area = tagEnd != -1 ? ZoneNester.getArea(text.substring(starts[i], tagEnd)) : null;
+      if (area != null && !area.isEmpty()) {
+        slots.add(i);
+        areas.add(area);
+      }
+    }
+
+    List<TextEdit> edits = new ArrayList<TextEdit>();
+    int[] order = ReadingOrder.compute(areas);
+    for (int i = 0; i < order.length; i++) {
+      if (order[i] != i) {
+        int slot = slots.get(i);
+        int moved = slots.get(order[i]);
+        edits.add(new TextEdit(starts[slot], ends[slot] - starts[slot], text.substring(starts[moved], ends[moved])));
+      }
+    }
+    return edits;
+  }
+}
@@ -0,0 +1,245 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.util.Random;
+
+/**
+ * A dynamic set of intervals that reports the ones crossing a query interval
+ * in <code>O(log n + k)</code>. The intervals are kept in a treap ordered by
+ * their start, every node also knowing the largest end in its subtree.
+ *
+ * The intervals are identified by an index into arrays owned by the caller,
+ * the nodes are stored in parallel arrays, so no objects are created.
+ */
+class IntervalTreap {
+  /**
+   * Receives the crossing intervals.
+   */
+  interface Visitor {
+    /**
+     * An interval crosses the query.
+     *
+     * @param id The interval.
+     */
+    void visit(int id);
+  }
+
+  /**
+   * No node.
+   */
+  private static final int NIL = -1;
+
+  /**
+   * The start of every interval, inclusive.
+   */
+  private final int[] starts;
+  /**
+   * The end of every interval, exclusive.
+   */
+  private final int[] ends;
+  /**
+   * The left child of every node.
+   */
+  private final int[] left;
+  /**
+   * The right child of every node.
+   */
+  private final int[] right;
+  /**
+   * The heap priority of every node.
+   */
+  private final int[] priority;
+  /**
+   * The largest end in the subtree of every node.
+   */
+  private final int[] maxEnd;
+  /**
+   * The root node.
+   */
+  private int root = NIL;
+
+  /**
+   * Constructor.
+   *
+   * @param starts The start of every interval, inclusive.
+   * @param ends The end of every interval, exclusive.
+   */
+  IntervalTreap(int[] starts, int[] ends) {
+    this.starts = starts;
+    this.ends = ends;
+    int n = starts.length;
+    left = new int[n];
+    right = new int[n];
+    priority = new int[n];
+    maxEnd = new int[n];
+    Random random = new Random(n);
+    for (int i = 0; i < n; i++) {
+      priority[i] = random.nextInt();
+    }
+  }
+
+  /**
+   * Adds an interval.
+   *
+   * @param id The interval.
+   */
+  void insert(int id) {
+    left[id] = NIL;
+    right[id] = NIL;
+    maxEnd[id] = ends[id];
+    root = insert(root, id);
+  }
+
+  /**
+   * Removes an interval.
+   *
+   * @param id The interval. Must be in the set.
+   */
+  void remove(int id) {
+    root = remove(root, id);
+  }
+
+  /**
+   * Reports the intervals that cross <code>[from, to)</code>.
+   *
+   * @param from The start of the query, inclusive.
+   * @param to The end of the query, exclusive.
+   * @param visitor Receives the intervals.
+   */
+  void query(int from, int to, Visitor visitor) {
+    query(root, from, to, visitor);
+  }
+
+  /**
+   * Inserts a node in a subtree.
+   *
+   * @return The new root of the subtree.
+   */
+  private int insert(int node, int id) {
+    if (node == NIL) {
+      return id;
+    }
+    if (less(id, node)) {
+      left[node] = insert(left[node], id);
+      if (priority[left[node]] > priority[node]) {
+        node = rotateRight(node);
+      }
+    } else {
+      right[node] = insert(right[node], id);
+      if (priority[right[node]] > priority[node]) {
+        node = rotateLeft(node);
+      }
+    }
+    update(node);
+    return node;
+  }
+
+  /**
+   * Removes a node from a subtree.
+   *
+   * @return The new root of the subtree.
+   */
+  private int remove(int node, int id) {
+    if (node == NIL) {
+      return NIL;
+    }
+    if (node == id) {
+      return merge(left[node], right[node]);
+    }
+    if (less(id, node)) {
+      left[node] = remove(left[node], id);
+    } else {
+      right[node] = remove(right[node], id);
+    }
+    update(node);
+    return node;
+  }
+
+  /**
+   * Merges two subtrees, all the keys of the first being smaller.
+   *
+   * @return The root of the merged tree.
+   */
+  private int merge(int a, int b) {
+    if (a == NIL) {
+      return b;
+    }
+    if (b == NIL) {
+      return a;
+    }
+    if (priority[a] > priority[b]) {
+      right[a] = merge(right[a], b);
+      update(a);
+      return a;
+    } else {
+      left[b] = merge(a, left[b]);
+      update(b);
+      return b;
+    }
+  }
+
+  /**
+   * Reports the crossing intervals of a subtree.
+   */
+  private void query(int node, int from, int to, Visitor visitor) {
+    while (node != NIL && maxEnd[node] > from) {
+      query(left[node], from, to, visitor);
+      if (starts[node] >= to) {
+        // The right subtree starts even later.
+        return;
+      }
+      if (ends[node] > from) {
+        visitor.visit(node);
+      }
+      node = right[node];
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the first node comes before the second one.
+   */
+  private boolean less(int a, int b) {
+    return starts[a] < starts[b] || (starts[a] == starts[b] && a < b);
+  }
+
+  /**
+   * Rotates a node with its left child.
+   *
+   * @return The new root of the subtree.
+   */
+  private int rotateRight(int node) {
+    int child = left[node];
+    left[node] = right[child];
+    right[child] = node;
+    update(node);
+    update(child);
+    return child;
+  }
+
+  /**
+   * Rotates a node with its right child.
+   *
+   * @return The new root of the subtree.
+   */
+  private int rotateLeft(int node) {
+    int child = right[node];
+    right[node] = left[child];
+    left[child] = node;
+    update(node);
+    update(child);
+    return child;
+  }
+
+  /**
+   * Recomputes the largest end of a subtree.
+   */
+  private void update(int node) {
+    int max = ends[node];
+    if (left[node] != NIL && maxEnd[left[node]] > max) {
+      max = maxEnd[left[node]];
+    }
+    if (right[node] != NIL && maxEnd[right[node]] > max) {
+      max = maxEnd[right[node]];
+    }
+    maxEnd[node] = max;
+  }
+}
@@ -0,0 +1,114 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.oxygenxml.image.markup.zones.ZoneRelation.Kind;
+
+/**
+ * Finds the pairs of zones that overlap, contain one another or are
+ * duplicates, in <code>O(n log n + k)</code>, where <code>k</code> is the
+ * number of pairs.
+ *
+ * A line sweeps the zones from left to right. The zones it crosses are kept in
+ * an {@link IntervalTreap} by their vertical extent, so every zone that starts
+ * meets exactly the crossed zones it intersects. Zones that only touch don't
+ * intersect.
+ */
+public class OverlapAnalyzer {
+  /**
+   * Receives the related pairs.
+   */
+  public interface Handler {
+    /**
+     * Two zones are related.
+     *
+     * @param first The first zone. The container, for a containment.
+     * @param second The second zone. The contained zone, for a containment.
+     * @param kind The relation.
+     */
+    void relation(int first, int second, Kind kind);
+  }
+
+  /**
+   * Private constructor.
+   */
+  private OverlapAnalyzer() {}
+
+  /**
+   * Finds all the related pairs.
+   *
+   * @param zones The zones.
+   *
+   * @return The related pairs, by the indexes of the zones.
+   */
+  public static List<ZoneRelation> analyze(List<Rectangle> zones) {
+    final List<ZoneRelation> relations = new ArrayList<ZoneRelation>();
+    analyze(zones, new Handler() {
+      @Override
+      public void relation(int first, int second, Kind kind) {
+        relations.add(new ZoneRelation(first, second, kind));
+      }
+    });
+    return relations;
+  }
+
+  /**
+   * Reports all the related pairs, as they are found.
+   *
+   * @param zones The zones. Empty zones are ignored.
+   * @param handler Receives the related pairs, by the indexes of the zones.
+   */
+  public static void analyze(List<Rectangle> zones, final Handler handler) {
+    int n = zones.size();
+    final Rectangle[] rectangles = zones.toArray(new Rectangle[n]);
+    int[] tops = new int[n];
+    int[] bottoms = new int[n];
+    // Sort keys: the coordinate in the high half, the index in the low half.
+    long[] opens = new long[n];
+    long[] closes = new long[n];
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      Rectangle r = rectangles[i];
+      tops[i] = r.y;
+      bottoms[i] = r.y + r.height;
+      if (r.width > 0 && r.height > 0) {
+        opens[count] = ((long) r.x << 32) | i;
+        closes[count] = ((long) (r.x + r.width) << 32) | i;
+        count++;
+      }
+    }
+    Arrays.sort(opens, 0, count);
+    Arrays.sort(closes, 0, count);
+
+    IntervalTreap active = new IntervalTreap(tops, bottoms);
+    int closed = 0;
+    for (int i = 0; i < count; i++) {
+      final int zone = (int) opens[i];
+      final Rectangle r = rectangles[zone];
+      // The zones that end where this one starts only touch it.
+      while (closed < count && (closes[closed] >> 32) <= r.x) {
+        active.remove((int) closes[closed]);
+        closed++;
+      }
+      active.query(r.y, r.y + r.height, new IntervalTreap.Visitor() {
+        @Override
+        public void visit(int other) {
+          Rectangle o = rectangles[other];
+          if (o.equals(r)) {
+            handler.relation(Math.min(zone, other), Math.max(zone, other), Kind.DUPLICATE);
+          } else if (o.contains(r)) {
+            handler.relation(other, zone, Kind.CONTAINMENT);
+          } else if (r.contains(o)) {
+            handler.relation(zone, other, Kind.CONTAINMENT);
+          } else {
+            handler.relation(Math.min(zone, other), Math.max(zone, other), Kind.OVERLAP);
+          }
+        }
+      });
+      active.insert(zone);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Computes the reading order of the zones of a page with a recursive XY-cut.
+ * <ol>
+ * <li>The zones are projected on both axes. A gap in a projection is a cut
+ * that no zone crosses: between text lines on the vertical axis, between
+ * columns on the horizontal one.</li>
+ * <li>The axis with the widest gap is cut at its widest gaps. The parts are
+ * ordered top to bottom or left to right, then cut again, recursively. A
+ * heading is cut from the columns below it before the columns are cut in
+ * lines.</li>
+ * <li>Zones that can't be separated, like a block and its lines, are taken
+ * from the top, containers first, until the rest can be cut.</li>
+ * </ol>
+ * Every level sorts its zones once, so a page is ordered in
+ * <code>O(n log n)</code> for each level of cuts.
+ */
+public class ReadingOrder {
+
+  /**
+   * Private constructor.
+   */
+  private ReadingOrder() {}
+
+  /**
+   * Orders the given zones.
+   *
+   * @param zones The zones.
+   *
+   * @return The indexes of the zones, in reading order.
+   */
+  public static int[] compute(List<Rectangle> zones) {
+    Rectangle[] areas = zones.toArray(new Rectangle[zones.size()]);
+    Integer[] all = new Integer[areas.length];
+    for (int i = 0; i < all.length; i++) {
+      all[i] = i;
+    }
+    int[] order = new int[areas.length];
+    int[] count = new int[1];
+    order(areas, all, order, count);
+    return order;
+  }
+
+  /**
+   * Appends a group of zones to the order.
+   *
+   * @param areas All the zones.
+   * @param group The indexes of the zones of the group.
+   * @param order The order being built.
+   * @param count The number of zones already ordered.
+   */
+  private static void order(Rectangle[] areas, Integer[] group, int[] order, int[] count) {
+    List<Integer> rest = new ArrayList<Integer>(Arrays.asList(group));
+    while (!rest.isEmpty()) {
+      Integer[] remaining = rest.toArray(new Integer[rest.size()]);
+      List<Integer[]> rows = cut(areas, remaining, false);
+      List<Integer[]> columns = cut(areas, remaining, true);
+      if (rows.size() > 1 || columns.size() > 1) {
+        int columnGap = getWidestGap(areas, columns, true);
+        int rowGap = getWidestGap(areas, rows, false);
+        boolean vertical = columns.size() > 1 && (rows.size() == 1 || columnGap > rowGap);
+        List<Integer[]> parts = vertical ? merge(areas, columns, true, columnGap) : merge(areas, rows, false, rowGap);
+        for (Integer[] part : parts) {
+          order(areas, part, order, count);
+        }
+        return;
+      }
+      // Not separable. The top zone comes first, the larger one for the same top.
+      int first = 0;
+      for (int i = 1; i < remaining.length; i++) {
+        if (compareTopDown(areas, remaining[i], remaining[first]) < 0) {
+          first = i;
+        }
+      }
+      order[count[0]++] = remaining[first];
+      rest.remove(first);
+    }
+  }
+
+  /**
+   * Compares zones by top, then left, then decreasing area, so a container 
+   * comes before its content.
+   *
+   * @return A negative number if the first zone comes first.
+   */
+  private static int compareTopDown(Rectangle[] areas, int i1, int i2) {
+    Rectangle o1 = areas[i1];
+    Rectangle o2 = areas[i2];
+    if (o1.y != o2.y) {
+      return o1.y < o2.y ? -1 : 1;
+    } else if (o1.x != o2.x) {
+      return o1.x < o2.x ? -1 : 1;
+    }
+    long a1 = (long) o1.width * o1.height;
+    long a2 = (long) o2.width * o2.height;
+    return a1 > a2 ? -1 : (a1 == a2 ? i1 - i2 : 1);
+  }
+
+  /**
+   * Splits the zones at the gaps of their projection on an axis.
+   *
+   * @param areas All the zones.
+   * @param group The zones to split.
+   * @param vertical <code>true</code> to cut along vertical lines, between columns.
+   *
+   * @return The parts, in order. A single part if there is no gap.
+   */
+  private static List<Integer[]> cut(final Rectangle[] areas, Integer[] group, final boolean vertical) {
+    Integer[] sorted = group.clone();
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        int s1 = start(areas[o1], vertical);
+        int s2 = start(areas[o2], vertical);
+        return s1 < s2 ? -1 : (s1 == s2 ? o1 - o2 : 1);
+      }
+    });
+    List<Integer[]> parts = new ArrayList<Integer[]>();
+    int partStart = 0;
+    int end = Integer.MIN_VALUE;
+    for (int i = 0; i < sorted.length; i++) {
+      Rectangle area = areas[sorted[i]];
+      if (i > 0 && start(area, vertical) >= end) {
+        parts.add(Arrays.copyOfRange(sorted, partStart, i));
+        partStart = i;
+      }
+      end = Math.max(end, end(area, vertical));
+    }
+    parts.add(Arrays.copyOfRange(sorted, partStart, sorted.length));
+    return parts;
+  }
+
+  /**
+   * Joins the consecutive parts separated by gaps narrower than the given one.
+   *
+   * @param areas All the zones.
+   * @param parts The parts, in order.
+   * @param vertical <code>true</code> if the parts are columns.
+   * @param gap The gap kept between the parts.
+   *
+   * @return The joined parts, in order.
+   */
+  private static List<Integer[]> merge(Rectangle[] areas, List<Integer[]> parts, boolean vertical, int gap) {
+    List<Integer[]> merged = new ArrayList<Integer[]>();
+    List<Integer> current = new ArrayList<Integer>();
+    int end = Integer.MIN_VALUE;
+    for (Integer[] part : parts) {
+      int partStart = Integer.MAX_VALUE;
+      int partEnd = Integer.MIN_VALUE;
+      for (Integer zone : part) {
+        partStart = Math.min(partStart, start(areas[zone], vertical));
+        partEnd = Math.max(partEnd, end(areas[zone], vertical));
+      }
+      if (!current.isEmpty() && partStart - end >= gap) {
+        merged.add(current.toArray(new Integer[current.size()]));
+        current.clear();
+      }
+      current.addAll(Arrays.asList(part));
+      end = Math.max(end, partEnd);
+    }
+    merged.add(current.toArray(new Integer[current.size()]));
+    return merged;
+  }
+
+  /**
+   * Measures the widest gap between consecutive parts.
+   *
+   * @param areas All the zones.
+   * @param parts The parts, in order.
+   * @param vertical <code>true</code> if the parts are columns.
+   *
+   * @return The widest gap.
+   */
+  private static int getWidestGap(Rectangle[] areas, List<Integer[]> parts, boolean vertical) {
+    int widest = 0;
+    int end = Integer.MIN_VALUE;
+    for (Integer[] part : parts) {
+      int partStart = Integer.MAX_VALUE;
+      int partEnd = Integer.MIN_VALUE;
+      for (Integer zone : part) {
+        Rectangle area = areas[zone];
+        partStart = Math.min(partStart, start(area, vertical));
+        partEnd = Math.max(partEnd, end(area, vertical));
+      }
+      if (end != Integer.MIN_VALUE) {
+        widest = Math.max(widest, partStart - end);
+      }
+      end = partEnd;
+    }
+    return widest;
+  }
+
+  /**
+   * @return The right of the zone for vertical cuts, its bottom otherwise.
+   */
+  private static int end(Rectangle area, boolean vertical) {
+    return vertical ? area.x + area.width : area.y + area.height;
+  }
+
+  /**
+   * @return The left of the zone for vertical cuts, its top otherwise.
+   */
+  private static int start(Rectangle area, boolean vertical) {
+    return vertical ? area.x : area.y;
+  }
+}
@@ -0,0 +1,91 @@
+package com.oxygenxml.image.markup.zones;
+
+/**
+ * The zones added, removed and modified by one change of the view, like a
+ * drag or a bulk insertion. The intermediate steps are not reported: a zone
+ * dragged through many positions is modified once, from where it started to
+ * where it was dropped.
+ */
+public class ZoneChangeEvent {
+  /**
+   * The added zones.
+   */
+  private final ZoneSnapshot added;
+  /**
+   * The removed zones.
+   */
+  private final ZoneSnapshot removed;
+  /**
+   * The modified zones, before the change.
+   */
+  private final ZoneSnapshot modifiedFrom;
+  /**
+   * The modified zones, after the change, in the order of {@link #modifiedFrom}.
+   */
+  private final ZoneSnapshot modifiedTo;
+  /**
+   * The zones after the change.
+   */
+  private final ZoneSnapshot zones;
+
+  /**
+   * Constructor.
+   *
+   * @param added The added zones.
+   * @param removed The removed zones.
+   * @param modifiedFrom The modified zones, before the change.
+   * @param modifiedTo The modified zones, after the change.
+   * @param zones The zones after the change.
+   */
+  public ZoneChangeEvent(ZoneSnapshot added, ZoneSnapshot removed,
+      ZoneSnapshot modifiedFrom, ZoneSnapshot modifiedTo, ZoneSnapshot zones) {
+    this.added = added;
+    this.removed = removed;
+    this.modifiedFrom = modifiedFrom;
+    this.modifiedTo = modifiedTo;
+    this.zones = zones;
+  }
+
+  /**
+   * @return The added zones.
+   */
+  public ZoneSnapshot getAdded() {
+    return added;
+  }
+
+  /**
+   * @return The removed zones, as they were before the change.
+   */
+  public ZoneSnapshot getRemoved() {
+    return removed;
+  }
+
+  /**
+   * @return The modified zones, before the change.
+   */
+  public ZoneSnapshot getModifiedFrom() {
+    return modifiedFrom;
+  }
+
+  /**
+   * @return The modified zones, after the change. The zone at an index is the
+   * new area of the zone at the same index in {@link #getModifiedFrom()}.
+   */
+  public ZoneSnapshot getModifiedTo() {
+    return modifiedTo;
+  }
+
+  /**
+   * @return The loaded zones after the change.
+   */
+  public ZoneSnapshot getZones() {
+    return zones;
+  }
+
+  /**
+   * @return <code>true</code> if nothing changed.
+   */
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && modifiedFrom.isEmpty();
+  }
+}
@@ -0,0 +1,162 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the steps of a change and folds them into the net delta. A zone is
+ * identified by its current area:
+ * <ul>
+ * <li>a zone added, then modified is added where it ends;</li>
+ * <li>a zone modified many times is modified once, from its first area to its
+ * last one, and not at all if it ends where it started;</li>
+ * <li>a zone added, then removed is not reported.</li>
+ * </ul>
+ */
+public class ZoneChanges {
+  /**
+   * The added zones, at their current area.
+   */
+  private final List<Rectangle> added = new ArrayList<Rectangle>();
+  /**
+   * The removed zones, at their area before the change.
+   */
+  private final List<Rectangle> removed = new ArrayList<Rectangle>();
+  /**
+   * The area before the change of the modified zones, by current area.
+   */
+  private final Map<Rectangle, Rectangle> modified = new LinkedHashMap<Rectangle, Rectangle>();
+
+  /**
+   * A zone was added.
+   *
+   * @param zone The zone.
+   */
+  public void added(Rectangle zone) {
+    // Removed and added back: no change.
+    if (!removed.remove(zone)) {
+      added.add(new Rectangle(zone));
+    }
+  }
+
+  /**
+   * A zone was removed.
+   *
+   * @param zone The zone, at its current area.
+   */
+  public void removed(Rectangle zone) {
+    if (!added.remove(zone)) {
+      Rectangle original = modified.remove(zone);
+      removed.add(new Rectangle(original != null ? original : zone));
+    }
+  }
+
+  /**
+   * A zone was modified.
+   *
+   * @param from The current area of the zone.
+   * @param to The new area of the zone.
+   */
+  public void modified(Rectangle from, Rectangle to) {
+    int addedIndex = added.indexOf(from);
+    if (addedIndex != -1) {
+      added.set(addedIndex, new Rectangle(to));
+      return;
+    }
+    Rectangle original = modified.remove(from);
+    if (original == null) {
+      original = new Rectangle(from);
+    }
+    if (!original.equals(to)) {
+      modified.put(new Rectangle(to), original);
+    }
+  }
+
+  /**
+   * Applies the net delta to the zones from before the change.
+   *
+   * @param zones The zones before the change. Not changed.
+   * @param area Only the added and modified zones that intersect or touch 
+   * this area are kept. <code>null</code> to keep all of them.
+   *
+   * @return The zones after the change: the ones before it that are still 
+   * there, in their order, then the added and modified ones.
+   */
+  public List<Rectangle> applyTo(List<Rectangle> zones, Rectangle area) {
+    List<Rectangle> result = new ArrayList<Rectangle>(zones);
+    if (!removed.isEmpty() || !modified.isEmpty()) {
+      // How many zones with each area are gone.
+      Map<Rectangle, Integer> gone = new HashMap<Rectangle, Integer>();
+      for (Rectangle zone : removed) {
+        count(gone, zone);
+      }
+      for (Rectangle zone : modified.values()) {
+        count(gone, zone);
+      }
+      for (Iterator<Rectangle> iterator = result.iterator(); iterator.hasNext() && !gone.isEmpty();) {
+        Rectangle zone = iterator.next();
+        Integer count = gone.get(zone);
+        if (count != null) {
+          iterator.remove();
+          if (count == 1) {
+            gone.remove(zone);
+          } else {
+            gone.put(zone, count - 1);
+          }
+        }
+      }
+    }
+    for (Rectangle zone : added) {
+      if (area == null || ZoneIndex.intersects(zone, area)) {
+        result.add(new Rectangle(zone));
+      }
+    }
+    for (Rectangle zone : modified.keySet()) {
+      if (area == null || ZoneIndex.intersects(zone, area)) {
+        result.add(new Rectangle(zone));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Counts one more zone with an area.
+   *
+   * @param counts The number of zones by area.
+   * @param zone The zone.
+   */
+  private static void count(Map<Rectangle, Integer> counts, Rectangle zone) {
+    Integer count = counts.get(zone);
+    counts.put(zone, count != null ? count + 1 : 1);
+  }
+
+  /**
+   * @return <code>true</code> if the steps so far cancel each other.
+   */
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+  }
+
+  /**
+   * Creates the event of the net change.
+   *
+   * @param zones The zones after the change.
+   *
+   * @return The event.
+   */
+  public ZoneChangeEvent toEvent(ZoneSnapshot zones) {
+    List<Rectangle> from = new ArrayList<Rectangle>(modified.size());
+    List<Rectangle> to = new ArrayList<Rectangle>(modified.size());
+    for (Map.Entry<Rectangle, Rectangle> entry : modified.entrySet()) {
+      from.add(entry.getValue());
+      to.add(entry.getKey());
+    }
+    return new ZoneChangeEvent(ZoneSnapshot.of(added), ZoneSnapshot.of(removed),
+        ZoneSnapshot.of(from), ZoneSnapshot.of(to), zones);
+  }
+}
@@ -0,0 +1,135 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+import com.oxygenxml.image.markup.zones.ZoneRelation.Kind;
+
+/**
+ * The containment tree of a set of zones: blocks contain lines, lines contain
+ * words. The parent of a zone is the smallest zone that contains it. Duplicates
+ * don't contain each other.
+ *
+ * The containment pairs come from the {@link OverlapAnalyzer}, so the tree is
+ * built in <code>O(n log n + k)</code>, <code>k</code> being the number of
+ * (zone, ancestor) pairs.
+ */
+public class ZoneHierarchy {
+  /**
+   * The parent of every zone. -1 for the top level.
+   */
+  private final int[] parents;
+  /**
+   * The depth of every zone, from 1 for the top level.
+   */
+  private final int[] depths;
+  /**
+   * The largest depth.
+   */
+  private final int maxDepth;
+
+  /**
+   * Constructor.
+   *
+   * @param parents The parent of every zone.
+   * @param depths The depth of every zone.
+   * @param maxDepth The largest depth.
+   */
+  private ZoneHierarchy(int[] parents, int[] depths, int maxDepth) {
+    this.parents = parents;
+    this.depths = depths;
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * Infers the containment tree of the given zones.
+   *
+   * @param zones The zones.
+   *
+   * @return The tree, by the indexes of the zones.
+   */
+  public static ZoneHierarchy compute(final List<Rectangle> zones) {
+    int n = zones.size();
+    final int[] parents = new int[n];
+    Arrays.fill(parents, -1);
+    final long[] areas = new long[n];
+    for (int i = 0; i < n; i++) {
+      Rectangle zone = zones.get(i);
+      areas[i] = (long) zone.width * zone.height;
+    }
+
+    OverlapAnalyzer.analyze(zones, new OverlapAnalyzer.Handler() {
+      @Override
+      public void relation(int first, int second, Kind kind) {
+        if (kind == Kind.CONTAINMENT) {
+          int current = parents[second];
+          if (current == -1 || areas[first] < areas[current] || (areas[first] == areas[current] && first < current)) {
+            parents[second] = first;
+          }
+        }
+      }
+    });
+
+    int[] depths = new int[n];
+    int maxDepth = 0;
+    for (int i = 0; i < n; i++) {
+      maxDepth = Math.max(maxDepth, depth(i, parents, depths));
+    }
+    return new ZoneHierarchy(parents, depths, maxDepth);
+  }
+
+  /**
+   * Computes the depth of a zone, and of its ancestors if not yet known.
+   *
+   * @return The depth of the zone.
+   */
+  private static int depth(int zone, int[] parents, int[] depths) {
+    if (depths[zone] == 0) {
+      // Walk up to the first known ancestor, then fill in the depths on the way down.
+      int known = zone;
+      int steps = 0;
+      while (parents[known] != -1 && depths[parents[known]] == 0) {
+        known = parents[known];
+        steps++;
+      }
+      int base = parents[known] == -1 ? 0 : depths[parents[known]];
+      depths[known] = base + 1;
+      int[] chain = new int[steps];
+      int current = zone;
+      for (int i = 0; i < steps; i++) {
+        chain[i] = current;
+        current = parents[current];
+      }
+      for (int i = steps - 1; i >= 0; i--) {
+        depths[chain[i]] = depths[parents[chain[i]]] + 1;
+      }
+    }
+    return depths[zone];
+  }
+
+  /**
+   * @param zone A zone.
+   *
+   * @return The smallest zone that contains it. -1 for the top level.
+   */
+  public int getParent(int zone) {
+    return parents[zone];
+  }
+
+  /**
+   * @param zone A zone.
+   *
+   * @return The depth of the zone, from 1 for the top level.
+   */
+  public int getDepth(int zone) {
+    return depths[zone];
+  }
+
+  /**
+   * @return The largest depth. 0 if there are no zones.
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+}
@@ -0,0 +1,257 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The zones of a surface, kept as primitive coordinate arrays sorted by their
+ * top. A zone is only turned into a {@link Rectangle} when it is requested, so
+ * a view can present the zones of its viewport without materializing the other
+ * ones.
+ *
+ * An area query finds the first zone that can intersect it with a binary
+ * search, in <code>O(log n + k)</code> for zones of similar heights.
+ */
+public class ZoneIndex {
+  /**
+   * Collects the zones of an index.
+   */
+  public static class Builder {
+    /**
+     * The coordinates of the zones, four values for each zone: left, top, right, bottom.
+     */
+    private int[] coordinates = new int[64];
+    /**
+     * The offset of every zone in the document.
+     */
+    private int[] offsets = new int[16];
+    /**
+     * The number of zones.
+     */
+    private int count;
+
+    /**
+     * Adds a zone. The zones are added in document order.
+     *
+     * @param ulx Left.
+     * @param uly Top.
+     * @param lrx Right.
+     * @param lry Bottom.
+     * @param offset The offset of the zone in the document.
+     *
+     * @return This builder.
+     */
+    public Builder add(int ulx, int uly, int lrx, int lry, int offset) {
+      if (count == offsets.length) {
+        coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      coordinates[4 * count] = ulx;
+      coordinates[4 * count + 1] = uly;
+      coordinates[4 * count + 2] = lrx;
+      coordinates[4 * count + 3] = lry;
+      offsets[count] = offset;
+      count++;
+      return this;
+    }
+
+    /**
+     * @return The index of the added zones.
+     */
+    public ZoneIndex build() {
+      // The top in the high half, the document position in the low one, so
+      // the zones with the same top keep their document order.
+      long[] keys = new long[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = ((long) coordinates[4 * i + 1] << 32) | i;
+      }
+      Arrays.sort(keys);
+      int[] sorted = new int[4 * count];
+      int[] positions = new int[count];
+      int[] sortedOffsets = new int[count];
+      int maxHeight = 0;
+      for (int i = 0; i < count; i++) {
+        int zone = (int) keys[i];
+        System.arraycopy(coordinates, 4 * zone, sorted, 4 * i, 4);
+        positions[i] = zone;
+        sortedOffsets[i] = offsets[zone];
+        maxHeight = Math.max(maxHeight, coordinates[4 * zone + 3] - coordinates[4 * zone + 1]);
+      }
+      return new ZoneIndex(sorted, positions, sortedOffsets, maxHeight);
+    }
+  }
+
+  /**
+   * The coordinates of the zones, sorted by top: left, top, right, bottom.
+   */
+  private final int[] coordinates;
+  /**
+   * The position of every zone in document order.
+   */
+  private final int[] positions;
+  /**
+   * The offset of every zone in the document.
+   */
+  private final int[] offsets;
+  /**
+   * The tallest zone. A zone that intersects an area starts at most this much
+   * above it.
+   */
+  private final int maxHeight;
+
+  /**
+   * Constructor.
+   *
+   * @param coordinates The coordinates of the zones, sorted by top.
+   * @param positions The position of every zone in document order.
+   * @param offsets The offset of every zone in the document.
+   * @param maxHeight The tallest zone.
+   */
+  private ZoneIndex(int[] coordinates, int[] positions, int[] offsets, int maxHeight) {
+    this.coordinates = coordinates;
+    this.positions = positions;
+    this.offsets = offsets;
+    this.maxHeight = maxHeight;
+  }
+
+  /**
+   * @return The number of zones.
+   */
+  public int size() {
+    return positions.length;
+  }
+
+  /**
+   * Finds the zones that intersect an area.
+   *
+   * @param area The area, in image coordinates.
+   *
+   * @return The zones, in document order.
+   */
+  public List<Rectangle> query(Rectangle area) {
+    // The first zone whose top is low enough to reach the area.
+    int low = findFirst((long) area.y - maxHeight);
+    long areaBottom = (long) area.y + area.height;
+    List<Integer> found = new ArrayList<Integer>();
+    for (int i = low; i < positions.length && coordinates[4 * i + 1] <= areaBottom; i++) {
+      if (intersects(i, area)) {
+        found.add(i);
+      }
+    }
+    return toAreas(found);
+  }
+
+  /**
+   * @return All the zones, in document order.
+   */
+  public List<Rectangle> getAll() {
+    return getAllOutside(null);
+  }
+
+  /**
+   * Gets the zones that a query of an area doesn't return.
+   *
+   * @param area The area, in image coordinates. <code>null</code> for all the zones.
+   *
+   * @return The zones, in document order.
+   */
+  public List<Rectangle> getAllOutside(Rectangle area) {
+    List<Integer> outside = new ArrayList<Integer>(positions.length);
+    for (int i = 0; i < positions.length; i++) {
+      if (area == null || !intersects(i, area)) {
+        outside.add(i);
+      }
+    }
+    return toAreas(outside);
+  }
+
+  /**
+   * Tells if a zone is returned by the query of an area. The zones that 
+   * touch the area are returned.
+   *
+   * @param zone The zone.
+   * @param area The area.
+   *
+   * @return <code>true</code> if the zone intersects or touches the area.
+   */
+  public static boolean intersects(Rectangle zone, Rectangle area) {
+    return (long) zone.x + zone.width >= area.x && zone.x <= (long) area.x + area.width
+        && (long) zone.y + zone.height >= area.y && zone.y <= (long) area.y + area.height;
+  }
+
+  /**
+   * @return <code>true</code> if the zone with the given index by top 
+   * intersects or touches the area.
+   */
+  private boolean intersects(int sortedIndex, Rectangle area) {
+    int k = 4 * sortedIndex;
+    return coordinates[k + 2] >= area.x && coordinates[k] <= (long) area.x + area.width
+        && coordinates[k + 3] >= area.y && coordinates[k + 1] <= (long) area.y + area.height;
+  }
+
+  /**
+   * Finds the offset of a zone in the document.
+   *
+   * @param zone The zone area.
+   *
+   * @return The offset of the first zone with this area, in document order. -1 if there is none.
+   */
+  public int getOffset(Rectangle zone) {
+    int offset = -1;
+    for (int i = findFirst(zone.y); i < positions.length && coordinates[4 * i + 1] == zone.y; i++) {
+      int k = 4 * i;
+      if (coordinates[k] == zone.x && coordinates[k + 2] == zone.x + zone.width
+          && coordinates[k + 3] == zone.y + zone.height && (offset == -1 || offsets[i] < offset)) {
+        offset = offsets[i];
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Binary search of the zones sorted by top.
+   *
+   * @param top A top coordinate.
+   *
+   * @return The first zone whose top is not above the given one.
+   */
+  private int findFirst(long top) {
+    int low = 0;
+    int high = positions.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (coordinates[4 * middle + 1] < top) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Materializes zones.
+   *
+   * @param sortedIndexes The indexes of the zones, by top.
+   *
+   * @return The zones, in document order.
+   */
+  private List<Rectangle> toAreas(List<Integer> sortedIndexes) {
+    int n = sortedIndexes.size();
+    long[] keys = new long[n];
+    for (int i = 0; i < n; i++) {
+      int sortedIndex = sortedIndexes.get(i);
+      keys[i] = ((long) positions[sortedIndex] << 32) | sortedIndex;
+    }
+    Arrays.sort(keys);
+    List<Rectangle> areas = new ArrayList<Rectangle>(n);
+    for (long key : keys) {
+      int k = 4 * (int) key;
+      areas.add(new Rectangle(coordinates[k], coordinates[k + 1],
+          coordinates[k + 2] - coordinates[k], coordinates[k + 3] - coordinates[k + 1]));
+    }
+    return areas;
+  }
+}
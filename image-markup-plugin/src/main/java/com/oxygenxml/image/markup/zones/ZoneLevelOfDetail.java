@@ -0,0 +1,258 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which zones are worth painting at a given scale. The zones are
+ * sorted by size once, so the zones above a size are a prefix of the order,
+ * found by a binary search. The zones below the size are summarized in a
+ * {@link Density} grid, computed once for every scale.
+ */
+public class ZoneLevelOfDetail {
+  /**
+   * How the zones too small to be seen are painted.
+   */
+  public static enum Mode {
+    /**
+     * All the zones are painted, whatever their size.
+     */
+    ALL,
+    /**
+     * The small zones are not painted.
+     */
+    SKIP,
+    /**
+     * The small zones are painted as cluster marks.
+     */
+    CLUSTER,
+    /**
+     * The small zones are painted as a density map.
+     */
+    HEATMAP
+  }
+
+  /**
+   * The number of small zone densities kept.
+   */
+  private static final int MAX_CACHED_DENSITIES = 8;
+
+  /**
+   * The counts of the small zones in a grid of square cells, by their center.
+   */
+  public static class Density {
+    /**
+     * The cell side, in image pixels.
+     */
+    private final double cellSize;
+    /**
+     * The number of columns.
+     */
+    private final int columns;
+    /**
+     * The number of rows.
+     */
+    private final int rows;
+    /**
+     * The zone count of every cell, row by row.
+     */
+    private final int[] counts;
+    /**
+     * The largest count.
+     */
+    private final int maxCount;
+
+    /**
+     * Constructor.
+     *
+     * @param cellSize The cell side, in image pixels.
+     * @param columns The number of columns.
+     * @param rows The number of rows.
+     * @param counts The zone count of every cell, row by row.
+     * @param maxCount The largest count.
+     */
+    Density(double cellSize, int columns, int rows, int[] counts, int maxCount) {
+      this.cellSize = cellSize;
+      this.columns = columns;
+      this.rows = rows;
+      this.counts = counts;
+      this.maxCount = maxCount;
+    }
+
+    /**
+     * @return The cell side, in image pixels.
+     */
+    public double getCellSize() {
+      return cellSize;
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    public int getColumns() {
+      return columns;
+    }
+
+    /**
+     * @return The number of rows.
+     */
+    public int getRows() {
+      return rows;
+    }
+
+    /**
+     * @param column The column.
+     * @param row The row.
+     *
+     * @return The number of zones centered in the cell.
+     */
+    public int getCount(int column, int row) {
+      return counts[row * columns + column];
+    }
+
+    /**
+     * @return The largest count.
+     */
+    public int getMaxCount() {
+      return maxCount;
+    }
+  }
+
+  /**
+   * The zones.
+   */
+  private final Rectangle[] zones;
+  /**
+   * The zone indexes, from the largest zone to the smallest one.
+   */
+  private final int[] bySize;
+  /**
+   * The sizes, in the order of {@link #bySize}.
+   */
+  private final int[] sizes;
+  /**
+   * The extents of all the zones.
+   */
+  private final Rectangle bounds;
+  /**
+   * The computed densities, by cell size and zone size.
+   */
+  private final Map<String, Density> densities = new LinkedHashMap<String, Density>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Density> eldest) {
+      return size() > MAX_CACHED_DENSITIES;
+    }
+  };
+
+  /**
+   * Constructor.
+   *
+   * @param zones The zones.
+   */
+  public ZoneLevelOfDetail(List<Rectangle> zones) {
+    int n = zones.size();
+    this.zones = zones.toArray(new Rectangle[n]);
+    // Sort keys: the complement of the size in the high half, the index in the low half.
+    long[] keys = new long[n];
+    Rectangle extents = null;
+    for (int i = 0; i < n; i++) {
+      Rectangle zone = this.zones[i];
+      keys[i] = ((long) (Integer.MAX_VALUE - size(zone)) << 32) | i;
+      extents = extents == null ? new Rectangle(zone) : extents.union(zone);
+    }
+    Arrays.sort(keys);
+    bySize = new int[n];
+    sizes = new int[n];
+    for (int i = 0; i < n; i++) {
+      bySize[i] = (int) keys[i];
+      sizes[i] = size(this.zones[bySize[i]]);
+    }
+    bounds = extents != null ? extents : new Rectangle();
+  }
+
+  /**
+   * @return The size of a zone: its largest side.
+   */
+  private static int size(Rectangle zone) {
+    return Math.max(zone.width, zone.height);
+  }
+
+  /**
+   * Counts the zones that are at least as large as the given size.
+   *
+   * @param minSize The size, in image pixels.
+   *
+   * @return The number of zones. They are the first ones in {@link #getZone(int)} order.
+   */
+  public int countLarger(double minSize) {
+    // The first zone smaller than the size.
+    int low = 0;
+    int high = sizes.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sizes[middle] >= minSize) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @param rank The rank of a zone by size, from 0 for the largest one.
+   *
+   * @return The index of the zone.
+   */
+  public int getZone(int rank) {
+    return bySize[rank];
+  }
+
+  /**
+   * @return The number of zones.
+   */
+  public int getZoneCount() {
+    return bySize.length;
+  }
+
+  /**
+   * Summarizes the zones smaller than a size.
+   *
+   * @param cellSize The cell side, in image pixels.
+   * @param minSize The size, in image pixels. The zones at least this large are not counted.
+   *
+   * @return The counts of the small zones.
+   */
+  public Density getDensity(double cellSize, double minSize) {
+    String key = cellSize + ":" + minSize;
+    Density density = densities.get(key);
+    if (density == null) {
+      int columns = Math.max(1, (int) Math.ceil((bounds.x + bounds.width) / cellSize));
+      int rows = Math.max(1, (int) Math.ceil((bounds.y + bounds.height) / cellSize));
+      int[] counts = new int[columns * rows];
+      int maxCount = 0;
+      for (int rank = countLarger(minSize); rank < bySize.length; rank++) {
+        Rectangle zone = zones[bySize[rank]];
+        int column = clamp((int) ((zone.x + zone.width / 2) / cellSize), columns);
+        int row = clamp((int) ((zone.y + zone.height / 2) / cellSize), rows);
+        int count = ++counts[row * columns + column];
+        if (count > maxCount) {
+          maxCount = count;
+        }
+      }
+      density = new Density(cellSize, columns, rows, counts, maxCount);
+      densities.put(key, density);
+    }
+    return density;
+  }
+
+  /**
+   * Clamps a cell coordinate to <code>[0, max)</code>.
+   */
+  private static int clamp(int value, int max) {
+    return value < 0 ? 0 : (value >= max ? max - 1 : value);
+  }
+}
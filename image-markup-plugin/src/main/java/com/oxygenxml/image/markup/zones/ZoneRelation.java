@@ -0,0 +1,79 @@
+package com.oxygenxml.image.markup.zones;
+
+/**
+ * A spatial relation between two zones, identified by their indexes.
+ */
+public class ZoneRelation {
+  /**
+   * The kind of relation.
+   */
+  public static enum Kind {
+    /**
+     * The zones overlap, neither contains the other.
+     */
+    OVERLAP,
+    /**
+     * The first zone contains the second one.
+     */
+    CONTAINMENT,
+    /**
+     * The zones have the same coordinates.
+     */
+    DUPLICATE
+  }
+
+  /**
+   * The first zone. The container, for a containment.
+   */
+  private final int first;
+  /**
+   * The second zone. The contained zone, for a containment.
+   */
+  private final int second;
+  /**
+   * The kind of relation.
+   */
+  private final Kind kind;
+
+  /**
+   * Constructor.
+   *
+   * @param first The first zone. The container, for a containment.
+   * @param second The second zone. The contained zone, for a containment.
+   * @param kind The kind of relation.
+   */
+  public ZoneRelation(int first, int second, Kind kind) {
+    this.first = first;
+    this.second = second;
+    this.kind = kind;
+  }
+
+  /**
+   * @return The first zone. The container, for a containment.
+   */
+  public int getFirst() {
+    return first;
+  }
+
+  /**
+   * @return The second zone. The contained zone, for a containment.
+   */
+  public int getSecond() {
+    return second;
+  }
+
+  /**
+   * @return The kind of relation.
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return kind + "(" + first + ", " + second + ")";
+  }
+}
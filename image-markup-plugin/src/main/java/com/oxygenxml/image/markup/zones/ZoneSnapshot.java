@@ -0,0 +1,288 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable version of the zones. Every change creates a new version and
+ * the old one stays as it was, so a background task can read a version while
+ * the view changes the zones, without locks and without copying them.
+ * <p>
+ * The zones are kept in chunks of primitive coordinates. A change copies only
+ * the chunk it touches and the table of chunks; the new version shares all the
+ * other chunks with the old one.
+ * <p>
+ * The zones are returned as new rectangles, changing them changes nothing.
+ */
+public final class ZoneSnapshot extends AbstractList<Rectangle> implements RandomAccess {
+  /**
+   * The maximum number of zones in a chunk.
+   */
+  private static final int CHUNK_SIZE = 32;
+  /**
+   * The last version given to a snapshot.
+   */
+  private static final AtomicLong VERSIONS = new AtomicLong();
+  /**
+   * No zones.
+   */
+  public static final ZoneSnapshot EMPTY = new ZoneSnapshot(new int[0][], new int[0], 0, 0);
+
+  /**
+   * The chunks, four values for each zone: left, top, width, height.
+   */
+  private final int[][] chunks;
+  /**
+   * The index of the first zone of every chunk.
+   */
+  private final int[] starts;
+  /**
+   * The number of zones.
+   */
+  private final int size;
+  /**
+   * The version. A later version has a larger number.
+   */
+  private final long version;
+
+  /**
+   * Constructor.
+   *
+   * @param chunks The chunks.
+   * @param starts The index of the first zone of every chunk.
+   * @param size The number of zones.
+   * @param version The version.
+   */
+  private ZoneSnapshot(int[][] chunks, int[] starts, int size, long version) {
+    this.chunks = chunks;
+    this.starts = starts;
+    this.size = size;
+    this.version = version;
+  }
+
+  /**
+   * Creates a version with the given zones.
+   *
+   * @param zones The zones.
+   *
+   * @return The new version.
+   */
+  public static ZoneSnapshot of(Collection<? extends Rectangle> zones) {
+    int count = zones.size();
+    int chunkCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    int[][] chunks = new int[chunkCount][];
+    int[] starts = new int[chunkCount];
+    int i = 0;
+    for (Rectangle zone : zones) {
+      int chunk = i / CHUNK_SIZE;
+      if (i % CHUNK_SIZE == 0) {
+        chunks[chunk] = new int[4 * Math.min(CHUNK_SIZE, count - i)];
+        starts[chunk] = i;
+      }
+      put(chunks[chunk], i % CHUNK_SIZE, zone);
+      i++;
+    }
+    return new ZoneSnapshot(chunks, starts, count, VERSIONS.incrementAndGet());
+  }
+
+  /**
+   * @return The version. A later version has a larger number.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @see java.util.AbstractCollection#size()
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return A copy of the zone.
+   *
+   * @see java.util.AbstractList#get(int)
+   */
+  @Override
+  public Rectangle get(int index) {
+    checkIndex(index);
+    int chunk = findChunk(index);
+    int k = 4 * (index - starts[chunk]);
+    int[] values = chunks[chunk];
+    return new Rectangle(values[k], values[k + 1], values[k + 2], values[k + 3]);
+  }
+
+  /**
+   * Creates a version with one more zone, at the end.
+   *
+   * @param zone The added zone.
+   *
+   * @return The new version.
+   */
+  public ZoneSnapshot with(Rectangle zone) {
+    int last = chunks.length - 1;
+    if (last >= 0 && chunks[last].length < 4 * CHUNK_SIZE) {
+      int[] grown = Arrays.copyOf(chunks[last], chunks[last].length + 4);
+      put(grown, grown.length / 4 - 1, zone);
+      int[][] newChunks = chunks.clone();
+      newChunks[last] = grown;
+      return new ZoneSnapshot(newChunks, starts, size + 1, VERSIONS.incrementAndGet());
+    }
+    int[] added = new int[4];
+    put(added, 0, zone);
+    int[][] newChunks = Arrays.copyOf(chunks, chunks.length + 1);
+    newChunks[chunks.length] = added;
+    int[] newStarts = Arrays.copyOf(starts, starts.length + 1);
+    newStarts[starts.length] = size;
+    return new ZoneSnapshot(newChunks, newStarts, size + 1, VERSIONS.incrementAndGet());
+  }
+
+  /**
+   * Creates a version without a zone.
+   *
+   * @param index The index of the removed zone.
+   *
+   * @return The new version.
+   */
+  public ZoneSnapshot without(int index) {
+    checkIndex(index);
+    int chunk = findChunk(index);
+    int[] values = chunks[chunk];
+    int k = 4 * (index - starts[chunk]);
+    int[][] newChunks;
+    int[] newStarts;
+    if (values.length == 4) {
+      // The chunk is dropped.
+      newChunks = new int[chunks.length - 1][];
+      newStarts = new int[starts.length - 1];
+      System.arraycopy(chunks, 0, newChunks, 0, chunk);
+      System.arraycopy(chunks, chunk + 1, newChunks, chunk, chunks.length - chunk - 1);
+      System.arraycopy(starts, 0, newStarts, 0, chunk);
+      for (int i = chunk + 1; i < starts.length; i++) {
+        newStarts[i - 1] = starts[i] - 1;
+      }
+    } else {
+      int[] shrunk = new int[values.length - 4];
+      System.arraycopy(values, 0, shrunk, 0, k);
+      System.arraycopy(values, k + 4, shrunk, k, values.length - k - 4);
+      newChunks = chunks.clone();
+      newChunks[chunk] = shrunk;
+      newStarts = starts.clone();
+      for (int i = chunk + 1; i < newStarts.length; i++) {
+        newStarts[i]--;
+      }
+    }
+    return new ZoneSnapshot(newChunks, newStarts, size - 1, VERSIONS.incrementAndGet());
+  }
+
+  /**
+   * Creates a version with a zone changed.
+   *
+   * @param index The index of the changed zone.
+   * @param zone The new area of the zone.
+   *
+   * @return The new version.
+   */
+  public ZoneSnapshot replace(int index, Rectangle zone) {
+    checkIndex(index);
+    int chunk = findChunk(index);
+    int[] changed = chunks[chunk].clone();
+    put(changed, index - starts[chunk], zone);
+    int[][] newChunks = chunks.clone();
+    newChunks[chunk] = changed;
+    return new ZoneSnapshot(newChunks, starts, size, VERSIONS.incrementAndGet());
+  }
+
+  /**
+   * Compares the coordinates, without creating the rectangles.
+   *
+   * @see java.util.AbstractList#indexOf(java.lang.Object)
+   */
+  @Override
+  public int indexOf(Object o) {
+    if (o instanceof Rectangle) {
+      Rectangle zone = (Rectangle) o;
+      for (int chunk = 0; chunk < chunks.length; chunk++) {
+        int[] values = chunks[chunk];
+        for (int k = 0; k < values.length; k += 4) {
+          if (matches(values, k, zone)) {
+            return starts[chunk] + k / 4;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compares the coordinates, without creating the rectangles.
+   *
+   * @see java.util.AbstractList#lastIndexOf(java.lang.Object)
+   */
+  @Override
+  public int lastIndexOf(Object o) {
+    if (o instanceof Rectangle) {
+      Rectangle zone = (Rectangle) o;
+      for (int chunk = chunks.length - 1; chunk >= 0; chunk--) {
+        int[] values = chunks[chunk];
+        for (int k = values.length - 4; k >= 0; k -= 4) {
+          if (matches(values, k, zone)) {
+            return starts[chunk] + k / 4;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @see java.util.AbstractCollection#contains(java.lang.Object)
+   */
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) != -1;
+  }
+
+  /**
+   * @return The chunk that holds the zone with the given index.
+   */
+  private int findChunk(int index) {
+    int found = Arrays.binarySearch(starts, index);
+    // Not a chunk start: the chunk before the insertion point.
+    return found >= 0 ? found : -found - 2;
+  }
+
+  /**
+   * @throws IndexOutOfBoundsException If the index is not the one of a zone.
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the values at the given offset are the coordinates of the zone.
+   */
+  private static boolean matches(int[] values, int k, Rectangle zone) {
+    return values[k] == zone.x && values[k + 1] == zone.y
+        && values[k + 2] == zone.width && values[k + 3] == zone.height;
+  }
+
+  /**
+   * Writes the coordinates of a zone in a chunk.
+   */
+  private static void put(int[] chunk, int position, Rectangle zone) {
+    int k = 4 * position;
+    chunk[k] = zone.x;
+    chunk[k + 1] = zone.y;
+    chunk[k + 2] = zone.width;
+    chunk[k + 3] = zone.height;
+  }
+}
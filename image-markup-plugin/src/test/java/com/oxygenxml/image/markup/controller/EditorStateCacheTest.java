@@ -0,0 +1,102 @@
+package com.oxygenxml.image.markup.controller;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.net.URL;
+
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+import com.oxygenxml.image.markup.image.ImageHandle;
+import com.oxygenxml.image.markup.image.ImageTileSource;
+import com.oxygenxml.image.markup.zones.ZoneIndex;
+
+/**
+ * Tests for the cache of the editor states.
+ */
+public class EditorStateCacheTest extends TestCase {
+
+  /**
+   * The least recently used states are dropped, the images are kept only for
+   * the most recent ones.
+   */
+  public void testEviction() throws Exception {
+    EditorStateCache cache = new EditorStateCache(3, 2);
+    PlainDocument[] documents = new PlainDocument[4];
+    EditorState[] states = new EditorState[4];
+    for (int i = 0; i < states.length; i++) {
+      documents[i] = new PlainDocument();
+      states[i] = createState(documents[i], "" + (char) ('a' + i));
+      assertEquals(1, documents[i].getDocumentListeners().length);
+    }
+    cache.put("a", states[0]);
+    cache.put("b", states[1]);
+    cache.put("c", states[2]);
+    assertFalse(states[0].hasImage());
+    assertTrue(states[1].hasImage());
+    assertTrue(states[2].hasImage());
+
+    cache.put("d", states[3]);
+    assertEquals(3, cache.size());
+    assertEquals("b", cache.getEditorLocations().get(0));
+    // The evicted state no longer listens to its document.
+    assertEquals(0, documents[0].getDocumentListeners().length);
+    assertFalse(states[1].hasImage());
+
+    EditorState taken = cache.take("b");
+    assertSame(states[1], taken);
+    assertEquals(2, cache.size());
+    assertNull(cache.take("b"));
+    // The image was released, it is decoded again from its location.
+    assertNull(taken.takeImage());
+    assertEquals(new URL("file:/b.png"), taken.getImageURL());
+
+    cache.remove("c");
+    assertEquals(0, documents[2].getDocumentListeners().length);
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, documents[3].getDocumentListeners().length);
+  }
+
+  /**
+   * The zones are reused only if the document didn't change.
+   */
+  public void testModificationStamp() throws Exception {
+    PlainDocument document = new PlainDocument();
+    document.insertString(0, "<TEI/>", null);
+    EditorState state = createState(document, "p");
+    assertNotNull(state.getZones());
+    assertEquals(1.5, state.getScale(), 0);
+
+    document.insertString(0, " ", null);
+    assertEquals(1, state.getModificationStamp());
+    assertNull(state.getZones());
+
+    // Read again.
+    state.setZones(new ZoneIndex.Builder().build(), null);
+    assertNotNull(state.getZones());
+    state.detach();
+    document.remove(0, 1);
+    assertEquals(1, state.getModificationStamp());
+    assertNotNull(state.getZones());
+  }
+
+  /**
+   * Creates a state with an image and zones.
+   *
+   * @param document The document of the editor.
+   * @param name The name of the image.
+   *
+   * @return The state.
+   */
+  private static EditorState createState(PlainDocument document, String name) throws Exception {
+    EditorState state = new EditorState(document);
+    BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+    URL url = new URL("file:/" + name + ".png");
+    state.setImage(name + ".png", url, new ImageHandle(url, new Dimension(10, 10), new ImageTileSource(image, 256), image));
+    state.setZones(new ZoneIndex.Builder().add(0, 0, 5, 5, 0).build(), null);
+    state.setView(1.5, 0, 0, null);
+    return state;
+  }
+}
@@ -0,0 +1,83 @@
+package com.oxygenxml.image.markup.controller;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import javax.swing.JScrollPane;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the transform between the image and the view.
+ */
+public class ImageScaleSupportTest extends TestCase {
+
+  /**
+   * Without rotation, the coordinates are only scaled.
+   */
+  public void testScale() {
+    ImageScaleSupport support = new ImageScaleSupport(new JScrollPane());
+    support.setImageSize(new Dimension(200, 100));
+    support.zoomIn();
+    assertEquals(new Point(20, 10), support.applyScale(new Point(10, 5)));
+    assertEquals(new Point(10, 5), support.getOriginal(new Point(21, 11)));
+    assertEquals(new Rectangle(20, 10, 40, 20), support.applyScale(new Rectangle(10, 5, 20, 10)));
+    assertEquals(new Dimension(400, 200), support.getViewSize());
+  }
+
+  /**
+   * The quarter turns are exact and notify the listeners.
+   */
+  public void testQuarterTurns() {
+    ImageScaleSupport support = new ImageScaleSupport(new JScrollPane());
+    support.setImageSize(new Dimension(200, 100));
+    final int[] events = new int[1];
+    support.addScaleListener(new ScaleListener() {
+      @Override
+      public void scaleEvent(double oldScale, double newScale) {
+        events[0]++;
+      }
+    });
+    support.rotateClockwise();
+    assertEquals(1, events[0]);
+    assertTrue(support.isAxisAligned());
+    assertEquals(new Dimension(100, 200), support.getViewSize());
+    // The top left corner goes to the top right.
+    assertEquals(new Point(100, 0), support.applyScale(new Point(0, 0)));
+    assertEquals(new Point(90, 20), support.applyScale(new Point(20, 10)));
+    assertEquals(new Rectangle(80, 20, 10, 30), support.applyScale(new Rectangle(20, 10, 30, 10)));
+    assertEquals(new Point(20, 10), support.getOriginal(new Point(90, 20)));
+
+    support.rotateClockwise();
+    support.rotateClockwise();
+    support.rotateClockwise();
+    assertEquals(0, support.getQuadrants());
+    assertEquals(new Point(20, 10), support.applyScale(new Point(20, 10)));
+
+    // A new image is not rotated.
+    support.rotateClockwise();
+    support.setImageSize(new Dimension(50, 50));
+    assertEquals(0, support.getQuadrants());
+  }
+
+  /**
+   * A deskewed view grows to hold the rotated image and maps the points back.
+   */
+  public void testSkew() {
+    ImageScaleSupport support = new ImageScaleSupport(new JScrollPane());
+    support.setImageSize(new Dimension(1000, 500));
+    support.setSkewAngle(-2);
+    assertFalse(support.isAxisAligned());
+    Dimension viewSize = support.getViewSize();
+    assertTrue(viewSize.width > 1000);
+    assertTrue(viewSize.height > 500);
+    for (Point p : new Point[] {new Point(0, 0), new Point(999, 499), new Point(321, 123)}) {
+      Point view = support.applyScale(p);
+      assertTrue(new Rectangle(viewSize).contains(view));
+      Point original = support.getOriginal(view);
+      assertTrue(Math.abs(original.x - p.x) <= 1);
+      assertTrue(Math.abs(original.y - p.y) <= 1);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.oxygenxml.image.markup.detect;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the summed-area table and the snapping of zones to the ink.
+ */
+public class ContentSnapperTest extends TestCase {
+
+  /**
+   * The table counts the same ink as a direct scan.
+   */
+  public void testCount() {
+    Random random = new Random(7);
+    BinaryImage ink = new BinaryImage(301, 517);
+    for (int i = 0; i < 5000; i++) {
+      ink.setInk(random.nextInt(301), random.nextInt(517));
+    }
+    IntegralImage integral = new IntegralImage(ink);
+    for (int i = 0; i < 200; i++) {
+      int x1 = random.nextInt(301);
+      int y1 = random.nextInt(517);
+      int x2 = x1 + random.nextInt(301 - x1 + 1);
+      int y2 = y1 + random.nextInt(517 - y1 + 1);
+      int expected = 0;
+      for (int y = y1; y < y2; y++) {
+        expected += ink.countRow(y, x1, x2);
+      }
+      assertEquals(expected, integral.count(x1, y1, x2, y2));
+    }
+  }
+
+  /**
+   * A loose zone shrinks to the ink and a tight one grows over the cut glyphs.
+   */
+  public void testSnap() {
+    BinaryImage ink = new BinaryImage(400, 300);
+    fill(ink, new Rectangle(100, 100, 120, 20));
+    ContentSnapper snapper = new ContentSnapper(new IntegralImage(ink));
+
+    assertEquals(new Rectangle(100, 100, 120, 20), snapper.snap(new Rectangle(80, 90, 170, 40)));
+    assertEquals(new Rectangle(100, 100, 120, 20), snapper.snap(new Rectangle(105, 103, 110, 14)));
+    // No ink, no change.
+    Rectangle empty = new Rectangle(300, 200, 20, 20);
+    assertSame(empty, snapper.snap(empty));
+  }
+
+  /**
+   * The ink of an image read with a subsampling snaps zones in image pixels.
+   */
+  public void testScaled() {
+    BinaryImage ink = new BinaryImage(100, 75);
+    fill(ink, new Rectangle(25, 25, 30, 5));
+    IntegralImage integral = new IntegralImage(ink, 4);
+    assertEquals(400, integral.getWidth());
+    assertEquals(4, integral.getFactor());
+    ContentSnapper snapper = new ContentSnapper(integral);
+
+    // The zone edges move by whole ink pixels.
+    assertEquals(new Rectangle(100, 100, 120, 20), snapper.snap(new Rectangle(80, 88, 172, 40)));
+  }
+
+  /**
+   * Marks an area as ink.
+   */
+  private static void fill(BinaryImage ink, Rectangle area) {
+    for (int y = area.y; y < area.y + area.height; y++) {
+      for (int x = area.x; x < area.x + area.width; x++) {
+        ink.setInk(x, y);
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.oxygenxml.image.markup.detect;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the text block and line detection.
+ */
+public class LayoutDetectorTest extends TestCase {
+
+  /**
+   * Draws a paragraph made of words.
+   *
+   * @param g Graphics to draw into.
+   * @param x Left margin.
+   * @param y Top of the first line.
+   * @param lines Number of lines.
+   */
+  private static void drawParagraph(Graphics2D g, int x, int y, int lines) {
+    for (int line = 0; line < lines; line++) {
+      int wx = x;
+      for (int word = 0; word < 8; word++) {
+        g.fillRect(wx, y + line * 24, 40, 16);
+        wx += 50;
+      }
+    }
+  }
+
+  /**
+   * Two paragraphs, far apart, are two blocks and their lines are found.
+   */
+  public void testBlocksAndLines() {
+    BufferedImage image = new BufferedImage(1000, 1400, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, 1000, 1400);
+    g.setColor(Color.BLACK);
+    drawParagraph(g, 100, 100, 3);
+    drawParagraph(g, 100, 600, 2);
+    g.dispose();
+
+    LayoutDetector.Result result = new LayoutDetector().detect(image);
+    assertEquals(2, result.getBlocks().size());
+    assertEquals(new Rectangle(100, 100, 390, 64), result.getBlocks().get(0));
+    assertEquals(new Rectangle(100, 600, 390, 40), result.getBlocks().get(1));
+
+    assertEquals(5, result.getLines().size());
+    assertEquals(new Rectangle(100, 124, 390, 16), result.getLines().get(1));
+    assertEquals(new Rectangle(100, 624, 390, 16), result.getLines().get(4));
+  }
+
+  /**
+   * The Otsu threshold separates two luminance populations.
+   */
+  public void testOtsu() {
+    long[] histogram = new long[256];
+    histogram[30] = 100;
+    histogram[220] = 900;
+    int threshold = Binarizer.otsu(histogram);
+    assertTrue(threshold >= 30 && threshold < 220);
+  }
+}
@@ -0,0 +1,59 @@
+package com.oxygenxml.image.markup.detect;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the skew detection.
+ */
+public class SkewDetectorTest extends TestCase {
+
+  /**
+   * Draws a page of text lines, rotated around its center.
+   *
+   * @param degrees The rotation, clockwise.
+   *
+   * @return The page.
+   */
+  private static BufferedImage drawPage(double degrees) {
+    BufferedImage image = new BufferedImage(1000, 1200, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, 1000, 1200);
+    g.setColor(Color.BLACK);
+    g.rotate(Math.toRadians(degrees), 500, 600);
+    for (int line = 0; line < 30; line++) {
+      int x = 150;
+      for (int word = 0; word < 10; word++) {
+        g.fillRect(x, 150 + line * 30, 50, 12);
+        x += 70;
+      }
+    }
+    g.dispose();
+    return image;
+  }
+
+  /**
+   * The angle of the lines is found, in both directions.
+   */
+  public void testSkew() {
+    assertEquals(2, new SkewDetector().detect(drawPage(2)), 0.1);
+    assertEquals(-3.5, new SkewDetector().detect(drawPage(-3.5)), 0.1);
+    assertEquals(0, new SkewDetector().detect(drawPage(0)), 0.1);
+  }
+
+  /**
+   * A page without ink is not skewed.
+   */
+  public void testBlankPage() {
+    BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, 300, 200);
+    g.dispose();
+    assertEquals(0.0, new SkewDetector().detect(image));
+  }
+}
@@ -0,0 +1,136 @@
+package com.oxygenxml.image.markup.enhance;
+
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+import com.oxygenxml.image.markup.image.ImageTileSource;
+
+/**
+ * Tests for the image enhancement.
+ */
+public class EnhancementTest extends TestCase {
+
+  /**
+   * The levels, the gamma and the inversion are folded in one table.
+   */
+  public void testLookupTable() {
+    int[] identity = Enhancement.NONE.createLookupTable();
+    for (int i = 0; i < 256; i++) {
+      assertEquals(i, identity[i]);
+    }
+    assertTrue(Enhancement.NONE.isIdentity());
+    assertTrue(new Enhancement(0, 255, 1, false, false, false).isIdentity());
+
+    int[] levels = new Enhancement(50, 150, 1, false, false, false).createLookupTable();
+    assertEquals(0, levels[10]);
+    assertEquals(0, levels[50]);
+    assertEquals(128, levels[100]);
+    assertEquals(255, levels[150]);
+    assertEquals(255, levels[200]);
+
+    int[] gamma = new Enhancement(0, 255, 2, false, false, true).createLookupTable();
+    assertEquals(255, gamma[0]);
+    assertEquals(0, gamma[255]);
+    // sqrt(0.25) = 0.5
+    assertEquals(255 - 128, gamma[64]);
+
+    assertEquals(new Enhancement(1, 2, 1.5, true, false, true), new Enhancement(1, 2, 1.5, true, false, true));
+    assertEquals(new Enhancement(1, 2, 1.5, true, false, true).hashCode(), new Enhancement(1, 2, 1.5, true, false, true).hashCode());
+    assertFalse(new Enhancement(1, 2, 1.5, true, false, true).equals(new Enhancement(1, 2, 1.5, true, true, true)));
+  }
+
+  /**
+   * Grayscale and invert are applied to every pixel, the tiles keep their
+   * geometry and are computed once.
+   */
+  public void testTiles() throws Exception {
+    BufferedImage image = new BufferedImage(300, 100, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(10, 10, 0xFF0000);
+    image.setRGB(290, 90, 0xFFFFFF);
+    EnhancedTileSource tiles = new EnhancedTileSource(
+        new ImageTileSource(image, 256), new Enhancement(0, 255, 1, false, true, true));
+    assertEquals(300, tiles.getWidth());
+    assertEquals(2, tiles.getLevelCount());
+
+    BufferedImage tile = tiles.getTile(0, 0, 0);
+    // Red has a luminance of 76.
+    assertEquals(0xFFFFFF & ((255 - 76) * 0x010101), tile.getRGB(10, 10) & 0xFFFFFF);
+    assertEquals(0xFFFFFF, tile.getRGB(0, 0) & 0xFFFFFF);
+    assertEquals(0, tiles.getTile(0, 1, 0).getRGB(290 - 256, 90) & 0xFFFFFF);
+    assertSame(tile, tiles.getTile(0, 0, 0));
+  }
+
+  /**
+   * The local contrast stretches a faded tile, without
+   * visible steps between the regions.
+   */
+  public void testLocalContrast() throws Exception {
+    BufferedImage image = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 256; y++) {
+      for (int x = 0; x < 512; x++) {
+        // Faded gradients: from 100 to 131 on the left, from 120 to 151 on the right.
+        int value = (x < 256 ? 100 : 120) + (x % 256) / 8;
+        image.setRGB(x, y, value * 0x010101);
+      }
+      // The same value on both sides of the border.
+      image.setRGB(255, y, 125 * 0x010101);
+      image.setRGB(256, y, 125 * 0x010101);
+    }
+    EnhancedTileSource tiles = new EnhancedTileSource(
+        new ImageTileSource(image, 256), new Enhancement(0, 255, 1, true, false, false));
+    assertFalse(tiles.isPrepared(0, 0, 1, 0, 0));
+    assertNull(tiles.getCachedTile(0, 1, 0));
+    assertEquals(2, tiles.prepare(0, 0, 1, 0, 0));
+    assertTrue(tiles.isPrepared(0, 0, 1, 0, 0));
+    // Nothing left to compute.
+    assertEquals(0, tiles.prepare(0, 0, 1, 0, 0));
+    BufferedImage left = tiles.getTile(0, 0, 0);
+    assertSame(left, tiles.getCachedTile(0, 0, 0));
+    BufferedImage right = tiles.getTile(0, 1, 0);
+    int darkest = left.getRGB(0, 128) & 0xFF;
+    int lightest = left.getRGB(250, 128) & 0xFF;
+    // The clip limit keeps the stretch moderate.
+    assertTrue(darkest < 100);
+    assertTrue(lightest - darkest > 2 * 31);
+
+    // The mappings are interpolated across the border, so the same value
+    // doesn't make a step there.
+    int before = left.getRGB(255, 128) & 0xFF;
+    int after = right.getRGB(0, 128) & 0xFF;
+    assertTrue(Math.abs(before - after) <= 2);
+
+    int[] histogram = new int[256];
+    histogram[10] = 1000;
+    int[] mapping = EnhancedTileSource.equalize(histogram, 1000);
+    // Clipped, so a single value doesn't take the whole range.
+    assertTrue(mapping[10] < 255);
+    assertEquals(255, mapping[255]);
+  }
+
+  /**
+   * A range with more tiles than the cache keeps is prepared once, its tiles 
+   * don't evict each other.
+   */
+  public void testLargeRange() throws Exception {
+    BufferedImage image = new BufferedImage(1024, 640, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        image.setRGB(x, y, ((x ^ y) & 0xFF) * 0x010101);
+      }
+    }
+    EnhancedTileSource tiles = new EnhancedTileSource(
+        new ImageTileSource(image, 64), new Enhancement(0, 255, 1, true, false, false));
+    assertTrue(16 * 10 > EnhancedTileSource.MIN_CACHED_TILES);
+    assertEquals(16 * 10, tiles.prepare(0, 0, 15, 0, 9));
+    assertTrue(tiles.isPrepared(0, 0, 15, 0, 9));
+    // The round settles nothing new, so the viewer stops repainting.
+    assertEquals(0, tiles.prepare(0, 0, 15, 0, 9));
+    assertNotNull(tiles.getCachedTile(0, 0, 0));
+
+    // Sized down by the viewer, the cache keeps its own minimum.
+    tiles.setCachedTileCount(10);
+    assertFalse(tiles.isPrepared(0, 0, 15, 0, 9));
+    assertEquals(16 * 10 - EnhancedTileSource.MIN_CACHED_TILES, tiles.prepare(0, 0, 15, 0, 9));
+  }
+}
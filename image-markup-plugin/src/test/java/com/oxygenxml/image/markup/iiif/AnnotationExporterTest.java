@@ -0,0 +1,151 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the export of zones as W3C Web Annotations.
+ */
+public class AnnotationExporterTest extends TestCase {
+  /**
+   * The output folder.
+   */
+  private File outputDir;
+
+  /**
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    outputDir = File.createTempFile("annotations", "");
+    outputDir.delete();
+    outputDir.mkdirs();
+  }
+
+  /**
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : outputDir.listFiles()) {
+      file.delete();
+    }
+    outputDir.delete();
+  }
+
+  /**
+   * Every surface with zones gets its own annotation page.
+   */
+  public void testExportDocument() throws Exception {
+    String tei =
+        "<TEI xmlns='http://www.tei-c.org/ns/1.0'><facsimile>"
+        + "<surface xml:id='p1'><graphic url='img/p1.jpg'/>"
+        + "<zone xml:id='z1' ulx='10' uly='20' lrx='110' lry='70'/>"
+        + "<zone points='5,5 15,5 15,25.5'/>"
+        + "</surface>"
+        + "<surface xml:id='p2'><graphic url='img/p2.jpg'/></surface>"
+        + "</facsimile></TEI>";
+    AnnotationExporter exporter = new AnnotationExporter(outputDir, null);
+    int pages = exporter.exportDocument(new StringReader(tei), "file:/corpus/doc.xml", "doc");
+    assertEquals(1, pages);
+
+    File page = new File(outputDir, "doc-p1.json");
+    String json = read(page);
+    String pageID = page.toURI().toString();
+    assertEquals(
+        "{\"@context\":\"http://www.w3.org/ns/anno.jsonld\",\"id\":\"" + pageID + "\",\"type\":\"AnnotationPage\",\"items\":["
+        + "{\"id\":\"" + pageID + "#z1\",\"type\":\"Annotation\",\"motivation\":\"highlighting\","
+        + "\"body\":{\"type\":\"TextualBody\",\"purpose\":\"identifying\",\"value\":\"z1\"},"
+        + "\"target\":{\"type\":\"SpecificResource\",\"source\":\"file:/corpus/img/p1.jpg\","
+        + "\"selector\":{\"type\":\"FragmentSelector\",\"conformsTo\":\"http://www.w3.org/TR/media-frags/\",\"value\":\"xywh=10,20,100,50\"}}},"
+        + "{\"id\":\"" + pageID + "#a2\",\"type\":\"Annotation\",\"motivation\":\"highlighting\","
+        + "\"target\":{\"type\":\"SpecificResource\",\"source\":\"file:/corpus/img/p1.jpg\","
+        + "\"selector\":{\"type\":\"FragmentSelector\",\"conformsTo\":\"http://www.w3.org/TR/media-frags/\",\"value\":\"xywh=5,5,10,21\"}}}"
+        + "]}",
+        json);
+  }
+
+  /**
+   * The canvas IDs can be built from the surface IDs.
+   */
+  public void testCanvasPrefix() throws Exception {
+    String tei = "<TEI><surface xml:id='p1'><zone ulx='0' uly='0' lrx='1' lry='1'/></surface></TEI>";
+    new AnnotationExporter(outputDir, "https://example.org/canvas/").exportDocument(new StringReader(tei), "file:/doc.xml", "doc");
+    assertTrue(read(new File(outputDir, "doc-p1.json")).contains("\"source\":\"https://example.org/canvas/p1\""));
+  }
+
+  /**
+   * Documents whose flattened names collide get a suffix, they don't
+   * overwrite each other.
+   */
+  public void testCorpusNames() throws Exception {
+    File corpus = File.createTempFile("corpus", "");
+    corpus.delete();
+    File sub = new File(corpus, "a");
+    sub.mkdirs();
+    String tei = "<TEI><surface xml:id='p1'><zone ulx='0' uly='0' lrx='1' lry='1'/></surface></TEI>";
+    File nested = new File(sub, "b.xml");
+    File flat = new File(corpus, "a_b.xml");
+    write(nested, tei);
+    write(flat, tei);
+    try {
+      assertEquals(2, new AnnotationExporter(outputDir, null).exportCorpus(corpus));
+      assertTrue(new File(outputDir, "a_b-p1.json").isFile());
+      assertTrue(new File(outputDir, "a_b_2-p1.json").isFile());
+    } finally {
+      nested.delete();
+      flat.delete();
+      sub.delete();
+      corpus.delete();
+    }
+  }
+
+  /**
+   * Strings are escaped.
+   */
+  public void testEscape() throws IOException {
+    StringWriter out = new StringWriter();
+    new JsonWriter(out).beginArray().value("a\"b\\c\n\u0001").value(3).endArray();
+    assertEquals("[\"a\\\"b\\\\c\\n\\u0001\",3]", out.toString());
+  }
+
+  /**
+   * Writes a UTF-8 file.
+   */
+  private static void write(File file, String text) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(text);
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Reads a UTF-8 file.
+   */
+  private static String read(File file) throws IOException {
+    Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+    try {
+      StringBuilder text = new StringBuilder();
+      char[] buffer = new char[4096];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        text.append(buffer, 0, read);
+      }
+      return text.toString();
+    } finally {
+      reader.close();
+    }
+  }
+}
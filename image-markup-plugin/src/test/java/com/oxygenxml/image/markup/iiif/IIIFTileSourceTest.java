@@ -0,0 +1,348 @@
+package com.oxygenxml.image.markup.iiif;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the tiles of an image server, against a local server that serves
+ * the regions of a sample image.
+ */
+public class IIIFTileSourceTest extends TestCase {
+  /**
+   * The sample image.
+   */
+  private BufferedImage image;
+  /**
+   * The local server.
+   */
+  private HttpServer server;
+  /**
+   * The base URL of the image service.
+   */
+  private String service;
+  /**
+   * The paths requested from the server.
+   */
+  private final List<String> requested = new CopyOnWriteArrayList<String>();
+  /**
+   * Holds the tile requests while it is not released.
+   */
+  private volatile CountDownLatch gate;
+  /**
+   * <code>true</code> to answer the tile requests with an error.
+   */
+  private volatile boolean failing;
+  /**
+   * The cache folder.
+   */
+  private File cacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    // Every pixel knows where it is: a block of 8 x 8 pixels has one color.
+    image = new BufferedImage(3000, 2000, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        image.setRGB(x, y, (x / 8) << 16 | (y / 8) << 8);
+      }
+    }
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/iiif/page1", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+    server.start();
+    service = "http://127.0.0.1:" + server.getAddress().getPort() + "/iiif/page1";
+    cacheDir = new File(System.getProperty("java.io.tmpdir"), "iiif-test-" + System.nanoTime());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop(0);
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    cacheDir.delete();
+  }
+
+  /**
+   * Serves the description and the regions of the sample image.
+   */
+  private void serve(HttpExchange exchange) throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    requested.add(path);
+    byte[] body;
+    String type;
+    if (path.endsWith("/info.json")) {
+      body = ("{\"@context\": \"http://iiif.io/api/image/3/context.json\", \"id\": \"" + service + "\","
+          + " \"type\": \"ImageService3\", \"width\": 3000, \"height\": 2000,"
+          + " \"tiles\": [{\"width\": 512, \"scaleFactors\": [1, 2, 4]}]}").getBytes("UTF-8");
+      type = "application/json";
+    } else if (failing && !path.contains("/full/")) {
+      exchange.sendResponseHeaders(503, -1);
+      exchange.close();
+      return;
+    } else {
+      // .../{region}/{w},{h}/0/default.jpg
+      String[] parts = path.split("/");
+      String[] size = parts[parts.length - 3].split(",");
+      String region = parts[parts.length - 4];
+      int[] r = region.equals("full") ? new int[] {0, 0, 3000, 2000} : parse(region.split(","));
+      if (!region.equals("full") && gate != null) {
+        try {
+          gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      BufferedImage served = new BufferedImage(Integer.parseInt(size[0]), Integer.parseInt(size[1]), BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = served.createGraphics();
+      g.drawImage(image, 0, 0, served.getWidth(), served.getHeight(), r[0], r[1], r[0] + r[2], r[1] + r[3], null);
+      g.dispose();
+      ByteArrayOutputStream png = new ByteArrayOutputStream();
+      // Lossless, so the pixels can be checked.
+      ImageIO.write(served, "png", png);
+      body = png.toByteArray();
+      type = "image/png";
+    }
+    exchange.getResponseHeaders().set("Content-Type", type);
+    try {
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream os = exchange.getResponseBody();
+      os.write(body);
+      os.close();
+    } catch (IOException e) {
+      // The client went away.
+    }
+    exchange.close();
+  }
+
+  /**
+   * @return The numbers of a region.
+   */
+  private static int[] parse(String[] values) {
+    int[] numbers = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      numbers[i] = Integer.parseInt(values[i]);
+    }
+    return numbers;
+  }
+
+  /**
+   * The image services are recognized from their locations and described by
+   * their info.json.
+   */
+  public void testInfo() throws Exception {
+    assertEquals(new URL("http://h/iiif/p1/info.json"), IIIFImageInfo.getInfoURL(new URL("http://h/iiif/p1/info.json")));
+    assertEquals(new URL("http://h/iiif/p1/info.json"), IIIFImageInfo.getInfoURL(new URL("http://h/iiif/p1/full/max/0/default.jpg")));
+    assertEquals(new URL("http://h/iiif/p1/info.json"), IIIFImageInfo.getInfoURL(new URL("http://h/iiif/p1")));
+    assertNull(IIIFImageInfo.getInfoURL(new URL("http://h/images/p1.png")));
+    assertNull(IIIFImageInfo.getInfoURL(new URL("file:/images/p1")));
+    assertTrue(IIIFImageInfo.isImageService(new URL("http://h/iiif/p1/0,0,10,10/10,/0/default.jpg")));
+    assertFalse(IIIFImageInfo.isImageService(new URL("http://h/iiif/p1")));
+    assertEquals(new Rectangle(100, 200, 300, 400),
+        IIIFImageInfo.getRegion(new URL("http://h/iiif/p1/100,200,300,400/max/0/default.jpg")));
+    assertNull(IIIFImageInfo.getRegion(new URL("http://h/iiif/p1/full/max/0/default.jpg")));
+    assertNull(IIIFImageInfo.getRegion(new URL("http://h/iiif/p1/pct:10,10,50,50/max/0/default.jpg")));
+    assertNull(IIIFImageInfo.getRegion(new URL("http://h/images/p1.png")));
+
+    IIIFImageInfo info = IIIFImageInfo.parse(new StringReader(
+        "{\"@context\": \"http://iiif.io/api/image/2/context.json\", \"@id\": \"http://h/iiif/p1/\","
+        + " \"width\": 1000, \"height\": 800, \"tiles\": [{\"width\": 256, \"height\": 128}]}"),
+        new URL("http://h/iiif/p1/info.json"));
+    assertEquals("http://h/iiif/p1", info.getId());
+    assertEquals(1000, info.getWidth());
+    assertEquals(256, info.getTileWidth());
+    assertEquals(128, info.getTileHeight());
+    // Version 2 asks only for the width.
+    assertEquals(new URL("http://h/iiif/p1/0,256,512,512/256,/0/default.jpg"), info.getRegionURL(0, 256, 512, 512, 256, 256));
+    assertEquals(new URL("http://h/iiif/p1/full/full/0/default.jpg"), info.getFullImageURL());
+    // Nothing listed, anything is served.
+    assertTrue(info.hasScaleFactor(32));
+    assertTrue(Arrays.equals(new int[] {125, 100}, info.getServedSize(125, 100)));
+
+    info = IIIFImageInfo.parse(new StringReader(
+        "{\"@id\": \"http://h/iiif/p1\", \"width\": 1000, \"height\": 800,"
+        + " \"sizes\": [{\"width\": 250, \"height\": 200}, {\"width\": 500, \"height\": 400}],"
+        + " \"tiles\": [{\"width\": 256, \"scaleFactors\": [1, 2, 4]}]}"),
+        new URL("http://h/iiif/p1/info.json"));
+    assertTrue(info.hasScaleFactor(4));
+    assertFalse(info.hasScaleFactor(8));
+    assertTrue(Arrays.equals(new int[] {250, 200}, info.getServedSize(125, 100)));
+    assertTrue(Arrays.equals(new int[] {500, 400}, info.getServedSize(300, 240)));
+    assertTrue(Arrays.equals(new int[] {500, 400}, info.getServedSize(1000, 800)));
+
+    try {
+      IIIFImageInfo.parse(new StringReader("{\"width\": \"wide\"}"), new URL("http://h/info.json"));
+      fail("Not an image description.");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Waits for the overview to be downloaded.
+   */
+  private static void awaitOverview(IIIFTileSource tiles) throws InterruptedException {
+    long end = System.currentTimeMillis() + 10000;
+    while (!tiles.isTileReady(tiles.getLevelCount() - 1, 0, 0) && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Only the visible tiles are downloaded. Until then the overview is painted,
+   * and afterwards the tiles come from the disk cache.
+   */
+  public void testTiles() throws Exception {
+    IIIFTileSource tiles = (IIIFTileSource) new IIIFDecoder(new IIIFTileCache(cacheDir, 1L << 30))
+        .open(new URL(service + "/full/max/0/default.jpg"));
+    assertEquals(3000, tiles.getWidth());
+    assertEquals(2000, tiles.getHeight());
+    assertEquals(512, tiles.getTileSize());
+    awaitOverview(tiles);
+    // The info.json and the overview, downloaded in the background.
+    assertEquals(2, requested.size());
+    assertTrue(requested.get(1), requested.get(1).endsWith("/full/750,500/0/default.jpg"));
+
+    // The coarse levels are ready, the fine ones are not.
+    assertTrue(tiles.isTileReady(2, 0, 0));
+    assertFalse(tiles.isTileReady(0, 1, 1));
+    final CountDownLatch loaded = new CountDownLatch(4);
+    tiles.setTileListener(new Runnable() {
+      @Override
+      public void run() {
+        loaded.countDown();
+      }
+    });
+    // Asking for a tile requests it and paints the scaled overview meanwhile.
+    BufferedImage placeholder = tiles.getTile(0, 1, 1);
+    assertEquals(512, placeholder.getWidth());
+    assertEquals(512, placeholder.getHeight());
+    tiles.setVisibleTiles(0, 1, 2, 1, 2);
+    assertTrue(loaded.await(10, TimeUnit.SECONDS));
+    assertTrue(tiles.isTileReady(0, 2, 2));
+    BufferedImage tile = tiles.getTile(0, 2, 1);
+    assertEquals(512, tile.getWidth());
+    assertEquals(image.getRGB(2 * 512 + 100, 512 + 30), tile.getRGB(100, 30));
+    int count = requested.size();
+    assertEquals(2 + 4, count);
+    assertTrue(requested.toString(), requested.contains("/iiif/page1/1024,512,512,512/512,512/0/default.jpg"));
+    tiles.close();
+
+    // Opened again, the tiles are read from the disk in the background.
+    tiles = (IIIFTileSource) new IIIFDecoder(new IIIFTileCache(cacheDir, 1L << 30)).open(new URL(service));
+    awaitOverview(tiles);
+    assertFalse(tiles.isTileReady(0, 2, 1));
+    final CountDownLatch read = new CountDownLatch(1);
+    tiles.setTileListener(new Runnable() {
+      @Override
+      public void run() {
+        read.countDown();
+      }
+    });
+    tiles.setVisibleTiles(0, 2, 2, 1, 1);
+    assertTrue(read.await(10, TimeUnit.SECONDS));
+    assertTrue(tiles.isTileReady(0, 2, 1));
+    tile = tiles.getTile(0, 2, 1);
+    assertEquals(image.getRGB(2 * 512 + 100, 512 + 30), tile.getRGB(100, 30));
+    assertEquals(count + 2, requested.size());
+    tiles.close();
+  }
+
+  /**
+   * The requests for the tiles scrolled out of view are cancelled and their
+   * tiles are not kept. The prefetched tiles are kept.
+   */
+  public void testCancel() throws Exception {
+    IIIFTileSource tiles = new IIIFTileSource(IIIFImageInfo.read(new URL(service + "/info.json")), null);
+    awaitOverview(tiles);
+    gate = new CountDownLatch(1);
+    tiles.setVisibleTiles(0, 0, 1, 0, 1);
+    assertEquals(4, tiles.getPendingCount());
+
+    // Scrolled away, the old tiles are no longer needed.
+    tiles.setVisibleTiles(0, 4, 4, 3, 3);
+    assertEquals(1, tiles.getPendingCount());
+    // The tile ahead is prefetched and stays requested while the visible ones change.
+    tiles.setPrefetchTiles(0, 3, 4, 3, 3);
+    assertEquals(2, tiles.getPendingCount());
+    tiles.setVisibleTiles(0, 4, 4, 3, 3);
+    assertEquals(2, tiles.getPendingCount());
+    final CountDownLatch loaded = new CountDownLatch(2);
+    tiles.setTileListener(new Runnable() {
+      @Override
+      public void run() {
+        loaded.countDown();
+      }
+    });
+    gate.countDown();
+    assertTrue(loaded.await(10, TimeUnit.SECONDS));
+    assertTrue(tiles.isTileReady(0, 4, 3));
+    assertTrue(tiles.isTileReady(0, 3, 3));
+    for (int row = 0; row <= 1; row++) {
+      for (int column = 0; column <= 1; column++) {
+        assertFalse(tiles.isTileReady(0, column, row));
+      }
+    }
+    tiles.close();
+    assertEquals(0, tiles.getPendingCount());
+  }
+
+  /**
+   * A tile that could not be downloaded is requested again, but not before a 
+   * while.
+   */
+  public void testRetry() throws Exception {
+    IIIFTileSource tiles = new IIIFTileSource(IIIFImageInfo.read(new URL(service + "/info.json")), null);
+    awaitOverview(tiles);
+    failing = true;
+    final CountDownLatch[] done = new CountDownLatch[] {new CountDownLatch(1)};
+    tiles.setTileListener(new Runnable() {
+      @Override
+      public void run() {
+        done[0].countDown();
+      }
+    });
+    tiles.setVisibleTiles(0, 0, 0, 0, 0);
+    assertTrue(done[0].await(10, TimeUnit.SECONDS));
+    assertFalse(tiles.isTileReady(0, 0, 0));
+    // Not asked again right away.
+    tiles.setVisibleTiles(0, 0, 0, 0, 0);
+    assertEquals(0, tiles.getPendingCount());
+
+    failing = false;
+    Thread.sleep(IIIFTileSource.RETRY_DELAY + 100);
+    done[0] = new CountDownLatch(1);
+    tiles.setVisibleTiles(0, 0, 0, 0, 0);
+    assertTrue(done[0].await(10, TimeUnit.SECONDS));
+    assertTrue(tiles.isTileReady(0, 0, 0));
+    tiles.close();
+  }
+}
@@ -0,0 +1,45 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.image.BufferedImage;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the registry of image decoders.
+ */
+public class ImageDecodersTest extends TestCase {
+
+  /**
+   * A registered decoder is asked first and its suffixes can be chosen.
+   */
+  public void testRegister() throws Exception {
+    final TileSource tiles = new ImageTileSource(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), 256);
+    ImageDecoder decoder = new ImageDecoder() {
+      @Override
+      public String[] getFileSuffixes() {
+        return new String[] {"JPX"};
+      }
+
+      @Override
+      public TileSource open(URL imageURL) {
+        return "iiif".equals(imageURL.getHost()) ? tiles : null;
+      }
+    };
+    ImageDecoders.register(decoder);
+    try {
+      assertSame(tiles, ImageDecoders.open(new URL("http://iiif/a.jpx")));
+      assertNull(ImageDecoders.open(new URL("http://other/a.jpx")));
+
+      List<String> suffixes = Arrays.asList(ImageDecoders.getFileSuffixes());
+      assertTrue(suffixes.contains("jpx"));
+      assertTrue(suffixes.contains("png"));
+      assertTrue(suffixes.contains("jpg"));
+    } finally {
+      ImageDecoders.unregister(decoder);
+    }
+    assertFalse(Arrays.asList(ImageDecoders.getFileSuffixes()).contains("jpx"));
+  }
+}
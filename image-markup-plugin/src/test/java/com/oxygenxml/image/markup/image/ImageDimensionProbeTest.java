@@ -0,0 +1,58 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for reading the image dimensions from the header.
+ */
+public class ImageDimensionProbeTest extends TestCase {
+
+  /**
+   * The dimensions of the sample image are read from the PNG header.
+   */
+  public void testProbeSample() throws Exception {
+    Dimension dimension = ImageDimensionProbe.getInstance().probe(new File("etc/Bovelles-49r.png"));
+    assertEquals(new Dimension(566, 800), dimension);
+
+    dimension = ImageDimensionProbe.getInstance().probe(new File("etc/Bovelles-49r.png").toURI().toURL());
+    assertEquals(new Dimension(566, 800), dimension);
+  }
+
+  /**
+   * The cached dimensions are discarded when the file changes.
+   */
+  public void testCacheInvalidation() throws Exception {
+    File file = File.createTempFile("probe", ".jpg");
+    try {
+      ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "jpg", file);
+      ImageDimensionProbe probe = new ImageDimensionProbe();
+      assertEquals(new Dimension(40, 30), probe.probe(file));
+
+      ImageIO.write(new BufferedImage(70, 10, BufferedImage.TYPE_INT_RGB), "jpg", file);
+      // Make sure the stamp changes even on file systems with a coarse resolution.
+      file.setLastModified(file.lastModified() + 2000);
+      assertEquals(new Dimension(70, 10), probe.probe(file));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Files that are not images are reported.
+   */
+  public void testNotAnImage() throws Exception {
+    try {
+      ImageDimensionProbe.getInstance().probe(new File("etc/id_pattern.txt"));
+      fail("Expected an exception");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
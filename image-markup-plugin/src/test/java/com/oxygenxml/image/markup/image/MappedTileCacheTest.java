@@ -0,0 +1,155 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the memory mapped tile cache.
+ */
+public class MappedTileCacheTest extends TestCase {
+  /**
+   * The cache folder.
+   */
+  private File cacheDir;
+
+  /**
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    cacheDir = File.createTempFile("tiles", "");
+    cacheDir.delete();
+    cacheDir.mkdirs();
+  }
+
+  /**
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : cacheDir.listFiles()) {
+      file.delete();
+    }
+    cacheDir.delete();
+  }
+
+  /**
+   * The pyramid geometry.
+   */
+  public void testPyramid() {
+    assertEquals(1, TilePyramid.getLevelCount(256, 100, 256));
+    assertEquals(2, TilePyramid.getLevelCount(257, 100, 256));
+    assertEquals(3, TilePyramid.getLevelCount(600, 400, 256));
+    assertEquals(300, TilePyramid.getLevelSize(600, 1));
+    assertEquals(201, TilePyramid.getLevelSize(401, 1));
+    assertEquals(3, TilePyramid.getTileCount(600, 256, 0));
+    assertEquals(2, TilePyramid.getTileCount(600, 256, 1));
+
+    assertEquals(0, TilePyramid.chooseLevel(1, 3));
+    assertEquals(0, TilePyramid.chooseLevel(0.75, 3));
+    assertEquals(1, TilePyramid.chooseLevel(0.5, 3));
+    assertEquals(2, TilePyramid.chooseLevel(0.125, 3));
+  }
+
+  /**
+   * The tiles read from the cache are the ones written.
+   */
+  public void testStoreAndOpen() throws Exception {
+    URL url = new File(cacheDir, "scan.png").toURI().toURL();
+    MappedTileCache cache = new MappedTileCache(cacheDir, Long.MAX_VALUE);
+    assertNull(cache.open(url));
+
+    ImageTileSource source = new ImageTileSource(createImage(600, 400), 256);
+    cache.store(url, source);
+    TileSource cached = cache.open(url);
+    assertNotNull(cached);
+    assertEquals(600, cached.getWidth());
+    assertEquals(400, cached.getHeight());
+    assertEquals(256, cached.getTileSize());
+    assertEquals(3, cached.getLevelCount());
+
+    for (int level = 0; level < cached.getLevelCount(); level++) {
+      for (int row = 0; row < TilePyramid.getTileCount(400, 256, level); row++) {
+        for (int column = 0; column < TilePyramid.getTileCount(600, 256, level); column++) {
+          assertSameTile(source.getTile(level, column, row), cached.getTile(level, column, row));
+        }
+      }
+    }
+    cached.close();
+    source.close();
+  }
+
+  /**
+   * An incomplete file, as left by a crash, is discarded.
+   */
+  public void testTruncated() throws Exception {
+    URL url = new File(cacheDir, "scan.png").toURI().toURL();
+    MappedTileCache cache = new MappedTileCache(cacheDir, Long.MAX_VALUE);
+    cache.store(url, new ImageTileSource(createImage(300, 300), 256));
+    File file = cache.getFile(url);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() - 4);
+    } finally {
+      raf.close();
+    }
+
+    assertNull(cache.open(url));
+    assertFalse(file.exists());
+  }
+
+  /**
+   * The least recently used files are evicted when the cache is full.
+   */
+  public void testEviction() throws Exception {
+    URL first = new File(cacheDir, "first.png").toURI().toURL();
+    URL second = new File(cacheDir, "second.png").toURI().toURL();
+    URL third = new File(cacheDir, "third.png").toURI().toURL();
+    // One tile of 100 x 100 pixels.
+    long fileSize = MappedTileCache.HEADER_SIZE + 4 * 100 * 100;
+    MappedTileCache cache = new MappedTileCache(cacheDir, 2 * fileSize);
+
+    cache.store(first, new ImageTileSource(createImage(100, 100), 256));
+    cache.store(second, new ImageTileSource(createImage(100, 100), 256));
+    long now = System.currentTimeMillis();
+    cache.getFile(first).setLastModified(now - 20000);
+    cache.getFile(second).setLastModified(now - 10000);
+    // Using the first one makes the second the least recently used.
+    cache.open(first).close();
+
+    cache.store(third, new ImageTileSource(createImage(100, 100), 256));
+    assertTrue(cache.getFile(first).exists());
+    assertFalse(cache.getFile(second).exists());
+    assertTrue(cache.getFile(third).exists());
+  }
+
+  /**
+   * @return An image with a different color for every pixel.
+   */
+  private static BufferedImage createImage(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, (x << 12) ^ (y * 31));
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Checks that two tiles have the same pixels.
+   */
+  private static void assertSameTile(BufferedImage expected, BufferedImage actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the tiles kept outside the heap.
+ */
+public class OffHeapTileSourceTest extends TestCase {
+
+  /**
+   * The full resolution tiles have the pixels of the image, the other levels
+   * average blocks of 2 x 2 pixels.
+   */
+  public void testTiles() throws Exception {
+    BufferedImage image = new BufferedImage(300, 201, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        image.setRGB(x, y, (x & 0xFF) << 16 | (y & 0xFF) << 8 | ((x + y) & 0xFF));
+      }
+    }
+    OffHeapTileSource tiles = new OffHeapTileSource(image, 128);
+    assertEquals(300, tiles.getWidth());
+    assertEquals(201, tiles.getHeight());
+    assertEquals(3, tiles.getLevelCount());
+
+    BufferedImage tile = tiles.getTile(0, 2, 1);
+    assertEquals(300 - 256, tile.getWidth());
+    assertEquals(201 - 128, tile.getHeight());
+    for (int y = 0; y < tile.getHeight(); y++) {
+      for (int x = 0; x < tile.getWidth(); x++) {
+        assertEquals(image.getRGB(256 + x, 128 + y), tile.getRGB(x, y));
+      }
+    }
+
+    // Level 1 is 150 x 101, its last row only has the last row of the image.
+    tile = tiles.getTile(1, 1, 0);
+    assertEquals(150 - 128, tile.getWidth());
+    assertEquals(101, tile.getHeight());
+    assertEquals(average(image, 256, 257, 20, 21), tile.getRGB(0, 10) & 0xFFFFFF);
+    assertEquals(average(image, 298, 299, 200, 200), tile.getRGB(21, 100) & 0xFFFFFF);
+
+    tiles.close();
+    try {
+      tiles.getTile(0, 0, 0);
+      fail("The memory was released.");
+    } catch (IOException e) {
+      // Expected.
+    }
+    // Closing again does nothing.
+    tiles.close();
+  }
+
+  /**
+   * Averages four pixels of an image, channel by channel.
+   */
+  private static int average(BufferedImage image, int x0, int x1, int y0, int y1) {
+    int[] pixels = {image.getRGB(x0, y0), image.getRGB(x1, y0), image.getRGB(x0, y1), image.getRGB(x1, y1)};
+    int average = 0;
+    for (int shift = 0; shift <= 16; shift += 8) {
+      int sum = 2;
+      for (int pixel : pixels) {
+        sum += pixel >> shift & 0xFF;
+      }
+      average |= (sum >> 2) << shift;
+    }
+    return average;
+  }
+}
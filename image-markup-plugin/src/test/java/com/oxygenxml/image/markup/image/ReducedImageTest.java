@@ -0,0 +1,44 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the images read with a subsampling.
+ */
+public class ReducedImageTest extends TestCase {
+
+  /**
+   * A large image is read with the smallest subsampling that keeps it within 
+   * the limit, and the areas found on it are brought back to image pixels.
+   */
+  public void testRead() throws Exception {
+    assertEquals(1, ReducedImage.getSubsampling(100, 100, 10000));
+    assertEquals(2, ReducedImage.getSubsampling(101, 100, 10000));
+    assertEquals(3, ReducedImage.getSubsampling(250, 250, 10000));
+
+    File file = File.createTempFile("scan", ".png");
+    try {
+      BufferedImage scan = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB);
+      scan.setRGB(500, 300, 0xFFFFFF);
+      ImageIO.write(scan, "png", file);
+
+      ReducedImage reduced = ReducedImage.read(file.toURI().toURL(), 40000);
+      assertEquals(4, reduced.getScale());
+      assertEquals(250, reduced.getImage().getWidth());
+      assertEquals(150, reduced.getImage().getHeight());
+      // The kept pixels are the first of each block.
+      assertEquals(0xFFFFFF, reduced.getImage().getRGB(125, 75) & 0xFFFFFF);
+      assertEquals(Arrays.asList(new Rectangle(40, 8, 400, 20)), 
+          reduced.toImage(Arrays.asList(new Rectangle(10, 2, 100, 5))));
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the tiles decoded from the image file when painted.
+ */
+public class RegionTileSourceTest extends TestCase {
+
+  /**
+   * The fine tiles are decoded regions of the file, the coarse ones come from
+   * the overview.
+   */
+  public void testTiles() throws Exception {
+    BufferedImage image = new BufferedImage(3000, 2001, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        image.setRGB(x, y, (x & 0xFF) << 16 | (y & 0xFF) << 8 | ((x + y) & 0xFF));
+      }
+    }
+    File file = File.createTempFile("region", ".png");
+    try {
+      ImageIO.write(image, "png", file);
+      RegionTileSource tiles = RegionTileSource.open(file, 256, 0);
+      assertEquals(3000, tiles.getWidth());
+      assertEquals(2001, tiles.getHeight());
+      assertEquals(TilePyramid.getLevelCount(3000, 2001, 256), tiles.getLevelCount());
+
+      // The last tile of the full resolution.
+      BufferedImage tile = tiles.getTile(0, 11, 7);
+      assertEquals(3000 - 11 * 256, tile.getWidth());
+      assertEquals(2001 - 7 * 256, tile.getHeight());
+      for (int y = 0; y < tile.getHeight(); y++) {
+        for (int x = 0; x < tile.getWidth(); x++) {
+          assertEquals(image.getRGB(11 * 256 + x, 7 * 256 + y), tile.getRGB(x, y));
+        }
+      }
+      // Served from the cache.
+      assertSame(tile, tiles.getTile(0, 11, 7));
+      // A PNG is decoded from the top, so the whole row of tiles was kept.
+      assertEquals(12, tiles.getCachedTileCount());
+      assertEquals(image.getRGB(3, 7 * 256 + 4), tiles.getTile(0, 0, 7).getRGB(3, 4));
+      assertEquals(12, tiles.getCachedTileCount());
+
+      // Level 1 takes every second pixel.
+      tile = tiles.getTile(1, 1, 3);
+      assertEquals(256, tile.getWidth());
+      assertEquals(1001 - 3 * 256, tile.getHeight());
+      assertEquals(image.getRGB(2 * 256 + 2 * 10, 2 * 3 * 256 + 2 * 5), tile.getRGB(10, 5));
+
+      // The coarse levels have the sizes of the pyramid.
+      for (int level = 2; level < tiles.getLevelCount(); level++) {
+        tile = tiles.getTile(level, 0, 0);
+        assertEquals(Math.min(256, TilePyramid.getLevelSize(3000, level)), tile.getWidth());
+        assertEquals(Math.min(256, TilePyramid.getLevelSize(2001, level)), tile.getHeight());
+      }
+
+      tiles.close();
+      try {
+        tiles.getTile(0, 0, 0);
+        fail("The tiles are closed.");
+      } catch (IOException e) {
+        // Expected.
+      }
+      // Closing again does nothing.
+      tiles.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * The strips of a TIFF are read one tile at a time.
+   */
+  public void testStrips() throws Exception {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+    if (!writers.hasNext()) {
+      // No TIFF support before Java 9.
+      return;
+    }
+    BufferedImage image = new BufferedImage(2400, 1600, BufferedImage.TYPE_BYTE_GRAY);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        image.getRaster().setSample(x, y, 0, (x + y) & 0xFF);
+      }
+    }
+    File file = File.createTempFile("strips", ".tif");
+    try {
+      ImageIO.write(image, "tiff", file);
+      RegionTileSource tiles = RegionTileSource.open(file, 256, 0);
+      try {
+        BufferedImage tile = tiles.getTile(0, 2, 1);
+        assertEquals(image.getRGB(2 * 256 + 7, 256 + 9), tile.getRGB(7, 9));
+        assertEquals(1, tiles.getCachedTileCount());
+      } finally {
+        tiles.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * A tiled pyramidal TIFF with 16-bit samples is read with its own tiles and 
+   * reduced resolution, and converted to RGB.
+   */
+  public void testTiledPyramid() throws Exception {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+    if (!writers.hasNext()) {
+      // No TIFF support before Java 9.
+      return;
+    }
+    BufferedImage full = new BufferedImage(2400, 1200, BufferedImage.TYPE_USHORT_GRAY);
+    BufferedImage reduced = new BufferedImage(1200, 600, BufferedImage.TYPE_USHORT_GRAY);
+    for (int y = 0; y < full.getHeight(); y++) {
+      for (int x = 0; x < full.getWidth(); x++) {
+        full.getRaster().setSample(x, y, 0, x < 1200 ? 0 : 0xFFFF);
+      }
+    }
+    // The reduced image is brighter, to tell where a tile was read from.
+    for (int y = 0; y < reduced.getHeight(); y++) {
+      for (int x = 0; x < reduced.getWidth(); x++) {
+        reduced.getRaster().setSample(x, y, 0, 0x8080);
+      }
+    }
+    File file = File.createTempFile("pyramid", ".tif");
+    try {
+      ImageWriter writer = writers.next();
+      ImageOutputStream output = ImageIO.createImageOutputStream(file);
+      try {
+        writer.setOutput(output);
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setTiling(128, 128, 0, 0);
+        writer.prepareWriteSequence(null);
+        writer.writeToSequence(new IIOImage(full, null, null), param);
+        writer.writeToSequence(new IIOImage(reduced, null, null), param);
+        writer.endWriteSequence();
+      } finally {
+        output.close();
+        writer.dispose();
+      }
+
+      RegionTileSource tiles = RegionTileSource.open(file, 256);
+      assertNotNull("Tiled images are read tile by tile, whatever their size.", tiles);
+      try {
+        assertEquals(128, tiles.getTileSize());
+        assertEquals(2400, tiles.getWidth());
+
+        BufferedImage tile = tiles.getTile(0, 9, 0);
+        assertEquals(BufferedImage.TYPE_INT_RGB, tile.getType());
+        assertEquals(0, tile.getRGB(48 - 1, 5) & 0xFF);
+        assertEquals(0xFF, tile.getRGB(48 + 1, 5) & 0xFF);
+
+        // Level 1 comes from the reduced image.
+        tile = tiles.getTile(1, 0, 0);
+        assertEquals(0x80, tile.getRGB(0, 0) & 0xFF);
+      } finally {
+        tiles.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
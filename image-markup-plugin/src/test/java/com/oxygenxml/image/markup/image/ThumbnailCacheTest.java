@@ -0,0 +1,117 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the cache of image previews.
+ */
+public class ThumbnailCacheTest extends TestCase {
+  /**
+   * The cache folder.
+   */
+  private File cacheDir;
+  /**
+   * The previewed image.
+   */
+  private File image;
+
+  /**
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    cacheDir = File.createTempFile("thumbnails", "");
+    cacheDir.delete();
+    image = File.createTempFile("scan", ".png");
+
+    BufferedImage scan = new BufferedImage(960, 480, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = scan.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, 960, 480);
+    g.setColor(Color.BLACK);
+    g.fillRect(0, 0, 480, 480);
+    g.dispose();
+    ImageIO.write(scan, "png", image);
+  }
+
+  /**
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    cacheDir.delete();
+    image.delete();
+  }
+
+  /**
+   * The preview fits the thumbnail size, keeps the aspect ratio and is stored
+   * in the cache folder.
+   */
+  public void testThumbnail() throws Exception {
+    URL url = image.toURI().toURL();
+    ThumbnailCache cache = new ThumbnailCache(cacheDir, 1L << 20);
+    BufferedImage thumbnail = cache.getThumbnail(url);
+    assertEquals(ThumbnailCache.THUMBNAIL_SIZE, thumbnail.getWidth());
+    assertEquals(ThumbnailCache.THUMBNAIL_SIZE / 2, thumbnail.getHeight());
+    assertEquals(Color.BLACK.getRGB(), thumbnail.getRGB(10, 10));
+    assertEquals(Color.WHITE.getRGB(), thumbnail.getRGB(80, 10));
+
+    File cached = new File(cacheDir, ThumbnailCache.getKey(url) + ".png");
+    assertTrue(cached.isFile());
+    assertEquals(1, cacheDir.listFiles().length);
+
+    // The second time, the preview is read from the cache and the image is not decoded.
+    ImageIO.write(new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB), "png", cached);
+    thumbnail = cache.getThumbnail(url);
+    assertEquals(7, thumbnail.getWidth());
+    assertEquals(5, thumbnail.getHeight());
+  }
+
+  /**
+   * The least recently used previews are deleted when the cache is too large.
+   */
+  public void testEvict() throws Exception {
+    URL url = image.toURI().toURL();
+    ThumbnailCache cache = new ThumbnailCache(cacheDir, 0);
+    cache.getThumbnail(url);
+    File[] files = cacheDir.listFiles();
+    assertEquals(1, files.length);
+    File old = new File(cacheDir, "old.png");
+    files[0].renameTo(old);
+    old.setLastModified(System.currentTimeMillis() - 60000);
+    cache.getThumbnail(url);
+
+    // Only the least recently used goes while the rest fits.
+    cache = new ThumbnailCache(cacheDir, new File(cacheDir, ThumbnailCache.getKey(url) + ".png").length());
+    cache.evict();
+    assertFalse(old.exists());
+    assertEquals(1, cacheDir.listFiles().length);
+  }
+
+  /**
+   * A changed image gets a new key.
+   */
+  public void testKey() throws Exception {
+    URL url = image.toURI().toURL();
+    String key = ThumbnailCache.getKey(url);
+    assertEquals(key, ThumbnailCache.getKey(url));
+    assertEquals(40, key.length());
+
+    image.setLastModified(image.lastModified() - 10000);
+    assertFalse(key.equals(ThumbnailCache.getKey(url)));
+  }
+}
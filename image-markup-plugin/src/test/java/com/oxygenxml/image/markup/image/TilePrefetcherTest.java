@@ -0,0 +1,132 @@
+package com.oxygenxml.image.markup.image;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for loading the tiles around the visible ones.
+ */
+public class TilePrefetcherTest extends TestCase {
+  /**
+   * Tiles that remember the order they were asked for. The first tile waits
+   * until the gate is opened.
+   */
+  private static class RecordingTiles implements TileSource {
+    /**
+     * The requested tiles, as column and row.
+     */
+    final List<Point> requested = new CopyOnWriteArrayList<Point>();
+    /**
+     * Opened to let the first tile load.
+     */
+    final CountDownLatch gate = new CountDownLatch(1);
+    /**
+     * Counted down for every tile.
+     */
+    volatile CountDownLatch loaded = new CountDownLatch(0);
+
+    @Override
+    public int getWidth() {
+      return 256 * 20;
+    }
+
+    @Override
+    public int getHeight() {
+      return 256 * 20;
+    }
+
+    @Override
+    public int getTileSize() {
+      return 256;
+    }
+
+    @Override
+    public int getLevelCount() {
+      return TilePyramid.getLevelCount(getWidth(), getHeight(), getTileSize());
+    }
+
+    @Override
+    public BufferedImage getTile(int level, int column, int row) {
+      requested.add(new Point(column, row));
+      if (requested.size() == 1) {
+        try {
+          gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      loaded.countDown();
+      return new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  /**
+   * The ring has one tile all around and more in the scroll direction, inside
+   * the image.
+   */
+  public void testRing() {
+    Rectangle visible = new Rectangle(4, 4, 3, 2);
+    assertEquals(new Rectangle(3, 3, 5, 4), TilePrefetcher.getRing(visible, 0, 0, 20, 20));
+    assertEquals(new Rectangle(3, 3, 4 + TilePrefetcher.AHEAD, 4), TilePrefetcher.getRing(visible, 1, 0, 20, 20));
+    assertEquals(new Rectangle(3, 4 - TilePrefetcher.AHEAD, 5, 3 + TilePrefetcher.AHEAD),
+        TilePrefetcher.getRing(visible, 0, -1, 20, 20));
+    // Clipped to the image.
+    assertEquals(new Rectangle(0, 0, 3, 3), TilePrefetcher.getRing(new Rectangle(0, 0, 2, 2), -1, -1, 20, 20));
+
+    // The tiles ahead come first.
+    Rectangle ring = TilePrefetcher.getRing(visible, 1, 0, 20, 20);
+    List<Point> tiles = TilePrefetcher.getRingTiles(visible, ring, 1, 0);
+    assertEquals(ring.width * ring.height - 6, tiles.size());
+    assertEquals(8, tiles.get(0).x);
+    assertEquals(8, tiles.get(3).x);
+    assertEquals(7, tiles.get(4).x);
+    assertEquals(3, tiles.get(tiles.size() - 1).x);
+  }
+
+  /**
+   * The ring is loaded in the background and a newer visible range cancels
+   * the tiles still waiting from the older one.
+   */
+  public void testPrefetch() throws Exception {
+    RecordingTiles source = new RecordingTiles();
+    TilePrefetcher prefetcher = new TilePrefetcher();
+    Rectangle visible = new Rectangle(2, 2, 2, 2);
+    prefetcher.prefetch(source, 0, visible, TilePrefetcher.getRing(visible, 0, 0, 20, 20), 0, 0);
+    // The first tile is loading, the rest wait.
+    long end = System.currentTimeMillis() + 10000;
+    while (source.requested.isEmpty() && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, source.requested.size());
+
+    // Scrolled down, far away.
+    Rectangle scrolled = new Rectangle(2, 12, 2, 2);
+    Rectangle ring = TilePrefetcher.getRing(scrolled, 0, 1, 20, 20);
+    source.loaded = new CountDownLatch(1 + ring.width * ring.height - 4);
+    prefetcher.prefetch(source, 0, scrolled, ring, 0, 1);
+    source.gate.countDown();
+    assertTrue(source.loaded.await(10, TimeUnit.SECONDS));
+    assertEquals(1 + ring.width * ring.height - 4, source.requested.size());
+    // The tiles below come first.
+    assertEquals(12 + 2 + TilePrefetcher.AHEAD - 1, source.requested.get(1).y);
+    for (Point tile : source.requested.subList(1, source.requested.size())) {
+      assertTrue(tile.toString(), ring.contains(tile) && !scrolled.contains(tile));
+    }
+
+    // Painting the same range again loads nothing.
+    prefetcher.prefetch(source, 0, scrolled, ring, 0, 1);
+    Thread.sleep(50);
+    assertEquals(1 + ring.width * ring.height - 4, source.requested.size());
+    prefetcher.cancel();
+  }
+}
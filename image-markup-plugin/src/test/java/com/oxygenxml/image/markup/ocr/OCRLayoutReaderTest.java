@@ -0,0 +1,92 @@
+package com.oxygenxml.image.markup.ocr;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.oxygenxml.image.markup.ocr.OCRLayoutReader.Level;
+
+/**
+ * Tests for reading OCR layouts and mapping them onto a surface.
+ */
+public class OCRLayoutReaderTest extends TestCase {
+
+  /**
+   * ALTO zones, in a unit other than pixels.
+   */
+  public void testALTO() throws Exception {
+    String alto =
+        "<alto xmlns='http://www.loc.gov/standards/alto/ns-v4#'><Layout>"
+        + "<Page WIDTH='500' HEIGHT='1000'><PrintSpace>"
+        + "<TextBlock HPOS='50' VPOS='100' WIDTH='400' HEIGHT='200'>"
+        + "<TextLine HPOS='50' VPOS='100' WIDTH='400' HEIGHT='50'>"
+        + "<String HPOS='50' VPOS='100' WIDTH='100' HEIGHT='50' CONTENT='a'/>"
+        + "</TextLine></TextBlock></PrintSpace></Page>"
+        + "<Page WIDTH='500' HEIGHT='1000'><TextBlock HPOS='0' VPOS='0' WIDTH='10' HEIGHT='10'/></Page>"
+        + "</Layout></alto>";
+    List<Rectangle> zones = read(alto, EnumSet.allOf(Level.class));
+    assertEquals(3, zones.size());
+    assertEquals(new Rectangle(100, 200, 800, 400), zones.get(0));
+    assertEquals(new Rectangle(100, 200, 800, 100), zones.get(1));
+    assertEquals(new Rectangle(100, 200, 200, 100), zones.get(2));
+  }
+
+  /**
+   * PAGE-XML zones, from both kinds of outlines.
+   */
+  public void testPAGE() throws Exception {
+    String page =
+        "<PcGts xmlns='http://schema.primaresearch.org/PAGE/gts/pagecontent/2019-07-15'>"
+        + "<Page imageWidth='1000' imageHeight='2000'>"
+        + "<TextRegion id='r1'><Coords points='10,20 300,20 300,400 10,400'/>"
+        + "<TextLine id='l1'><Coords><Point x='10' y='20'/><Point x='290' y='60'/></Coords>"
+        + "<Baseline points='10,55 290,55'/></TextLine>"
+        + "</TextRegion></Page></PcGts>";
+    List<Rectangle> zones = read(page, EnumSet.of(Level.LINE));
+    assertEquals(1, zones.size());
+    assertEquals(new Rectangle(10, 20, 280, 40), zones.get(0));
+  }
+
+  /**
+   * hOCR zones, from the bounding boxes in the titles.
+   */
+  public void testHOCR() throws Exception {
+    String hocr =
+        "<!DOCTYPE html PUBLIC '-//W3C//DTD XHTML 1.0 Transitional//EN' 'http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd'>"
+        + "<html xmlns='http://www.w3.org/1999/xhtml'><body>"
+        + "<div class='ocr_page' title='image \"page.png\"; bbox 0 0 1000 2000; ppageno 0'>"
+        + "<div class='ocr_carea' title='bbox 10 20 300 400'>"
+        + "<span class='ocr_line' title='bbox 10 20 290 60; baseline 0 -5'>"
+        + "<span class='ocrx_word' title='bbox 10 20 80 60; x_wconf 95'>a</span>"
+        + "</span></div></div></body></html>";
+    List<Rectangle> zones = read(hocr, EnumSet.of(Level.BLOCK, Level.WORD));
+    assertEquals(2, zones.size());
+    assertEquals(new Rectangle(10, 20, 290, 380), zones.get(0));
+    assertEquals(new Rectangle(10, 20, 70, 40), zones.get(1));
+  }
+
+  /**
+   * Other documents are rejected.
+   */
+  public void testUnsupported() throws Exception {
+    try {
+      read("<TEI/>", EnumSet.allOf(Level.class));
+      fail("Expected an exception.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("TEI"));
+    }
+  }
+
+  /**
+   * Reads a layout and maps it onto a 1000x2000 surface.
+   */
+  private static List<Rectangle> read(String layout, EnumSet<Level> levels) throws IOException {
+    OCRZoneMapper mapper = new OCRZoneMapper(new Rectangle(0, 0, 1000, 2000), levels);
+    new OCRLayoutReader().read(new ByteArrayInputStream(layout.getBytes("UTF-8")), "test.xml", mapper);
+    return mapper.getZones();
+  }
+}
@@ -0,0 +1,140 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the index of the links to the zones.
+ */
+public class FacsIndexTest extends TestCase {
+  /**
+   * A facsimile and a transcription that points to it.
+   */
+  private static final String DOCUMENT =
+      "<?xml version=\"1.0\"?>\n"
+      + "<TEI xmlns=\"http://www.tei-c.org/ns/1.0\">\n"
+      + "<facsimile><surface><graphic url=\"p1.png\"/>\n"
+      + "<zone xml:id=\"z1\" ulx=\"10\" uly=\"20\" lrx=\"110\" lry=\"40\"/>\n"
+      + "<zone xml:id=\"z2\" ulx=\"10\" uly=\"50\" lrx=\"110\" lry=\"70\"/>\n"
+      + "</surface></facsimile>\n"
+      + "<text><body><p facs=\"#z2\">\n"
+      + "<!-- <line facs=\"#z1\"> -->\n"
+      + "<line facs=\"#z1\">first <hi>line</hi></line>\n"
+      + "<line>second <w corresp=\"other.xml#x #z2\">line</w></line>\n"
+      + "<line facs=\"#z1\">again</line>\n"
+      + "</p></body></text></TEI>";
+
+  /**
+   * Creates a document and its index.
+   */
+  private static FacsIndex createIndex(PlainDocument document) throws Exception {
+    document.insertString(0, DOCUMENT, null);
+    FacsIndex index = new FacsIndex(document);
+    document.addDocumentListener(index);
+    return index;
+  }
+
+  /**
+   * The caret in an element finds the zone it points to, or the one of its
+   * closest ancestor that points to a zone.
+   */
+  public void testLinkedZone() throws Exception {
+    FacsIndex index = createIndex(new PlainDocument());
+    Rectangle z1 = new Rectangle(10, 20, 100, 20);
+    Rectangle z2 = new Rectangle(10, 50, 100, 20);
+    assertEquals(z1, index.getLinkedZone(DOCUMENT.indexOf("first")));
+    assertEquals(z1, index.getLinkedZone(DOCUMENT.indexOf("line</hi>")));
+    // The 'line' without link is in a 'p' that points to the second zone.
+    assertEquals(z2, index.getLinkedZone(DOCUMENT.indexOf("second")));
+    // Only the local pointers count.
+    assertEquals(z2, index.getLinkedZone(DOCUMENT.indexOf("line</w>")));
+    // Inside a zone.
+    assertEquals(z1, index.getLinkedZone(DOCUMENT.indexOf("uly=\"20\"")));
+    assertNull(index.getLinkedZone(DOCUMENT.indexOf("<text>")));
+    assertNull(index.getLinkedZone(DOCUMENT.indexOf("</TEI>")));
+  }
+
+  /**
+   * A zone leads to all the elements that point to it, in document order.
+   */
+  public void testReferences() throws Exception {
+    FacsIndex index = createIndex(new PlainDocument());
+    List<int[]> references = index.getReferences(new Rectangle(10, 20, 100, 20));
+    assertEquals(2, references.size());
+    int first = DOCUMENT.indexOf("<line facs=\"#z1\">first");
+    assertEquals(first, references.get(0)[0]);
+    assertEquals(DOCUMENT.indexOf("</line>", first) + "</line>".length(), references.get(0)[1]);
+    assertEquals(DOCUMENT.indexOf("<line facs=\"#z1\">again"), references.get(1)[0]);
+
+    references = index.getReferences(new Rectangle(10, 50, 100, 20));
+    assertEquals(2, references.size());
+    assertEquals(DOCUMENT.indexOf("<p "), references.get(0)[0]);
+    assertEquals(DOCUMENT.indexOf("<w "), references.get(1)[0]);
+
+    assertTrue(index.getReferences(new Rectangle(0, 0, 1, 1)).isEmpty());
+  }
+
+  /**
+   * Text edits move the elements, edits inside an indexed tag update it and
+   * the other markup edits scan the document again.
+   */
+  public void testEdits() throws Exception {
+    PlainDocument document = new PlainDocument();
+    FacsIndex index = createIndex(document);
+    assertEquals(6, index.size());
+
+    // Text typed before the transcription.
+    document.insertString(DOCUMENT.indexOf("<text>"), "some text", null);
+    String text = document.getText(0, document.getLength());
+    assertEquals(new Rectangle(10, 20, 100, 20), index.getLinkedZone(text.indexOf("first")));
+    // Typed right after an element, the text is not part of it.
+    int after = text.indexOf("</line>") + "</line>".length();
+    document.insertString(after, " tail", null);
+    assertEquals(new Rectangle(10, 50, 100, 20), index.getLinkedZone(after + 1));
+
+    // The first line now points to the second zone.
+    text = document.getText(0, document.getLength());
+    int pointer = text.indexOf("#z1\">first") + 2;
+    document.remove(pointer, 1);
+    document.insertString(pointer, "2", null);
+    assertEquals(new Rectangle(10, 50, 100, 20), index.getLinkedZone(text.indexOf("first")));
+    assertEquals(1, index.getReferences(new Rectangle(10, 20, 100, 20)).size());
+
+    // A zone is moved.
+    text = document.getText(0, document.getLength());
+    int coordinate = text.indexOf("lry=\"70\"") + 5;
+    document.remove(coordinate, 2);
+    document.insertString(coordinate, "90", null);
+    assertEquals(new Rectangle(10, 50, 100, 40), index.getLinkedZone(text.indexOf("first")));
+
+    // A new link, found by scanning again.
+    text = document.getText(0, document.getLength());
+    int line = text.indexOf("<line>") + "<line".length();
+    document.insertString(line, " facs=\"#z1\"", null);
+    text = document.getText(0, document.getLength());
+    assertEquals(new Rectangle(10, 20, 100, 20), index.getLinkedZone(text.indexOf("second")));
+    assertEquals(7, index.size());
+
+    // A removed element.
+    int start = text.indexOf("<line facs=\"#z1\">again");
+    document.remove(start, text.indexOf("</p>") - start);
+    assertEquals(6, index.size());
+    assertEquals(1, index.getReferences(new Rectangle(10, 20, 100, 20)).size());
+  }
+
+  /**
+   * Decimal coordinates are rounded, like when the zones are painted.
+   */
+  public void testDecimalCoordinates() throws Exception {
+    PlainDocument document = new PlainDocument();
+    String text = "<facsimile><surface><zone xml:id=\"z\" ulx=\"10.4\" uly=\"19.6\" lrx=\"110\" lry=\"40.5\"/></surface></facsimile>"
+        + "<text><line facs=\"#z\">first</line></text>";
+    document.insertString(0, text, null);
+    FacsIndex index = new FacsIndex(document);
+    assertEquals(new Rectangle(10, 20, 100, 21), index.getLinkedZone(text.indexOf("first")));
+  }
+}
@@ -0,0 +1,81 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the allocation of unique IDs.
+ */
+public class IdAllocatorTest extends TestCase {
+
+  /**
+   * Expands <code>${date}</code> to a constant and counts the expansions.
+   */
+  private static class CountingExpander implements IdAllocator.VariableExpander {
+    /**
+     * The number of expansions.
+     */
+    int count;
+
+    /**
+     * @see IdAllocator.VariableExpander#expand(String)
+     */
+    @Override
+    public String expand(String pattern) {
+      count++;
+      return pattern.replace("${date}", "2014");
+    }
+  }
+
+  /**
+   * Sequences skip the taken values and are counted for every page.
+   */
+  public void testSequence() {
+    CountingExpander expander = new CountingExpander();
+    IdAllocator allocator = new IdAllocator(
+        Arrays.asList("p1.z1", "p1.z3", "p2.z1"), "${page}.z${seq}", expander);
+
+    assertEquals(Arrays.asList("p1.z2", "p1.z4", "p1.z5"), allocator.next("p1", 3));
+    assertEquals("p2.z2", allocator.next("p2"));
+    assertEquals("p1.z6", allocator.next("p1"));
+    // The editor variables are expanded once for every page.
+    assertEquals(4, expander.count);
+  }
+
+  /**
+   * Bulk allocation doesn't collide with the document or with itself.
+   */
+  public void testBulk() {
+    IdAllocator allocator = new IdAllocator(Arrays.asList("z2014_5"), "z${date}_${seq}", new CountingExpander());
+    List<String> ids = allocator.next(null, 10000);
+    Set<String> unique = new HashSet<String>(ids);
+    assertEquals(10000, unique.size());
+    assertFalse(unique.contains("z2014_5"));
+    assertEquals("z2014_10002", allocator.next(null));
+  }
+
+  /**
+   * Patterns without a sequence get a suffix on collisions.
+   */
+  public void testSuffix() {
+    IdAllocator allocator = new IdAllocator(Arrays.asList("zone.2014"), "zone.${date}", new CountingExpander());
+    assertEquals("zone.2014_2", allocator.next(null));
+    assertEquals("zone.2014_3", allocator.next(null));
+    assertTrue(allocator.isTaken("zone.2014_3"));
+  }
+
+  /**
+   * Image names become valid page names.
+   */
+  public void testNCName() {
+    assertEquals("page_1", IdAllocator.toNCName("page_1"));
+    assertEquals("_001r", IdAllocator.toNCName("001r"));
+    assertEquals("scan_3_a.b-c", IdAllocator.toNCName("scan 3:a.b-c"));
+    assertEquals("_-x", IdAllocator.toNCName("-x"));
+    assertEquals("_", IdAllocator.toNCName(""));
+  }
+}
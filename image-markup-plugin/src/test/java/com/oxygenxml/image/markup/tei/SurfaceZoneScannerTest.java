@@ -0,0 +1,110 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.oxygenxml.image.markup.zones.ZoneIndex;
+
+/**
+ * Tests for the indexing of the zones of a surface.
+ */
+public class SurfaceZoneScannerTest extends TestCase {
+
+  /**
+   * The document.
+   */
+  private static final String TEXT =
+      "<?xml version=\"1.0\"?>\n"
+      + "<TEI xmlns=\"http://www.tei-c.org/ns/1.0\"><facsimile>\n"
+      + "<surface><graphic url=\"images/p1.png\"/>\n"
+      + "  <zone ulx=\"1\" uly=\"2\" lrx=\"3\" lry=\"4\"/>\n"
+      + "</surface>\n"
+      + "<tei:surface xmlns:tei=\"http://www.tei-c.org/ns/1.0\">\n"
+      + "  <!-- <zone ulx=\"0\" uly=\"0\" lrx=\"1\" lry=\"1\"/> -->\n"
+      + "  <tei:graphic target='p2.png'/>\n"
+      + "  <tei:zone ulx=\"10\" uly=\"50\" lrx=\"100\" lry=\"60\">\n"
+      + "    <zone ulx=\"10.4\" uly=\"20.6\" lrx=\"20\" lry=\"30\"/>\n"
+      + "  </tei:zone>\n"
+      + "  <zone xml:id=\"noCoordinates\"/>\n"
+      + "  <surface><graphic url=\"p3.png\"/><zone ulx=\"5\" uly=\"5\" lrx=\"6\" lry=\"6\"/></surface>\n"
+      + "</tei:surface>\n"
+      + "<surface><graphic url=\"p2.png\"/><zone ulx=\"7\" uly=\"7\" lrx=\"8\" lry=\"8\"/></surface>\n"
+      + "</facsimile></TEI>";
+
+  /**
+   * Every surface with an image is listed, with all the zones inside it.
+   */
+  public void testSurfaces() {
+    List<SurfaceZoneScanner.Surface> surfaces = SurfaceZoneScanner.scanSurfaces(TEXT);
+    assertEquals(4, surfaces.size());
+    assertEquals("images/p1.png", surfaces.get(0).getGraphic());
+    assertEquals(1, surfaces.get(0).getZones().size());
+    assertNull(surfaces.get(0).getLrx());
+
+    SurfaceZoneScanner.Surface second = surfaces.get(1);
+    assertEquals("p2.png", second.getGraphic());
+    // The nested surface's zone belongs to it too, the commented one doesn't.
+    assertEquals(3, second.getZones().size());
+    assertEquals(new Rectangle(10, 50, 90, 10), second.getZones().get(0));
+    assertEquals(new Rectangle(5, 5, 1, 1), second.getZones().get(2));
+    assertEquals("p3.png", surfaces.get(2).getGraphic());
+    assertEquals(1, surfaces.get(2).getZones().size());
+    assertEquals("p2.png", surfaces.get(3).getGraphic());
+
+    surfaces = SurfaceZoneScanner.scanSurfaces(
+        "<facsimile><surface lrx='200' lry=\"300\"><graphic target='t.png'/><graphic url='u.png'/></surface>"
+        + "<surface><zone ulx='1' uly='1' lrx='2' lry='2'/></surface></facsimile>");
+    assertEquals(1, surfaces.size());
+    // The url of any graphic comes before the targets.
+    assertEquals("u.png", surfaces.get(0).getGraphic());
+    assertEquals("200", surfaces.get(0).getLrx());
+    assertEquals("300", surfaces.get(0).getLry());
+    assertTrue(surfaces.get(0).getZones().isEmpty());
+  }
+
+  /**
+   * A text scanned again gives equal surfaces, so the strip is not refreshed.
+   */
+  public void testSurfacesEqual() {
+    assertEquals(SurfaceZoneScanner.scanSurfaces(TEXT), SurfaceZoneScanner.scanSurfaces(TEXT));
+    assertFalse(SurfaceZoneScanner.scanSurfaces(TEXT).equals(
+        SurfaceZoneScanner.scanSurfaces(TEXT.replace("ulx=\"7\"", "ulx=\"6\""))));
+  }
+
+  /**
+   * The zones come from the first surface of the image, also the nested ones.
+   */
+  public void testSurface() {
+    ZoneIndex index = SurfaceZoneScanner.scan(TEXT, "p2.png");
+    List<Rectangle> zones = index.getAll();
+    assertEquals(3, zones.size());
+    assertEquals(new Rectangle(10, 50, 90, 10), zones.get(0));
+    // Decimal coordinates are rounded.
+    assertEquals(new Rectangle(10, 21, 10, 9), zones.get(1));
+    assertEquals(new Rectangle(5, 5, 1, 1), zones.get(2));
+    assertEquals(TEXT.indexOf("<tei:zone"), index.getOffset(zones.get(0)));
+
+    zones = SurfaceZoneScanner.scan(TEXT, "p3.png").getAll();
+    assertEquals(1, zones.size());
+    assertEquals(new Rectangle(5, 5, 1, 1), zones.get(0));
+
+    zones = SurfaceZoneScanner.scan(TEXT, "p1.png").getAll();
+    assertEquals(1, zones.size());
+    assertEquals(new Rectangle(1, 2, 2, 2), zones.get(0));
+
+    assertEquals(0, SurfaceZoneScanner.scan(TEXT, "p4.png").size());
+  }
+
+  /**
+   * Without an image, all the zones of the document.
+   */
+  public void testAllZones() {
+    // The zone without coordinates is left out.
+    assertEquals(5, SurfaceZoneScanner.scan(TEXT, null).size());
+    // A surface that is not closed extends to the end of the document.
+    String unclosed = "<surface><graphic url=\"p.png\"/><zone ulx=\"1\" uly=\"1\" lrx=\"2\" lry=\"2\"/>";
+    assertEquals(1, SurfaceZoneScanner.scan(unclosed, "p.png").size());
+  }
+}
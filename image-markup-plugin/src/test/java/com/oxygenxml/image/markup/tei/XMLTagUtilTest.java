@@ -0,0 +1,42 @@
+package com.oxygenxml.image.markup.tei;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the textual start tag operations.
+ */
+public class XMLTagUtilTest extends TestCase {
+
+  /**
+   * Existing attributes are replaced in place, whatever the quotes.
+   */
+  public void testReplaceAttribute() {
+    assertEquals(
+        "<surface\n  ulx='10'\n  lrx=\"566\">",
+        XMLTagUtil.setAttribute("<surface\n  ulx='10'\n  lrx=\"500\">", "lrx", "566"));
+    assertEquals("<surface ulx=\"5\">", XMLTagUtil.setAttribute("<surface ulx='1'>", "ulx", "5"));
+    // Only the exact name is matched.
+    assertEquals("<zone xml:id=\"a\" id=\"b\"/>", XMLTagUtil.setAttribute("<zone xml:id=\"a\" id=\"c\"/>", "id", "b"));
+  }
+
+  /**
+   * Missing attributes are appended before the tag end.
+   */
+  public void testAppendAttribute() {
+    assertEquals("<graphic url=\"a.png\" width=\"10px\"/>", XMLTagUtil.setAttribute("<graphic url=\"a.png\"/>", "width", "10px"));
+    assertEquals("<graphic url=\"a.png\" width=\"10px\" />", XMLTagUtil.setAttribute("<graphic url=\"a.png\" />", "width", "10px"));
+    assertEquals("<surface lrx=\"1\">", XMLTagUtil.setAttribute("<surface>", "lrx", "1"));
+  }
+
+  /**
+   * Tag boundaries are found even when values contain markup characters.
+   */
+  public void testFindTags() {
+    String text = "<surface n='a>b'><tei:graphic url=\"x.png\"/><graphicX/></surface>";
+    assertEquals(17, XMLTagUtil.findTagEnd(text, 0));
+    assertEquals(17, XMLTagUtil.findStartTag(text, "graphic", 17, text.length()));
+    assertEquals(-1, XMLTagUtil.findStartTag(text, "graphic", 18, text.length()));
+    assertEquals("x.png", XMLTagUtil.getAttribute("<tei:graphic url=\"x.png\"/>", "url"));
+    assertNull(XMLTagUtil.getAttribute("<tei:graphic url=\"x.png\"/>", "width"));
+  }
+}
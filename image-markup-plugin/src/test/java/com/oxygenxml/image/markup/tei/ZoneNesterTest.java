@@ -0,0 +1,94 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+import com.oxygenxml.image.markup.zones.ZoneHierarchy;
+
+/**
+ * Tests for the nesting of zones by containment.
+ */
+public class ZoneNesterTest extends TestCase {
+
+  /**
+   * The parent is the smallest container.
+   */
+  public void testHierarchy() {
+    List<Rectangle> zones = Arrays.asList(
+        new Rectangle(10, 10, 20, 10),
+        new Rectangle(0, 0, 100, 100),
+        new Rectangle(0, 0, 100, 30),
+        new Rectangle(200, 0, 10, 10));
+    ZoneHierarchy hierarchy = ZoneHierarchy.compute(zones);
+    assertEquals(2, hierarchy.getParent(0));
+    assertEquals(-1, hierarchy.getParent(1));
+    assertEquals(1, hierarchy.getParent(2));
+    assertEquals(-1, hierarchy.getParent(3));
+    assertEquals(3, hierarchy.getDepth(0));
+    assertEquals(1, hierarchy.getDepth(3));
+    assertEquals(3, hierarchy.getMaxDepth());
+  }
+
+  /**
+   * Flat zones are rewritten as nested zones, the rest of the document is kept.
+   */
+  public void testNest() throws BadLocationException {
+    String text =
+        "<surface>\n"
+        + "  <graphic url='a.jpg'/>\n"
+        + "  <zone xml:id='w1' ulx='10' uly='10' lrx='30' lry='20'/>\n"
+        + "  <zone xml:id='b1' ulx='0' uly='0' lrx='100' lry='100'/>\n"
+        + "  <!-- Comment -->\n"
+        + "  <zone xml:id='l1' ulx='0' uly='0' lrx='100' lry='30'/>\n"
+        + "  <zone xml:id='b2' ulx='200' uly='0' lrx='300' lry='100'></zone>\n"
+        + "</surface>";
+    String expected =
+        "<surface>\n"
+        + "  <graphic url='a.jpg'/>\n"
+        + "  <zone xml:id='b1' ulx='0' uly='0' lrx='100' lry='100'>\n"
+        + "    <zone xml:id='l1' ulx='0' uly='0' lrx='100' lry='30'>\n"
+        + "      <zone xml:id='w1' ulx='10' uly='10' lrx='30' lry='20'/>\n"
+        + "    </zone>\n"
+        + "  </zone>\n"
+        + "  <!-- Comment -->\n"
+        + "  <zone xml:id='b2' ulx='200' uly='0' lrx='300' lry='100'></zone>\n"
+        + "</surface>";
+
+    List<Integer> starts = new ArrayList<Integer>();
+    List<Integer> ends = new ArrayList<Integer>();
+    int start = text.indexOf("<zone");
+    while (start != -1) {
+      starts.add(start);
+      int end = XMLTagUtil.findTagEnd(text, start);
+      if (text.charAt(end - 2) != '/') {
+        end = text.indexOf("</zone>", end) + "</zone>".length();
+      }
+      ends.add(end);
+      start = text.indexOf("<zone", end);
+    }
+
+    List<TextEdit> edits = ZoneNester.computeEdits(text, toArray(starts), toArray(ends));
+    PlainDocument document = new PlainDocument();
+    document.insertString(0, text, null);
+    TextEdit.applyAll(document, edits);
+    assertEquals(expected, document.getText(0, document.getLength()));
+  }
+
+  /**
+   * @return The values as an array.
+   */
+  private static int[] toArray(List<Integer> values) {
+    int[] array = new int[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+}
@@ -0,0 +1,52 @@
+package com.oxygenxml.image.markup.tei;
+
+import java.util.List;
+
+import javax.swing.text.PlainDocument;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the rewriting of the zones in reading order.
+ */
+public class ZoneReordererTest extends TestCase {
+
+  /**
+   * The zones swap places, the text between them and the zones without
+   * coordinates stay.
+   */
+  public void testReorder() throws Exception {
+    String[] zones = {
+        "<zone xml:id=\"b\" ulx=\"10\" uly=\"50\" lrx=\"100\" lry=\"60\"/>",
+        "<zone xml:id=\"none\"/>",
+        "<zone xml:id=\"a\" ulx=\"10\" uly=\"10\" lrx=\"100\" lry=\"20\"><note>first</note></zone>"};
+    StringBuilder text = new StringBuilder("<surface>\n  <graphic url=\"p.png\"/>");
+    int[] starts = new int[zones.length];
+    int[] ends = new int[zones.length];
+    for (int i = 0; i < zones.length; i++) {
+      text.append("\n  ");
+      starts[i] = text.length();
+      text.append(zones[i]);
+      ends[i] = text.length();
+    }
+    text.append("\n</surface>");
+
+    List<TextEdit> edits = ZoneReorderer.computeEdits(text.toString(), starts, ends);
+    assertEquals(2, edits.size());
+    PlainDocument document = new PlainDocument();
+    document.insertString(0, text.toString(), null);
+    TextEdit.applyAll(document, edits);
+    assertEquals("<surface>\n  <graphic url=\"p.png\"/>\n  "
+        + zones[2] + "\n  " + zones[1] + "\n  " + zones[0] + "\n</surface>",
+        document.getText(0, document.getLength()));
+
+    // Already in order.
+    String ordered = document.getText(0, document.getLength());
+    int[] orderedStarts = {ordered.indexOf(zones[2]), ordered.indexOf(zones[1]), ordered.indexOf(zones[0])};
+    int[] orderedEnds = new int[3];
+    for (int i = 0; i < 3; i++) {
+      orderedEnds[i] = orderedStarts[i] + zones[2 - i].length();
+    }
+    assertTrue(ZoneReorderer.computeEdits(ordered, orderedStarts, orderedEnds).isEmpty());
+  }
+}
@@ -0,0 +1,110 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.oxygenxml.image.markup.zones.ZoneRelation.Kind;
+
+/**
+ * Tests for the sweep-line analysis of the zones.
+ */
+public class OverlapAnalyzerTest extends TestCase {
+
+  /**
+   * Every kind of relation is found, touching zones are not related.
+   */
+  public void testKinds() {
+    List<Rectangle> zones = new ArrayList<Rectangle>();
+    zones.add(new Rectangle(0, 0, 100, 100));
+    zones.add(new Rectangle(10, 10, 20, 20));
+    zones.add(new Rectangle(90, 90, 20, 20));
+    zones.add(new Rectangle(10, 10, 20, 20));
+    zones.add(new Rectangle(100, 0, 10, 10));
+
+    Set<String> relations = toStrings(OverlapAnalyzer.analyze(zones));
+    Set<String> expected = new HashSet<String>();
+    expected.add("CONTAINMENT(0, 1)");
+    expected.add("CONTAINMENT(0, 3)");
+    expected.add("DUPLICATE(1, 3)");
+    expected.add("OVERLAP(0, 2)");
+    assertEquals(expected, relations);
+  }
+
+  /**
+   * The sweep finds the same pairs as comparing all the zones.
+   */
+  public void testBruteForce() {
+    Random random = new Random(3);
+    List<Rectangle> zones = new ArrayList<Rectangle>();
+    for (int i = 0; i < 1500; i++) {
+      if (i > 0 && random.nextInt(20) == 0) {
+        zones.add(new Rectangle(zones.get(random.nextInt(i))));
+      } else {
+        zones.add(new Rectangle(random.nextInt(1000), random.nextInt(1000), random.nextInt(60), random.nextInt(60)));
+      }
+    }
+
+    Set<String> expected = new HashSet<String>();
+    for (int i = 0; i < zones.size(); i++) {
+      for (int j = i + 1; j < zones.size(); j++) {
+        Rectangle a = zones.get(i);
+        Rectangle b = zones.get(j);
+        if (a.isEmpty() || b.isEmpty() || !a.intersects(b)) {
+          continue;
+        }
+        if (a.equals(b)) {
+          expected.add("DUPLICATE(" + i + ", " + j + ")");
+        } else if (a.contains(b)) {
+          expected.add("CONTAINMENT(" + i + ", " + j + ")");
+        } else if (b.contains(a)) {
+          expected.add("CONTAINMENT(" + j + ", " + i + ")");
+        } else {
+          expected.add("OVERLAP(" + i + ", " + j + ")");
+        }
+      }
+    }
+    List<ZoneRelation> relations = OverlapAnalyzer.analyze(zones);
+    assertEquals(expected.size(), relations.size());
+    assertEquals(expected, toStrings(relations));
+  }
+
+  /**
+   * A page of words stays fast.
+   */
+  public void testWords() {
+    List<Rectangle> zones = new ArrayList<Rectangle>();
+    for (int line = 0; line < 400; line++) {
+      zones.add(new Rectangle(100, 100 + line * 30, 4800, 24));
+      for (int word = 0; word < 250; word++) {
+        zones.add(new Rectangle(100 + word * 19, 100 + line * 30, 16, 24));
+      }
+    }
+    final int[] counts = new int[Kind.values().length];
+    OverlapAnalyzer.analyze(zones, new OverlapAnalyzer.Handler() {
+      @Override
+      public void relation(int first, int second, Kind kind) {
+        counts[kind.ordinal()]++;
+      }
+    });
+    assertEquals(0, counts[Kind.OVERLAP.ordinal()]);
+    assertEquals(0, counts[Kind.DUPLICATE.ordinal()]);
+    assertEquals(100000, counts[Kind.CONTAINMENT.ordinal()]);
+  }
+
+  /**
+   * @return The relations as strings.
+   */
+  private static Set<String> toStrings(List<ZoneRelation> relations) {
+    Set<String> strings = new HashSet<String>();
+    for (ZoneRelation relation : relations) {
+      strings.add(relation.toString());
+    }
+    return strings;
+  }
+}
@@ -0,0 +1,44 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the reading order of the zones.
+ */
+public class ReadingOrderTest extends TestCase {
+
+  /**
+   * A heading over two columns: the heading, then the left column, then the
+   * right one, even if their lines are aligned.
+   */
+  public void testColumns() {
+    List<Rectangle> zones = new ArrayList<Rectangle>();
+    for (int line = 0; line < 3; line++) {
+      // Right column first, to make sure the order is not the input order.
+      zones.add(new Rectangle(520, 100 + line * 30, 400, 20));
+      zones.add(new Rectangle(50, 100 + line * 30, 400, 20));
+    }
+    zones.add(new Rectangle(50, 20, 870, 40));
+    int[] order = ReadingOrder.compute(zones);
+    assertEquals("[6, 1, 3, 5, 0, 2, 4]", Arrays.toString(order));
+  }
+
+  /**
+   * A block comes before its lines, the lines are top to bottom.
+   */
+  public void testContainers() {
+    List<Rectangle> zones = Arrays.asList(
+        new Rectangle(10, 40, 200, 20),
+        new Rectangle(10, 10, 200, 20),
+        new Rectangle(0, 0, 220, 70),
+        new Rectangle(0, 100, 220, 20));
+    int[] order = ReadingOrder.compute(zones);
+    assertEquals("[2, 1, 0, 3]", Arrays.toString(order));
+    assertEquals(0, ReadingOrder.compute(new ArrayList<Rectangle>()).length);
+  }
+}
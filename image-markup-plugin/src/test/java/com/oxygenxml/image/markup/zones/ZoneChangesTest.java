@@ -0,0 +1,92 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for folding the steps of a change into its net delta.
+ */
+public class ZoneChangesTest extends TestCase {
+
+  /**
+   * A drag that creates a zone is reported as one addition, where it ends.
+   */
+  public void testCreateByDrag() {
+    ZoneChanges changes = new ZoneChanges();
+    changes.added(new Rectangle(10, 10, 0, 0));
+    changes.modified(new Rectangle(10, 10, 0, 0), new Rectangle(10, 10, 5, 5));
+    changes.modified(new Rectangle(10, 10, 5, 5), new Rectangle(10, 10, 20, 30));
+
+    ZoneChangeEvent event = changes.toEvent(ZoneSnapshot.EMPTY);
+    assertEquals(Arrays.asList(new Rectangle(10, 10, 20, 30)), event.getAdded());
+    assertTrue(event.getRemoved().isEmpty());
+    assertTrue(event.getModifiedFrom().isEmpty());
+  }
+
+  /**
+   * A zone resized many times is modified once, from its first area to its
+   * last one. Back where it started, it is not changed.
+   */
+  public void testResize() {
+    ZoneChanges changes = new ZoneChanges();
+    changes.modified(new Rectangle(0, 0, 10, 10), new Rectangle(0, 0, 10, 10));
+    assertTrue(changes.isEmpty());
+    changes.modified(new Rectangle(0, 0, 10, 10), new Rectangle(0, 0, 12, 10));
+    changes.modified(new Rectangle(0, 0, 12, 10), new Rectangle(0, 0, 15, 11));
+
+    ZoneChangeEvent event = changes.toEvent(ZoneSnapshot.EMPTY);
+    assertEquals(Arrays.asList(new Rectangle(0, 0, 10, 10)), event.getModifiedFrom());
+    assertEquals(Arrays.asList(new Rectangle(0, 0, 15, 11)), event.getModifiedTo());
+    assertTrue(event.getAdded().isEmpty());
+
+    changes.modified(new Rectangle(0, 0, 15, 11), new Rectangle(0, 0, 10, 10));
+    assertTrue(changes.isEmpty());
+    assertTrue(changes.toEvent(ZoneSnapshot.EMPTY).isEmpty());
+  }
+
+  /**
+   * Removals cancel additions and report the area from before the change.
+   */
+  public void testRemove() {
+    ZoneChanges changes = new ZoneChanges();
+    // A zone too small to be kept.
+    changes.added(new Rectangle(5, 5, 0, 0));
+    changes.modified(new Rectangle(5, 5, 0, 0), new Rectangle(5, 5, 1, 1));
+    changes.removed(new Rectangle(5, 5, 1, 1));
+    assertTrue(changes.isEmpty());
+
+    changes.modified(new Rectangle(0, 0, 10, 10), new Rectangle(0, 0, 20, 20));
+    changes.removed(new Rectangle(0, 0, 20, 20));
+    changes.removed(new Rectangle(50, 50, 10, 10));
+    changes.added(new Rectangle(50, 50, 10, 10));
+
+    ZoneSnapshot zones = ZoneSnapshot.of(Arrays.asList(new Rectangle(1, 1, 1, 1)));
+    ZoneChangeEvent event = changes.toEvent(zones);
+    assertEquals(Arrays.asList(new Rectangle(0, 0, 10, 10)), event.getRemoved());
+    assertTrue(event.getAdded().isEmpty());
+    assertTrue(event.getModifiedFrom().isEmpty());
+    assertSame(zones, event.getZones());
+  }
+
+  /**
+   * The changes made since an index was built are merged in the zones it 
+   * returns for an area.
+   */
+  public void testApplyTo() {
+    ZoneChanges changes = new ZoneChanges();
+    changes.removed(new Rectangle(0, 0, 10, 10));
+    changes.modified(new Rectangle(20, 0, 10, 10), new Rectangle(20, 0, 15, 10));
+    changes.added(new Rectangle(40, 0, 10, 10));
+    changes.added(new Rectangle(500, 500, 10, 10));
+
+    List<Rectangle> indexed = Arrays.asList(
+        new Rectangle(0, 0, 10, 10), new Rectangle(20, 0, 10, 10), new Rectangle(60, 0, 10, 10));
+    assertEquals(Arrays.asList(new Rectangle(60, 0, 10, 10), new Rectangle(40, 0, 10, 10),
+        new Rectangle(20, 0, 15, 10)), changes.applyTo(indexed, new Rectangle(0, 0, 100, 100)));
+    // All the zones.
+    assertEquals(4, changes.applyTo(indexed, null).size());
+  }
+}
@@ -0,0 +1,79 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the index of the zones of a surface.
+ */
+public class ZoneIndexTest extends TestCase {
+
+  /**
+   * A query returns the zones that intersect or touch the area, in document
+   * order, also the tall ones that start far above it.
+   */
+  public void testQuery() {
+    ZoneIndex index = new ZoneIndex.Builder()
+        .add(0, 500, 100, 520, 10)
+        .add(0, 0, 50, 1000, 20)
+        .add(200, 100, 300, 120, 30)
+        .add(0, 100, 100, 120, 40)
+        .build();
+    assertEquals(4, index.size());
+
+    List<Rectangle> found = index.query(new Rectangle(0, 490, 120, 20));
+    assertEquals(2, found.size());
+    assertEquals(new Rectangle(0, 500, 100, 20), found.get(0));
+    // The column starts 490 pixels above the area.
+    assertEquals(new Rectangle(0, 0, 50, 1000), found.get(1));
+
+    // Touching counts.
+    found = index.query(new Rectangle(100, 120, 100, 10));
+    assertEquals(2, found.size());
+    assertEquals(new Rectangle(200, 100, 100, 20), found.get(0));
+    assertEquals(new Rectangle(0, 100, 100, 20), found.get(1));
+
+    assertTrue(index.query(new Rectangle(400, 0, 10, 10)).isEmpty());
+
+    List<Rectangle> outside = index.getAllOutside(new Rectangle(100, 120, 100, 10));
+    assertEquals(2, outside.size());
+    assertEquals(new Rectangle(0, 500, 100, 20), outside.get(0));
+    assertEquals(new Rectangle(0, 0, 50, 1000), outside.get(1));
+    assertEquals(4, index.getAll().size());
+    assertEquals(new Rectangle(0, 0, 50, 1000), index.getAll().get(1));
+
+    assertEquals(40, index.getOffset(new Rectangle(0, 100, 100, 20)));
+    assertEquals(-1, index.getOffset(new Rectangle(0, 100, 100, 21)));
+  }
+
+  /**
+   * The queries return the same zones as a linear scan.
+   */
+  public void testRandomQueries() {
+    Random random = new Random(7);
+    ZoneIndex.Builder builder = new ZoneIndex.Builder();
+    List<Rectangle> zones = new ArrayList<Rectangle>();
+    for (int i = 0; i < 2000; i++) {
+      Rectangle zone = new Rectangle(random.nextInt(5000), random.nextInt(8000) - 100,
+          1 + random.nextInt(400), 1 + random.nextInt(i % 50 == 0 ? 3000 : 60));
+      zones.add(zone);
+      builder.add(zone.x, zone.y, zone.x + zone.width, zone.y + zone.height, i);
+    }
+    ZoneIndex index = builder.build();
+    assertEquals(zones, index.getAll());
+    for (int q = 0; q < 50; q++) {
+      Rectangle area = new Rectangle(random.nextInt(5000), random.nextInt(8000), 800, 600);
+      List<Rectangle> expected = new ArrayList<Rectangle>();
+      for (Rectangle zone : zones) {
+        if (ZoneIndex.intersects(zone, area)) {
+          expected.add(zone);
+        }
+      }
+      assertEquals(expected, index.query(area));
+    }
+  }
+}
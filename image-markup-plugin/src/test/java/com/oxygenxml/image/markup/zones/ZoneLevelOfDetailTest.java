@@ -0,0 +1,46 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.oxygenxml.image.markup.zones.ZoneLevelOfDetail.Density;
+
+/**
+ * Tests for the selection of the zones painted at a scale.
+ */
+public class ZoneLevelOfDetailTest extends TestCase {
+
+  /**
+   * The large zones come first, the small ones are counted in the grid.
+   */
+  public void testLevelOfDetail() {
+    List<Rectangle> zones = new ArrayList<Rectangle>();
+    zones.add(new Rectangle(0, 0, 10, 10));
+    zones.add(new Rectangle(0, 0, 400, 300));
+    zones.add(new Rectangle(90, 10, 4, 20));
+    zones.add(new Rectangle(30, 30, 10, 5));
+    zones.add(new Rectangle(0, 0, 100, 50));
+    ZoneLevelOfDetail lod = new ZoneLevelOfDetail(zones);
+
+    assertEquals(5, lod.countLarger(0));
+    assertEquals(2, lod.countLarger(50));
+    assertEquals(1, lod.getZone(0));
+    assertEquals(4, lod.getZone(1));
+    assertEquals(3, lod.countLarger(20));
+    assertEquals(2, lod.getZone(2));
+    assertEquals(0, lod.countLarger(1000));
+
+    // Cells of 32 pixels, the zones smaller than 20.
+    Density density = lod.getDensity(32, 20);
+    assertEquals(13, density.getColumns());
+    assertEquals(10, density.getRows());
+    assertEquals(1, density.getCount(0, 0));
+    assertEquals(1, density.getCount(1, 1));
+    assertEquals(0, density.getCount(2, 0));
+    assertEquals(1, density.getMaxCount());
+    assertSame(density, lod.getDensity(32, 20));
+  }
+}
@@ -0,0 +1,93 @@
+package com.oxygenxml.image.markup.zones;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the immutable versions of the zones.
+ */
+public class ZoneSnapshotTest extends TestCase {
+
+  /**
+   * A change creates a new version, the old one stays as it was.
+   */
+  public void testVersions() {
+    List<Rectangle> zones = new ArrayList<Rectangle>();
+    zones.add(new Rectangle(0, 0, 10, 10));
+    zones.add(new Rectangle(20, 0, 10, 10));
+    ZoneSnapshot first = ZoneSnapshot.of(zones);
+    assertEquals(zones, first);
+    assertEquals(0, ZoneSnapshot.EMPTY.size());
+
+    ZoneSnapshot second = first.with(new Rectangle(40, 0, 10, 10));
+    assertTrue(second.getVersion() > first.getVersion());
+    assertEquals(2, first.size());
+    assertEquals(3, second.size());
+    assertEquals(2, second.indexOf(new Rectangle(40, 0, 10, 10)));
+    assertFalse(first.contains(new Rectangle(40, 0, 10, 10)));
+
+    ZoneSnapshot third = second.replace(0, new Rectangle(1, 1, 5, 5)).without(1);
+    assertEquals(new Rectangle(1, 1, 5, 5), third.get(0));
+    assertEquals(new Rectangle(40, 0, 10, 10), third.get(1));
+    assertEquals(new Rectangle(0, 0, 10, 10), second.get(0));
+
+    // The zones are copies.
+    third.get(0).translate(100, 100);
+    assertEquals(new Rectangle(1, 1, 5, 5), third.get(0));
+    try {
+      third.add(new Rectangle());
+      fail("The versions can't be changed.");
+    } catch (UnsupportedOperationException e) {
+      // Expected.
+    }
+    try {
+      third.get(2);
+      fail("Out of bounds.");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Random changes across many chunks give the same zones as a list.
+   */
+  public void testRandomChanges() {
+    Random random = new Random(3);
+    List<Rectangle> expected = new ArrayList<Rectangle>();
+    for (int i = 0; i < 100; i++) {
+      expected.add(new Rectangle(i, i, 1, 1));
+    }
+    ZoneSnapshot snapshot = ZoneSnapshot.of(expected);
+    List<ZoneSnapshot> versions = new ArrayList<ZoneSnapshot>();
+    List<List<Rectangle>> contents = new ArrayList<List<Rectangle>>();
+    for (int step = 0; step < 2000; step++) {
+      int operation = random.nextInt(3);
+      Rectangle zone = new Rectangle(random.nextInt(1000), random.nextInt(1000), 5, 5);
+      if (operation == 0 || expected.isEmpty()) {
+        expected.add(zone);
+        snapshot = snapshot.with(zone);
+      } else if (operation == 1) {
+        int index = random.nextInt(expected.size());
+        expected.remove(index);
+        snapshot = snapshot.without(index);
+      } else {
+        int index = random.nextInt(expected.size());
+        expected.set(index, zone);
+        snapshot = snapshot.replace(index, zone);
+      }
+      if (step % 100 == 0) {
+        versions.add(snapshot);
+        contents.add(new ArrayList<Rectangle>(expected));
+      }
+      assertEquals(expected.size(), snapshot.size());
+    }
+    assertEquals(expected, snapshot);
+    for (int i = 0; i < versions.size(); i++) {
+      assertEquals(contents.get(i), versions.get(i));
+    }
+  }
+}